@@ -110,6 +110,16 @@ public class SystemConfiguration {
 	 */
 	public static final int INTEREST_REEXPRESSION_DEFAULT = 4000;
 
+	/**
+	 * Interest reexpression decay. Each time an interest is reexpressed the period before it is
+	 * next reexpressed is multiplied by this, up to INTEREST_REEXPRESSION_MAX. ccnd drops interests
+	 * that aren't reexpressed within INTEREST_REEXPRESSION_DEFAULT, so the default is no decay.
+	 */
+	protected static final String INTEREST_REEXPRESSION_DECAY_PROPERTY = "org.ccnx.InterestReexpressionDecay";
+	protected static final String INTEREST_REEXPRESSION_DECAY_ENV_VAR = "JAVA_INTEREST_REEXPRESSION_DECAY";
+	public static double INTEREST_REEXPRESSION_DECAY = 1.0;
+	public static final int INTEREST_REEXPRESSION_MAX = 8 * INTEREST_REEXPRESSION_DEFAULT;
+
 	public enum DEBUGGING_FLAGS {DEBUG_SIGN, DEBUG_VERIFY, DUMP_DAEMONCMD, REPO_EXITDUMP};
 	protected static HashMap<DEBUGGING_FLAGS,Boolean> DEBUG_FLAG_VALUES = new HashMap<DEBUGGING_FLAGS,Boolean>();
 
@@ -162,13 +172,22 @@ public class SystemConfiguration {
 	public static int CCNDID_DISCOVERY_TIMEOUT = CCNDID_DISCOVERY_TIMEOUT_DEFAULT;
 
 	/**
-	 * Pipeline size for pipeline in CCNAbstractInputStream
+	 * Initial pipeline size for pipeline in CCNAbstractInputStream
 	 * Default is 4
 	 */
 	protected static final String PIPELINE_SIZE_PROPERTY = "org.ccnx.PipelineSize";
 	protected static final String PIPELINE_SIZE_ENV_VAR = "JAVA_PIPELINE_SIZE";
 	public static int PIPELINE_SIZE = 4;
 
+	/**
+	 * Largest size the pipeline in CCNAbstractInputStream may grow to, in segments;
+	 * bounds the memory each stream uses to buffer segments. See PipelineWindow.
+	 * Default is 64
+	 */
+	protected static final String PIPELINE_MAX_SIZE_PROPERTY = "org.ccnx.PipelineMaxSize";
+	protected static final String PIPELINE_MAX_SIZE_ENV_VAR = "JAVA_PIPELINE_MAX_SIZE";
+	public static int PIPELINE_MAX_SIZE = 64;
+
 	/**
 	 * Pipeline segment attempts for pipeline in CCNAbstractInputStream
 	 * Default is 5
@@ -247,6 +266,108 @@ public class SystemConfiguration {
 	protected final static String MAX_DISPATCH_THREADS_ENV_VAR = "CCNX_MAX_DISPATCH_THREADS";
 	public static int MAX_DISPATCH_THREADS = 200;
 
+	/**
+	 * Limit on the number of callbacks queued by the network manager before the thread reading
+	 * from the network waits for some to run
+	 */
+	protected static final String DISPATCH_QUEUE_SIZE_PROPERTY = "org.ccnx.dispatch.queue.size";
+	protected final static String DISPATCH_QUEUE_SIZE_ENV_VAR = "CCNX_DISPATCH_QUEUE_SIZE";
+	public static int DISPATCH_QUEUE_SIZE = 1000;
+
+	/**
+	 * How the network manager runs callbacks: "pool" for a pool of up to MAX_DISPATCH_THREADS
+	 * threads, or "virtual" for a virtual thread per callback on JVMs that have them
+	 */
+	protected static final String DISPATCH_EXECUTOR_PROPERTY = "org.ccnx.dispatch.executor";
+	protected final static String DISPATCH_EXECUTOR_ENV_VAR = "CCNX_DISPATCH_EXECUTOR";
+	public static String DISPATCH_EXECUTOR = "pool";
+
+	/**
+	 * Number of channels the network manager opens to ccnd. Interests are spread across them by
+	 * name, and the content returned on each is received and delivered by its own thread.
+	 *
+	 * ccnd treats each channel as a separate face, while filters are registered and content
+	 * written only on the first. So with more than one channel, ccnd may give a handle the
+	 * interests it expressed itself, for its own filters, and the content it wrote itself, for
+	 * its own interests, which it never does within one face. Only use more than one if the
+	 * handle's listeners can cope with that.
+	 */
+	protected static final String RECEIVE_CHANNELS_PROPERTY = "org.ccnx.receive.channels";
+	protected final static String RECEIVE_CHANNELS_ENV_VAR = "CCNX_RECEIVE_CHANNELS";
+	public static int RECEIVE_CHANNELS = 1;
+
+	/**
+	 * Maximum total size in bytes of decoded content cached by the repository.
+	 * 0 disables the cache.
+	 */
+	protected static final String REPO_CACHE_SIZE_PROPERTY = "org.ccnx.repo.cachesize";
+	protected final static String REPO_CACHE_SIZE_ENV_VAR = "CCNX_REPO_CACHE_SIZE";
+	public final static long REPO_CACHE_SIZE_DEFAULT = 16 * 1024 * 1024;
+	public static long REPO_CACHE_SIZE = REPO_CACHE_SIZE_DEFAULT;
+
+	/**
+	 * Maximum number of objects the repository writes to its backing store at once.
+	 * 1 writes each object individually.
+	 */
+	protected static final String REPO_WRITE_BATCH_PROPERTY = "org.ccnx.repo.writebatch";
+	protected final static String REPO_WRITE_BATCH_ENV_VAR = "CCNX_REPO_WRITE_BATCH";
+	public final static int REPO_WRITE_BATCH_DEFAULT = 64;
+	public static int REPO_WRITE_BATCH = REPO_WRITE_BATCH_DEFAULT;
+
+	/**
+	 * How often in ms the repository forces batched writes to disk. 0 forces every batch,
+	 * and a negative value leaves it to the operating system.
+	 */
+	protected static final String REPO_FSYNC_INTERVAL_PROPERTY = "org.ccnx.repo.fsync.interval";
+	protected final static String REPO_FSYNC_INTERVAL_ENV_VAR = "CCNX_REPO_FSYNC_INTERVAL";
+	public final static int REPO_FSYNC_INTERVAL_DEFAULT = -1;
+	public static int REPO_FSYNC_INTERVAL = REPO_FSYNC_INTERVAL_DEFAULT;
+
+	/**
+	 * Size in bytes at which the repository starts writing a new repository file.
+	 * 0 puts everything in one file.
+	 */
+	protected static final String REPO_FILE_SIZE_PROPERTY = "org.ccnx.repo.filesize";
+	protected final static String REPO_FILE_SIZE_ENV_VAR = "CCNX_REPO_FILE_SIZE";
+	public final static long REPO_FILE_SIZE_DEFAULT = 1024L * 1024 * 1024;
+	public static long REPO_FILE_SIZE = REPO_FILE_SIZE_DEFAULT;
+
+	/**
+	 * Number of threads used to rebuild the repository index at startup.
+	 * 0 uses one per processor.
+	 */
+	protected static final String REPO_INDEX_THREADS_PROPERTY = "org.ccnx.repo.index.threads";
+	protected final static String REPO_INDEX_THREADS_ENV_VAR = "CCNX_REPO_INDEX_THREADS";
+	public final static int REPO_INDEX_THREADS_DEFAULT = 0;
+	public static int REPO_INDEX_THREADS = REPO_INDEX_THREADS_DEFAULT;
+
+	/**
+	 * Number of versions of each name the repository keeps when it compacts its storage.
+	 * 0 keeps all versions.
+	 */
+	protected static final String REPO_KEEP_VERSIONS_PROPERTY = "org.ccnx.repo.keepversions";
+	protected final static String REPO_KEEP_VERSIONS_ENV_VAR = "CCNX_REPO_KEEP_VERSIONS";
+	public final static int REPO_KEEP_VERSIONS_DEFAULT = 0;
+	public static int REPO_KEEP_VERSIONS = REPO_KEEP_VERSIONS_DEFAULT;
+
+	/**
+	 * Interval in seconds between background compactions of repository storage.
+	 * 0 disables background compaction.
+	 */
+	protected static final String REPO_COMPACT_INTERVAL_PROPERTY = "org.ccnx.repo.compact.interval";
+	protected final static String REPO_COMPACT_INTERVAL_ENV_VAR = "CCNX_REPO_COMPACT_INTERVAL";
+	public final static int REPO_COMPACT_INTERVAL_DEFAULT = 0;
+	public static int REPO_COMPACT_INTERVAL = REPO_COMPACT_INTERVAL_DEFAULT;
+
+	/**
+	 * Maximum rate in bytes per second at which repository compaction copies content.
+	 * 0 is unlimited.
+	 */
+	protected static final String REPO_COMPACT_RATE_PROPERTY = "org.ccnx.repo.compact.rate";
+	protected final static String REPO_COMPACT_RATE_ENV_VAR = "CCNX_REPO_COMPACT_RATE";
+	public final static int REPO_COMPACT_RATE_DEFAULT = 4 * 1024 * 1024;
+	public static int REPO_COMPACT_RATE = REPO_COMPACT_RATE_DEFAULT;
+
 	/**
 	 * Settable system default timeout.
 	 */
@@ -351,7 +472,7 @@ public class SystemConfiguration {
 			}
 		}
 		if (!found) {
-			System.err.println("The protocol must be UDP(17) or TCP (6)");
+			System.err.println("The protocol must be UDP(17), TCP (6) or LOCAL");
 			throw new IllegalArgumentException("Invalid protocol '" + proto + "' specified in " + AGENT_PROTOCOL_PROPERTY);
 		}
 		
@@ -374,6 +495,14 @@ public class SystemConfiguration {
 			throw e;
 		}
 
+		// Allow override of interest reexpression decay
+		try {
+			INTEREST_REEXPRESSION_DECAY = Double.parseDouble(retrievePropertyOrEnvironmentVariable(INTEREST_REEXPRESSION_DECAY_PROPERTY, INTEREST_REEXPRESSION_DECAY_ENV_VAR, "1.0"));
+		} catch (NumberFormatException e) {
+			System.err.println("The InterestReexpressionDecay must be a number.");
+			throw e;
+		}
+
 		// Allow override of default pipeline size for CCNAbstractInputStream
 		try {
 			PIPELINE_SIZE = Integer.parseInt(retrievePropertyOrEnvironmentVariable(PIPELINE_SIZE_PROPERTY, PIPELINE_SIZE_ENV_VAR, "4"));
@@ -383,6 +512,14 @@ public class SystemConfiguration {
 			throw e;
 		}
 
+		// Allow override of default maximum pipeline size for CCNAbstractInputStream
+		try {
+			PIPELINE_MAX_SIZE = Integer.parseInt(retrievePropertyOrEnvironmentVariable(PIPELINE_MAX_SIZE_PROPERTY, PIPELINE_MAX_SIZE_ENV_VAR, "64"));
+		} catch (NumberFormatException e) {
+			System.err.println("The PipelineMaxSize must be an integer.");
+			throw e;
+		}
+
 		// Allow override of default pipeline size for CCNAbstractInputStream
 		try {
 			PIPELINE_SEGMENTATTEMPTS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(PIPELINE_ATTEMPTS_PROPERTY, PIPELINE_ATTEMPTS_ENV_VAR, "5"));
@@ -473,6 +610,67 @@ public class SystemConfiguration {
 			throw e;
 		}
 
+		// Allow override of dispatch queue size and executor
+		try {
+			DISPATCH_QUEUE_SIZE = Integer.parseInt(retrievePropertyOrEnvironmentVariable(DISPATCH_QUEUE_SIZE_PROPERTY, DISPATCH_QUEUE_SIZE_ENV_VAR, Integer.toString(DISPATCH_QUEUE_SIZE)));
+		} catch (NumberFormatException e) {
+			System.err.println("The dispatch queue size must be an integer.");
+			throw e;
+		}
+		DISPATCH_EXECUTOR = retrievePropertyOrEnvironmentVariable(DISPATCH_EXECUTOR_PROPERTY, DISPATCH_EXECUTOR_ENV_VAR, DISPATCH_EXECUTOR);
+
+		// Allow override of number of channels to ccnd
+		try {
+			RECEIVE_CHANNELS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(RECEIVE_CHANNELS_PROPERTY, RECEIVE_CHANNELS_ENV_VAR, Integer.toString(RECEIVE_CHANNELS)));
+		} catch (NumberFormatException e) {
+			System.err.println("The number of receive channels must be an integer.");
+			throw e;
+		}
+
+		// Allow override of repository content cache size
+		try {
+			REPO_CACHE_SIZE = Long.parseLong(retrievePropertyOrEnvironmentVariable(REPO_CACHE_SIZE_PROPERTY, REPO_CACHE_SIZE_ENV_VAR, Long.toString(REPO_CACHE_SIZE_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The repository cache size must be an integer.");
+			throw e;
+		}
+
+		// Allow override of repository write batching
+		try {
+			REPO_WRITE_BATCH = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_WRITE_BATCH_PROPERTY, REPO_WRITE_BATCH_ENV_VAR, Integer.toString(REPO_WRITE_BATCH_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The repository write batch size must be an integer.");
+			throw e;
+		}
+		try {
+			REPO_FSYNC_INTERVAL = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_FSYNC_INTERVAL_PROPERTY, REPO_FSYNC_INTERVAL_ENV_VAR, Integer.toString(REPO_FSYNC_INTERVAL_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The repository fsync interval must be an integer.");
+			throw e;
+		}
+		try {
+			REPO_FILE_SIZE = Long.parseLong(retrievePropertyOrEnvironmentVariable(REPO_FILE_SIZE_PROPERTY, REPO_FILE_SIZE_ENV_VAR, Long.toString(REPO_FILE_SIZE_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The repository file size must be an integer.");
+			throw e;
+		}
+		try {
+			REPO_INDEX_THREADS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_INDEX_THREADS_PROPERTY, REPO_INDEX_THREADS_ENV_VAR, Integer.toString(REPO_INDEX_THREADS_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The repository index thread count must be an integer.");
+			throw e;
+		}
+
+		// Allow override of repository compaction parameters
+		try {
+			REPO_KEEP_VERSIONS = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_KEEP_VERSIONS_PROPERTY, REPO_KEEP_VERSIONS_ENV_VAR, Integer.toString(REPO_KEEP_VERSIONS_DEFAULT)));
+			REPO_COMPACT_INTERVAL = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_COMPACT_INTERVAL_PROPERTY, REPO_COMPACT_INTERVAL_ENV_VAR, Integer.toString(REPO_COMPACT_INTERVAL_DEFAULT)));
+			REPO_COMPACT_RATE = Integer.parseInt(retrievePropertyOrEnvironmentVariable(REPO_COMPACT_RATE_PROPERTY, REPO_COMPACT_RATE_ENV_VAR, Integer.toString(REPO_COMPACT_RATE_DEFAULT)));
+		} catch (NumberFormatException e) {
+			System.err.println("The repository compaction parameters must be integers.");
+			throw e;
+		}
+
 		// Handle old-style header names
 		OLD_HEADER_NAMES = Boolean.parseBoolean(
 				retrievePropertyOrEnvironmentVariable(OLD_HEADER_NAMES_PROPERTY, OLD_HEADER_NAMES_ENV_VAR, STRING_TRUE));
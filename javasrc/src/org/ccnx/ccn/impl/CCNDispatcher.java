@@ -0,0 +1,214 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNNetworkManager.StatsEnum;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.support.Log;
+
+/**
+ * Runs listener callbacks for a CCNNetworkManager.
+ *
+ * Callbacks are run by an Executor, by default a bounded pool of threads but optionally
+ * virtual threads where the JVM has them (see SystemConfiguration.DISPATCH_EXECUTOR), or
+ * any Executor given to the constructor.
+ *
+ * Each Task is run serially: if it is dispatched again while it is queued, the queued run
+ * will pick up whatever is pending, and if it is dispatched while it is running, it is run
+ * again once it finishes. So a registration is never run by two threads at once, and a
+ * burst of deliveries to one listener takes one thread rather than a thread each.
+ *
+ * Only so many tasks may be queued at once. When that many are waiting, dispatch() waits
+ * for space, holding up the thread reading from the network rather than letting callbacks
+ * pile up. It must not be called holding locks that callbacks may need.
+ *
+ * The depth of the queue seen by each dispatch and how long tasks waited to be run are
+ * counted in the network manager's statistics.
+ */
+public class CCNDispatcher {
+
+	public static final String EXECUTOR_POOL = "pool";
+	public static final String EXECUTOR_VIRTUAL = "virtual";
+
+	/**
+	 * Something to be run serially by a dispatcher
+	 */
+	public static abstract class Task implements Runnable {
+		protected static final int IDLE = 0;
+		protected static final int QUEUED = 1;
+		protected static final int RUNNING = 2;
+		protected static final int RERUN = 3;	// dispatched again while running
+
+		protected final AtomicInteger _dispatchState = new AtomicInteger(IDLE);
+		protected volatile long _queuedAt;
+	}
+
+	protected final Executor _executor;
+	protected final CCNEnumStats<StatsEnum> _stats;
+	protected final int _queueSize;
+	protected final Semaphore _space;
+
+	/**
+	 * Create a dispatcher using the executor configured in SystemConfiguration
+	 * @param name name for the dispatch threads
+	 */
+	public CCNDispatcher(String name, CCNEnumStats<StatsEnum> stats) {
+		this(createExecutor(SystemConfiguration.DISPATCH_EXECUTOR, name), SystemConfiguration.DISPATCH_QUEUE_SIZE, stats);
+	}
+
+	public CCNDispatcher(Executor executor, int queueSize, CCNEnumStats<StatsEnum> stats) {
+		_executor = executor;
+		_queueSize = queueSize;
+		_space = new Semaphore(queueSize);
+		_stats = stats;
+	}
+
+	/**
+	 * Create one of the standard executors
+	 * @param type EXECUTOR_POOL, or EXECUTOR_VIRTUAL if the JVM supports virtual threads
+	 * @param name name for the threads
+	 */
+	public static ExecutorService createExecutor(String type, final String name) {
+		if (EXECUTOR_VIRTUAL.equals(type)) {
+			try {
+				return (ExecutorService)java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (Exception e) {
+				Log.warning(Log.FAC_NETMANAGER, "Virtual threads not available ({0}), dispatching with a thread pool", e.toString());
+			}
+		} else if (!EXECUTOR_POOL.equals(type)) {
+			Log.warning(Log.FAC_NETMANAGER, "Unknown dispatch executor {0}, dispatching with a thread pool", type);
+		}
+		final AtomicInteger count = new AtomicInteger(0);
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(SystemConfiguration.MAX_DISPATCH_THREADS, SystemConfiguration.MAX_DISPATCH_THREADS,
+				CCNNetworkManager.THREAD_LIFE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, name + " " + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * Arrange for the task to be run, unless it is already waiting to be run.
+	 * Waits if the queue is full.
+	 */
+	public void dispatch(Task task) {
+		while (true) {
+			int state = task._dispatchState.get();
+			if (Task.IDLE == state) {
+				if (task._dispatchState.compareAndSet(Task.IDLE, Task.QUEUED))
+					break;
+			} else if (Task.RUNNING == state) {
+				if (task._dispatchState.compareAndSet(Task.RUNNING, Task.RERUN))
+					return;
+			} else {
+				return;	// Will be run, and see whatever is pending for it
+			}
+		}
+
+		if (!_space.tryAcquire()) {
+			_stats.increment(StatsEnum.DispatchQueueFull);
+			_space.acquireUninterruptibly();
+		}
+		_stats.increment(depthBucket(_queueSize - _space.availablePermits() - 1));
+		submit(task);
+	}
+
+	/**
+	 * @return the number of tasks waiting to run or running
+	 */
+	public int queueDepth() {
+		return _queueSize - _space.availablePermits();
+	}
+
+	public void shutdown() {
+		if (_executor instanceof ExecutorService)
+			((ExecutorService)_executor).shutdown();
+	}
+
+	protected void submit(final Task task) {
+		task._queuedAt = System.nanoTime();
+		try {
+			_executor.execute(new Runnable() {
+				public void run() {
+					runTask(task);
+				}
+			});
+		} catch (RejectedExecutionException ree) {
+			// Only after shutdown
+			task._dispatchState.set(Task.IDLE);
+			_space.release();
+			if (Log.isLoggable(Log.FAC_NETMANAGER, Level.FINE))
+				Log.fine(Log.FAC_NETMANAGER, "Dispatch rejected, presumably after shutdown");
+		}
+	}
+
+	protected void runTask(Task task) {
+		_stats.increment(latencyBucket(System.nanoTime() - task._queuedAt));
+		task._dispatchState.set(Task.RUNNING);
+		try {
+			task.run();
+		} catch (Throwable t) {
+			Log.warning(Log.FAC_NETMANAGER, "Dispatched task failed: {0}", t);
+		} finally {
+			if (task._dispatchState.compareAndSet(Task.RUNNING, Task.IDLE)) {
+				_space.release();
+			} else {
+				// Dispatched again while running; it keeps its place in the queue
+				task._dispatchState.set(Task.QUEUED);
+				submit(task);
+			}
+		}
+	}
+
+	protected static StatsEnum depthBucket(int depth) {
+		if (depth < 1)
+			return StatsEnum.DispatchQueueDepth0;
+		if (depth < 16)
+			return StatsEnum.DispatchQueueDepth1To15;
+		if (depth < 256)
+			return StatsEnum.DispatchQueueDepth16To255;
+		return StatsEnum.DispatchQueueDepth256Plus;
+	}
+
+	protected static StatsEnum latencyBucket(long nanos) {
+		if (nanos < 1000000L)
+			return StatsEnum.DispatchWaitUnder1ms;
+		if (nanos < 10000000L)
+			return StatsEnum.DispatchWait1To10ms;
+		if (nanos < 100000000L)
+			return StatsEnum.DispatchWait10To100ms;
+		return StatsEnum.DispatchWait100msPlus;
+	}
+}
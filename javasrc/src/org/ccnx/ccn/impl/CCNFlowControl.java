@@ -21,7 +21,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.LinkedList;
+import java.util.Map;
 import java.util.TreeMap;
 import java.util.logging.Level;
 
@@ -104,14 +105,22 @@ public class CCNFlowControl implements CCNFilterListener {
 	// Unmatched interests are purged from our table if they have remained there longer than this
 	protected static final int PURGE = 4000;
 	
+	// Held content, in name order so an interest's matches are the range of names it prefixes
 	protected TreeMap<ContentName, ContentObject> _holdingArea = new TreeMap<ContentName, ContentObject>();
 	protected InterestTable<UnmatchedInterest> _unmatchedInterests = new InterestTable<UnmatchedInterest>();
+	// The unmatched interests in the order they arrived, oldest first, for purging
+	private LinkedList<UnmatchedInterest> _unmatchedByAge = new LinkedList<UnmatchedInterest>();
 	
 	// The namespaces served by this flow controller
 	protected HashSet<ContentName> _filteredNames = new HashSet<ContentName>();
 
 	private class UnmatchedInterest {
 		long timestamp = System.currentTimeMillis();
+		Interest interest;
+
+		UnmatchedInterest(Interest interest) {
+			this.interest = interest;
+		}
 	}
 	
 	private boolean _flowControlEnabled = true;
@@ -459,22 +468,13 @@ public class CCNFlowControl implements CCNFilterListener {
 	 */
 	private void removeUnmatchedInterests(long ourTime) {
 		synchronized (_holdingArea) {
-			Entry<UnmatchedInterest> removeIt;
-			do {
-				removeIt = null;
-				for (Entry<UnmatchedInterest> uie : _unmatchedInterests.values()) {
-					//TODO need to normalize this with refresh time in CCNNetworkManager and put in SystemConfiguration
-					if ((ourTime - uie.value().timestamp) > PURGE) {
-						removeIt = uie;
-						break;
-					} else {
-						//we add interests at the end...  so older interests are at the top
-						break;
-					}
-				}
-				if (removeIt != null)
-					_unmatchedInterests.remove(removeIt.interest(), removeIt.value());
-			} while (removeIt != null);
+			//TODO need to normalize this with refresh time in CCNNetworkManager and put in SystemConfiguration
+			// Interests that have since been matched, or dropped from the table for space, are
+			// no longer there to remove
+			while (!_unmatchedByAge.isEmpty() && (ourTime - _unmatchedByAge.getFirst().timestamp) > PURGE) {
+				UnmatchedInterest removeIt = _unmatchedByAge.removeFirst();
+				_unmatchedInterests.remove(removeIt.interest, removeIt);
+			}
 		}
 	}
 	
@@ -506,7 +506,7 @@ public class CCNFlowControl implements CCNFilterListener {
 		synchronized (_holdingArea) {
 			if (Log.isLoggable(Log.FAC_IO, Level.FINE))
 				Log.fine(Log.FAC_IO, "Flow controller {0}: got interest: {1}", this, i);
-			ContentObject co = getBestMatch(i, _holdingArea.keySet());
+			ContentObject co = getBestMatch(i);
 			if (co != null) {
 				if( Log.isLoggable(Log.FAC_IO, Level.FINEST))
 					Log.finest(Log.FAC_IO, "Found content {0} matching interest: {1}",co.name(), i);
@@ -520,11 +520,13 @@ public class CCNFlowControl implements CCNFilterListener {
 			} else {
 				
 				//only check if we are adding the interest, and check before we add so we don't check the new interest
-				if (_unmatchedInterests.size() > 0)
+				if (!_unmatchedByAge.isEmpty())
 					removeUnmatchedInterests(System.currentTimeMillis());
 				
 				Log.finest(Log.FAC_IO, "No content matching pending interest: {0}, holding.", i);
-				_unmatchedInterests.add(i, new UnmatchedInterest());
+				UnmatchedInterest ui = new UnmatchedInterest(i);
+				_unmatchedInterests.add(i, ui);
+				_unmatchedByAge.add(ui);
 			}
 				
 			return true;
@@ -548,27 +550,62 @@ public class CCNFlowControl implements CCNFilterListener {
 	}
 	
 	
-	private ContentObject getBestMatch(Interest interest, Set<ContentName> set) {
-		ContentObject bestMatch = null;
+	/**
+	 * Find the held content that best answers an interest: the first match in name order, or
+	 * the last if the interest asks for the rightmost child. Only the names the interest's name
+	 * prefixes can match, and they sort together starting at that name, so we look at just
+	 * that range, from whichever end the interest wants, and at the name without its last
+	 * component in case that's a digest.
+	 */
+	private ContentObject getBestMatch(Interest interest) {
+		ContentObject digestMatch = null;
+		boolean rightmost = null != interest.childSelector() && interest.childSelector() == Interest.CHILD_SELECTOR_RIGHT;
 		if( Log.isLoggable(Log.FAC_IO, Level.FINEST))
-			Log.finest(Log.FAC_IO, "Looking for best match to " + interest + " among " + set.size() + " options.");
-		for (ContentName name : set) {
-			ContentObject result = _holdingArea.get(name);
-			
-			// We only have to do something unusual here if the caller is looking for CHILD_SELECTOR_RIGHT
-			if (null != interest.childSelector() && interest.childSelector() == Interest.CHILD_SELECTOR_RIGHT) {
-				if (interest.matches(result)) {
-					if (bestMatch == null)
-						bestMatch = result;
-					if (name.compareTo(bestMatch.name()) > 0) {
-						bestMatch = result;
-					}
-				}
-			} else
-				if (interest.matches(result))
+			Log.finest(Log.FAC_IO, "Looking for best match to " + interest + " among " + _holdingArea.size() + " options.");
+
+		// An interest's name may end with the digest of the content it wants
+		if (interest.name().count() > 0) {
+			ContentObject result = _holdingArea.get(interest.name().parent());
+			if (null != result && interest.matches(result)) {
+				if (!rightmost)
 					return result;
+				digestMatch = result;
+			}
 		}
-		return bestMatch;
+
+		Map<ContentName, ContentObject> range;
+		if (rightmost) {
+			// Anything matching in the range sorts after the digest match
+			ContentName end = rangeEnd(interest.name());
+			range = (null == end) ? _holdingArea.descendingMap() : _holdingArea.headMap(end, false).descendingMap();
+		} else
+			range = _holdingArea.tailMap(interest.name());
+		for (ContentObject result : range.values()) {
+			if (!interest.name().isPrefixOf(result.name()))
+				break;
+			if (interest.matches(result))
+				return result;
+		}
+		return digestMatch;
+	}
+
+	/**
+	 * @return the first name after all of those prefix is a prefix of, or null if
+	 * 	that's every name
+	 */
+	private static ContentName rangeEnd(ContentName prefix) {
+		if (prefix.count() == 0)
+			return null;
+		// Components sort by length, then by their bytes as an unsigned number
+		byte [] next = prefix.lastComponent().clone();
+		int i = next.length - 1;
+		while (i >= 0 && next[i] == (byte)0xff)
+			next[i--] = 0;
+		if (i >= 0)
+			next[i]++;
+		else
+			next = new byte[next.length + 1];
+		return new ContentName(prefix.parent(), next);
 	}
 	
 	/**
@@ -662,7 +699,10 @@ public class CCNFlowControl implements CCNFilterListener {
 	public void clearUnmatchedInterests() {
 		if( Log.isLoggable(Level.INFO))
 			Log.info("Clearing " + _unmatchedInterests.size() + " unmatched interests.");
-		_unmatchedInterests.clear();
+		synchronized (_holdingArea) {
+			_unmatchedInterests.clear();
+			_unmatchedByAge.clear();
+		}
 	}
 	
 	/**
@@ -0,0 +1,171 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+
+/**
+ * Forwards packets between the network managers in this JVM that use NetworkProtocol.LOCAL,
+ * in place of ccnd.
+ *
+ * Each network manager is a face. An interest written by one is offered to all the others,
+ * which hand it to any of their filters that match it, and a content object written by one
+ * is offered to all the others, which hand it to any of their interests it satisfies; as with
+ * ccnd, packets don't go back to the face they came from. So each manager's filters act as
+ * our forwarding table and its interests as our pending interest table.
+ *
+ * Packets are passed by reference, without being encoded. Each face has a queue of packets
+ * waiting for it, which a thread of its own delivers, much as each manager has a thread
+ * reading from ccnd; listener callbacks are still run by each manager's dispatcher. So the
+ * thread writing a packet never waits for another manager, which might be waiting in turn
+ * for it. As with a socket buffer, packets for a face whose queue is full are dropped.
+ * Objects passed to put() are shared with the handles that receive them, so mustn't be
+ * changed afterwards.
+ *
+ * There is no content store: content written when nobody is interested in it is dropped.
+ */
+public class CCNLocalForwarder {
+
+	/**
+	 * Most packets waiting to be delivered to a face
+	 */
+	public static final int FACE_QUEUE_SIZE = 10000;
+
+	protected static final CCNLocalForwarder _forwarder = new CCNLocalForwarder();
+
+	/**
+	 * A network manager, and the packets waiting to be delivered to it
+	 */
+	protected static class Face implements Runnable {
+		protected final CCNNetworkManager _manager;
+		protected final LinkedBlockingQueue<Object> _packets = new LinkedBlockingQueue<Object>(FACE_QUEUE_SIZE);
+		protected final Thread _thread;
+		protected volatile boolean _run = true;
+
+		protected Face(CCNNetworkManager manager) {
+			_manager = manager;
+			_thread = new Thread(this, "CCNLocalForwarder face " + manager._managerId);
+			_thread.setDaemon(true);
+		}
+
+		/**
+		 * Queue a packet for delivery, without waiting
+		 */
+		protected void offer(Object packet) {
+			if (!_packets.offer(packet)) {
+				if (Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO))
+					Log.info(Log.FAC_NETMANAGER, "Local forwarder: queue full for face {0}, dropping packet", _manager._managerId);
+			}
+		}
+
+		public void run() {
+			while (_run) {
+				Object packet;
+				try {
+					packet = _packets.take();
+				} catch (InterruptedException e) {
+					continue;
+				}
+				try {
+					if (packet instanceof Interest)
+						_manager.receiveLocal((Interest)packet);
+					else
+						_manager.receiveLocal((ContentObject)packet);
+				} catch (RuntimeException e) {
+					Log.warning(Log.FAC_NETMANAGER, "Local forwarder: delivery to face {0} failed: {1}", _manager._managerId, e);
+				}
+			}
+		}
+
+		protected void shutdown() {
+			_run = false;
+			_thread.interrupt();
+			_packets.clear();
+		}
+	}
+
+	protected final CopyOnWriteArrayList<Face> _faces = new CopyOnWriteArrayList<Face>();
+
+	/**
+	 * @return the forwarder for this JVM
+	 */
+	public static CCNLocalForwarder getForwarder() {
+		return _forwarder;
+	}
+
+	public synchronized void attach(CCNNetworkManager manager) {
+		if (null != face(manager))
+			return;
+		Face face = new Face(manager);
+		_faces.add(face);
+		face._thread.start();
+		if (Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO))
+			Log.info(Log.FAC_NETMANAGER, "Local forwarder: attached face {0}, {1} faces", manager._managerId, _faces.size());
+	}
+
+	public synchronized void detach(CCNNetworkManager manager) {
+		Face face = face(manager);
+		if (null == face)
+			return;
+		_faces.remove(face);
+		face.shutdown();
+		if (Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO))
+			Log.info(Log.FAC_NETMANAGER, "Local forwarder: detached face {0}, {1} faces", manager._managerId, _faces.size());
+	}
+
+	/**
+	 * @return the number of network managers attached
+	 */
+	public int faces() {
+		return _faces.size();
+	}
+
+	/**
+	 * Offer an interest to the filters of every face but the one it came from
+	 */
+	public void forward(CCNNetworkManager from, Interest interest) {
+		for (Face face : _faces) {
+			if (face._manager != from)
+				face.offer(interest);
+		}
+	}
+
+	/**
+	 * Offer content to the interests of every face but the one it came from
+	 */
+	public void forward(CCNNetworkManager from, ContentObject co) {
+		for (Face face : _faces) {
+			if (face._manager != from)
+				face.offer(co);
+		}
+	}
+
+	protected Face face(CCNNetworkManager manager) {
+		for (Face face : _faces) {
+			if (face._manager == manager)
+				return face;
+		}
+		return null;
+	}
+}
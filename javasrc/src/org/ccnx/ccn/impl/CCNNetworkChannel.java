@@ -34,8 +34,10 @@ import java.util.logging.Level;
 
 import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.impl.CCNNetworkManager.NetworkProtocol;
+import org.ccnx.ccn.impl.encoding.BinaryXMLBufferDecoder;
 import org.ccnx.ccn.impl.encoding.XMLEncodable;
 import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.io.content.ContentDecodingException;
 import org.ccnx.ccn.protocol.WirePacket;
 
 /**
@@ -88,6 +90,8 @@ public class CCNNetworkChannel extends InputStream {
 	// TODO - this should be under the control of a debugging flag instead
 	//private byte[] buffer = new byte[MAX_PAYLOAD];
 	//protected ByteBuffer _datagram = ByteBuffer.wrap(buffer);
+	// Decodes packets that are all in _datagram without going through the InputStream
+	protected BinaryXMLBufferDecoder _decoder = new BinaryXMLBufferDecoder();
 	private int _mark = -1;
 	private int _readLimit = 0;
 	private int _lastMark = 0;
@@ -198,6 +202,10 @@ public class CCNNetworkChannel extends InputStream {
 	 * the initial read if there's nothing already in the buffer though because in TCP we could have 
 	 * read in some or all of a preceding packet during the last reading.
 	 * 
+	 * When the whole packet is already in the buffer, which is always the case for UDP and
+	 * usually for TCP, it is decoded directly from the buffer. Otherwise we decode it through
+	 * our InputStream interface, which reads in more data as it is needed.
+	 * 
 	 * Also it should be noted that we are relying on ccnd to guarantee that all packets sent
 	 * to us are complete ccn packets. This code does not have the ability to recover from
 	 * receiving a partial ccn packet followed by correctly formed ones.
@@ -215,7 +223,28 @@ public class CCNNetworkChannel extends InputStream {
 					return null;
 			} 
 			WirePacket packet = new WirePacket();
-			packet.decode(this);
+			int start = _datagram.position();
+			int end;
+			try {
+				end = BinaryXMLBufferDecoder.elementEnd(_datagram, start, _datagram.limit());
+			} catch (ContentDecodingException e) {
+				// We can't find the end of this, so throw away what we have
+				_datagram.position(_datagram.limit());
+				throw e;
+			}
+			if (end >= 0) {
+				// We have the whole packet, so decode it straight out of the buffer
+				try {
+					_decoder.beginDecoding(_datagram);
+					packet.decode(_decoder);
+					_decoder.endDecoding();
+				} finally {
+					_datagram.position(end);
+				}
+			} else {
+				// Only part of it has arrived so far, so read the rest as we decode
+				packet.decode(this);
+			}
 			return packet.getPacket();
 		} else {
 			try {
@@ -301,6 +330,51 @@ public class CCNNetworkChannel extends InputStream {
 		return -1;
 	}
 	
+	/**
+	 * Write a batch of packets to ccnd. Over TCP they are written with gathering writes, so
+	 * a batch usually takes a single system call; over UDP each packet is its own datagram.
+	 * @param srcs - ByteBuffers to write, one packet in each
+	 * @param offset - index of the first buffer to write
+	 * @param length - number of buffers to write
+	 * @return - number of bytes written, or -1 if the channel is not connected
+	 * @throws IOException
+	 */
+	public long write(ByteBuffer [] srcs, int offset, int length) throws IOException {
+		if (! isConnected())
+			return -1;
+		if (Log.isLoggable(Log.FAC_NETMANAGER, Level.FINEST))
+			Log.finest(Log.FAC_NETMANAGER, 
+					"NetworkChannel {0}: write() of {1} packets on port {2}", _channelId, length, _ncLocalPort);
+		
+		try {
+			long written = 0;
+			if (_ncProto == NetworkProtocol.UDP) {
+				for (int i = offset; i < offset + length; i++)
+					written += _ncDGrmChannel.write(srcs[i]);
+			} else {
+				// Need to handle partial writes
+				int end = offset + length;
+				while (offset < end) {
+					if (! isConnected())
+						return -1;
+					long b = _ncSockChannel.write(srcs, offset, end - offset);
+					if (b > 0) {
+						written += b;
+					} else {
+						_ncWriteSelector.selectedKeys().clear();
+						_ncWriteSelector.select();
+					}
+					while ((offset < end) && !srcs[offset].hasRemaining())
+						offset++;
+				}
+			}
+			return written;
+		} catch (PortUnreachableException pue) {}
+		  catch (ClosedChannelException cce) {}
+		close();
+		return -1;
+	}
+	
 	/**
 	 * Force wakeup from a select
 	 * @return the selector
@@ -20,18 +20,17 @@ package org.ccnx.ccn.impl;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.nio.channels.NotYetConnectedException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.TreeMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.RejectedExecutionException;
+import java.util.TreeSet;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 import org.ccnx.ccn.CCNFilterListener;
@@ -92,10 +91,11 @@ public class CCNNetworkManager implements Runnable {
 	
 	/**
 	 *  Definitions for which network protocol to use.  This allows overriding
-	 *  the current default.
+	 *  the current default. LOCAL doesn't use ccnd, but exchanges packets with
+	 *  the other network managers in this JVM through a CCNLocalForwarder.
 	 */
 	public enum NetworkProtocol {
-		UDP (17), TCP (6);
+		UDP (17), TCP (6), LOCAL (0);
 		NetworkProtocol(Integer i) { this._i = i; }
 		private final Integer _i;
 		public Integer value() { return _i; }
@@ -115,9 +115,20 @@ public class CCNNetworkManager implements Runnable {
 	 * Static singleton.
 	 */
 	protected Thread _thread = null; // the main processing thread
-	protected ThreadPoolExecutor _threadpool = null; // pool service for callback threads
+	protected CCNDispatcher _dispatcher = null; // runs listener callbacks
 
 	protected CCNNetworkChannel _channel = null; // for use by run thread only!
+	protected CCNNetworkWriter _writer = null; // all packets are written by its thread
+	
+	// We can open several channels to ccnd and spread the interests we express across them by
+	// name, so that the content coming back is received, decoded and matched to interests by a
+	// thread per channel. Each channel has its own writer and table of interests. Channel 0 is
+	// _channel, _writer and _myInterests, which also look after everything but interests.
+	protected CCNNetworkChannel [] _channels = null;
+	protected CCNNetworkWriter [] _writers = null;
+	protected InterestTable<InterestRegistration> [] _interestTables = null;
+	protected Thread [] _receivers = null;
+	protected CCNLocalForwarder _forwarder = null; // instead of channels, for NetworkProtocol.LOCAL
 	protected boolean _run = true;
 
 	// protected ContentObject _keepalive; 
@@ -132,8 +143,19 @@ public class CCNNetworkManager implements Runnable {
 	protected KeyManager _keyManager;
 
 	// Tables of interests/filters: users must synchronize on collection
-	protected InterestTable<InterestRegistration> _myInterests = new InterestTable<InterestRegistration>();
+	protected InterestTable<InterestRegistration> _myInterests = new InterestTable<InterestRegistration>();	// Interests on channel 0
 	protected InterestTable<Filter> _myFilters = new InterestTable<Filter>();
+	
+	// Registered interests in the order they need to be reexpressed, so the periodic writer only
+	// looks at the ones that are due. Has its own lock, which is taken after an interest table's if both are needed.
+	protected TreeSet<InterestRegistration> _refreshSchedule = new TreeSet<InterestRegistration>(new Comparator<InterestRegistration>() {
+		public int compare(InterestRegistration r1, InterestRegistration r2) {
+			if (r1.nextRefresh != r2.nextRefresh)
+				return (r1.nextRefresh < r2.nextRefresh) ? -1 : 1;
+			return (r1.sequence < r2.sequence) ? -1 : ((r1.sequence == r2.sequence) ? 0 : 1);
+		}
+	});
+	protected AtomicLong _registrationSequence = new AtomicLong(0);
 	public static final boolean DEFAULT_PREFIX_REG = true;
 	protected boolean _usePrefixReg = DEFAULT_PREFIX_REG;
 	protected PrefixRegistrationManager _prefixMgr = null;
@@ -193,8 +215,8 @@ public class CCNNetworkManager implements Runnable {
 	 * Do scheduled interest and registration refreshes
 	 */
 	private class PeriodicWriter extends TimerTask {
-		// TODO Interest refresh time is supposed to "decay" over time but there are currently
-		// unresolved problems with this.
+		// Interest refresh time can "decay" over time (see SystemConfiguration.INTEREST_REEXPRESSION_DECAY)
+		// but ccnd currently drops interests that aren't refreshed often enough, so by default it doesn't.
 		public void run() {	
             //this method needs to do a few things
             // - reopen connection to ccnd if down
@@ -210,7 +232,7 @@ public class CCNNetworkManager implements Runnable {
 				}
 			}
 
-			if (!_channel.isConnected()) {
+			if ((null == _forwarder) && !_channel.isConnected()) {
                 //we tried to reconnect and failed, try again next loop
                 Log.fine(Log.FAC_NETMANAGER, "Not Connected to ccnd, try again in {0}ms", CCNNetworkChannel.SOCKET_TIMEOUT);
                 _lastHeartbeat = 0;
@@ -223,32 +245,37 @@ public class CCNNetworkManager implements Runnable {
             long minInterestRefreshTime = PERIOD + ourTime;
             // Library.finest("Refreshing interests (size " + _myInterests.size() + ")");
 				
-			// Re-express interests that need to be re-expressed
-			try {
-				synchronized (_myInterests) {
-					for (Entry<InterestRegistration> entry : _myInterests.values()) {
-						InterestRegistration reg = entry.value();
-						 // allow some slop for scheduling
-                        if (ourTime + 20 > reg.nextRefresh) {
-                                if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINER) )
-                                        Log.finer(Log.FAC_NETMANAGER, "Refresh interest: {0}", reg.interest);
-                                _lastHeartbeat = ourTime;
-                                reg.nextRefresh = ourTime + reg.nextRefreshPeriod;
-                                try {
-                                    write(reg.interest);
-                            } catch (NotYetConnectedException nyce) {
-                                    refreshError = true;
-                            }
-                        }
-						if (minInterestRefreshTime > reg.nextRefresh)
-							minInterestRefreshTime = reg.nextRefresh;
-					}
+			// Re-express interests that need to be re-expressed. Take them out of the schedule
+			// while we do, so we don't hold its lock while writing.
+			ArrayList<InterestRegistration> due = new ArrayList<InterestRegistration>();
+			synchronized (_refreshSchedule) {
+				// allow some slop for scheduling
+				while (!_refreshSchedule.isEmpty() && (ourTime + 20 > _refreshSchedule.first().nextRefresh))
+					due.add(_refreshSchedule.pollFirst());
+			}
+			for (InterestRegistration reg : due) {
+				if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINER) )
+					Log.finer(Log.FAC_NETMANAGER, "Refresh interest: {0}", reg.interest);
+				_lastHeartbeat = ourTime;
+				try {
+					write(reg.interest);
+				} catch (NotYetConnectedException nyce) {
+					refreshError = true;
+				} catch (ContentEncodingException xmlex) {
+					Log.severe(Log.FAC_NETMANAGER, "PeriodicWriter interest refresh thread failure (Malformed datagram): {0}", xmlex.getMessage());
+					Log.warningStackTrace(xmlex);
+					refreshError = true;
 				}
-				
-			} catch (ContentEncodingException xmlex) {
-                Log.severe(Log.FAC_NETMANAGER, "PeriodicWriter interest refresh thread failure (Malformed datagram): {0}", xmlex.getMessage());
-                Log.warningStackTrace(xmlex);
-                refreshError = true;
+			}
+			synchronized (_refreshSchedule) {
+				for (InterestRegistration reg : due) {
+					reg.refreshed(ourTime);
+					// Unless it was unregistered while we were writing
+					if (reg.scheduled)
+						_refreshSchedule.add(reg);
+				}
+				if (!_refreshSchedule.isEmpty() && (minInterestRefreshTime > _refreshSchedule.first().nextRefresh))
+					minInterestRefreshTime = _refreshSchedule.first().nextRefresh;
 			}
 
 			// Re-express prefix registrations that need to be re-expressed
@@ -321,7 +348,8 @@ public class CCNNetworkManager implements Runnable {
 					//we haven't sent anything...  maybe need to send a heartbeat
 				if ((currentTime - _lastHeartbeat) >= CCNNetworkChannel.HEARTBEAT_PERIOD) {
 					_lastHeartbeat = currentTime;
-					_channel.heartbeat();
+					for (CCNNetworkChannel channel : _channels)
+						channel.heartbeat();
 				}				
 	
 				//now factor in heartbeat time
@@ -347,11 +375,13 @@ public class CCNNetworkManager implements Runnable {
 		synchronized (_timersSetupLock) {
 			if (!_timersSetup) {
 				_timersSetup = true;
-				_channel.init();
-				if (_protocol == NetworkProtocol.UDP) {
-					_channel.heartbeat();
-					_lastHeartbeat = System.currentTimeMillis();
+				for (CCNNetworkChannel channel : _channels) {
+					channel.init();
+					if (_protocol == NetworkProtocol.UDP)
+						channel.heartbeat();
 				}
+				if (_protocol == NetworkProtocol.UDP)
+					_lastHeartbeat = System.currentTimeMillis();
 				
 				// Create timer for periodic behavior
 				_periodicTimer = new Timer(true);
@@ -365,7 +395,7 @@ public class CCNNetworkManager implements Runnable {
 	 *	subclass to call listener callback without holding any library locks,
 	 *	yet avoid delivery to a cancelled listener.
 	 */
-	protected abstract class ListenerRegistration implements Runnable {
+	protected abstract class ListenerRegistration extends CCNDispatcher.Task {
 		protected Object listener;
 		protected CCNNetworkManager manager;
 		public Semaphore sema = null;	//used to block thread waiting for data or null if none
@@ -382,35 +412,36 @@ public class CCNNetworkManager implements Runnable {
 		 * because a dispatch to handler might be in progress and we don't hold locks 
 		 * throughout the dispatch to avoid deadlocks.
 		 */
-		public void invalidate() {
+		public synchronized void invalidate() {
 			// There may be a pending delivery in progress, and it doesn't 
 			// happen while holding this lock because that would give the 
 			// application callback code power to block library processing.
 			// Instead, we use a flag that is checked and set under this lock
 			// to be sure that on exit from invalidate() there will be.
-			// Back off to avoid livelock  
-			for (int i = 0; true; i = (2 * i + 1) & 63) {
-				synchronized (this) {
-					// Make invalid, this will prevent any new delivery that comes
-					// along from doing anything.
-					this.listener = null;
-					this.sema = null;
-					// Return only if no delivery is in progress now (or if we are
-					// called out of our own handler)
-					if (!deliveryPending || (Thread.currentThread().getId() == id)) {
-						return;
-					}
-				}
-				if (i == 0) {
-					Thread.yield();
-				} else {
-					if (i > 3) Log.finer(Log.FAC_NETMANAGER, "invalidate spin {0}", i);
-					try {
-						Thread.sleep(i);
-					} catch (InterruptedException e) {
-					}
+			// Make invalid, this will prevent any new delivery that comes
+			// along from doing anything.
+			this.listener = null;
+			this.sema = null;
+			// Return only when no delivery is in progress (or if we are
+			// called out of our own handler). Delivery notifies us when it's done.
+			boolean interrupted = false;
+			while (deliveryPending && (Thread.currentThread().getId() != id)) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
 				}
 			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		/**
+		 * Delivery is over; let invalidate() return. Must hold our lock.
+		 */
+		protected void deliveryDone() {
+			this.deliveryPending = false;
+			notifyAll();
 		}
 
 		/**
@@ -431,7 +462,7 @@ public class CCNNetworkManager implements Runnable {
 				Log.warning(Log.FAC_NETMANAGER, "failed delivery: {0}", ex);
 			} finally {
 				synchronized(this) {
-					this.deliveryPending = false;
+					deliveryDone();
 				}
 			}
 		}
@@ -477,6 +508,8 @@ public class CCNNetworkManager implements Runnable {
 		ContentObject data = null;
 		protected long nextRefresh;		// next time to refresh the interest
 		protected long nextRefreshPeriod = SystemConfiguration.INTEREST_REEXPRESSION_DEFAULT;	// period to wait before refresh
+		protected final long sequence = _registrationSequence.incrementAndGet();	// orders the refresh schedule
+		protected boolean scheduled = false;	// in the refresh schedule, protected by its lock
 
 		// All internal client interests must have an owner
 		public InterestRegistration(CCNNetworkManager mgr, Interest i, CCNInterestListener l, Object owner) {
@@ -490,6 +523,18 @@ public class CCNNetworkManager implements Runnable {
 			nextRefresh = System.currentTimeMillis() + nextRefreshPeriod;
 		}
 
+		/**
+		 * Work out when to refresh the interest next, having just refreshed it.
+		 * Must not be called while the registration is in the refresh schedule.
+		 */
+		protected void refreshed(long now) {
+			nextRefresh = now + nextRefreshPeriod;
+			if (SystemConfiguration.INTEREST_REEXPRESSION_DECAY != 1.0) {
+				nextRefreshPeriod = Math.min(SystemConfiguration.INTEREST_REEXPRESSION_MAX, 
+						(long)(nextRefreshPeriod * SystemConfiguration.INTEREST_REEXPRESSION_DECAY));
+			}
+		}
+
 		/**
 		 * Return true if data was added.
 		 * If data is already pending for delivery for this interest, the 
@@ -547,7 +592,7 @@ public class CCNNetworkManager implements Runnable {
 						synchronized (this) {
 							// DKS -- dynamic interests, unregister the interest here and express new one if we have one
 							// previous interest is final, can't update it
-							this.deliveryPending = false;
+							deliveryDone();
 						}
 						manager.unregisterInterest(this);
 
@@ -742,10 +787,27 @@ public class CCNNetworkManager implements Runnable {
 	} /* private class CCNDIdGetter implements Runnable */
 
 	/**
-	 * The constructor. Attempts to connect to a ccnd at the currently specified port number
+	 * The constructor. Attempts to connect to a ccnd at the currently specified port number,
+	 * with the number of channels set by SystemConfiguration.RECEIVE_CHANNELS
 	 * @throws IOException if the port is invalid
 	 */
 	public CCNNetworkManager(KeyManager keyManager) throws IOException {
+		this(keyManager, SystemConfiguration.RECEIVE_CHANNELS);
+	}
+
+	/**
+	 * Connect to ccnd with several channels, spreading the interests we express across them
+	 * so the content that comes back is handled by a thread per channel. Filters are
+	 * registered and content written on the first channel only; as ccnd sees each channel
+	 * as a face of its own, more than one means our own interests can reach our filters, and
+	 * our own content our interests (see SystemConfiguration.RECEIVE_CHANNELS).
+	 * @param channels number of channels to open, at least 1
+	 * @throws IOException if the port is invalid
+	 */
+	@SuppressWarnings("unchecked")
+	public CCNNetworkManager(KeyManager keyManager, int channels) throws IOException {
+		if (channels < 1)
+			throw new IllegalArgumentException("Need at least one channel to ccnd, not " + channels);
 		_managerId = _managerIdCount.incrementAndGet();
 		_managerIdString = "NetworkManager " + _managerId + ": ";
 		
@@ -791,16 +853,48 @@ public class CCNNetworkManager implements Runnable {
 			setTap(unique_tapname);
 		}
 		
-		_channel = new CCNNetworkChannel(_host, _port, _protocol, _tapStreamIn);
 		_ccndId = null;
-		_channel.open();
+		_dispatcher = new CCNDispatcher("CCNNetworkManager dispatch " + _managerId, _stats);
+		if (NetworkProtocol.LOCAL == _protocol) {
+			// No ccnd, so no channels and nothing to register prefixes with
+			_channels = new CCNNetworkChannel[0];
+			_writers = new CCNNetworkWriter[0];
+			_interestTables = new InterestTable[]{_myInterests};
+			_receivers = new Thread[0];
+			_usePrefixReg = false;
+			_forwarder = CCNLocalForwarder.getForwarder();
+			_forwarder.attach(this);
+			return;
+		}
+
+		_channels = new CCNNetworkChannel[channels];
+		_writers = new CCNNetworkWriter[channels];
+		_interestTables = new InterestTable[channels];
+		for (int i = 0; i < channels; i++) {
+			_channels[i] = new CCNNetworkChannel(_host, _port, _protocol, _tapStreamIn);
+			_channels[i].open();
+			_writers[i] = new CCNNetworkWriter(_channels[i], CCNNetworkWriter.DEFAULT_QUEUE_SIZE, _stats);
+			_writers[i].setTap(_tapStreamOut);
+			_writers[i].start("CCNNetworkManager writer " + _managerId + ((i > 0) ? ("-" + i) : ""));
+			_interestTables[i] = (0 == i) ? _myInterests : new InterestTable<InterestRegistration>();
+		}
+		_channel = _channels[0];
+		_writer = _writers[0];
 		
-		// Create callback threadpool and main processing thread
-		_threadpool = (ThreadPoolExecutor)Executors.newCachedThreadPool();
-		_threadpool.setKeepAliveTime(THREAD_LIFE, TimeUnit.SECONDS);
-		_threadpool.setMaximumPoolSize(SystemConfiguration.MAX_DISPATCH_THREADS);
+		// Create main processing thread, and receive threads for any other channels
 		_thread = new Thread(this, "CCNNetworkManager " + _managerId);
 		_thread.start();
+		_receivers = new Thread[channels - 1];
+		for (int i = 1; i < channels; i++) {
+			final int channel = i;
+			_receivers[i - 1] = new Thread(new Runnable() {
+				public void run() {
+					receive(channel);
+				}
+			}, "CCNNetworkManager " + _managerId + "-" + i);
+			_receivers[i - 1].setDaemon(true);
+			_receivers[i - 1].start();
+		}
 	}
 
 	/**
@@ -813,19 +907,29 @@ public class CCNNetworkManager implements Runnable {
 		_run = false;
 		if (_periodicTimer != null)
 			_periodicTimer.cancel();
-		if (null != _channel) {
+		if (null != _forwarder) {
+			// No processing thread to shut down the dispatcher
+			_forwarder.detach(this);
+			_dispatcher.shutdown();
+		}
+		if (null != _writers) {
+			for (CCNNetworkWriter writer : _writers)
+				writer.shutdown();
+		}
+		if (null != _channels) {
 			try {
 				setTap(null);
 			} catch (IOException io) {
 				// Ignore since we're shutting down
 			}
 			
-			try {
-				_channel.close();
-			} catch (IOException io) {
-				// Ignore since we're shutting down
+			for (CCNNetworkChannel channel : _channels) {
+				try {
+					channel.close();
+				} catch (IOException io) {
+					// Ignore since we're shutting down
+				}
 			}
-
 		}
 	}
 	
@@ -857,6 +961,10 @@ public class CCNNetworkManager implements Runnable {
 		if (null != _tapStreamOut) {
 			FileOutputStream closingStream = _tapStreamOut;
 			_tapStreamOut = null;
+			if (null != _writers) {
+				for (CCNNetworkWriter writer : _writers)
+					writer.setTap(null);
+			}
 			closingStream.close();
 		}
 		if (null != _tapStreamIn) {
@@ -867,6 +975,10 @@ public class CCNNetworkManager implements Runnable {
 
 		if (pathname != null && pathname.length() > 0) {
 			_tapStreamOut = new FileOutputStream(new File(pathname + "_out"));
+			if (null != _writers) {
+				for (CCNNetworkWriter writer : _writers)
+					writer.setTap(_tapStreamOut);
+			}
 			_tapStreamIn = new FileOutputStream(new File(pathname + "_in"));
 			if( Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO) )
 				Log.info(Log.FAC_NETMANAGER, formatMessage("Tap writing to {0}"), pathname);
@@ -1071,7 +1183,7 @@ public class CCNNetworkManager implements Runnable {
 
 		if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINE) )
 			Log.fine(Log.FAC_NETMANAGER, formatMessage("setInterestFilter: {0}"), filter);
-		if ((null == _keyManager) || (!_keyManager.initialized() || (null == _keyManager.getDefaultKeyID()))) {
+		if (_usePrefixReg && ((null == _keyManager) || (!_keyManager.initialized() || (null == _keyManager.getDefaultKeyID())))) {
 			Log.warning(Log.FAC_NETMANAGER, formatMessage("Cannot set interest filter -- key manager not ready!"));
 			throw new IOException(formatMessage("Cannot set interest filter -- key manager not ready!"));
 		}
@@ -1224,6 +1336,10 @@ public class CCNNetworkManager implements Runnable {
 	protected void write(ContentObject data) throws ContentEncodingException {
 		_stats.increment(StatsEnum.WriteObject);
 
+		if (null != _forwarder) {
+			_forwarder.forward(this, data);
+			return;
+		}
 		WirePacket packet = new WirePacket(data);
 		writeInner(packet);
 		if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINEST) )
@@ -1237,44 +1353,28 @@ public class CCNNetworkManager implements Runnable {
 	 */
 	public void write(Interest interest) throws ContentEncodingException {
 		_stats.increment(StatsEnum.WriteInterest);
+		if (null != _forwarder) {
+			_forwarder.forward(this, interest);
+			return;
+		}
 		WirePacket packet = new WirePacket(interest);
-		writeInner(packet);
+		_writers[channelFor(interest)].write(packet);
 	}
 
-	// DKS TODO unthrown exception
+	/**
+	 * Hand the packet to the writer thread. We only wait if its queue is full.
+	 */
 	private void writeInner(WirePacket packet) throws ContentEncodingException {
-		try {
-			byte[] bytes = packet.encode();
-			ByteBuffer datagram = ByteBuffer.wrap(bytes);
-			synchronized (_channel) {
-				int result = _channel.write(datagram);
-				if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINEST) )
-					Log.finest(Log.FAC_NETMANAGER, formatMessage("Wrote datagram (" + datagram.position() + " bytes, result " + result + ")"));
-				
-				if( result < bytes.length ) {
-					_stats.increment(StatsEnum.WriteUnderflows);
-					if( Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO) )
-						Log.info(Log.FAC_NETMANAGER, 
-								formatMessage("Wrote datagram {0} bytes to channel, but packet was {1} bytes"),
-								result,
-								bytes.length);
-				}
-
-				if (null != _tapStreamOut) {
-					try {
-						_tapStreamOut.write(bytes);
-					} catch (IOException io) {
-						Log.warning(Log.FAC_NETMANAGER, formatMessage("Unable to write packet to tap stream for debugging"));
-					}
-				}
-			}
-		} catch (IOException io) {
-			_stats.increment(StatsEnum.WriteErrors);
+		_writer.write(packet);
+	}
 
-			// We do not see errors on send typically even if 
-			// agent is gone, so log each but do not track
-			Log.warning(Log.FAC_NETMANAGER, formatMessage("Error sending packet: " + io.toString()));
-		}
+	/**
+	 * @return the channel an interest is expressed on, and so the table it's registered in
+	 */
+	protected int channelFor(Interest interest) {
+		if (1 == _interestTables.length)
+			return 0;
+		return (interest.name().hashCode() & Integer.MAX_VALUE) % _interestTables.length;
 	}
 
 	/**
@@ -1286,8 +1386,13 @@ public class CCNNetworkManager implements Runnable {
 		setupTimers();
 		if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINEST) )
 			Log.finest(Log.FAC_NETMANAGER, formatMessage("registerInterest for {0}, and obj is " + _myInterests.hashCode()), reg.interest.name());
-		synchronized (_myInterests) {
-			_myInterests.add(reg.interest, reg);
+		InterestTable<InterestRegistration> table = _interestTables[channelFor(reg.interest)];
+		synchronized (table) {
+			table.add(reg.interest, reg);
+			synchronized (_refreshSchedule) {
+				reg.scheduled = true;
+				_refreshSchedule.add(reg);
+			}
 		}
 		return reg;
 	}
@@ -1304,9 +1409,14 @@ public class CCNNetworkManager implements Runnable {
 	 * "myInterests" held.  Therefore it can't be called when holding the lock for "reg".
 	 */
 	private void unregisterInterest(InterestRegistration reg) {
-		synchronized (_myInterests) {
-			Entry<InterestRegistration> found = _myInterests.remove(reg.interest, reg);
+		InterestTable<InterestRegistration> table = _interestTables[channelFor(reg.interest)];
+		synchronized (table) {
+			Entry<InterestRegistration> found = table.remove(reg.interest, reg);
 			if (null != found) {
+				synchronized (_refreshSchedule) {
+					found.value().scheduled = false;
+					_refreshSchedule.remove(found.value());
+				}
 				found.value().invalidate();
 			}
 		}		
@@ -1324,12 +1434,24 @@ public class CCNNetworkManager implements Runnable {
 		//WirePacket packet = new WirePacket();
 		if( Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO) )
 			Log.info(Log.FAC_NETMANAGER, formatMessage("CCNNetworkManager processing thread started for port: " + _port));
+		receive(0);
+
+		_dispatcher.shutdown();
+		Log.info(Log.FAC_NETMANAGER, formatMessage("Shutdown complete for port: " + _port));
+	}
+
+	/**
+	 * Read and handle packets from one of our channels until we're shut down
+	 * @param channelIndex which channel
+	 */
+	protected void receive(int channelIndex) {
+		CCNNetworkChannel channel = _channels[channelIndex];
 		while (_run) {
 			try {
-				boolean wasConnected = _channel.isConnected();
-				XMLEncodable packet = _channel.getPacket();
+				boolean wasConnected = channel.isConnected();
+				XMLEncodable packet = channel.getPacket();
 				if (null == packet) {
-					if (!wasConnected && _channel.isConnected())
+					if ((0 == channelIndex) && !wasConnected && channel.isConnected())
 						reregisterPrefixes();
 					continue;
 				}
@@ -1342,7 +1464,7 @@ public class CCNNetworkManager implements Runnable {
 
 					//	SystemConfiguration.logObject("Data from net:", co);
 
-					deliverData(co);
+					deliverData(co, _interestTables[channelIndex]);
 					// External data never goes back to network, never held onto here
 					// External data never has a thread waiting, so no need to release sema
 				} else if (packet instanceof Interest) {
@@ -1363,8 +1485,30 @@ public class CCNNetworkManager implements Runnable {
 			}
 		}
 
-		_threadpool.shutdown();
-		Log.info(Log.FAC_NETMANAGER, formatMessage("Shutdown complete for port: " + _port));
+	}
+
+	/**
+	 * Handle content passed to us by the local forwarder, as we would content read from ccnd
+	 */
+	protected void receiveLocal(ContentObject co) {
+		if (!_run)
+			return;
+		_stats.increment(StatsEnum.ReceiveObject);
+		if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINER) )
+			Log.finer(Log.FAC_NETMANAGER, formatMessage("Data from local forwarder {0}"), co.name());
+		deliverData(co);
+	}
+
+	/**
+	 * Handle an interest passed to us by the local forwarder, as we would an interest read from ccnd
+	 */
+	protected void receiveLocal(Interest interest) {
+		if (!_run)
+			return;
+		_stats.increment(StatsEnum.ReceiveInterest);
+		if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINEST) )
+			Log.finest(Log.FAC_NETMANAGER, formatMessage("Interest from local forwarder {0}"), interest);
+		deliverInterest(new InterestRegistration(this, interest, null, null));
 	}
 
 	/**
@@ -1374,23 +1518,20 @@ public class CCNNetworkManager implements Runnable {
 	protected void deliverInterest(InterestRegistration ireg) {
 		_stats.increment(StatsEnum.DeliverInterest);
 
-		// Call any listeners with matching filters
+		// Call any listeners with matching filters. Dispatch may wait for space, so not holding the lock.
+		ArrayList<Filter> dispatch = new ArrayList<Filter>(1);
 		synchronized (_myFilters) {
 			for (Filter filter : _myFilters.getValues(ireg.interest.name())) {
 				if (filter.owner != ireg.owner) {
 					if( Log.isLoggable(Log.FAC_NETMANAGER, Level.FINER) )
 						Log.finer(Log.FAC_NETMANAGER, formatMessage("Schedule delivery for interest: {0}"), ireg.interest);
-					if (filter.add(ireg.interest)) {
-						try {
-							_threadpool.execute(filter);
-						} catch (RejectedExecutionException ree) {
-							// TODO - we should probably do something smarter here
-							Log.severe(Log.FAC_NETMANAGER, formatMessage("Dispatch thread overflow!!"));
-						}
-					}
+					if (filter.add(ireg.interest))
+						dispatch.add(filter);
 				}
 			}
 		}
+		for (Filter filter : dispatch)
+			_dispatcher.dispatch(filter);
 	}
 
 	/**
@@ -1398,21 +1539,34 @@ public class CCNNetworkManager implements Runnable {
 	 * @param co
 	 */
 	protected void deliverData(ContentObject co) {
+		deliverData(co, _myInterests);
+	}
+
+	/**
+	 * Deliver data to the interests in one table, those expressed on the channel it arrived on
+	 */
+	protected void deliverData(ContentObject co, InterestTable<InterestRegistration> table) {
 		_stats.increment(StatsEnum.DeliverContent);
 
-		synchronized (_myInterests) {
-			for (InterestRegistration ireg : _myInterests.getValues(co)) {
+		// Dispatch may wait for space, so not holding the lock
+		ArrayList<InterestRegistration> dispatch = new ArrayList<InterestRegistration>(1);
+		synchronized (table) {
+			for (InterestRegistration ireg : table.getValues(co)) {
 				if (ireg.add(co)) { // this is a copy of the data
 					_stats.increment(StatsEnum.DeliverContentMatchingInterests);
-					try {
-						_threadpool.execute(ireg);
-					} catch (RejectedExecutionException ree) {
-						// TODO - we should probably do something smarter here
-						Log.severe(Log.FAC_NETMANAGER, formatMessage("Dispatch thread overflow!!"));
-					}				
+					dispatch.add(ireg);
 				}
 			}
 		}
+		for (InterestRegistration ireg : dispatch) {
+			if (null == ireg.listener) {
+				// Just wakes up a blocked get; do that here so it doesn't
+				// depend on there being a dispatch thread free
+				ireg.run();
+			} else {
+				_dispatcher.dispatch(ireg);
+			}
+		}
 	}
 
 	protected PublisherPublicKeyDigest fetchCCNDId(CCNNetworkManager mgr, KeyManager keyManager) throws IOException {
@@ -1502,12 +1656,23 @@ public class CCNNetworkManager implements Runnable {
 		WriteObject ("calls", "The number of calls to write(ContentObject)"),
 		WriteErrors ("count", "Error count for writeInner()"),
 		WriteUnderflows ("count", "The count of times when the bytes written to the channel < buffer size"),
+		WriteQueueFull ("count", "The count of times a packet waited for space in the full write queue"),
+		WriteQueueDepth0 ("packets", "Packets queued when the write queue was empty"),
+		WriteQueueDepth1To3 ("packets", "Packets queued behind 1 to 3 others"),
+		WriteQueueDepth4To15 ("packets", "Packets queued behind 4 to 15 others"),
+		WriteQueueDepth16Plus ("packets", "Packets queued behind 16 or more others"),
+		WriteBatches ("writes", "The number of batches of packets written to the channel"),
+		WriteBatchOf1 ("writes", "Batches of a single packet"),
+		WriteBatchOf2To3 ("writes", "Batches of 2 to 3 packets"),
+		WriteBatchOf4To7 ("writes", "Batches of 4 to 7 packets"),
+		WriteBatchOf8To15 ("writes", "Batches of 8 to 15 packets"),
+		WriteBatchOf16Plus ("writes", "Batches of 16 or more packets"),
 		
 		ExpressInterest ("calls", "The number of calls to expressInterest"),
 		CancelInterest ("calls", "The number of calls to cancelInterest"),
 		DeliverInterest ("calls", "The number of calls to deliverInterest"),
 		DeliverContent ("calls", "The number of calls to cancelInterest"),
-		DeliverContentMatchingInterests ("calls", "Count of the calls to threadpool.execute in handleData()"),
+		DeliverContentMatchingInterests ("calls", "Count of deliveries of content to matching interests in deliverData()"),
 
 		ReceiveObject ("objects", "Receive count of ContentObjects from channel"),
 		ReceiveInterest ("interests", "Receive count of Interests from channel"),
@@ -1515,6 +1680,16 @@ public class CCNNetworkManager implements Runnable {
 		ReceiveErrors ("errors", "Number of errors from the channel in run() loop"),
 		
 		ContentObjectsIgnored ("ContentObjects", "The number of ContentObjects that are never handled"),
+
+		DispatchQueueFull ("count", "The count of times delivery waited for space in the full dispatch queue"),
+		DispatchQueueDepth0 ("dispatches", "Callbacks dispatched when the dispatch queue was empty"),
+		DispatchQueueDepth1To15 ("dispatches", "Callbacks dispatched behind 1 to 15 others"),
+		DispatchQueueDepth16To255 ("dispatches", "Callbacks dispatched behind 16 to 255 others"),
+		DispatchQueueDepth256Plus ("dispatches", "Callbacks dispatched behind 256 or more others"),
+		DispatchWaitUnder1ms ("callbacks", "Callbacks run less than 1ms after being dispatched"),
+		DispatchWait1To10ms ("callbacks", "Callbacks run 1 to 10ms after being dispatched"),
+		DispatchWait10To100ms ("callbacks", "Callbacks run 10 to 100ms after being dispatched"),
+		DispatchWait100msPlus ("callbacks", "Callbacks run 100ms or more after being dispatched"),
 		;
 
 		// ====================================
@@ -0,0 +1,292 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.impl.CCNNetworkManager.StatsEnum;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.encoding.XMLEncodable;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.io.content.ContentEncodingException;
+
+/**
+ * Writes packets to ccnd for a CCNNetworkManager from a single thread.
+ *
+ * Threads writing packets reserve a slot in a fixed size ring, encode their packet straight
+ * into the slot's buffer and go on their way. The writer thread takes all the packets that
+ * are ready at the head of the ring and writes them to the channel together, which for TCP
+ * is a single gathering write, so producers don't contend for the socket and we don't make
+ * a system call per packet. Packets are written in the order their slots were reserved.
+ *
+ * When the ring is full, threads writing packets wait for the writer thread to make space,
+ * so a slow ccnd holds up the threads producing packets rather than using up memory.
+ *
+ * The depth of the queue seen by each packet and the size of each batch written are counted
+ * in the network manager's statistics.
+ */
+public class CCNNetworkWriter implements Runnable {
+
+	public static final int DEFAULT_QUEUE_SIZE = 64;
+	public static final long SHUTDOWN_TIMEOUT = 2000;	// ms to wait for queued packets to be written
+
+	protected final CCNNetworkChannel _channel;
+	protected final CCNEnumStats<StatsEnum> _stats;
+	protected volatile FileOutputStream _tapStream = null;
+
+	protected final ReentrantLock _lock = new ReentrantLock();
+	protected final Condition _notFull = _lock.newCondition();
+	protected final Condition _ready = _lock.newCondition();
+
+	// The ring. A slot's buffer is allocated the first time it's used; _packets holds
+	// what's to be written from each slot, and is null until the packet is ready.
+	protected final ByteBuffer [] _buffers;
+	protected final ByteBuffer [] _packets;
+	protected int _head = 0;
+	protected int _size = 0;
+	protected boolean _run = true;
+
+	// Only used by the writer thread
+	protected final ByteBuffer [] _batch;
+	protected Thread _thread = null;
+
+	public CCNNetworkWriter(CCNNetworkChannel channel, int queueSize, CCNEnumStats<StatsEnum> stats) {
+		_channel = channel;
+		_stats = stats;
+		_buffers = new ByteBuffer[queueSize];
+		_packets = new ByteBuffer[queueSize];
+		_batch = new ByteBuffer[queueSize];
+	}
+
+	/**
+	 * Start the writer thread
+	 * @param name name for the thread
+	 */
+	public void start(String name) {
+		_thread = new Thread(this, name);
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	/**
+	 * Stop the writer thread, once it has written the packets already queued, so that content
+	 * put just before a handle is closed still goes out. Waits up to SHUTDOWN_TIMEOUT for it.
+	 * Packets written from now on are dropped.
+	 */
+	public void shutdown() {
+		_lock.lock();
+		try {
+			_run = false;
+			_ready.signalAll();
+			_notFull.signalAll();
+		} finally {
+			_lock.unlock();
+		}
+		Thread thread = _thread;
+		if ((null != thread) && (thread != Thread.currentThread())) {
+			try {
+				thread.join(SHUTDOWN_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Turn on writing of all packets to a stream for test/debug
+	 * @param tapStream the stream, or null to turn the tap off
+	 */
+	public void setTap(FileOutputStream tapStream) {
+		_tapStream = tapStream;
+	}
+
+	/**
+	 * @return the number of packets waiting to be written
+	 */
+	public int queueDepth() {
+		_lock.lock();
+		try {
+			return _size;
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * Queue a packet to be written, waiting for space if the queue is full.
+	 * @param packet the packet
+	 * @throws ContentEncodingException if the packet can't be encoded
+	 */
+	public void write(XMLEncodable packet) throws ContentEncodingException {
+		int slot;
+		_lock.lock();
+		try {
+			if (_run && (_size == _buffers.length)) {
+				_stats.increment(StatsEnum.WriteQueueFull);
+				while (_run && (_size == _buffers.length))
+					_notFull.awaitUninterruptibly();
+			}
+			if (!_run) {
+				if (Log.isLoggable(Log.FAC_NETMANAGER, Level.FINE))
+					Log.fine(Log.FAC_NETMANAGER, "Dropping packet written after shutdown");
+				return;
+			}
+			_stats.increment(depthBucket(_size));
+			slot = (_head + _size) % _buffers.length;
+			_size++;
+		} finally {
+			_lock.unlock();
+		}
+
+		// Nobody else touches the slot till we've said it's ready
+		ByteBuffer buffer = _buffers[slot];
+		if (null == buffer) {
+			buffer = ByteBuffer.allocate(CCNNetworkManager.MAX_PAYLOAD);
+			_buffers[slot] = buffer;
+		}
+		ByteBuffer ready = null;
+		try {
+			buffer.clear();
+			try {
+				packet.encode(buffer);
+				buffer.flip();
+				ready = buffer;
+			} catch (BufferOverflowException e) {
+				ready = ByteBuffer.wrap(packet.encode());
+			}
+		} finally {
+			// However encoding failed, the slot still has to be handed over, or the writer
+			// will wait for it forever. An empty packet writes nothing.
+			if (null == ready)
+				ready = ByteBuffer.allocate(0);
+			_lock.lock();
+			try {
+				_packets[slot] = ready;
+				if (slot == _head)
+					_ready.signal();
+			} finally {
+				_lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Writer thread: write whatever is ready at the head of the queue
+	 */
+	public void run() {
+		while (true) {
+			int count = 0;
+			_lock.lock();
+			try {
+				while (_run && (null == _packets[_head]))
+					_ready.awaitUninterruptibly();
+				if (null == _packets[_head])
+					break;	// shut down, and nothing left to write
+				int slot = _head;
+				while ((count < _size) && (null != _packets[slot])) {
+					_batch[count++] = _packets[slot];
+					slot = (slot + 1) % _packets.length;
+				}
+			} finally {
+				_lock.unlock();
+			}
+
+			writeBatch(count);
+
+			_lock.lock();
+			try {
+				for (int i = 0; i < count; i++) {
+					_packets[_head] = null;
+					_head = (_head + 1) % _packets.length;
+				}
+				_size -= count;
+				_notFull.signalAll();
+			} finally {
+				_lock.unlock();
+			}
+			for (int i = 0; i < count; i++)
+				_batch[i] = null;
+		}
+		if (Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO))
+			Log.info(Log.FAC_NETMANAGER, "Shutdown complete for network writer");
+	}
+
+	protected void writeBatch(int count) {
+		_stats.increment(StatsEnum.WriteBatches);
+		_stats.increment(batchBucket(count));
+		long length = 0;
+		for (int i = 0; i < count; i++)
+			length += _batch[i].remaining();
+		try {
+			long result = _channel.write(_batch, 0, count);
+			if (Log.isLoggable(Log.FAC_NETMANAGER, Level.FINEST))
+				Log.finest(Log.FAC_NETMANAGER, "Wrote {0} packets ({1} bytes, result {2})", count, length, result);
+
+			if (result < length) {
+				_stats.increment(StatsEnum.WriteUnderflows);
+				if (Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO))
+					Log.info(Log.FAC_NETMANAGER, "Wrote {0} bytes to channel, but {1} packets were {2} bytes",
+							result, count, length);
+			}
+
+			FileOutputStream tapStream = _tapStream;
+			if (null != tapStream) {
+				try {
+					for (int i = 0; i < count; i++)
+						tapStream.write(_batch[i].array(), _batch[i].arrayOffset(), _batch[i].limit());
+				} catch (IOException io) {
+					Log.warning(Log.FAC_NETMANAGER, "Unable to write packet to tap stream for debugging");
+				}
+			}
+		} catch (IOException io) {
+			_stats.increment(StatsEnum.WriteErrors);
+
+			// We do not see errors on send typically even if
+			// agent is gone, so log each but do not track
+			Log.warning(Log.FAC_NETMANAGER, "Error sending {0} packets: {1}", count, io.toString());
+		}
+	}
+
+	protected static StatsEnum batchBucket(int count) {
+		if (count < 2)
+			return StatsEnum.WriteBatchOf1;
+		if (count < 4)
+			return StatsEnum.WriteBatchOf2To3;
+		if (count < 8)
+			return StatsEnum.WriteBatchOf4To7;
+		if (count < 16)
+			return StatsEnum.WriteBatchOf8To15;
+		return StatsEnum.WriteBatchOf16Plus;
+	}
+
+	protected static StatsEnum depthBucket(int depth) {
+		if (depth < 1)
+			return StatsEnum.WriteQueueDepth0;
+		if (depth < 4)
+			return StatsEnum.WriteQueueDepth1To3;
+		if (depth < 16)
+			return StatsEnum.WriteQueueDepth4To15;
+		return StatsEnum.WriteQueueDepth16Plus;
+	}
+}
@@ -26,6 +26,13 @@ import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.SignatureException;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import javax.crypto.BadPaddingException;
@@ -142,6 +149,18 @@ public class CCNSegmenter {
 	 */
 	protected ContentObject _firstSegment = null;
 
+	/**
+	 * A full batch of blocks is signed and put to the flow controller on one of these
+	 * threads while the writer builds the next batch.
+	 */
+	protected static ExecutorService _signers = null;
+
+	/**
+	 * The batch being signed and put, if any. There's at most one, so batches reach the
+	 * flow controller in order.
+	 */
+	protected Future<Void> _signing = null;
+
 	/**
 	 * Create a segmenter with default (Merkle hash tree) bulk signing
 	 * behavior, making a new handle for it to use.
@@ -257,10 +276,22 @@ public class CCNSegmenter {
 	public CCNFlowControl getFlowControl() { return _flowControl; }
 
 	/**
-	 * Return the first segment.
+	 * Return the first segment, waiting for it to be signed. If the wait is interrupted, it
+	 * returns the segment unsigned, with the thread's interrupt status set.
 	 * @return The first segment or null if no segments generated yet
 	 */
 	public ContentObject getFirstSegment() {
+		// Its signature may still be being computed; any failure is also reported by the next put
+		Future<Void> signing = _signing;
+		if (null != signing) {
+			try {
+				signing.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				Log.warning("Signing blocks in the background failed: " + e.getCause());
+			}
+		}
 		return _firstSegment;
 	}
 	
@@ -365,8 +396,11 @@ public class CCNSegmenter {
 		// DKS TODO -- take encryption overhead into account
 		// DKS TODO -- hook up last segment
 		if (outputLength(length, keys) >= getBlockSize()) {
-			return fragmentedPut(name, content, offset, length, (lastSegments ? CCNSegmenter.LAST_SEGMENT : null),
+			long nextSegmentIndex = fragmentedPut(name, content, offset, length, (lastSegments ? CCNSegmenter.LAST_SEGMENT : null),
 					type, freshnessSeconds, locator, publisher, keys);
+			// Callers of a single put expect what it output to be in the flow controller
+			waitForSigning();
+			return nextSegmentIndex;
 		} else {
 			try {
 				// We should only get here on a single-fragment object, where the lastBlocks
@@ -520,7 +554,7 @@ public class CCNSegmenter {
 					content, offset, length, blockWidth, keys, signingKey, null != finalSegmentIndex);
 		
 		if (_blocks.size() >= HOLD_COUNT || null != finalSegmentIndex) {
-			outputCurrentBlocks(signingKey);	
+			outputCurrentBlocks(signingKey, null != finalSegmentIndex);	
 		}
 
 		return nextSegmentIndex;
@@ -612,7 +646,7 @@ public class CCNSegmenter {
 								contentBlocks[i], 0, (i < firstBlockIndex + blockCount - 1)
 								?  contentBlocks[i].length : lastBlockLength, keys);
 			if (_blocks.size() >= HOLD_COUNT) {
-				outputCurrentBlocks(signingKey);	
+				outputCurrentBlocks(signingKey, false);	
 			}
 		}
 		if (null != finalSegmentIndex) {
@@ -638,13 +672,31 @@ public class CCNSegmenter {
 	 * after a bulk signing pass.
 	 * 
 	 * @param signingKey
-	 * @param finalFlush sign and dump everything if true
 	 * @throws InvalidKeyException
 	 * @throws SignatureException
 	 * @throws NoSuchAlgorithmException
 	 * @throws IOException
 	 */
 	protected void outputCurrentBlocks(PrivateKey signingKey) throws InvalidKeyException, SignatureException, NoSuchAlgorithmException, IOException {
+		outputCurrentBlocks(signingKey, true);
+	}
+
+	/**
+	 * Sign and output all outstanding blocks to the flow controller, as above. Unless this is a
+	 * final flush, a batch needing a bulk signature is signed and output in the background if
+	 * there is more than one processor, while the caller goes on to build the next batch; the
+	 * next call waits for it.
+	 * 
+	 * @param signingKey
+	 * @param finalFlush sign and output everything before returning if true
+	 * @throws InvalidKeyException
+	 * @throws SignatureException
+	 * @throws NoSuchAlgorithmException
+	 * @throws IOException
+	 */
+	protected void outputCurrentBlocks(final PrivateKey signingKey, boolean finalFlush) throws InvalidKeyException, SignatureException, NoSuchAlgorithmException, IOException {
+		// The batch before this one goes to the flow controller first
+		waitForSigning();
 		if (_blocks.size() == 0)
 			return;
 		
@@ -664,18 +716,79 @@ public class CCNSegmenter {
 			// and signedInfos in the MerkleTree blocks. 
 			// For now, this generates the root signature too, so can
 			// ask for the signature for each block.
-			ContentObject[] blocks = new ContentObject[_blocks.size()];
+			final ContentObject[] blocks = new ContentObject[_blocks.size()];
 			_blocks.toArray(blocks);
 			
 			if (Log.isLoggable(Log.FAC_IO, Level.INFO))
 				Log.info(Log.FAC_IO, "flush: putting merkle tree to the network, name starts with " + blocks[0].name() + "; " 
 	                    + _blocks.size() + " blocks");
-			_bulkSigner.signBlocks(blocks, signingKey);
-			getFlowControl().put(blocks);
+			// With one processor there's nothing to overlap signing with
+			if (finalFlush || (Runtime.getRuntime().availableProcessors() < 2)) {
+				_bulkSigner.signBlocks(blocks, signingKey);
+				getFlowControl().put(blocks);
+			} else {
+				_signing = signers().submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						_bulkSigner.signBlocks(blocks, signingKey);
+						getFlowControl().put(blocks);
+						return null;
+					}
+				});
+			}
 		}
 		_blocks.clear();
 	}
 
+	/**
+	 * Wait for the batch of blocks being signed in the background, if any, to reach the flow
+	 * controller.
+	 * @throws InvalidKeyException
+	 * @throws SignatureException
+	 * @throws NoSuchAlgorithmException
+	 * @throws IOException if the put failed, or we were interrupted
+	 */
+	protected void waitForSigning() throws InvalidKeyException, SignatureException, NoSuchAlgorithmException, IOException {
+		if (null == _signing)
+			return;
+		try {
+			_signing.get();
+			_signing = null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for blocks to be signed");
+		} catch (ExecutionException e) {
+			_signing = null;
+			Throwable cause = e.getCause();
+			if (cause instanceof InvalidKeyException)
+				throw (InvalidKeyException)cause;
+			if (cause instanceof SignatureException)
+				throw (SignatureException)cause;
+			if (cause instanceof NoSuchAlgorithmException)
+				throw (NoSuchAlgorithmException)cause;
+			if (cause instanceof IOException)
+				throw (IOException)cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if (cause instanceof Error)
+				throw (Error)cause;
+			throw new IOException("Cannot sign blocks: " + cause.getMessage());
+		}
+	}
+
+	protected static synchronized ExecutorService signers() {
+		if (null == _signers) {
+			_signers = Executors.newCachedThreadPool(new ThreadFactory() {
+				AtomicInteger count = new AtomicInteger(0);
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "CCNSegmenter signer-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return _signers;
+	}
+
 	/**
 	 * Puts a single block of content of arbitrary length using a segment naming convention. The only
 	 * current use of this is to allow a Segmenter.put of less than a blocksize. 
@@ -743,8 +856,8 @@ public class CCNSegmenter {
 		segmentNumber = newBlock(rootName, segmentNumber, 
 				signedInfo, content, offset, length, keys);
 		if (_blocks.size() >= HOLD_COUNT + 1 || null != finalSegmentIndex)
-			outputCurrentBlocks(signingKey);
-			
+			outputCurrentBlocks(signingKey, null != finalSegmentIndex);
+
 		return segmentNumber;
 	}
 
@@ -809,7 +922,7 @@ public class CCNSegmenter {
 			offset += blockWidth;
 			length -= blockWidth;
 			if (_blocks.size() >= HOLD_COUNT + 1 || finalFlush) {
-				outputCurrentBlocks(signingKey);	
+				outputCurrentBlocks(signingKey, finalFlush);	
 			}
 		}
 		return nextSegmentIndex;
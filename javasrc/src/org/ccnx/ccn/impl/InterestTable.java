@@ -26,6 +26,7 @@ import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.logging.Level;
 
+import org.ccnx.ccn.impl.support.ByteArrayCompare;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.protocol.ContentName;
 import org.ccnx.ccn.protocol.ContentObject;
@@ -44,6 +45,10 @@ import org.ccnx.ccn.protocol.Interest;
  * interests in the table. To avoid that an LRU algorithm is
  * optionally implemented to keep the table from growing without
  * bounds.
+ * 
+ * Names are additionally indexed by component in a trie, so that matching
+ * a target only visits the entries whose names are prefixes of the target
+ * rather than every name in the table.
  */
 
 public class InterestTable<V> {
@@ -105,6 +110,19 @@ public class InterestTable<V> {
 	};
 	protected Integer _capacity = null;	// For LRU size control - default is none
 
+	/**
+	 * Node of the component trie indexing _contents. A node has entries only
+	 * if its name is a key in _contents, in which case entries is the same list.
+	 */
+	protected class IndexNode {
+		protected LongestFirstContentName name = null;
+		protected List<Holder<V>> entries = null;
+		protected SortedMap<byte [], IndexNode> children = null;
+	}
+
+	protected static final ByteArrayCompare _componentComparator = new ByteArrayCompare();
+	protected IndexNode _index = new IndexNode();
+
 	protected abstract class Holder<T> implements Entry<T> {
 		protected T value;
 		public Holder(T v) {
@@ -201,8 +219,8 @@ public class InterestTable<V> {
 	 */
 	protected void add(Holder<V> holder) {
 		LongestFirstContentName name = new LongestFirstContentName(holder.name());
-		if (_contents.containsKey(name)) {
-			List<Holder<V>> list = _contents.get(name);
+		List<Holder<V>> list = getEntries(name);
+		if (null != list) {
 			list.add(holder);
 			if (null != _capacity) {
 				synchronized (_contents) {
@@ -211,7 +229,7 @@ public class InterestTable<V> {
 				}
 			}
 		} else {
-			ArrayList<Holder<V>> list = new ArrayList<Holder<V>>(1);
+			list = new ArrayList<Holder<V>>(1);
 			list.add(holder);
 
 			// We assume that the "oldest" entry is the first one.
@@ -220,16 +238,134 @@ public class InterestTable<V> {
 			// interests attached?
 			synchronized (_contents) {
 				if (null != _capacity && _contents.size() >= _capacity)
-					_contents.remove(_contents.firstKey());
+					removeName(_contents.firstKey());
 				_contents.put(name, list);
+				indexPut(name, list);
+			}
+		}
+	}
+
+	/**
+	 * Internal: find the entries having exactly the specified name using the index.
+	 * 
+	 * @param name
+	 * @return the list of entries, or null if the name is not in the table
+	 */
+	protected List<Holder<V>> getEntries(ContentName name) {
+		IndexNode node = _index;
+		int count = name.count();
+		for (int i = 0; i < count; i++) {
+			if (null == node.children)
+				return null;
+			node = node.children.get(name.component(i));
+			if (null == node)
+				return null;
+		}
+		return node.entries;
+	}
+
+	/**
+	 * Internal: find the index nodes for all names in the table which are prefixes of
+	 * target, ordered from shortest to longest. If digestTarget is non-null, also include
+	 * a name one component longer than target whose last component is the digest of
+	 * digestTarget, as an Interest with that name may match digestTarget.
+	 * 
+	 * @param target
+	 * @param digestTarget ContentObject named target, or null to match by name only
+	 * @return the nodes found, empty if none
+	 */
+	protected List<IndexNode> getPrefixNodes(ContentName target, ContentObject digestTarget) {
+		List<IndexNode> nodes = new ArrayList<IndexNode>();
+		IndexNode node = _index;
+		int count = target.count();
+		for (int i = 0; i < count; i++) {
+			if (null != node.entries)
+				nodes.add(node);
+			if (null == node.children)
+				return nodes;
+			node = node.children.get(target.component(i));
+			if (null == node)
+				return nodes;
+		}
+		if (null != node.entries)
+			nodes.add(node);
+		// Only compute the digest if there is a longer name that might need it
+		if (null != digestTarget && null != node.children) {
+			node = node.children.get(digestTarget.digest());
+			if (null != node && null != node.entries)
+				nodes.add(node);
+		}
+		return nodes;
+	}
+
+	/**
+	 * Internal: add a name to the index. Must be called while holding the 
+	 * _contents lock.
+	 */
+	protected void indexPut(LongestFirstContentName name, List<Holder<V>> list) {
+		IndexNode node = _index;
+		int count = name.count();
+		for (int i = 0; i < count; i++) {
+			if (null == node.children)
+				node.children = new TreeMap<byte [], IndexNode>(_componentComparator);
+			IndexNode child = node.children.get(name.component(i));
+			if (null == child) {
+				child = new IndexNode();
+				node.children.put(name.component(i), child);
 			}
+			node = child;
+		}
+		node.name = name;
+		node.entries = list;
+	}
+
+	/**
+	 * Internal: remove a name from the index, pruning any nodes left without
+	 * entries or children. Must be called while holding the _contents lock.
+	 */
+	protected void indexRemove(ContentName name) {
+		int count = name.count();
+		ArrayList<IndexNode> path = new ArrayList<IndexNode>(count + 1);
+		IndexNode node = _index;
+		path.add(node);
+		for (int i = 0; i < count; i++) {
+			if (null == node.children)
+				return;
+			node = node.children.get(name.component(i));
+			if (null == node)
+				return;
+			path.add(node);
+		}
+		node.name = null;
+		node.entries = null;
+		for (int i = count; i > 0; i--) {
+			node = path.get(i);
+			if (null != node.entries || (null != node.children && node.children.size() > 0))
+				break;
+			path.get(i - 1).children.remove(name.component(i - 1));
+		}
+	}
+
+	/**
+	 * Internal: remove a name and all its entries from both the table and the index.
+	 */
+	protected void removeName(LongestFirstContentName name) {
+		synchronized (_contents) {
+			_contents.remove(name);
+			indexRemove(name);
 		}
 	}
 
 	protected Holder<V> getMatchByName(ContentName name, ContentObject target) {
-		List<Holder<V>> list = _contents.get(new LongestFirstContentName(name));
+		return getMatchInList(getEntries(name), target);
+	}
+
+	/**
+	 * Internal: return the first Interest entry in list matching target
+	 */
+	protected Holder<V> getMatchInList(List<Holder<V>> list, ContentObject target) {
 		if (Log.isLoggable(Log.FAC_ENCODING, Level.FINEST))
-			Log.finest(Log.FAC_ENCODING, "name: {0} target: {1} possible matches: {2}", name, target.name(), ((null == list) ? 0 : list.size()));
+			Log.finest(Log.FAC_ENCODING, "target: {0} possible matches: {1}", target.name(), ((null == list) ? 0 : list.size()));
 		if (null != list) {
 			for (Iterator<Holder<V>> holdIt = list.iterator(); holdIt.hasNext(); ) {
 				Holder<V> holder = holdIt.next();
@@ -254,8 +390,14 @@ public class InterestTable<V> {
 	protected List<Holder<V>> getAllMatchByName(ContentName name, ContentObject target) {
 		if(Log.isLoggable(Log.FAC_ENCODING, Level.FINEST))
 			Log.finest(Log.FAC_ENCODING, "name: {0} target: {1}", name, target.name());
+		return getAllMatchInList(getEntries(name), target);
+	}
+
+	/**
+	 * Internal: return all the Interest entries in list matching target
+	 */
+	protected List<Holder<V>> getAllMatchInList(List<Holder<V>> list, ContentObject target) {
 		List<Holder<V>> matches = new ArrayList<Holder<V>>();
-		List<Holder<V>> list = _contents.get(new LongestFirstContentName(name));
 		if (null != list) {
 			for (Iterator<Holder<V>> holdIt = list.iterator(); holdIt.hasNext(); ) {
 				Holder<V> holder = holdIt.next();
@@ -273,7 +415,7 @@ public class InterestTable<V> {
 		if(Log.isLoggable(Log.FAC_ENCODING, Level.FINEST))
 			Log.finest(Log.FAC_ENCODING, "name: {0} target: {1}", name, target.name());
 		LongestFirstContentName lfcn = new LongestFirstContentName(name);
-		List<Holder<V>> list = _contents.get(lfcn);
+		List<Holder<V>> list = getEntries(lfcn);
 		if (null != list) {
 			for (Iterator<Holder<V>> holdIt = list.iterator(); holdIt.hasNext(); ) {
 				Holder<V> holder = holdIt.next();
@@ -281,9 +423,7 @@ public class InterestTable<V> {
 					if (holder.interest().matches(target)) {
 						holdIt.remove();
 						if (list.size() == 0) {
-							synchronized (_contents) {
-								_contents.remove(lfcn);
-							}
+							removeName(lfcn);
 						}
 						return holder;
 					}
@@ -304,7 +444,7 @@ public class InterestTable<V> {
 	public Entry<V> remove(ContentName name, V value) {
 		Holder<V> result = null;
 		LongestFirstContentName lfcn = new LongestFirstContentName(name);
-		List<Holder<V>> list = _contents.get(lfcn);
+		List<Holder<V>> list = getEntries(lfcn);
 		if (null != list) {
 			for (Iterator<Holder<V>> holdIt = list.iterator(); holdIt.hasNext(); ) {
 				Holder<V> holder = holdIt.next();
@@ -321,9 +461,7 @@ public class InterestTable<V> {
 				}
 			}
 			if (list.size() == 0) {
-				synchronized (_contents) {
-					_contents.remove(lfcn);
-				}
+				removeName(lfcn);
 			}
 		}
 		return result;
@@ -339,7 +477,7 @@ public class InterestTable<V> {
 	public Entry<V> remove(Interest interest, V value) {
 		Holder<V> result = null;
 		LongestFirstContentName name = new LongestFirstContentName(interest.name());
-		List<Holder<V>> list = _contents.get(name);
+		List<Holder<V>> list = getEntries(name);
 		if (null != list) {
 			for (Iterator<Holder<V>> holdIt = list.iterator(); holdIt.hasNext(); ) {
 				Holder<V> holder = holdIt.next();
@@ -359,9 +497,7 @@ public class InterestTable<V> {
 				}
 			}
 			if (list.size() == 0) {
-				synchronized (_contents) {
-					_contents.remove(name);
-				}
+				removeName(name);
 			}
 		}
 		return result;
@@ -370,7 +506,7 @@ public class InterestTable<V> {
 	protected List<Holder<V>> removeAllMatchByName(ContentName name, ContentObject target) {
 		List<Holder<V>> matches = new ArrayList<Holder<V>>();
 		LongestFirstContentName lfcn = new LongestFirstContentName(name);
-		List<Holder<V>> list = _contents.get(lfcn);
+		List<Holder<V>> list = getEntries(lfcn);
 		if (null != list) {
 			for (Iterator<Holder<V>> holdIt = list.iterator(); holdIt.hasNext(); ) {
 				Holder<V> holder = holdIt.next();
@@ -382,9 +518,7 @@ public class InterestTable<V> {
 				}	
 			}
 			if (list.size() == 0) {
-				synchronized (_contents) {
-					_contents.remove(lfcn);
-				}
+				removeName(lfcn);
 			}
 		}
 		return matches;
@@ -420,8 +554,8 @@ public class InterestTable<V> {
 		if(Log.isLoggable(Log.FAC_ENCODING, Level.FINEST))
 			Log.finest(Log.FAC_ENCODING, "target: {0}", target.name());
 		Entry<V> match = null;
-		for (LongestFirstContentName name : _contents.keySet()) {
-			Entry<V> found = getMatchByName(name, target);
+		for (IndexNode node : getPrefixNodes(target.name(), target)) {
+			Entry<V> found = getMatchInList(node.entries, target);
 			if (null != found)
 				match = found;
 		}
@@ -466,9 +600,9 @@ public class InterestTable<V> {
 
 		List<Entry<V>> matches = new ArrayList<Entry<V>>();
 		if (null != target) {
-			for (LongestFirstContentName name : _contents.keySet()) {
+			for (IndexNode node : getPrefixNodes(target.name(), target)) {
 				// Name match - is there an interest match here?
-				matches.addAll(getAllMatchByName(name, target));
+				matches.addAll(getAllMatchInList(node.entries, target));
 			}
 			Collections.reverse(matches);
 		}
@@ -509,10 +643,8 @@ public class InterestTable<V> {
 			Log.finest(Log.FAC_ENCODING, "target: {0}", target);
 
 		Entry<V> match = null;
-		for (LongestFirstContentName name : _contents.keySet()) {
-			if (name.isPrefixOf(target)) {
-				match = _contents.get(name).get(0);
-			}
+		for (IndexNode node : getPrefixNodes(target, null)) {
+			match = node.entries.get(0);
 		}
 		return match;
 	}
@@ -550,10 +682,8 @@ public class InterestTable<V> {
 			Log.finest(Log.FAC_ENCODING, "target: {0}", target);
 
 		List<Entry<V>> matches = new ArrayList<Entry<V>>();
-		for (LongestFirstContentName name : _contents.keySet()) {
-			if (name.isPrefixOf(target)) {
-				matches.addAll(_contents.get(name));
-			}
+		for (IndexNode node : getPrefixNodes(target, null)) {
+			matches.addAll(node.entries);
 		}
 		Collections.reverse(matches);
 		return matches;
@@ -609,11 +739,11 @@ public class InterestTable<V> {
 			ContentName matchName = null;
 			if(Log.isLoggable(Log.FAC_ENCODING, Level.FINEST))
 				Log.finest(Log.FAC_ENCODING, "removeMatch: looking for match to target {0} among {1} possibilities.", target.name(), _contents.keySet().size());				
-			for (LongestFirstContentName name : _contents.keySet()) {
-				Entry<V> found = getMatchByName(name, target);
+			for (IndexNode node : getPrefixNodes(target.name(), target)) {
+				Entry<V> found = getMatchInList(node.entries, target);
 				if (null != found) {
 					match = found;
-					matchName = name;
+					matchName = node.name;
 				}
 				// Do not remove here -- need to find best match and avoid disturbing iterator
 			}
@@ -656,12 +786,10 @@ public class InterestTable<V> {
 	public List<Entry<V>> removeMatches(ContentObject target) {
 		List<Entry<V>> matches = new ArrayList<Entry<V>>();
 		List<ContentName> names = new ArrayList<ContentName>();
-		for (LongestFirstContentName name : _contents.keySet()) {
-			if (name.isPrefixOf(target.name())) {
-				// Name match - is there an interest match here?
-				matches.addAll(getAllMatchByName(name, target));
-				names.add(name);
-			}
+		for (IndexNode node : getPrefixNodes(target.name(), null)) {
+			// Name match - is there an interest match here?
+			matches.addAll(getAllMatchInList(node.entries, target));
+			names.add(node.name);
 		}
 		if (matches.size() != 0) {
 			for (ContentName contentName : names) {
@@ -708,6 +836,7 @@ public class InterestTable<V> {
 	public void clear() {
 		synchronized (_contents) {
 			_contents.clear();
+			_index = new IndexNode();
 		}
 	}
 
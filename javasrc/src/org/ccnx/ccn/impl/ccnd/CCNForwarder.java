@@ -0,0 +1,693 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.ccnd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.impl.CCNNetworkManager;
+import org.ccnx.ccn.impl.CCNStats;
+import org.ccnx.ccn.impl.InterestTable;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats.IStatsEnum;
+import org.ccnx.ccn.impl.encoding.BinaryXMLBufferDecoder;
+import org.ccnx.ccn.impl.encoding.BinaryXMLCodec;
+import org.ccnx.ccn.impl.encoding.CCNProtocolDTags;
+import org.ccnx.ccn.impl.encoding.XMLCodecFactory;
+import org.ccnx.ccn.impl.encoding.XMLEncodable;
+import org.ccnx.ccn.impl.encoding.XMLEncoder;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.io.content.ContentDecodingException;
+import org.ccnx.ccn.io.content.ContentEncodingException;
+import org.ccnx.ccn.profiles.ccnd.PrefixRegistrationManager;
+import org.ccnx.ccn.profiles.ccnd.PrefixRegistrationManager.ActionType;
+import org.ccnx.ccn.profiles.ccnd.PrefixRegistrationManager.ForwardingEntry;
+import org.ccnx.ccn.profiles.context.ServiceDiscoveryProfile;
+import org.ccnx.ccn.profiles.security.KeyProfile;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.KeyLocator;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.ccnx.ccn.protocol.WirePacket;
+
+/**
+ * A forwarder written in Java that can stand in for ccnd, for testing and benchmarking the
+ * library without the C ccnd, and for small embedded nodes.
+ *
+ * It listens for TCP connections and UDP datagrams on one port, each connection or remote
+ * address being a face. It has:
+ * - a forwarding table, filled in by faces registering prefixes with the same requests the
+ *   library sends ccnd (see PrefixRegistrationManager), which it answers signed with its own
+ *   key, as well as answering requests for that key so the library can learn its ccnd id;
+ * - a pending interest table, so interests for the same thing from several faces are sent on
+ *   once and the content that comes back goes to all of them;
+ * - a content store of a fixed number of objects, which answers interests when it can.
+ *
+ * Packets are forwarded by the thread reading the face they arrived on, as the encodings they
+ * arrived with, and written to TCP faces by a thread for each. It doesn't do everything ccnd
+ * does: there are no strategies beyond sending an interest to every face registered for it,
+ * no nonces to detect loops, and interests that aren't re-expressed are forgotten after
+ * PENDING_INTEREST_LIFETIME.
+ *
+ * Usage: CCNForwarder [-port port] [-capacity content store objects]
+ */
+public class CCNForwarder {
+
+	public static final int DEFAULT_CAPACITY = 50000;
+	public static final long PENDING_INTEREST_LIFETIME = 4000;	// as ccnd's default
+	public static final long UDP_FACE_TIMEOUT = 60000;			// remove UDP faces we don't hear from
+	public static final long SWEEP_PERIOD = 500;
+
+	protected static final byte [] CONTROL_COMPONENT = ContentName.componentParseNative("ccnx");
+
+	/**
+	 * What we know about an interest we've sent on
+	 */
+	protected static class PendingInterest {
+		protected final Interest interest;
+		protected final HashSet<ForwarderFace> faces = new HashSet<ForwarderFace>(2);
+		protected long expires;
+
+		protected PendingInterest(Interest interest) {
+			this.interest = interest;
+		}
+	}
+
+	/**
+	 * The faces registered for a prefix, with their flags. Replaced rather than changed,
+	 * so it can be read without a lock.
+	 */
+	protected static class ForwardingTableEntry {
+		protected final HashMap<ForwarderFace, Integer> faces;
+		protected final boolean capture;
+
+		protected ForwardingTableEntry(HashMap<ForwarderFace, Integer> faces) {
+			this.faces = faces;
+			boolean capture = false;
+			for (Integer flags : faces.values())
+				capture |= (0 != (flags & PrefixRegistrationManager.CCN_FORW_CAPTURE));
+			this.capture = capture;
+		}
+	}
+
+	protected final int _port;
+	protected final ContentStore _store;
+	protected final AtomicInteger _faceCount = new AtomicInteger(0);
+	protected final ConcurrentHashMap<Integer, ForwarderFace> _faces = new ConcurrentHashMap<Integer, ForwarderFace>();
+	protected final ConcurrentHashMap<SocketAddress, ForwarderFace.UDPFace> _udpFaces = new ConcurrentHashMap<SocketAddress, ForwarderFace.UDPFace>();
+
+	// Both protected by the lock on _pendingInterests
+	protected final InterestTable<PendingInterest> _pendingInterests = new InterestTable<PendingInterest>();
+	protected final HashMap<Interest, PendingInterest> _pendingByInterest = new HashMap<Interest, PendingInterest>();
+
+	// Changes are made holding the lock on _forwardingTable
+	protected final ConcurrentHashMap<ContentName, ForwardingTableEntry> _forwardingTable = new ConcurrentHashMap<ContentName, ForwardingTableEntry>();
+
+	protected final KeyPair _keys;
+	protected final PublisherPublicKeyDigest _ccndId;
+	protected final ContentName _controlPrefix;
+	protected final ContentName _keyName;
+	protected final byte [] _keyObject;
+
+	protected ServerSocketChannel _tcpChannel = null;
+	protected DatagramChannel _udpChannel = null;
+	protected Timer _timer = null;
+	protected volatile boolean _run = false;
+
+	protected CCNEnumStats<StatsEnum> _stats = new CCNEnumStats<StatsEnum>(StatsEnum.ReceiveInterest);
+
+	/**
+	 * @param port port to listen on for TCP and UDP, or 0 for any free port
+	 * @param capacity number of content objects to hold in the content store
+	 */
+	public CCNForwarder(int port, int capacity) throws IOException {
+		_port = port;
+		_store = new ContentStore(capacity);
+		try {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+			generator.initialize(1024);
+			_keys = generator.generateKeyPair();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("Cannot generate forwarder key: " + e.getMessage());
+		}
+		_ccndId = new PublisherPublicKeyDigest(_keys.getPublic());
+		_controlPrefix = new ContentName(new ContentName(new byte [][]{CONTROL_COMPONENT}), _ccndId.digest());
+		_keyName = new ContentName(ServiceDiscoveryProfile.localServiceName(ServiceDiscoveryProfile.CCND_SERVICE_NAME),
+				KeyProfile.KEY_NAME_COMPONENT);
+		_keyObject = sign(new ContentName(_keyName, _ccndId.digest()), SignedInfo.ContentType.KEY, _keys.getPublic().getEncoded());
+	}
+
+	/**
+	 * Start listening, and the threads that do
+	 */
+	public void start() throws IOException {
+		_run = true;
+		_tcpChannel = ServerSocketChannel.open();
+		_tcpChannel.socket().setReuseAddress(true);
+		_tcpChannel.socket().bind(new InetSocketAddress(_port));
+		_udpChannel = DatagramChannel.open();
+		_udpChannel.socket().bind(new InetSocketAddress(_tcpChannel.socket().getLocalPort()));
+
+		startThread(new Runnable() {
+			public void run() {
+				acceptTCP();
+			}
+		}, "CCNForwarder TCP");
+		startThread(new Runnable() {
+			public void run() {
+				receiveUDP();
+			}
+		}, "CCNForwarder UDP");
+		_timer = new Timer("CCNForwarder sweep", true);
+		_timer.schedule(new TimerTask() {
+			public void run() {
+				sweep();
+			}
+		}, SWEEP_PERIOD, SWEEP_PERIOD);
+		if (Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO))
+			Log.info(Log.FAC_NETMANAGER, "CCNForwarder {0} listening on port {1}",
+					ContentName.componentPrintURI(_ccndId.digest()), getPort());
+	}
+
+	public void shutdown() {
+		_run = false;
+		if (null != _timer)
+			_timer.cancel();
+		try {
+			if (null != _tcpChannel)
+				_tcpChannel.close();
+			if (null != _udpChannel)
+				_udpChannel.close();
+		} catch (IOException e) {}
+		for (ForwarderFace face : _faces.values())
+			face.close();
+	}
+
+	/**
+	 * @return the port we're listening on
+	 */
+	public int getPort() {
+		return _tcpChannel.socket().getLocalPort();
+	}
+
+	public PublisherPublicKeyDigest getCCNDId() {
+		return _ccndId;
+	}
+
+	public CCNStats getStats() {
+		return _stats;
+	}
+
+	/**
+	 * @return the number of faces open
+	 */
+	public int faces() {
+		return _faces.size();
+	}
+
+	protected void startThread(Runnable runnable, String name) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	protected void acceptTCP() {
+		while (_run) {
+			try {
+				SocketChannel channel = _tcpChannel.accept();
+				ForwarderFace.TCPFace face = new ForwarderFace.TCPFace(this, _faceCount.incrementAndGet(), channel);
+				addFace(face);
+				startThread(face, "CCNForwarder " + face);
+			} catch (IOException e) {
+				if (_run)
+					Log.warning(Log.FAC_NETMANAGER, "CCNForwarder: accept failed: {0}", e.getMessage());
+			}
+		}
+	}
+
+	protected void receiveUDP() {
+		ByteBuffer buffer = ByteBuffer.allocate(CCNNetworkManager.MAX_PAYLOAD);
+		while (_run) {
+			try {
+				buffer.clear();
+				SocketAddress remote = _udpChannel.receive(buffer);
+				ForwarderFace.UDPFace face = _udpFaces.get(remote);
+				if (null == face) {
+					face = new ForwarderFace.UDPFace(this, _faceCount.incrementAndGet(), _udpChannel, remote);
+					_udpFaces.put(remote, face);
+					addFace(face);
+				}
+				face._lastReceived = System.currentTimeMillis();
+				buffer.flip();
+				// A heartbeat is a datagram holding a single zero byte, which only keeps the face open
+				if (1 == buffer.remaining() && 0 == buffer.get(0))
+					continue;
+				int end;
+				try {
+					while ((end = BinaryXMLBufferDecoder.elementEnd(buffer, buffer.position(), buffer.limit())) > 0) {
+						byte [] packet = new byte[end - buffer.position()];
+						buffer.get(packet);
+						receive(face, packet);
+					}
+				} catch (ContentDecodingException e) {
+					_stats.increment(StatsEnum.ReceiveErrors);
+					if (Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO))
+						Log.info(Log.FAC_NETMANAGER, "CCNForwarder: bad datagram from {0}: {1}", face, e.getMessage());
+				}
+			} catch (IOException e) {
+				if (_run)
+					Log.warning(Log.FAC_NETMANAGER, "CCNForwarder: UDP receive failed: {0}", e.getMessage());
+			}
+		}
+	}
+
+	protected void addFace(ForwarderFace face) {
+		_faces.put(face.faceId(), face);
+		if (Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO))
+			Log.info(Log.FAC_NETMANAGER, "CCNForwarder: new {0}", face);
+	}
+
+	/**
+	 * Forget a face, and its prefix registrations. Any pending interests it sent
+	 * will be dropped when content arrives for them or they expire.
+	 */
+	protected void removeFace(ForwarderFace face) {
+		if (null == _faces.remove(face.faceId()))
+			return;
+		if (face instanceof ForwarderFace.UDPFace)
+			_udpFaces.remove(((ForwarderFace.UDPFace)face)._remote);
+		synchronized (_forwardingTable) {
+			for (ContentName prefix : _forwardingTable.keySet())
+				unregister(prefix, face);
+		}
+		if (Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO))
+			Log.info(Log.FAC_NETMANAGER, "CCNForwarder: closed {0}", face);
+	}
+
+	/**
+	 * Handle a packet that has arrived on a face
+	 * @param from the face
+	 * @param encoded the packet
+	 */
+	protected void receive(ForwarderFace from, byte [] encoded) {
+		XMLEncodable packet;
+		try {
+			WirePacket wirePacket = new WirePacket();
+			BinaryXMLBufferDecoder decoder = new BinaryXMLBufferDecoder();
+			decoder.beginDecoding(ByteBuffer.wrap(encoded));
+			wirePacket.decode(decoder);
+			decoder.endDecoding();
+			packet = wirePacket.getPacket();
+		} catch (Exception e) {
+			_stats.increment(StatsEnum.ReceiveErrors);
+			if (Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO))
+				Log.info(Log.FAC_NETMANAGER, "CCNForwarder: bad packet from {0}: {1}", from, e.getMessage());
+			return;
+		}
+		if (packet instanceof Interest) {
+			receiveInterest(from, (Interest)packet, encoded);
+		} else if (packet instanceof ContentObject) {
+			receiveContent(from, (ContentObject)packet, encoded);
+		} else {
+			_stats.increment(StatsEnum.ReceiveErrors);
+		}
+	}
+
+	protected void receiveInterest(ForwarderFace from, Interest interest, byte [] encoded) {
+		_stats.increment(StatsEnum.ReceiveInterest);
+		if (_controlPrefix.isPrefixOf(interest.name())) {
+			control(from, interest);
+			return;
+		}
+		if (_keyName.isPrefixOf(interest.name())) {
+			from.send(_keyObject);
+			return;
+		}
+
+		if (0 != (interest.answerOriginKind() & Interest.ANSWER_CONTENT_STORE)) {
+			byte [] stored = _store.get(interest);
+			if (null != stored) {
+				_stats.increment(StatsEnum.ContentStoreHits);
+				from.send(stored);
+				return;
+			}
+		}
+		if ((null != interest.scope()) && (0 == interest.scope()))
+			return;
+
+		boolean forward;
+		synchronized (_pendingInterests) {
+			PendingInterest pending = _pendingByInterest.get(interest);
+			if (null == pending) {
+				pending = new PendingInterest(interest);
+				_pendingByInterest.put(interest, pending);
+				_pendingInterests.add(interest, pending);
+			}
+			// Send it on if it's new, or being re-expressed, but not if another face is already waiting for it
+			forward = !pending.faces.add(from) || (1 == pending.faces.size());
+			pending.expires = System.currentTimeMillis() + PENDING_INTEREST_LIFETIME;
+		}
+		if (!forward) {
+			_stats.increment(StatsEnum.InterestsAggregated);
+			return;
+		}
+		List<ForwarderFace> faces = route(interest, from);
+		if (faces.isEmpty())
+			_stats.increment(StatsEnum.InterestsUnroutable);
+		for (ForwarderFace face : faces) {
+			_stats.increment(StatsEnum.InterestsForwarded);
+			face.send(encoded);
+		}
+	}
+
+	protected void receiveContent(ForwarderFace from, ContentObject co, byte [] encoded) {
+		_stats.increment(StatsEnum.ReceiveContent);
+		HashSet<ForwarderFace> faces = new HashSet<ForwarderFace>();
+		synchronized (_pendingInterests) {
+			for (PendingInterest pending : _pendingInterests.removeValues(co)) {
+				_pendingByInterest.remove(pending.interest);
+				faces.addAll(pending.faces);
+			}
+		}
+		faces.remove(from);
+		if (faces.isEmpty())
+			_stats.increment(StatsEnum.ContentUnsolicited);
+		_store.put(co, encoded);
+		for (ForwarderFace face : faces) {
+			_stats.increment(StatsEnum.ContentForwarded);
+			face.send(encoded);
+		}
+	}
+
+	/**
+	 * Find the faces to send an interest to: those registered for the longest prefix of
+	 * its name, and for shorter prefixes that allow their children to inherit them, unless
+	 * a longer one captures the name.
+	 */
+	protected List<ForwarderFace> route(Interest interest, ForwarderFace from) {
+		ArrayList<ForwarderFace> result = new ArrayList<ForwarderFace>(2);
+		ContentName name = interest.name();
+		boolean localOnly = (null != interest.scope()) && (1 == interest.scope());
+		for (int count = name.count(); count >= 0; count--) {
+			ForwardingTableEntry entry = _forwardingTable.get(name.cut(count));
+			if (null == entry)
+				continue;
+			for (Map.Entry<ForwarderFace, Integer> registration : entry.faces.entrySet()) {
+				int flags = registration.getValue();
+				ForwarderFace face = registration.getKey();
+				if (0 == (flags & PrefixRegistrationManager.CCN_FORW_ACTIVE))
+					continue;
+				if ((count < name.count()) && (0 == (flags & PrefixRegistrationManager.CCN_FORW_CHILD_INHERIT)))
+					continue;
+				if ((face == from) || (localOnly && !face.isLocal()) || result.contains(face))
+					continue;
+				result.add(face);
+			}
+			if (entry.capture)
+				break;
+		}
+		return result;
+	}
+
+	/**
+	 * Must be called holding the lock on _forwardingTable
+	 */
+	protected void register(ContentName prefix, ForwarderFace face, int flags) {
+		ForwardingTableEntry entry = _forwardingTable.get(prefix);
+		HashMap<ForwarderFace, Integer> faces = (null == entry) ? new HashMap<ForwarderFace, Integer>()
+				: new HashMap<ForwarderFace, Integer>(entry.faces);
+		faces.put(face, flags);
+		_forwardingTable.put(prefix, new ForwardingTableEntry(faces));
+	}
+
+	/**
+	 * Must be called holding the lock on _forwardingTable
+	 */
+	protected void unregister(ContentName prefix, ForwarderFace face) {
+		ForwardingTableEntry entry = _forwardingTable.get(prefix);
+		if ((null == entry) || !entry.faces.containsKey(face))
+			return;
+		HashMap<ForwarderFace, Integer> faces = new HashMap<ForwarderFace, Integer>(entry.faces);
+		faces.remove(face);
+		if (faces.isEmpty())
+			_forwardingTable.remove(prefix);
+		else
+			_forwardingTable.put(prefix, new ForwardingTableEntry(faces));
+	}
+
+	/**
+	 * Handle a prefix registration request: ccnx:/ccnx/<ccnd id>/<action>/<signed ForwardingEntry>
+	 *
+	 * As ccnd does, a request whose ForwardingEntry can be read is answered with a NACK if it
+	 * can't be carried out, so the requester hears why rather than timing out. A self
+	 * registration may only name the face it came from.
+	 */
+	protected void control(ForwarderFace from, Interest interest) {
+		_stats.increment(StatsEnum.ControlRequests);
+		ContentName name = interest.name();
+		if (name.count() < 4)
+			return;
+		ContentObject signed;
+		ForwardingEntry request;
+		try {
+			signed = new ContentObject();
+			signed.decode(name.component(3));
+			request = new ForwardingEntry(signed.content());
+		} catch (Exception e) {
+			Log.warning(Log.FAC_NETMANAGER, "CCNForwarder: bad control request from {0}: {1}", from, e.getMessage());
+			return;
+		}
+		KeyLocator locator = signed.signedInfo().getKeyLocator();
+		try {
+			if ((null == locator) || (null == locator.key()) || !ContentObject.verify(signed, locator.key())) {
+				Log.warning(Log.FAC_NETMANAGER, "CCNForwarder: unverified control request from {0}", from);
+				nack(from, name, 430, "not authorized");
+				return;
+			}
+		} catch (Exception e) {
+			Log.warning(Log.FAC_NETMANAGER, "CCNForwarder: can't verify control request from {0}: {1}", from, e.getMessage());
+			nack(from, name, 430, "not authorized");
+			return;
+		}
+
+		String action = ContentName.componentPrintNative(name.component(2));
+		ForwarderFace face = from;
+		if (ActionType.Register.value().equals(action) || ActionType.UnRegister.value().equals(action)) {
+			if (null != request.getFaceID())
+				face = _faces.get(request.getFaceID());
+		} else if (ActionType.SelfRegister.value().equals(action)) {
+			if ((null != request.getFaceID()) && (request.getFaceID() != from.faceId()))
+				face = null;
+		} else {
+			face = null;
+		}
+		if ((null == face) || (null == request.getPrefixName())) {
+			Log.warning(Log.FAC_NETMANAGER, "CCNForwarder: can't {0} {1} on face {2} for {3}", action, request.getPrefixName(), request.getFaceID(), from);
+			nack(from, name, 450, "could not register prefix");
+			return;
+		}
+
+		Integer flags = request.getFlags();
+		if (null == flags)
+			flags = PrefixRegistrationManager.DEFAULT_SELF_REG_FLAGS;
+		synchronized (_forwardingTable) {
+			if (ActionType.UnRegister.value().equals(action))
+				unregister(request.getPrefixName(), face);
+			else
+				register(request.getPrefixName(), face, flags);
+		}
+		if (Log.isLoggable(Log.FAC_NETMANAGER, Level.FINE))
+			Log.fine(Log.FAC_NETMANAGER, "CCNForwarder: {0} {1} for {2}", action, request.getPrefixName(), face);
+
+		// Our registrations don't expire
+		ForwardingEntry reply = new ForwardingEntry(ActionType.valueOf(actionType(action)), request.getPrefixName(),
+				_ccndId, face.faceId(), flags, Integer.MAX_VALUE);
+		try {
+			from.send(sign(name, SignedInfo.ContentType.DATA, reply.encode()));
+		} catch (ContentEncodingException e) {
+			Log.warning(Log.FAC_NETMANAGER, "CCNForwarder: can't encode reply: {0}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Refuse a control request with a NACK holding a StatusResponse, as ccnd does
+	 */
+	protected void nack(ForwarderFace to, ContentName name, int code, String text) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			XMLEncoder encoder = XMLCodecFactory.getEncoder(BinaryXMLCodec.CODEC_NAME);
+			encoder.beginEncoding(out);
+			encoder.writeStartElement(CCNProtocolDTags.StatusResponse);
+			encoder.writeElement(CCNProtocolDTags.StatusCode, code);
+			encoder.writeElement(CCNProtocolDTags.StatusText, text);
+			encoder.writeEndElement();
+			encoder.endEncoding();
+			to.send(sign(name, SignedInfo.ContentType.NACK, out.toByteArray()));
+		} catch (ContentEncodingException e) {
+			Log.warning(Log.FAC_NETMANAGER, "CCNForwarder: can't encode NACK: {0}", e.getMessage());
+		}
+	}
+
+	protected static String actionType(String action) {
+		for (ActionType type : ActionType.values()) {
+			if (type.value().equals(action))
+				return type.name();
+		}
+		return null;
+	}
+
+	/**
+	 * @return the encoding of content signed with our key
+	 */
+	protected byte [] sign(ContentName name, SignedInfo.ContentType type, byte [] content) {
+		try {
+			SignedInfo signedInfo = new SignedInfo(_ccndId, null, type, new KeyLocator(_keys.getPublic()), null, null);
+			return new ContentObject(name, signedInfo, content, _keys.getPrivate()).encode();
+		} catch (Exception e) {
+			throw new IllegalStateException("Cannot sign forwarder content: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Forget interests that haven't been re-expressed, and UDP faces we haven't heard from
+	 */
+	protected void sweep() {
+		long now = System.currentTimeMillis();
+		synchronized (_pendingInterests) {
+			for (Iterator<PendingInterest> it = _pendingByInterest.values().iterator(); it.hasNext(); ) {
+				PendingInterest pending = it.next();
+				if (pending.expires < now) {
+					it.remove();
+					_pendingInterests.remove(pending.interest, pending);
+					_stats.increment(StatsEnum.PendingInterestsExpired);
+				}
+			}
+		}
+		for (ForwarderFace.UDPFace face : _udpFaces.values()) {
+			if (face._lastReceived + UDP_FACE_TIMEOUT < now)
+				face.close();
+		}
+	}
+
+	public static void main(String[] args) {
+		int port = CCNNetworkManager.DEFAULT_AGENT_PORT;
+		int capacity = DEFAULT_CAPACITY;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-port") && (i + 1 < args.length)) {
+				port = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-capacity") && (i + 1 < args.length)) {
+				capacity = Integer.parseInt(args[++i]);
+			} else {
+				System.err.println("usage: " + CCNForwarder.class.getName() + " [-port port] [-capacity content store objects]");
+				System.exit(1);
+			}
+		}
+		try {
+			CCNForwarder forwarder = new CCNForwarder(port, capacity);
+			forwarder.start();
+			System.out.println("CCNForwarder " + ContentName.componentPrintURI(forwarder.getCCNDId().digest())
+					+ " listening on port " + forwarder.getPort());
+			Thread.sleep(Long.MAX_VALUE);
+		} catch (Exception e) {
+			System.err.println("CCNForwarder failed: " + e.getMessage());
+			Log.warningStackTrace(e);
+			System.exit(1);
+		}
+	}
+
+	public enum StatsEnum implements IStatsEnum {
+		// ====================================
+		// Just edit this list, dont need to change anything else
+
+		ReceiveInterest ("interests", "The number of interests received"),
+		ReceiveContent ("objects", "The number of content objects received"),
+		ReceiveErrors ("packets", "The number of packets that couldn't be decoded"),
+		ControlRequests ("interests", "The number of prefix registration requests"),
+		ContentStoreHits ("interests", "The number of interests answered from the content store"),
+		InterestsAggregated ("interests", "The number of interests not sent on because another face was waiting for the same thing"),
+		InterestsForwarded ("interests", "The number of interests sent on, counting each face"),
+		InterestsUnroutable ("interests", "The number of interests no face was registered for"),
+		ContentForwarded ("objects", "The number of content objects sent on, counting each face"),
+		ContentUnsolicited ("objects", "The number of content objects no interest was waiting for"),
+		SendDropped ("packets", "The number of packets dropped because a TCP face was too far behind to queue them"),
+		PendingInterestsExpired ("interests", "The number of pending interests forgotten because they weren't re-expressed"),
+		;
+
+		// ====================================
+		// This is the same for every user of IStatsEnum
+
+		protected final String _units;
+		protected final String _description;
+		protected final static String [] _names;
+
+		static {
+			_names = new String[StatsEnum.values().length];
+			for(StatsEnum stat : StatsEnum.values() )
+				_names[stat.ordinal()] = stat.toString();
+
+		}
+
+		StatsEnum(String units, String description) {
+			_units = units;
+			_description = description;
+		}
+
+		public String getDescription(int index) {
+			return StatsEnum.values()[index]._description;
+		}
+
+		public int getIndex(String name) {
+			StatsEnum x = StatsEnum.valueOf(name);
+			return x.ordinal();
+		}
+
+		public String getName(int index) {
+			return StatsEnum.values()[index].toString();
+		}
+
+		public String getUnits(int index) {
+			return StatsEnum.values()[index]._units;
+		}
+
+		public String [] getNames() {
+			return _names;
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.ccnd;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+
+/**
+ * The forwarder's content store: holds up to a fixed number of content objects, with their
+ * encodings so they can be sent on as they are, and finds the best one to answer an interest.
+ *
+ * Objects are kept in name order, by full name including the digest, so the objects that
+ * could match an interest are together. When the store is full, the least recently used
+ * object is dropped. Objects whose FreshnessSeconds have passed are dropped when they're
+ * next looked at. Access is synchronized on the store.
+ */
+public class ContentStore {
+
+	protected static class StoredContent {
+		protected final ContentName fullName;
+		protected final ContentObject content;
+		protected final byte [] encoded;
+		protected final long staleTime;
+
+		protected StoredContent(ContentName fullName, ContentObject content, byte [] encoded) {
+			this.fullName = fullName;
+			this.content = content;
+			this.encoded = encoded;
+			this.staleTime = content.signedInfo().emptyFreshnessSeconds() ? Long.MAX_VALUE
+					: System.currentTimeMillis() + (content.signedInfo().getFreshnessSeconds() * 1000L);
+		}
+	}
+
+	protected final int _capacity;
+	protected final TreeMap<ContentName, StoredContent> _byName = new TreeMap<ContentName, StoredContent>();
+	protected final LinkedHashMap<ContentName, StoredContent> _lru;
+
+	/**
+	 * @param capacity the most objects to hold
+	 */
+	public ContentStore(int capacity) {
+		_capacity = capacity;
+		_lru = new LinkedHashMap<ContentName, StoredContent>(16, 0.75f, true) {
+			private static final long serialVersionUID = 4627613493085284014L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ContentName, StoredContent> eldest) {
+				if (size() <= _capacity)
+					return false;
+				_byName.remove(eldest.getKey());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Add content, unless it's already here
+	 * @param content the object
+	 * @param encoded its encoding
+	 */
+	public synchronized void put(ContentObject content, byte [] encoded) {
+		if (_capacity <= 0)
+			return;
+		ContentName fullName = content.fullName();
+		if (_byName.containsKey(fullName))
+			return;
+		StoredContent stored = new StoredContent(fullName, content, encoded);
+		_byName.put(fullName, stored);
+		_lru.put(fullName, stored);
+	}
+
+	/**
+	 * Find content to answer an interest. If the interest asks for the rightmost child, that's
+	 * the last match in name order, otherwise the first.
+	 * @return the encoding of the content, or null if we don't have any that matches
+	 */
+	public synchronized byte [] get(Interest interest) {
+		boolean rightmost = (null != interest.childSelector())
+				&& (Interest.CHILD_SELECTOR_RIGHT == (interest.childSelector() & Interest.CHILD_SELECTOR_RIGHT));
+		long now = System.currentTimeMillis();
+		StoredContent match = null;
+		Iterator<StoredContent> it = _byName.tailMap(interest.name()).values().iterator();
+		while (it.hasNext()) {
+			StoredContent stored = it.next();
+			if (!interest.name().isPrefixOf(stored.fullName))
+				break;
+			if (stored.staleTime < now) {
+				it.remove();
+				_lru.remove(stored.fullName);
+				continue;
+			}
+			if (interest.matches(stored.content)) {
+				match = stored;
+				if (!rightmost)
+					break;
+			}
+		}
+		if (null == match)
+			return null;
+		_lru.get(match.fullName);	// mark it used
+		return match.encoded;
+	}
+
+	public synchronized int size() {
+		return _byName.size();
+	}
+}
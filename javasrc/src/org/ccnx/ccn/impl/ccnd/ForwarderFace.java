@@ -0,0 +1,216 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.ccnd;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.impl.CCNNetworkManager;
+import org.ccnx.ccn.impl.encoding.BinaryXMLBufferDecoder;
+import org.ccnx.ccn.impl.support.Log;
+
+/**
+ * A face of the forwarder: something packets arrive from and are sent to.
+ *
+ * Packets are sent as the encodings they arrived with. Sending never waits for the other end:
+ * a datagram is sent whole, and a TCP face queues packets for a thread of its own to write, so
+ * a slow connection can't hold up the thread forwarding from another face. The forwarder
+ * doesn't hold any of its own locks while sending.
+ */
+public abstract class ForwarderFace {
+
+	protected final CCNForwarder _forwarder;
+	protected final int _faceId;
+	protected final boolean _local;
+	protected volatile boolean _open = true;
+
+	protected ForwarderFace(CCNForwarder forwarder, int faceId, SocketAddress remote) {
+		_forwarder = forwarder;
+		_faceId = faceId;
+		_local = (remote instanceof InetSocketAddress) && ((InetSocketAddress)remote).getAddress().isLoopbackAddress();
+	}
+
+	public int faceId() {
+		return _faceId;
+	}
+
+	/**
+	 * @return true if the other end is on this machine, so can be sent interests of scope 1
+	 */
+	public boolean isLocal() {
+		return _local;
+	}
+
+	public boolean isOpen() {
+		return _open;
+	}
+
+	/**
+	 * Send a packet. Errors close the face.
+	 * @param encoded the encoded packet
+	 */
+	public abstract void send(byte [] encoded);
+
+	public void close() {
+		_open = false;
+		_forwarder.removeFace(this);
+	}
+
+	@Override
+	public String toString() {
+		return "face " + _faceId;
+	}
+
+	/**
+	 * A TCP connection, read by its own thread and written by another. Packets sent when
+	 * the connection is so far behind that its queue is full are dropped.
+	 */
+	public static class TCPFace extends ForwarderFace implements Runnable {
+		public static final int QUEUE_SIZE = 1000;	// packets waiting to be written
+
+		protected final SocketChannel _channel;
+		protected ByteBuffer _in = ByteBuffer.allocate(CCNNetworkManager.MAX_PAYLOAD * 4);
+		protected final LinkedBlockingQueue<byte []> _out = new LinkedBlockingQueue<byte []>(QUEUE_SIZE);
+		protected final Thread _writer;
+
+		public TCPFace(CCNForwarder forwarder, int faceId, SocketChannel channel) throws IOException {
+			super(forwarder, faceId, channel.socket().getRemoteSocketAddress());
+			_channel = channel;
+			_channel.socket().setTcpNoDelay(true);
+			_writer = new Thread(new Runnable() {
+				public void run() {
+					write();
+				}
+			}, "CCNForwarder " + this + " writer");
+			_writer.setDaemon(true);
+		}
+
+		/**
+		 * Read packets until the connection closes, starting the writer first
+		 */
+		public void run() {
+			_writer.start();
+			try {
+				while (_open && (_channel.read(_in) >= 0)) {
+					_in.flip();
+					int end;
+					while ((end = BinaryXMLBufferDecoder.elementEnd(_in, _in.position(), _in.limit())) > 0) {
+						byte [] packet = new byte[end - _in.position()];
+						_in.get(packet);
+						_forwarder.receive(this, packet);
+					}
+					_in.compact();
+					if (!_in.hasRemaining()) {
+						// A packet bigger than the buffer
+						ByteBuffer bigger = ByteBuffer.allocate(_in.capacity() * 2);
+						_in.flip();
+						bigger.put(_in);
+						_in = bigger;
+					}
+				}
+			} catch (IOException e) {
+				if (_open && Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO))
+					Log.info(Log.FAC_NETMANAGER, "Forwarder {0}: read failed: {1}", this, e.getMessage());
+			}
+			close();
+		}
+
+		@Override
+		public void send(byte [] encoded) {
+			if (!_open)
+				return;
+			if (!_out.offer(encoded)) {
+				_forwarder._stats.increment(CCNForwarder.StatsEnum.SendDropped);
+				if (Log.isLoggable(Log.FAC_NETMANAGER, Level.FINE))
+					Log.fine(Log.FAC_NETMANAGER, "Forwarder {0}: output queue full, dropping packet", this);
+			}
+		}
+
+		/**
+		 * Write queued packets until the face closes
+		 */
+		protected void write() {
+			try {
+				while (_open) {
+					ByteBuffer buffer = ByteBuffer.wrap(_out.take());
+					while (buffer.hasRemaining())
+						_channel.write(buffer);
+				}
+			} catch (InterruptedException e) {
+			} catch (IOException e) {
+				if (_open && Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO))
+					Log.info(Log.FAC_NETMANAGER, "Forwarder {0}: write failed: {1}", this, e.getMessage());
+			}
+			close();
+		}
+
+		@Override
+		public void close() {
+			super.close();
+			_writer.interrupt();
+			_out.clear();
+			try {
+				_channel.close();
+			} catch (IOException e) {}
+		}
+
+		@Override
+		public String toString() {
+			return "TCP face " + _faceId;
+		}
+	}
+
+	/**
+	 * Another address sending us datagrams on the forwarder's UDP port
+	 */
+	public static class UDPFace extends ForwarderFace {
+		protected final DatagramChannel _channel;
+		protected final SocketAddress _remote;
+		protected volatile long _lastReceived = System.currentTimeMillis();
+
+		public UDPFace(CCNForwarder forwarder, int faceId, DatagramChannel channel, SocketAddress remote) {
+			super(forwarder, faceId, remote);
+			_channel = channel;
+			_remote = remote;
+		}
+
+		@Override
+		public void send(byte [] encoded) {
+			if (!_open)
+				return;
+			try {
+				_channel.send(ByteBuffer.wrap(encoded), _remote);
+			} catch (IOException e) {
+				// As for the network manager, we don't usually see errors sending datagrams
+				if (Log.isLoggable(Log.FAC_NETMANAGER, Level.INFO))
+					Log.info(Log.FAC_NETMANAGER, "Forwarder {0}: send failed: {1}", this, e.getMessage());
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "UDP face " + _faceId + " (" + _remote + ")";
+		}
+	}
+}
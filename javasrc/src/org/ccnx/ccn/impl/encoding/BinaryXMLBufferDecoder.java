@@ -0,0 +1,607 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.encoding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.TreeMap;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.impl.support.DataUtils;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.io.content.ContentDecodingException;
+import org.ccnx.ccn.protocol.CCNTime;
+
+/**
+ * An implementation of XMLDecoder for the Binary (ccnb) codec that decodes directly
+ * from a ByteBuffer, which may be a heap or a direct buffer.
+ *
+ * Unlike BinaryXMLDecoder, which pulls its input a byte at a time through an InputStream
+ * and allocates a TypeAndVal for every tag and length it reads, this keeps its own cursor
+ * into the buffer and decodes types and values into fields, so reading the structure of an
+ * object allocates nothing. Peeking just remembers the cursor rather than marking a stream.
+ * BLOBs are copied out of the buffer in one go, or can be returned as slices of it with
+ * readBlobBuffer() by callers that can use the bytes in place.
+ *
+ * Decoding starts at the buffer's position and stops at its limit. The buffer's position
+ * is moved past the decoded data by endDecoding(). The decoder doesn't copy the buffer,
+ * so its contents must not change while decoding is in progress.
+ *
+ * It can also decode from an InputStream, but reads the whole stream into a buffer first,
+ * so it is only suited to streams holding no more than is to be decoded. Use
+ * BinaryXMLDecoder for other streams.
+ *
+ * @see BinaryXMLCodec
+ * @see BinaryXMLDecoder
+ */
+public class BinaryXMLBufferDecoder extends GenericXMLDecoder implements XMLDecoder {
+
+	protected ByteBuffer _buffer = null;
+	protected byte [] _array = null;		// backing array of a heap buffer, else null
+	protected int _arrayOffset = 0;
+	protected int _position = 0;
+	protected int _limit = 0;
+
+	// Result of the last decodeTypeAndVal()
+	protected int _type = -1;
+	protected long _val = 0;
+
+	public BinaryXMLBufferDecoder() {
+		super();
+	}
+
+	public BinaryXMLBufferDecoder(BinaryXMLDictionary dictionary) {
+		super(dictionary);
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		_buffer = null;
+		_array = null;
+	}
+
+	/**
+	 * Start decoding from the position of a buffer.
+	 * @param buffer the buffer to decode from
+	 * @throws ContentDecodingException
+	 */
+	public void beginDecoding(ByteBuffer buffer) throws ContentDecodingException {
+		if (null == buffer)
+			throw new IllegalArgumentException(this.getClass().getName() + ": buffer cannot be null!");
+		_buffer = buffer;
+		if (buffer.hasArray()) {
+			_array = buffer.array();
+			_arrayOffset = buffer.arrayOffset();
+		} else {
+			_array = null;
+			_arrayOffset = 0;
+		}
+		_position = buffer.position();
+		_limit = buffer.limit();
+		initializeDecoding();
+		readStartDocument();
+	}
+
+	/**
+	 * Start decoding from a stream. The stream is read to its end into a buffer, which is then
+	 * decoded as above; use BinaryXMLDecoder to decode part of a stream.
+	 * @param istream the stream to decode from
+	 * @throws ContentDecodingException if the stream can't be read
+	 */
+	@Override
+	public void beginDecoding(InputStream istream) throws ContentDecodingException {
+		if (null == istream)
+			throw new IllegalArgumentException(this.getClass().getName() + ": input stream cannot be null!");
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		byte [] chunk = new byte[4096];
+		try {
+			int count;
+			while ((count = istream.read(chunk)) >= 0)
+				data.write(chunk, 0, count);
+		} catch (IOException e) {
+			throw new ContentDecodingException("Cannot read stream to decode: " + e.getMessage(), e);
+		}
+		beginDecoding(ByteBuffer.wrap(data.toByteArray()));
+	}
+
+	@Override
+	public void endDecoding() throws ContentDecodingException {
+		readEndDocument();
+		_buffer.position(_position);
+	}
+
+	/**
+	 * @return the current decoding position in the buffer
+	 */
+	public int position() {
+		return _position;
+	}
+
+	public void readStartDocument() throws ContentDecodingException {
+		// Currently no start document in binary encoding.
+	}
+
+	public void readEndDocument() throws ContentDecodingException {
+		// Currently no end document in binary encoding.
+	}
+
+	public void readStartElement(String startTag,
+			TreeMap<String, String> attributes) throws ContentDecodingException {
+		if (!decodeTypeAndVal()) {
+			throw new ContentDecodingException("Expected start element: " + startTag + " got something not a tag.");
+		}
+
+		String decodedTag = null;
+
+		if (_type == BinaryXMLCodec.XML_TAG) {
+			Log.info(Log.FAC_ENCODING, "Unexpected: got tag in readStartElement; looking for tag " + startTag + " got length: " + (int)_val+1);
+			// Tag value represents length-1 as tags can never be empty.
+			decodedTag = decodeUString((int)_val+1);
+
+		} else if (_type == BinaryXMLCodec.XML_DTAG) {
+			decodedTag = tagToString(_val);
+		}
+
+		if ((null ==  decodedTag) || (!decodedTag.equals(startTag))) {
+			throw new ContentDecodingException("Expected start element: " + startTag + " got: " + decodedTag + "(" + _val + ")");
+		}
+
+		if (null != attributes) {
+			readAttributes(attributes);
+		}
+	}
+
+	public void readStartElement(long startTag,
+			TreeMap<String, String> attributes) throws ContentDecodingException {
+		if (!decodeTypeAndVal()) {
+			throw new ContentDecodingException("Expected start element: " + startTag + " got something not a tag.");
+		}
+
+		if (_type == BinaryXMLCodec.XML_DTAG) {
+			if (_val != startTag)
+				throw new ContentDecodingException("Expected start element: " + startTag + " got: " + _val);
+		} else if (_type == BinaryXMLCodec.XML_TAG) {
+			Log.info(Log.FAC_ENCODING, "Unexpected: got tag in readStartElement; looking for tag " + startTag + " got length: " + (int)_val+1);
+			// Tag value represents length-1 as tags can never be empty.
+			String strTag = decodeUString((int)_val+1);
+			Long decodedTag = stringToTag(strTag);
+			if ((null == decodedTag) || (decodedTag.longValue() != startTag)) {
+				throw new ContentDecodingException("Expected start element: " + startTag + " got: " + decodedTag + "(" + strTag + ")");
+			}
+		} else {
+			throw new ContentDecodingException("Expected start element: " + startTag + " got type: " + _type + "(" + _val + ")");
+		}
+
+		if (null != attributes) {
+			readAttributes(attributes);
+		}
+	}
+
+	public void readAttributes(TreeMap<String,String> attributes) throws ContentDecodingException {
+		if (null == attributes) {
+			return;
+		}
+
+		while (true) {
+			int start = _position;
+			if (!decodeTypeAndVal() || ((BinaryXMLCodec.XML_ATTR != _type) && (BinaryXMLCodec.XML_DATTR != _type))) {
+				_position = start;
+				return;
+			}
+			String attributeName = null;
+			if (BinaryXMLCodec.XML_ATTR == _type) {
+				// Tag value represents length-1 as attribute names cannot be empty.
+				attributeName = decodeUString((int)_val+1);
+			} else {
+				attributeName = tagToString(_val);
+				if (null == attributeName) {
+					throw new ContentDecodingException("Unknown DATTR value" + _val);
+				}
+			}
+			// Attribute values are always UDATA
+			String attributeValue = decodeUString();
+
+			attributes.put(attributeName, attributeValue);
+		}
+	}
+
+	/**
+	 * Compares the tag in place, to avoid boxing it as peekStartElementAsLong() must.
+	 */
+	@Override
+	public boolean peekStartElement(long startTag) throws ContentDecodingException {
+		int start = _position;
+		try {
+			if (!decodeTypeAndVal())
+				return false;
+			if (_type == BinaryXMLCodec.XML_DTAG)
+				return _val == startTag;
+		} finally {
+			_position = start;
+		}
+		// Textual tags are rare enough not to worry about
+		Long decodedTag = peekStartElementAsLong();
+		return (null != decodedTag) && (decodedTag.longValue() == startTag);
+	}
+
+	public String peekStartElementAsString() throws ContentDecodingException {
+		int start = _position;
+		try {
+			if (!decodeTypeAndVal())
+				return null;	// probably an end element
+			if (_type == BinaryXMLCodec.XML_TAG) {
+				if (_val+1 > BinaryXMLDecoder.DEBUG_MAX_LEN) {
+					throw new ContentDecodingException("Decoding error: length " + _val+1 + " longer than expected maximum length!");
+				}
+				// Tag value represents length-1 as tags can never be empty.
+				String decodedTag = decodeUString((int)_val+1);
+				Log.info(Log.FAC_ENCODING, "Unexpected: got text tag in peekStartElement; length: " + (int)_val+1 + " decoded tag = " + decodedTag);
+				return decodedTag;
+			} else if (_type == BinaryXMLCodec.XML_DTAG) {
+				return tagToString(_val);
+			}
+			return null;
+		} finally {
+			_position = start;
+		}
+	}
+
+	public Long peekStartElementAsLong() throws ContentDecodingException {
+		int start = _position;
+		try {
+			if (!decodeTypeAndVal())
+				return null;	// probably an end element
+			if (_type == BinaryXMLCodec.XML_TAG) {
+				if (_val+1 > BinaryXMLDecoder.DEBUG_MAX_LEN) {
+					throw new ContentDecodingException("Decoding error: length " + _val+1 + " longer than expected maximum length!");
+				}
+				// Tag value represents length-1 as tags can never be empty.
+				String strTag = decodeUString((int)_val+1);
+				Long decodedTag = stringToTag(strTag);
+				Log.info(Log.FAC_ENCODING, "Unexpected: got text tag in peekStartElement; length: " + (int)_val+1 + " decoded tag = " + decodedTag);
+				return decodedTag;
+			} else if (_type == BinaryXMLCodec.XML_DTAG) {
+				return _val;
+			}
+			return null;
+		} finally {
+			_position = start;
+		}
+	}
+
+	public void readEndElement() throws ContentDecodingException {
+		if (_position >= _limit) {
+			throw new ContentDecodingException("Expected end element, got end of buffer");
+		}
+		int next = get(_position);
+		if (next != BinaryXMLCodec.XML_CLOSE) {
+			throw new ContentDecodingException("Expected end element, got: " + next);
+		}
+		_position++;
+	}
+
+	/**
+	 * Read a UString. Force this to consume the end element to match the
+	 * behavior on the text side.
+	 */
+	public String readUString() throws ContentDecodingException {
+		String ustring = decodeUString();
+		readEndElement();
+		return ustring;
+	}
+
+	/**
+	 * Read a BLOB. Force this to consume the end element to match the
+	 * behavior on the text side.
+	 */
+	public byte [] readBlob() throws ContentDecodingException {
+		int length = decodeBlobLength();
+		byte [] blob = new byte[length];
+		if (length > 0) {
+			if (null != _array) {
+				System.arraycopy(_array, _arrayOffset + _position, blob, 0, length);
+			} else {
+				_buffer.position(_position);
+				_buffer.get(blob);
+			}
+			_position += length;
+		}
+		readEndElement();
+		return blob;
+	}
+
+	/**
+	 * Read a BLOB without copying it. Consumes the end element, as readBlob() does.
+	 * @return a buffer sharing the decoder's buffer whose position and limit bound the
+	 * 	content of the BLOB. It is only valid until the underlying buffer is reused.
+	 * @throws ContentDecodingException
+	 */
+	public ByteBuffer readBlobBuffer() throws ContentDecodingException {
+		int length = decodeBlobLength();
+		ByteBuffer slice = _buffer.duplicate();
+		slice.limit(_position + length);
+		slice.position(_position);
+		_position += length;
+		readEndElement();
+		return slice;
+	}
+
+	/**
+	 * Expect a start tag, a BLOB, and an end element, returning the BLOB without
+	 * copying it.
+	 * @see #readBlobBuffer()
+	 */
+	public ByteBuffer readBinaryElementBuffer(long startTag) throws ContentDecodingException {
+		readStartElement(startTag, null);
+		return readBlobBuffer();
+	}
+
+	/**
+	 * Skip over the next element without decoding it.
+	 * @throws ContentDecodingException if there isn't a complete element at the cursor
+	 */
+	public void skipElement() throws ContentDecodingException {
+		int end = elementEnd(_buffer, _position, _limit);
+		if (end < 0)
+			throw new ContentDecodingException("Incomplete element at " + _position);
+		_position = end;
+	}
+
+	/**
+	 * Skip over the next element, returning a copy of its encoding.
+	 * @throws ContentDecodingException if there isn't a complete element at the cursor
+	 */
+	public byte [] readElementEncoding() throws ContentDecodingException {
+		int start = _position;
+		skipElement();
+		byte [] encoding = new byte[_position - start];
+		if (null != _array) {
+			System.arraycopy(_array, _arrayOffset + start, encoding, 0, encoding.length);
+		} else {
+			_buffer.position(start);
+			_buffer.get(encoding);
+		}
+		return encoding;
+	}
+
+	/**
+	 * Parses the digits in place rather than decoding them to a String first.
+	 */
+	@Override
+	public long readLongElement(long startTag) throws ContentDecodingException {
+		readStartElement(startTag, null);
+		int start = _position;
+		long value = 0;
+		boolean valid = false;
+		if (decodeTypeAndVal() && (BinaryXMLCodec.XML_UDATA == _type) && (_val > 0) && (_val <= 18)) {
+			int end = _position + (int)_val;
+			if (end <= _limit) {
+				valid = true;
+				for (int i = _position; i < end; i++) {
+					int digit = get(i) - '0';
+					if ((digit < 0) || (digit > 9)) {
+						valid = false;
+						break;
+					}
+					value = value * 10 + digit;
+				}
+				if (valid)
+					_position = end;
+			}
+		}
+		if (!valid) {
+			// Let the general code deal with anything odd, and report it
+			_position = start;
+			String strVal = decodeUString();
+			try {
+				value = Long.valueOf(strVal);
+			} catch (NumberFormatException e) {
+				throw new ContentDecodingException("Cannot parse " + startTag + ": " + strVal, e);
+			}
+		}
+		readEndElement();
+		return value;
+	}
+
+	@Override
+	public int readIntegerElement(long startTag) throws ContentDecodingException {
+		long value = readLongElement(startTag);
+		if ((value > Integer.MAX_VALUE) || (value < Integer.MIN_VALUE))
+			throw new ContentDecodingException("Cannot parse " + startTag + ": " + value);
+		return (int)value;
+	}
+
+	public CCNTime readDateTime(String startTag) throws ContentDecodingException {
+		byte [] byteTimestamp = readBinaryElement(startTag);
+		CCNTime timestamp = new CCNTime(byteTimestamp);
+		if (null == timestamp) {
+			throw new ContentDecodingException("Cannot parse timestamp: " + DataUtils.printHexBytes(byteTimestamp));
+		}
+		return timestamp;
+	}
+
+	public CCNTime readDateTime(long startTag) throws ContentDecodingException {
+		byte [] byteTimestamp = readBinaryElement(startTag);
+		CCNTime timestamp = new CCNTime(byteTimestamp);
+		if (null == timestamp) {
+			throw new ContentDecodingException("Cannot parse timestamp: " + DataUtils.printHexBytes(byteTimestamp));
+		}
+		return timestamp;
+	}
+
+	/**
+	 * Find the end of the element starting at an offset in a buffer, without decoding it,
+	 * by reading the element headers and skipping over the content of BLOBs and UDATA.
+	 * Doesn't change the buffer's position.
+	 *
+	 * @param buffer the buffer to look in
+	 * @param offset where the element starts
+	 * @param limit where the valid data in the buffer ends
+	 * @return the offset just past the end of the element, or -1 if the element isn't complete
+	 * 	before limit
+	 * @throws ContentDecodingException if the data at offset isn't a well formed element
+	 */
+	public static int elementEnd(ByteBuffer buffer, int offset, int limit) throws ContentDecodingException {
+		int position = offset;
+		int depth = 0;
+		do {
+			if (position >= limit)
+				return -1;
+			int next = buffer.get(position) & 0xff;
+			if (BinaryXMLCodec.XML_CLOSE == next) {
+				if (0 == depth)
+					throw new ContentDecodingException("Expected start element, got end element at " + position);
+				depth--;
+				position++;
+				continue;
+			}
+			long val = 0;
+			while (0 == (next & BinaryXMLCodec.XML_TT_NO_MORE)) {
+				val = (val << BinaryXMLCodec.XML_REG_VAL_BITS) | (next & BinaryXMLCodec.XML_REG_VAL_MASK);
+				if (++position >= limit)
+					return -1;
+				next = buffer.get(position) & 0xff;
+			}
+			position++;
+			int type = next & BinaryXMLCodec.XML_TT_MASK;
+			val = (val << BinaryXMLCodec.XML_TT_VAL_BITS) | ((next >>> BinaryXMLCodec.XML_TT_BITS) & BinaryXMLCodec.XML_TT_VAL_MASK);
+			long skip;
+			if (type == BinaryXMLCodec.XML_DTAG) {
+				depth++;
+				skip = 0;
+			} else if (type == BinaryXMLCodec.XML_TAG) {
+				depth++;
+				skip = val + 1;	// tag name
+			} else if (type == BinaryXMLCodec.XML_ATTR) {
+				skip = val + 1;	// attribute name, value follows as UDATA
+			} else if (type == BinaryXMLCodec.XML_DATTR) {
+				skip = 0;
+			} else if (type == BinaryXMLCodec.XML_BLOB || type == BinaryXMLCodec.XML_UDATA) {
+				skip = val;
+			} else {
+				throw new ContentDecodingException("Unexpected type " + type + " at " + (position - 1));
+			}
+			if (0 == depth)
+				throw new ContentDecodingException("Expected start element, got type " + type + " at " + (position - 1));
+			if (skip > limit - position)
+				return -1;
+			position += (int)skip;
+		} while (depth > 0);
+		return position;
+	}
+
+	protected final int get(int index) {
+		return (null != _array) ? (_array[_arrayOffset + index] & 0xff) : (_buffer.get(index) & 0xff);
+	}
+
+	/**
+	 * Decode the type and value at the cursor into _type and _val, as
+	 * BinaryXMLCodec.decodeTypeAndVal does.
+	 * @return false, without moving the cursor, if we are at an end element or the end
+	 * 	of the buffer
+	 */
+	protected boolean decodeTypeAndVal() throws ContentDecodingException {
+		int position = _position;
+		long val = 0;
+		while (true) {
+			if (position >= _limit) {
+				if (position == _position)
+					return false; // at the end
+				throw new ContentDecodingException("Buffer ends in the middle of a type and value");
+			}
+			int next = get(position++);
+			// If leading byte is 0, we are at an end marker, not a start marker;
+			// last byte of TV will have type and high bit set. Previous bytes
+			// are packed number representation, so leading 0 not legal.
+			if ((0 == next) && (0 == val)) {
+				return false;
+			}
+			if (0 == (next & BinaryXMLCodec.XML_TT_NO_MORE)) {
+				val = (val << BinaryXMLCodec.XML_REG_VAL_BITS) | (next & BinaryXMLCodec.XML_REG_VAL_MASK);
+			} else {
+				// last byte
+				_type = next & BinaryXMLCodec.XML_TT_MASK;
+				_val = (val << BinaryXMLCodec.XML_TT_VAL_BITS) | ((next >>> BinaryXMLCodec.XML_TT_BITS) & BinaryXMLCodec.XML_TT_VAL_MASK);
+				_position = position;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Read the length of a BLOB, leaving the cursor at its content. A missing BLOB
+	 * is an elided 0-length one.
+	 */
+	protected int decodeBlobLength() throws ContentDecodingException {
+		int start = _position;
+		if (!decodeTypeAndVal() || (BinaryXMLCodec.XML_BLOB != _type)) { // if we just have closers left, will get back false
+			if (Log.isLoggable(Log.FAC_ENCODING, Level.FINEST))
+				Log.finest(Log.FAC_ENCODING, "Expected BLOB, got " + ((start == _position) ? " not a tag " : _type) + ", assuming elided 0-length blob.");
+			_position = start;
+			return 0;
+		}
+		checkLength(_val);
+		return (int)_val;
+	}
+
+	/**
+	 * Decode a UDATA string, coping with an elided 0-length one.
+	 */
+	protected String decodeUString() throws ContentDecodingException {
+		int start = _position;
+		if (!decodeTypeAndVal() || (BinaryXMLCodec.XML_UDATA != _type)) { // if we just have closers left, will get back false
+			if (Log.isLoggable(Log.FAC_ENCODING, Level.FINEST))
+				Log.finest(Log.FAC_ENCODING, "Expected UDATA, got " + ((start == _position) ? " not a tag " : _type) + ", assuming elided 0-length blob.");
+			_position = start;
+			return "";
+		}
+		return decodeUString((int)_val);
+	}
+
+	/**
+	 * Decode a string of known length at the cursor.
+	 */
+	protected String decodeUString(int length) throws ContentDecodingException {
+		checkLength(length);
+		String result;
+		if (null != _array) {
+			try {
+				result = new String(_array, _arrayOffset + _position, length, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				Log.severe("Unknown encoding UTF-8! This is a significant configuration problem.");
+				throw new RuntimeException("Unknown encoding UTF-8! This is a significant configuration problem.");
+			}
+		} else {
+			byte [] stringBytes = new byte[length];
+			_buffer.position(_position);
+			_buffer.get(stringBytes);
+			result = DataUtils.getUTF8StringFromBytes(stringBytes);
+		}
+		_position += length;
+		return result;
+	}
+
+	protected void checkLength(long length) throws ContentDecodingException {
+		if ((length < 0) || (length > _limit - _position))
+			throw new ContentDecodingException("Length " + length + " runs past the end of the buffer at " + _position);
+	}
+}
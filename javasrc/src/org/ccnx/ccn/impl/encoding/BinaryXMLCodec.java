@@ -60,8 +60,8 @@ public class BinaryXMLCodec implements XMLCodec {
 			_val = val;
 		}
 		
-		int type() { return _type; }
-		long val() { return _val; }
+		public int type() { return _type; }
+		public long val() { return _val; }
 	}
 	
 	public static final String CODEC_NAME = "Binary";
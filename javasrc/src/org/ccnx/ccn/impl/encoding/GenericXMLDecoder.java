@@ -37,6 +37,12 @@ public abstract class GenericXMLDecoder extends GenericXMLHandler implements XML
 	public GenericXMLDecoder(BinaryXMLDictionary dictionary) {
 		super(dictionary);
 	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		_istream = null;
+	}
 		
 	public void beginDecoding(InputStream istream) throws ContentDecodingException {
 		if (null == istream)
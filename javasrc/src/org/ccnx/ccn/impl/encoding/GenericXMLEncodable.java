@@ -21,6 +21,8 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.io.content.ContentDecodingException;
@@ -61,10 +63,14 @@ public abstract class GenericXMLEncodable implements XMLEncodable {
  	}
  	
 	public void decode(InputStream istream, String codec) throws ContentDecodingException {
-		XMLDecoder decoder = XMLCodecFactory.getDecoder(codec);
-		decoder.beginDecoding(istream);
-		decode(decoder);
-		decoder.endDecoding();
+		XMLDecoder decoder = XMLCodecFactory.acquireDecoder(codec);
+		try {
+			decoder.beginDecoding(istream);
+			decode(decoder);
+			decoder.endDecoding();
+		} finally {
+			XMLCodecFactory.releaseDecoder(decoder);
+		}
 	}
  	
 	public void decode(byte [] content) throws ContentDecodingException {
@@ -75,16 +81,31 @@ public abstract class GenericXMLEncodable implements XMLEncodable {
  		ByteArrayInputStream bais = new ByteArrayInputStream(content);
  		decode(bais, codec);
  	}
+
+	public void decode(ByteBuffer buf) throws ContentDecodingException {
+		BinaryXMLBufferDecoder decoder = XMLCodecFactory.acquireBufferDecoder();
+		try {
+			decoder.beginDecoding(buf);
+			decode(decoder);
+			decoder.endDecoding();
+		} finally {
+			XMLCodecFactory.releaseDecoder(decoder);
+		}
+	}
 	
 	public void encode(OutputStream ostream) throws ContentEncodingException {
 		encode(ostream, null);
 	}
 
 	public void encode(OutputStream ostream, String codec) throws ContentEncodingException {
-		XMLEncoder encoder = XMLCodecFactory.getEncoder(codec);
-		encoder.beginEncoding(ostream);
-		encode(encoder);
-		encoder.endEncoding();	
+		XMLEncoder encoder = XMLCodecFactory.acquireEncoder(codec);
+		try {
+			encoder.beginEncoding(ostream);
+			encode(encoder);
+			encoder.endEncoding();
+		} finally {
+			XMLCodecFactory.releaseEncoder(encoder);
+		}
 	}
 
 	public byte [] encode() throws ContentEncodingException {
@@ -96,6 +117,60 @@ public abstract class GenericXMLEncodable implements XMLEncodable {
 		encode(baos, codec);
 		return baos.toByteArray();
 	}
+
+	public void encode(ByteBuffer buf) throws ContentEncodingException {
+		int start = buf.position();
+		try {
+			encode(new ByteBufferOutputStream(buf), BinaryXMLCodec.codecName());
+		} catch (BufferOverflowException e) {
+			buf.position(start);
+			throw e;
+		}
+	}
+
+	public int encodedLength() throws ContentEncodingException {
+		CountingOutputStream counter = new CountingOutputStream();
+		encode(counter, BinaryXMLCodec.codecName());
+		return counter.count;
+	}
+
+	/**
+	 * Writes into a ByteBuffer, for encode(ByteBuffer)
+	 */
+	protected static class ByteBufferOutputStream extends OutputStream {
+		protected ByteBuffer _buf;
+
+		public ByteBufferOutputStream(ByteBuffer buf) {
+			_buf = buf;
+		}
+
+		@Override
+		public void write(int b) {
+			_buf.put((byte)b);
+		}
+
+		@Override
+		public void write(byte [] b, int off, int len) {
+			_buf.put(b, off, len);
+		}
+	}
+
+	/**
+	 * Just counts what is written to it, for encodedLength()
+	 */
+	protected static class CountingOutputStream extends OutputStream {
+		public int count = 0;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte [] b, int off, int len) {
+			count += len;
+		}
+	}
 
 	/**
 	 * Default toString() implementation simply prints the text encoding of the
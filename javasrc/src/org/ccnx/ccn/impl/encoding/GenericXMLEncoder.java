@@ -37,6 +37,12 @@ public abstract class GenericXMLEncoder extends GenericXMLHandler implements XML
 		super(dictionary);
 	}
 
+	@Override
+	public void reset() {
+		super.reset();
+		_ostream = null;
+	}
+
 	public void writeStartElement(String tag) throws ContentEncodingException {
 		writeStartElement(tag, null);
 	}
@@ -119,4 +119,16 @@ public abstract class GenericXMLHandler {
 		}
 		return _dictionaryStack.pop();
 	}
+
+	/**
+	 * Return this instance to the state it was in when it was created with the default
+	 * constructor, dropping any dictionaries pushed on it (including one passed to its
+	 * constructor) and any references to the data it was working on, so that it can be
+	 * reused. Subclasses holding state of their own should extend this.
+	 * @see XMLCodecFactory#acquireEncoder(String)
+	 */
+	public void reset() {
+		if (null != _dictionaryStack)
+			_dictionaryStack.clear();
+	}
 }
@@ -44,6 +44,12 @@ public class TextXMLDecoder extends GenericXMLDecoder implements XMLDecoder {
 	public TextXMLDecoder(BinaryXMLDictionary dictionary) {
 		super(dictionary);
 	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		_reader = null;
+	}
 		
 	public void initializeDecoding() throws ContentDecodingException {
 		try {
@@ -53,6 +53,12 @@ public class TextXMLEncoder extends GenericXMLEncoder implements XMLEncoder {
 		super(dictionary);
 	}
 
+	@Override
+	public void reset() {
+		super.reset();
+		_serializer = null;
+	}
+
 	public void beginEncoding(OutputStream ostream) throws ContentEncodingException {
 		if (null == ostream)
 			throw new IllegalArgumentException("TextXMLEncoder: output stream cannot be null!");
@@ -17,6 +17,7 @@
 
 package org.ccnx.ccn.impl.encoding;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.logging.Level;
 
@@ -26,6 +27,14 @@ import org.ccnx.ccn.impl.support.Log;
 /**
  * Factory class that given a string codec name, returns the XMLEncoder and XMLDecoder
  * that handle that codec. Allows new codecs to be registered on the fly for extensibility.
+ * 
+ * getEncoder() and getDecoder() make a new instance each time. Code that encodes or decodes
+ * a lot and doesn't keep hold of the encoder or decoder should instead use acquireEncoder()
+ * or acquireDecoder(), and hand the instance back with releaseEncoder() or releaseDecoder()
+ * when it is done. These reuse instances kept per thread, so need no locking; an instance
+ * is reset (see GenericXMLHandler#reset()) when it is released, and must not be used
+ * after that. Nested acquires, for instance while encoding something that encodes part
+ * of itself separately, get different instances.
  */
 public class XMLCodecFactory {
 	
@@ -54,6 +63,19 @@ public class XMLCodecFactory {
 	protected static HashMap<String,Class<? extends XMLEncoder>> _registeredEncoders;
 	protected static HashMap<String,Class<? extends XMLDecoder>> _registeredDecoders;
 	
+	/**
+	 * Most instances of each class we keep for reuse per thread; only nested use needs more than one
+	 */
+	public static final int POOL_SIZE = 4;
+	
+	protected static ThreadLocal<HashMap<Class<?>, ArrayList<GenericXMLHandler>>> _pool = 
+		new ThreadLocal<HashMap<Class<?>, ArrayList<GenericXMLHandler>>>() {
+			@Override
+			protected HashMap<Class<?>, ArrayList<GenericXMLHandler>> initialValue() {
+				return new HashMap<Class<?>, ArrayList<GenericXMLHandler>>();
+			}
+		};
+	
 	public static void registerEncoder(String name, Class<? extends XMLEncoder> encoderClass) {
 		_registeredEncoders.put(name, encoderClass);
 	}
@@ -146,6 +168,90 @@ public class XMLCodecFactory {
 		return decoder;
 	}
 
+	/**
+	 * Get an instance of the specified encoder for temporary use, reusing one belonging
+	 * to this thread if possible. Return it with releaseEncoder() when done with it.
+	 * @param codecName the codec, or null for the default
+	 * @return the encoder, or null if the codec is unknown
+	 */
+	public static XMLEncoder acquireEncoder(String codecName) {
+		Class<? extends XMLEncoder> encoderClass = getEncoderClass(codecName);
+		if (null == encoderClass) {
+			return null;
+		}
+		XMLEncoder encoder = (XMLEncoder)takeFromPool(encoderClass);
+		return (null != encoder) ? encoder : getEncoder(codecName);
+	}
+	
+	/**
+	 * Return an encoder obtained from acquireEncoder(), so that this thread can reuse it.
+	 * @param encoder the encoder, which must not be used again by the caller
+	 */
+	public static void releaseEncoder(XMLEncoder encoder) {
+		returnToPool(encoder);
+	}
+	
+	/**
+	 * Get an instance of the specified decoder for temporary use, reusing one belonging
+	 * to this thread if possible. Return it with releaseDecoder() when done with it.
+	 * @param codecName the codec, or null for the default
+	 * @return the decoder, or null if the codec is unknown
+	 */
+	public static XMLDecoder acquireDecoder(String codecName) {
+		Class<? extends XMLDecoder> decoderClass = getDecoderClass(codecName);
+		if (null == decoderClass) {
+			return null;
+		}
+		XMLDecoder decoder = (XMLDecoder)takeFromPool(decoderClass);
+		return (null != decoder) ? decoder : getDecoder(codecName);
+	}
+	
+	/**
+	 * Get a BinaryXMLBufferDecoder for temporary use, reusing one belonging to this thread
+	 * if possible. Return it with releaseDecoder() when done with it. It reads an InputStream
+	 * to its end before decoding any of it, so isn't registered as the binary codec's decoder
+	 * for general stream use.
+	 */
+	public static BinaryXMLBufferDecoder acquireBufferDecoder() {
+		BinaryXMLBufferDecoder decoder = (BinaryXMLBufferDecoder)takeFromPool(BinaryXMLBufferDecoder.class);
+		return (null != decoder) ? decoder : new BinaryXMLBufferDecoder();
+	}
+	
+	/**
+	 * Return a decoder obtained from acquireDecoder() or acquireBufferDecoder(), so that
+	 * this thread can reuse it.
+	 * @param decoder the decoder, which must not be used again by the caller
+	 */
+	public static void releaseDecoder(XMLDecoder decoder) {
+		returnToPool(decoder);
+	}
+	
+	protected static GenericXMLHandler takeFromPool(Class<?> handlerClass) {
+		ArrayList<GenericXMLHandler> free = _pool.get().get(handlerClass);
+		if ((null == free) || free.isEmpty()) {
+			return null;
+		}
+		return free.remove(free.size() - 1);
+	}
+	
+	protected static void returnToPool(Object handler) {
+		// Codecs that don't know how to reset themselves can't be reused
+		if (!(handler instanceof GenericXMLHandler)) {
+			return;
+		}
+		GenericXMLHandler genericHandler = (GenericXMLHandler)handler;
+		genericHandler.reset();
+		HashMap<Class<?>, ArrayList<GenericXMLHandler>> pool = _pool.get();
+		ArrayList<GenericXMLHandler> free = pool.get(handler.getClass());
+		if (null == free) {
+			free = new ArrayList<GenericXMLHandler>(POOL_SIZE);
+			pool.put(handler.getClass(), free);
+		}
+		if (free.size() < POOL_SIZE) {
+			free.add(genericHandler);
+		}
+	}
+
 	public static Class<? extends XMLEncoder> getEncoderClass(String codecName) {
 		if (null == codecName)
 			return getDefaultEncoderClass();
@@ -19,6 +19,7 @@ package org.ccnx.ccn.impl.encoding;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.io.content.ContentDecodingException;
@@ -96,12 +97,14 @@ public interface XMLEncodable {
 
 	/**
 	 * Decode this object as the top-level item in a new XML document, 
-	 * reading it from a network buffer. Reads document start and end. Assumes
-	 * default encoding.
-	 * @param buf input stream to read from
+	 * reading it from a network buffer. Reads document start and end. Always
+	 * uses the binary encoding, and moves the buffer's position past the object.
+	 * @param buf buffer to read from, starting at its position
 	 * @throws ContentDecodingException if there is an error decoding the content
+	 * 
+	 * @see BinaryXMLBufferDecoder
 	 */
-	//public void decode(ByteBuffer buf) throws ContentDecodingException;
+	public void decode(ByteBuffer buf) throws ContentDecodingException;
 	
 	/**
 	 * Decode this object as the top-level item in a new XML document, 
@@ -169,6 +172,28 @@ public interface XMLEncodable {
 	 */
 	public byte [] encode(String codec) throws ContentEncodingException;
 
+	/**
+	 * Encode this object as the top-level item in a new XML document, writing
+	 * it into a network buffer without intermediate copies. Always uses the
+	 * binary encoding. Use encodedLength() to size the buffer if need be.
+	 * @param buf buffer to write to, starting at its position; its position
+	 * 	is moved past the object
+	 * @throws ContentEncodingException if there is an error encoding the object
+	 * @throws java.nio.BufferOverflowException if the object doesn't fit in the buffer, 
+	 * 	in which case the buffer's position is left unchanged
+	 * 
+	 * @see BinaryXMLBufferDecoder
+	 */
+	public void encode(ByteBuffer buf) throws ContentEncodingException;
+
+	/**
+	 * Find the length of the binary encoding of this object, as written by
+	 * encode(ByteBuffer). This costs about as much as encoding the object.
+	 * @return the length in bytes
+	 * @throws ContentEncodingException if there is an error encoding the object
+	 */
+	public int encodedLength() throws ContentEncodingException;
+
 	/**
 	 * Encode this object during an ongoing encoding pass; this is what subclasses
 	 * generally need to know how to implement. Writes just the object itself,
@@ -0,0 +1,141 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.repo;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.repo.RepositoryServer.StatsEnum;
+import org.ccnx.ccn.protocol.ContentObject;
+
+/**
+ * Least recently used cache of decoded ContentObjects, keyed by the ContentRef used to
+ * retrieve them from a repository store. The cache is bounded by the total encoded size
+ * of the objects it holds rather than by the number of objects.
+ *
+ * Cached objects are shared between all callers and must not be modified. ContentRefs used
+ * as keys must implement equals and hashCode.
+ */
+public class ContentObjectCache {
+
+	protected final long _maxBytes;
+	protected long _bytes = 0;
+	protected CCNEnumStats<StatsEnum> _stats;
+	protected LinkedHashMap<ContentRef, CacheEntry> _cache = new LinkedHashMap<ContentRef, CacheEntry>(16, 0.75f, true);
+
+	protected static class CacheEntry {
+		ContentObject content;
+		int size;
+
+		CacheEntry(ContentObject content, int size) {
+			this.content = content;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * @param maxBytes maximum total encoded size of the cached objects
+	 * @param stats counters to record hits, misses and evictions in
+	 */
+	public ContentObjectCache(long maxBytes, CCNEnumStats<StatsEnum> stats) {
+		_maxBytes = maxBytes;
+		_stats = stats;
+	}
+
+	public synchronized void setStats(CCNEnumStats<StatsEnum> stats) {
+		_stats = stats;
+	}
+
+	/**
+	 * @param ref reference to the content
+	 * @return the cached content or null if it is not in the cache
+	 */
+	public ContentObject get(ContentRef ref) {
+		CacheEntry entry;
+		CCNEnumStats<StatsEnum> stats;
+		synchronized (this) {
+			entry = _cache.get(ref);
+			stats = _stats;
+		}
+		if (null == entry) {
+			stats.increment(StatsEnum.ContentCacheMisses);
+			return null;
+		}
+		stats.increment(StatsEnum.ContentCacheHits);
+		return entry.content;
+	}
+
+	/**
+	 * Add content to the cache, evicting least recently used content as necessary
+	 * to stay within the size limit. Content larger than the whole cache is not cached.
+	 *
+	 * @param ref reference to the content
+	 * @param content the decoded content
+	 * @param size encoded size of the content
+	 */
+	public void put(ContentRef ref, ContentObject content, int size) {
+		if (size > _maxBytes)
+			return;
+		int evicted = 0;
+		CCNEnumStats<StatsEnum> stats;
+		synchronized (this) {
+			CacheEntry old = _cache.put(ref, new CacheEntry(content, size));
+			if (null != old)
+				_bytes -= old.size;
+			_bytes += size;
+			Iterator<Map.Entry<ContentRef, CacheEntry>> it = _cache.entrySet().iterator();
+			while (_bytes > _maxBytes && it.hasNext()) {
+				CacheEntry eldest = it.next().getValue();
+				it.remove();
+				_bytes -= eldest.size;
+				evicted++;
+			}
+			stats = _stats;
+		}
+		if (evicted > 0)
+			stats.increment(StatsEnum.ContentCacheEvictions, evicted);
+	}
+
+	/**
+	 * Remove content from the cache, e.g. when it is moved or deleted from the store
+	 * @param ref reference to the content
+	 */
+	public synchronized void remove(ContentRef ref) {
+		CacheEntry old = _cache.remove(ref);
+		if (null != old)
+			_bytes -= old.size;
+	}
+
+	public synchronized void clear() {
+		_cache.clear();
+		_bytes = 0;
+	}
+
+	/**
+	 * @return the total encoded size of the cached content
+	 */
+	public synchronized long bytes() {
+		return _bytes;
+	}
+
+	public synchronized int size() {
+		return _cache.size();
+	}
+}
@@ -19,11 +19,13 @@ package org.ccnx.ccn.impl.repo;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
 import org.ccnx.ccn.impl.support.DataUtils;
@@ -44,6 +46,10 @@ import org.ccnx.ccn.protocol.Interest;
  * Implements binary tree based algorithms to store and retrieve data based on interests and
  * NameEnumeration
  *
+ * The tree may be used concurrently. Lookups and searches never lock: the children and content
+ * of each node are published through volatile fields, child maps are concurrent, and content
+ * lists are copied on write. Inserts and removals lock only the nodes they change, one at a time
+ * on the way down, so they don't block each other except where their names share a node.
  */
 public class ContentTree {
 	
@@ -59,38 +65,170 @@ public class ContentTree {
 	 * same component (i.e. having same content digest at end
 	 * but presumably different publisher etc. that is not 
 	 * visible in this tree)
+	 * 
+	 * There is one of these for every component of every name in the repository, so it is kept 
+	 * small. The children and content fields are only changed holding the node's lock, but are 
+	 * read without it, so they always refer to something that is not changed once published.
 	 */
-	public class TreeNode implements Comparable<TreeNode>{
-		byte[] component; // name of this node in the tree, null for root only
-		// oneChild is special case when there is only 
-		// a single child (to save obj overhead).
-		// either oneChild or children should be null
-		TreeNode oneChild;
-		SortedMap<TreeNode, TreeNode> children;
-		// oneContent is special case when there is only 
-		// a single content object here (to save obj overhead).
-		// either oneContent or content should be null
-		ContentRef oneContent;
-		List<ContentRef> content;
-		long timestamp;
-		boolean interestFlag = false;
+	public static class TreeNode implements Comparable<TreeNode>{
+		final byte[] component; // name of this node in the tree, null for root only
+		// null, the only child (to save obj overhead), or a Children holding several
+		volatile Object children;
+		// null, the only content object here (to save obj overhead), or a ContentRef []
+		// which is never modified once set
+		volatile Object content;
+		volatile long timestamp;
+		volatile boolean interestFlag = false;
+		volatile boolean removed = false;	// set when pruned from the tree, so inserts don't use it
+		
+		public TreeNode(byte[] component) {
+			this.component = component;
+		}
 		
 		public boolean compEquals(byte[] other) {
 			return DataUtils.compare(other, this.component) == 0;
 		}
+		
 		public TreeNode getChild(byte[] component) {
-			if (null != oneChild) {
-				if (oneChild.compEquals(component)) {
-					return oneChild;
+			Object c = children;
+			if (c instanceof TreeNode) {
+				TreeNode one = (TreeNode)c;
+				if (one.compEquals(component)) {
+					return one;
 				}
-			} else if (null != children) {
-				TreeNode child = new TreeNode();
-				child.component = component;
-				return children.get(child);
+			} else if (null != c) {
+				return ((Children)c).get(component);
 			}
 			return null;
 		}
 		
+		/**
+		 * @return the children of this node, or null if none
+		 */
+		public Children childArray() {
+			Object c = children;
+			if (c instanceof TreeNode)
+				return new Children(new TreeNode[]{(TreeNode)c}, 1, 0);
+			return (Children)c;
+		}
+		
+		/**
+		 * @return the live children of this node in order, empty if none
+		 */
+		public List<TreeNode> childList() {
+			Children c = childArray();
+			ArrayList<TreeNode> result = new ArrayList<TreeNode>((null == c) ? 0 : c.count - c.dead);
+			if (null != c) {
+				for (Iterator<TreeNode> it = c.iterator(0, false); it.hasNext(); )
+					result.add(it.next());
+			}
+			return result;
+		}
+		
+		/**
+		 * @return the content at this node, or null if none. Must not be modified.
+		 */
+		public List<ContentRef> contentRefs() {
+			Object c = content;
+			if (c instanceof ContentRef)
+				return Collections.singletonList((ContentRef)c);
+			if (null != c)
+				return Arrays.asList((ContentRef [])c);
+			return null;
+		}
+		
+		public boolean hasContent() {
+			return null != content;
+		}
+		
+		/**
+		 * Add a content reference. Must be called holding the node's lock.
+		 */
+		protected void addContent(ContentRef ref) {
+			Object c = content;
+			if (null == c) {
+				// This is first and only content at this leaf
+				content = ref;
+			} else if (c instanceof ContentRef) {
+				// Second content at current node, need to switch to array
+				content = new ContentRef[]{(ContentRef)c, ref};
+			} else {
+				// Multiple content already at this node, add this one
+				ContentRef [] old = (ContentRef [])c;
+				ContentRef [] refs = Arrays.copyOf(old, old.length + 1);
+				refs[old.length] = ref;
+				content = refs;
+			}
+		}
+		
+		/**
+		 * Replace or remove a content reference. Must be called holding the node's lock.
+		 * @param newRef the replacement, or null to remove oldRef
+		 * @return false if oldRef isn't here
+		 */
+		protected boolean replaceContent(ContentRef oldRef, ContentRef newRef) {
+			Object c = content;
+			if (c instanceof ContentRef) {
+				if (!oldRef.equals(c))
+					return false;
+				content = newRef;
+				return true;
+			}
+			if (null == c)
+				return false;
+			ContentRef [] old = (ContentRef [])c;
+			for (int i = 0; i < old.length; i++) {
+				if (oldRef.equals(old[i])) {
+					if (null != newRef) {
+						ContentRef [] refs = old.clone();
+						refs[i] = newRef;
+						content = refs;
+					} else if (old.length == 2) {
+						content = old[1 - i];
+					} else {
+						ContentRef [] refs = new ContentRef[old.length - 1];
+						System.arraycopy(old, 0, refs, 0, i);
+						System.arraycopy(old, i + 1, refs, i, refs.length - i);
+						content = refs;
+					}
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		/**
+		 * Add a child, replacing any pruned child with the same component. Must be called 
+		 * holding the node's lock.
+		 */
+		protected void addChild(TreeNode child) {
+			Object c = children;
+			if (null == c) {
+				// This is first and only child of current node
+				children = child;
+			} else if (c instanceof TreeNode) {
+				// Second child in current node, need to switch to array
+				TreeNode one = (TreeNode)c;
+				children = (one.compareTo(child) < 0) ? new Children(new TreeNode[]{one, child}, 2, 0)
+						: new Children(new TreeNode[]{child, one}, 2, 0);
+			} else {
+				// Multiple children already, just add this one to current node
+				children = ((Children)c).add(child);
+			}
+		}
+		
+		/**
+		 * Remove a child that has been marked removed. Must be called holding the node's lock.
+		 */
+		protected void removeChild(TreeNode child) {
+			Object c = children;
+			if (c == child) {
+				children = null;
+			} else if (null != c && !(c instanceof TreeNode)) {
+				children = ((Children)c).remove(child);
+			}
+		}
+		
 		public String toString(){
 			String s = "";
 
@@ -99,14 +237,15 @@ public class ContentTree {
 			else{
 				s = ContentName.componentPrintURI(component);				
 			}
-			if(oneChild!=null){
+			List<TreeNode> list = childList();
+			if(list.size()==1){
 				//there is only one child
-				s+= " oneChild: "+ContentName.componentPrintURI(component);
+				s+= " oneChild: "+ContentName.componentPrintURI(list.get(0).component);
 			}
-			else if(children!=null){
+			else if(list.size()>1){
 				s+= " children: ";
 				int i = 0;
-				for(TreeNode c: children.keySet()){
+				for(TreeNode c: list){
 					//append each child to string
 					s+=" "+ContentName.componentPrintURI(c.component);
 					//s+=new String(t.component)+" ";
@@ -127,6 +266,139 @@ public class ContentTree {
 		}
 	}
 	
+	/**
+	 * The children of a node with more than one, as an array sorted by component. A Children
+	 * is never changed in a way visible to its readers: adding a child past the end of the array
+	 * writes a slot beyond the current count and returns a new Children sharing the array, and
+	 * anything else copies the array. Children pruned from the tree are left in place, marked
+	 * removed, until enough of them have built up to be worth copying the array to drop them, so 
+	 * pruning a node with many children doesn't copy it every time.
+	 */
+	protected static final class Children {
+		final TreeNode [] nodes;
+		final int count;	// nodes in use
+		final int dead;		// nodes in use which have been removed
+		
+		Children(TreeNode [] nodes, int count, int dead) {
+			this.nodes = nodes;
+			this.count = count;
+			this.dead = dead;
+		}
+		
+		/**
+		 * @return the index of the node with the given component, or -(insertion point) - 1
+		 */
+		int find(byte [] component) {
+			int low = 0;
+			int high = count - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int comp = DataUtils.compare(nodes[mid].component, component);
+				if (comp < 0)
+					low = mid + 1;
+				else if (comp > 0)
+					high = mid - 1;
+				else
+					return mid;
+			}
+			return -(low + 1);
+		}
+		
+		TreeNode get(byte [] component) {
+			int index = find(component);
+			return (index >= 0) ? nodes[index] : null;
+		}
+		
+		/**
+		 * @return the index of the first node with a component not less than the given one
+		 */
+		int ceiling(byte [] component) {
+			int index = find(component);
+			return (index >= 0) ? index : -(index + 1);
+		}
+		
+		Children add(TreeNode child) {
+			int index = find(child.component);
+			if (index >= 0) {
+				// Replacing a pruned child. Readers may see either, neither of which matters.
+				nodes[index] = child;
+				return new Children(nodes, count, dead - 1);
+			}
+			index = -(index + 1);
+			if (index == count && count < nodes.length) {
+				// Appending, as for consecutive segments
+				nodes[count] = child;
+				return new Children(nodes, count + 1, dead);
+			}
+			int live = count - dead + 1;
+			TreeNode [] newNodes = new TreeNode[Math.max(live + 1, live + (live >> 1))];
+			int n = 0;
+			for (int i = 0; i < count; i++) {
+				if (i == index)
+					newNodes[n++] = child;
+				if (!nodes[i].removed)
+					newNodes[n++] = nodes[i];
+			}
+			if (index == count)
+				newNodes[n++] = child;
+			return new Children(newNodes, n, 0);
+		}
+		
+		/**
+		 * @return what the node's children should now be: null, a TreeNode or a Children
+		 */
+		Object remove(TreeNode child) {
+			int live = count - dead - 1;
+			if (live <= 1 || dead + 1 > live) {
+				TreeNode [] newNodes = new TreeNode[live];
+				int n = 0;
+				for (int i = 0; i < count; i++) {
+					if (nodes[i] != child && !nodes[i].removed)
+						newNodes[n++] = nodes[i];
+				}
+				if (0 == n)
+					return null;
+				if (1 == n)
+					return newNodes[0];
+				return new Children(newNodes, n, 0);
+			}
+			return new Children(nodes, count, dead + 1);
+		}
+		
+		/**
+		 * @param from index of the first node to return
+		 * @param descending iterate from there towards the start rather than the end
+		 * @return an iterator over the nodes which haven't been removed
+		 */
+		Iterator<TreeNode> iterator(final int from, final boolean descending) {
+			return new Iterator<TreeNode>() {
+				int next = advance(from);
+				
+				int advance(int index) {
+					while (index >= 0 && index < count && nodes[index].removed)
+						index += descending ? -1 : 1;
+					return index;
+				}
+				
+				public boolean hasNext() {
+					return next >= 0 && next < count;
+				}
+
+				public TreeNode next() {
+					if (!hasNext())
+						throw new NoSuchElementException();
+					TreeNode node = nodes[next];
+					next = advance(next + (descending ? -1 : 1));
+					return node;
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+	
 	/**
 	 * Prescreen candidates against elements of an interest that we can so
 	 * we don't need to consider candidates that have no chance of matching.
@@ -173,7 +445,7 @@ public class ContentTree {
 	protected abstract class Search {
 		protected Interest _interest;
 		protected InterestPreScreener _ips;
-		protected SortedMap<TreeNode, TreeNode> _children = null;
+		protected Children _children = null;
 		
 		protected Search(Interest interest, InterestPreScreener ips) {
 			_interest = interest;
@@ -198,21 +470,14 @@ public class ContentTree {
 			if (res < 0)
 				return null;
 			if (res > 0) {
-				if (null != node.oneContent || null != node.content) {
+				if (node.hasContent()) {
 					ContentObject result = getContent(_interest, node, nodeName, getter);
 					if (null != result)
 						return result;
 				}
 			}
 		
-			synchronized(node) {
-				if (null != node.oneChild) {
-					_children = new TreeMap<TreeNode, TreeNode>(); // Don't bother with comparator, will only hold one element
-					_children.put(node.oneChild, node.oneChild);
-				} else {
-					_children = node.children;
-				}
-			}
+			_children = node.childArray();
 			if (null != _children) {
 				byte[] interestComp = _interest.name().component(depth);
 				Iterator<TreeNode>it = initIterator(leftSearch, interestComp);
@@ -259,10 +524,7 @@ public class ContentTree {
 
 		@Override
 		protected Iterator<TreeNode> initIterator(boolean leftSearch, byte[] interestComp) {
-			TreeNode testNode = new TreeNode();
-			testNode.component = interestComp;
-			SortedMap<TreeNode, TreeNode> map = leftSearch || null == interestComp ? _children : _children.tailMap(testNode);
-			return map.keySet().iterator();
+			return _children.iterator(leftSearch || null == interestComp ? 0 : _children.ceiling(interestComp), false);
 		}
 
 		@Override
@@ -286,8 +548,9 @@ public class ContentTree {
 		@Override
 		protected Iterator<TreeNode> initIterator(boolean leftSearch, byte[] interestComp) {
 			if (leftSearch)
-				return _children.keySet().iterator();
-			return new RightIterator(_children);
+				return _children.iterator(0, false);
+			// Go backwards through the candidates
+			return _children.iterator(_children.count - 1, true);
 		}
 
 		@Override
@@ -298,34 +561,59 @@ public class ContentTree {
 	}
 	
 	/**
-	 * Create an iterator that goes backwards through the candidates for right search
+	 * Short components such as segment numbers recur throughout the tree, so the nodes for them
+	 * share one copy. Components up to this length are shared.
+	 */
+	public static final int INTERN_MAX_LENGTH = 8;
+	
+	/**
+	 * Maximum number of distinct components shared
 	 */
-	protected static class RightIterator implements Iterator<TreeNode> {
-		protected SortedMap<TreeNode, TreeNode> _map;
+	public static final int INTERN_MAX_COUNT = 65536;
+	
+	protected static class ComponentKey {
+		final byte [] component;
+		final int hash;
 		
-		protected RightIterator(SortedMap<TreeNode, TreeNode> map) {
-			_map = map;
-		}
-
-		public boolean hasNext() {
-			return _map.size() > 0;
+		ComponentKey(byte [] component) {
+			this.component = component;
+			this.hash = Arrays.hashCode(component);
 		}
-
-		public TreeNode next() {
-			TreeNode node = _map.lastKey();
-			_map = _map.subMap(_map.firstKey(), _map.lastKey());
-			return node;
+		
+		@Override
+		public int hashCode() {
+			return hash;
 		}
-
-		public void remove() {}
 		
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof ComponentKey) && Arrays.equals(component, ((ComponentKey)obj).component);
+		}
 	}
 	
 	protected TreeNode _root;
+	protected ConcurrentHashMap<ComponentKey, byte []> _components = new ConcurrentHashMap<ComponentKey, byte []>();
 	
 	public ContentTree() {
-		_root = new TreeNode();
-		_root.component = null; // Only the root has a null value
+		_root = new TreeNode(null); // Only the root has a null value
+	}
+	
+	/**
+	 * @return a shared copy of component if it is short, otherwise component
+	 */
+	protected byte [] intern(byte [] component) {
+		if (component.length > INTERN_MAX_LENGTH)
+			return component;
+		ComponentKey key = new ComponentKey(component);
+		byte [] shared = _components.get(key);
+		if (null != shared)
+			return shared;
+		if (_components.size() < INTERN_MAX_COUNT) {
+			shared = _components.putIfAbsent(key, component);
+			if (null != shared)
+				return shared;
+		}
+		return component;
 	}
 	
 	/**
@@ -345,118 +633,113 @@ public class ContentTree {
 	 * @return - true if content is not exact duplicate of existing content.
 	 */
 	public boolean insert(ContentObject content, ContentRef ref, long ts, ContentGetter getter, NameEnumerationResponse ner) {
-		final ContentName name = content.fullName();
+		return insert(content.fullName(), content, ref, ts, getter, ner);
+	}
+	
+	/**
+	 * Insert entry for content already known to be in the store, for example when reloading
+	 * a previously saved index. No check for duplicate content is done.
+	 * 
+	 * @param name the full name of the content, including digest
+	 * @param ref pointer to position of data in the file storage
+	 * @param ts last modification time of the data
+	 */
+	public void insert(ContentName name, ContentRef ref, long ts) {
+		insert(name, null, ref, ts, null, null);
+	}
+	
+	/**
+	 * @param content if null, the check for duplicate content is skipped
+	 */
+	protected boolean insert(final ContentName name, ContentObject content, ContentRef ref, long ts, ContentGetter getter, NameEnumerationResponse ner) {
 		if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
 			Log.fine(Log.FAC_REPO, "inserting content: {0}", name);
 		}
-		TreeNode node = _root; // starting point
-		assert(null != _root);
-		boolean added = false;
+		TreeNode node;
+		boolean added;
+		retry: while (true) {
+			node = _root; // starting point
+			assert(null != _root);
+			added = false;
 		
-		for (byte[] component : name.components()) {
-			synchronized(node) {
-				//Library.finest("getting node for component: "+new String(component));
-				TreeNode child = node.getChild(component);
-				if (null == child) {
-					if (Log.isLoggable(Log.FAC_REPO, Level.FINEST)) {
-						Log.finest(Log.FAC_REPO, "child was null: adding here");
-					}
-					// add it
-					added = true;
-					child = new TreeNode();
-					child.component = component;
-					if (null == node.oneChild && null == node.children) {
-						// This is first and only child of current node
-						node.oneChild = child;
-					} else if (null == node.oneChild) {
-						// Multiple children already, just add this one to current node
-						node.children.put(child, child);
-					} else {
-						// Second child in current node, need to switch to list
-						node.children = new TreeMap<TreeNode, TreeNode>();
-						node.children.put(node.oneChild, node.oneChild);
-						node.children.put(child, child);
-						node.oneChild = null;
-					}
-					node.timestamp = ts;
-					
-					if (node.interestFlag && (ner != null && ner.getPrefix()==null)){
-						//we have added something to this node and someone was interested
-						//we need to get the child names and the prefix to send back
-						if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
-							Log.info(Log.FAC_REPO, "we added at least one child, need to send a name enumeration response");
+			for (byte[] component : name.components()) {
+				synchronized(node) {
+					if (node.removed)
+						continue retry;	// pruned under us by remove()
+					//Library.finest("getting node for component: "+new String(component));
+					TreeNode child = node.getChild(component);
+					if (null == child || child.removed) {
+						if (Log.isLoggable(Log.FAC_REPO, Level.FINEST)) {
+							Log.finest(Log.FAC_REPO, "child was null: adding here");
 						}
-						ContentName prefix = name.cut(component);
+						// add it
+						added = true;
+						child = new TreeNode(intern(component));
+						node.addChild(child);
+						node.timestamp = ts;
+					
+						if (node.interestFlag && (ner != null && ner.getPrefix()==null)){
+							//we have added something to this node and someone was interested
+							//we need to get the child names and the prefix to send back
+							if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+								Log.info(Log.FAC_REPO, "we added at least one child, need to send a name enumeration response");
+							}
+							ContentName prefix = name.cut(component);
 	
-						prefix = new ContentName(prefix, CommandMarker.COMMAND_MARKER_BASIC_ENUMERATION.getBytes());
-						//prefix = VersioningProfile.addVersion(prefix, new CCNTime(node.timestamp));
-						if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
-							Log.info(Log.FAC_REPO, "prefix for FastNEResponse: {0}", prefix);
-							Log.info(Log.FAC_REPO, "response name will be: {0}",
-									VersioningProfile.addVersion(
-											new ContentName(prefix, CommandMarker.COMMAND_MARKER_BASIC_ENUMERATION.getBytes()), 
-											new CCNTime(node.timestamp)));
-						}
+							prefix = new ContentName(prefix, CommandMarker.COMMAND_MARKER_BASIC_ENUMERATION.getBytes());
+							//prefix = VersioningProfile.addVersion(prefix, new CCNTime(node.timestamp));
+							if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+								Log.info(Log.FAC_REPO, "prefix for FastNEResponse: {0}", prefix);
+								Log.info(Log.FAC_REPO, "response name will be: {0}",
+										VersioningProfile.addVersion(
+												new ContentName(prefix, CommandMarker.COMMAND_MARKER_BASIC_ENUMERATION.getBytes()), 
+												new CCNTime(node.timestamp)));
+							}
 	
-						ArrayList<ContentName> names = new ArrayList<ContentName>();
-						// the parent has children we need to return
-						ContentName c = new ContentName();
-						if (node.oneChild != null) {
-							names.add(new ContentName(c,
-									node.oneChild.component));
-						} else {
-							if (node.children != null) {
-								for (TreeNode ch : node.children.keySet())
-									names.add(new ContentName(c, ch.component));
+							ArrayList<ContentName> names = new ArrayList<ContentName>();
+							// the parent has children we need to return
+							ContentName c = new ContentName();
+							for (TreeNode ch : node.childList())
+								names.add(new ContentName(c, ch.component));
+							ner.setPrefix(prefix);
+							ner.setNameList(names);
+							ner.setTimestamp(new CCNTime(node.timestamp));
+							if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+								Log.info(Log.FAC_REPO, "resetting interestFlag to false");
 							}
+							node.interestFlag = false;
 						}
-						ner.setPrefix(prefix);
-						ner.setNameList(names);
-						ner.setTimestamp(new CCNTime(node.timestamp));
-						if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
-							Log.info(Log.FAC_REPO, "resetting interestFlag to false");
-						}
-						node.interestFlag = false;
 					}
-				}
 				
-				//Library.finest("child was not null: moving down the tree");
-				node = child;
+					//Library.finest("child was not null: moving down the tree");
+					node = child;
+				}
 			}
-		}
 		
-		// Check for duplicate content
-		if (!added) {
-			if (null != node.oneContent) {
-				ContentObject prev = getter.get(node.oneContent);
-				if (null != prev && content.equals(prev))
-					return false;
-			} else if (null != node.content) {
-				for (ContentRef oldRef : node.content) {
-					ContentObject prev = getter.get(oldRef);
-					if (null != prev && content.equals(prev))
-						return false;
+			synchronized(node) {
+				if (node.removed)
+					continue retry;
+			
+				// Check for duplicate content
+				if (!added && null != content) {
+					List<ContentRef> refs = node.contentRefs();
+					if (null != refs) {
+						for (ContentRef oldRef : refs) {
+							ContentObject prev = getter.get(oldRef);
+							if (null != prev && content.equals(prev))
+								return false;
+						}
+					}
 				}
+	
+				// At conclusion of this loop, node must be holding the last node for this name
+				// so we insert the ref there
+				node.addContent(ref);
 			}
-		}
-
-		// At conclusion of this loop, node must be holding the last node for this name
-		// so we insert the ref there
-		if (null == node.oneContent && null == node.content) {
-			// This is first and only content at this leaf
-			node.oneContent = ref;
-		} else if (null == node.oneContent) {
-			// Multiple content already at this node, add this one
-			node.content.add(ref);
-		} else {
-			// Second content at current node, need to switch to list
-			node.content = new ArrayList<ContentRef>();
-			node.content.add(node.oneContent);
-			node.content.add(ref);
-			node.oneContent = null;
+			break;
 		}
 		if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
-			Log.fine(Log.FAC_REPO, "Inserted: {0}", content.name());
+			Log.fine(Log.FAC_REPO, "Inserted: {0}", name);
 		}
 		return true;
 	}
@@ -477,17 +760,15 @@ public class ContentTree {
 		}
 		
 		for (byte[] component : name.components()) {
-			synchronized(node) {
-				TreeNode child = node.getChild(component);
-				if (null == child) {
-					// Mismatch, no child for the given component so nothing under this name
-					return null;
-				}
-				node = child;
-				count--;
-				if (count < 1) {
-					break;
-				}
+			TreeNode child = node.getChild(component);
+			if (null == child) {
+				// Mismatch, no child for the given component so nothing under this name
+				return null;
+			}
+			node = child;
+			count--;
+			if (count < 1) {
+				break;
 			}
 		}
 		return node;
@@ -502,18 +783,104 @@ public class ContentTree {
 	protected final List<ContentRef> lookup(ContentName name) {
 		TreeNode node = lookupNode(name, name.count());
 		if (null != node) {
-			if (null != node.oneContent) {
-				ArrayList<ContentRef> result = new ArrayList<ContentRef>();
-				result.add(node.oneContent);
-				return result;
-			} else {
-				return node.content;
-			}
+			return node.contentRefs();
 		} else {
 			return null;	
 		}
 	}
 	
+	/**
+	 * Replace the reference to a piece of content, e.g. when it has been moved in the
+	 * underlying storage
+	 * 
+	 * @param name the full name of the content, including digest
+	 * @param oldRef the current reference
+	 * @param newRef the new reference
+	 * @return false if oldRef was not found under name
+	 */
+	public boolean replace(ContentName name, ContentRef oldRef, ContentRef newRef) {
+		TreeNode node = lookupNode(name, name.count());
+		if (null == node)
+			return false;
+		synchronized(node) {
+			return node.replaceContent(oldRef, newRef);
+		}
+	}
+	
+	/**
+	 * Remove the reference to a piece of content. Nodes left with neither content nor
+	 * children are pruned from the tree.
+	 * 
+	 * @param name the full name of the content, including digest
+	 * @param ref the reference to remove
+	 * @return false if ref was not found under name
+	 */
+	public boolean remove(ContentName name, ContentRef ref) {
+		TreeNode [] path = new TreeNode[name.count() + 1];
+		path[0] = _root;
+		for (int i = 0; i < name.count(); i++) {
+			synchronized(path[i]) {
+				path[i + 1] = path[i].getChild(name.component(i));
+			}
+			if (null == path[i + 1])
+				return false;
+		}
+		TreeNode node = path[name.count()];
+		synchronized(node) {
+			if (!node.replaceContent(ref, null))
+				return false;
+		}
+		
+		// Prune empty nodes bottom up. We always lock parent before child.
+		for (int i = name.count(); i > 0; i--) {
+			TreeNode parent = path[i - 1];
+			TreeNode child = path[i];
+			synchronized(parent) {
+				synchronized(child) {
+					if (child.removed || null != child.content || null != child.children)
+						break;
+					child.removed = true;
+					parent.removeChild(child);
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Interface used by visit() to report the content in the tree
+	 */
+	public interface ContentVisitor {
+		/**
+		 * @param name the full name of the content, including digest
+		 * @param ref the reference to the content
+		 * @param timestamp the timestamp of the node holding the content
+		 */
+		public void visit(ContentName name, ContentRef ref, long timestamp);
+	}
+	
+	/**
+	 * Report every piece of content in the tree to a visitor. The tree may change during the
+	 * traversal, so content inserted or removed concurrently may or may not be reported.
+	 * 
+	 * @param visitor the visitor
+	 */
+	public void visit(ContentVisitor visitor) {
+		visitRecurse(visitor, _root, new ContentName(), 0);
+	}
+	
+	protected void visitRecurse(ContentVisitor visitor, TreeNode node, ContentName nodeName, long parentTimestamp) {
+		long timestamp = node.timestamp;
+		List<ContentRef> refs = node.contentRefs();
+		List<TreeNode> children = node.childList();
+		if (null != refs) {
+			for (ContentRef ref : refs)
+				visitor.visit(nodeName, ref, parentTimestamp);
+		}
+		for (TreeNode child : children)
+			visitRecurse(visitor, child, new ContentName(nodeName, child.component), timestamp);
+	}
+	
 	/**
 	 * Dump current names to an output file for debugging
 	 * 
@@ -545,12 +912,13 @@ public class ContentTree {
 		}
 		int mylen = myname.length();
 		output.print(myname);
-		if (null != node.oneChild) {
+		List<TreeNode> children = node.childList();
+		if (children.size() == 1) {
 			output.print("---");
-			dumpRecurse(output, node.oneChild, String.format("%s%" + mylen + "s   ", indent, ""), maxNodeLen);
-		} else if (null != node.children) {
-			int count = 1; int last = node.children.size();
-			for (TreeNode child : node.children.values()) {
+			dumpRecurse(output, children.get(0), String.format("%s%" + mylen + "s   ", indent, ""), maxNodeLen);
+		} else if (children.size() > 1) {
+			int count = 1; int last = children.size();
+			for (TreeNode child : children) {
 				if (1 == count) {
 					// First child
 					output.print("-+-");
@@ -592,20 +960,14 @@ public class ContentTree {
 		boolean initialMatch = publisherFreeInterest.matches(digestFreeName, null); 
 
 		if (initialMatch) {
-			synchronized(node) {
-				if (null != node.oneContent) {
-					ContentObject cand = getter.get(node.oneContent);
-					if (interest.matches(cand)) {
+			// Read the content without holding the node so inserts aren't held up
+			List<ContentRef> refs = node.contentRefs();
+			if (null != refs) {
+				for (ContentRef ref : refs) {
+					ContentObject cand = getter.get(ref);
+					if (null != cand && interest.matches(cand)) {
 						return cand;
 					}
-				} else {
-					assert(null != node.content);
-					for (ContentRef ref : node.content) {
-						ContentObject cand = getter.get(ref);
-						if (interest.matches(cand)) {
-							return cand;
-						}
-					}
 				}
 			}
 		}
@@ -667,14 +1029,8 @@ public class ContentTree {
 			}
 
 			//the parent has children we need to return
-			if (parent.oneChild!=null) {
-				names.add(new ContentName(ContentName.ROOT, parent.oneChild.component));
-			} else {
-				if (parent.children!=null) {
-					for (TreeNode ch:parent.children.keySet())
-						names.add(new ContentName(ContentName.ROOT, ch.component));
-				}
-			}
+			for (TreeNode ch:parent.childList())
+				names.add(new ContentName(ContentName.ROOT, ch.component));
 			
 			if (names.size()>0) {
 				if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
@@ -0,0 +1,163 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.repo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.InvalidMarkException;
+import java.nio.channels.FileChannel;
+
+/**
+ * FileChannelInputStream is a buffered InputStream reading a backend repository file
+ * from a given position using positional reads on its FileChannel. Since positional reads
+ * neither use nor change the file pointer of the underlying file, any number of these
+ * streams may read the same file concurrently, and concurrently with writes to it,
+ * without locking.
+ *
+ * This class is intended for backend repository use and is not meant
+ * for general CCN stream use.
+ *
+ * @see InputStream
+ * @see FileChannel
+ */
+public class FileChannelInputStream extends InputStream {
+
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	protected FileChannel _channel;
+	protected ByteBuffer _buffer;
+	protected long _position;	// file position of the end of the buffered data
+
+	/**
+	 * @param channel channel of the backend repository file
+	 * @param position position in the file to start reading from
+	 */
+	public FileChannelInputStream(FileChannel channel, long position) {
+		this(channel, position, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param channel channel of the backend repository file
+	 * @param position position in the file to start reading from
+	 * @param bufferSize size of the read buffer
+	 */
+	public FileChannelInputStream(FileChannel channel, long position, int bufferSize) {
+		_channel = channel;
+		_position = position;
+		_buffer = ByteBuffer.allocate(bufferSize);
+		_buffer.flip();
+	}
+
+	/**
+	 * @return the file position of the next byte to be returned by this stream
+	 */
+	public long position() {
+		return _position - _buffer.remaining();
+	}
+
+	/**
+	 * Refill the buffer if it is empty.
+	 * @return false if at end of file
+	 * @throws IOException
+	 */
+	protected boolean fill() throws IOException {
+		if (_buffer.hasRemaining())
+			return true;
+		_buffer.clear();
+		int count = _channel.read(_buffer, _position);
+		_buffer.flip();
+		if (count <= 0)
+			return false;
+		_position += count;
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill())
+			return -1;
+		return _buffer.get() & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!fill())
+			return -1;
+		int count = Math.min(len, _buffer.remaining());
+		_buffer.get(b, off, count);
+		return count;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return _buffer.remaining();
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0)
+			return 0;
+		if (n <= _buffer.remaining()) {
+			_buffer.position(_buffer.position() + (int)n);
+			return n;
+		}
+		// Don't skip past the end of the file
+		long skipped = _buffer.remaining();
+		long count = Math.min(n - skipped, Math.max(0, _channel.size() - _position));
+		_position += count;
+		_buffer.position(_buffer.limit());
+		return skipped + count;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	/**
+	 * Marks are only supported within the currently buffered data, which is sufficient
+	 * for the lookahead done by the decoders
+	 */
+	@Override
+	public synchronized void mark(int readlimit) {
+		if (_buffer.remaining() < readlimit) {
+			// Move the remaining data to the start of the buffer so there is room to read ahead
+			_buffer.compact();
+			int count = 0;
+			try {
+				count = _channel.read(_buffer, _position);
+			} catch (IOException e) {}
+			if (count > 0)
+				_position += count;
+			_buffer.flip();
+		}
+		_buffer.mark();
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		try {
+			_buffer.reset();
+		} catch (InvalidMarkException e) {
+			throw new IOException("Resetting to invalid mark");
+		}
+	}
+}
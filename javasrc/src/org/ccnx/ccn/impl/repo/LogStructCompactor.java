@@ -0,0 +1,339 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.repo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.repo.LogStructRepoStore.FileRef;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.profiles.VersioningProfile;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+
+/**
+ * Reclaims space in a LogStructRepoStore. Content is dead if it is outside the repository's
+ * namespace, or is an old version of a name of which at least SystemConfiguration.REPO_KEEP_VERSIONS
+ * newer versions are stored. Dead content is removed from the index, then the live content of
+ * every repository file holding dead content is copied to the active file, its references in
+ * the index are replaced, and the old file is deleted. If the active file itself holds dead
+ * content, a new active file is started first so the old one can be compacted.
+ *
+ * Copying is done in small batches, each holding the repository's write lock only briefly, and
+ * is throttled to SystemConfiguration.REPO_COMPACT_RATE so it doesn't starve normal operation.
+ * The store itself is locked only while choosing the files to compact and while deleting them.
+ *
+ * Compaction can be run periodically in the background or on demand with compact().
+ */
+public class LogStructCompactor implements Runnable {
+
+	public static final int BATCH_SIZE = 256 * 1024;
+
+	protected LogStructRepoStore _store;
+	protected Thread _thread = null;
+	protected volatile boolean _shutdown = false;
+	// Held for a whole compaction, so compactions run one at a time
+	protected final Object _compactLock = new Object();
+
+	protected static class Entry {
+		ContentName name;
+		FileRef ref;
+
+		Entry(ContentName name, FileRef ref) {
+			this.name = name;
+			this.ref = ref;
+		}
+	}
+
+	public LogStructCompactor(LogStructRepoStore store) {
+		_store = store;
+	}
+
+	/**
+	 * Start compacting in the background every SystemConfiguration.REPO_COMPACT_INTERVAL seconds
+	 */
+	public synchronized void start() {
+		if (null != _thread || SystemConfiguration.REPO_COMPACT_INTERVAL <= 0)
+			return;
+		_thread = new Thread(this, "LogStructCompactor");
+		_thread.setDaemon(true);
+		_thread.setPriority(Thread.MIN_PRIORITY);
+		_thread.start();
+	}
+
+	public void run() {
+		while (!_shutdown) {
+			synchronized (this) {
+				try {
+					wait(SystemConfiguration.REPO_COMPACT_INTERVAL * 1000L);
+				} catch (InterruptedException e) {}
+			}
+			if (_shutdown)
+				break;
+			try {
+				compact();
+			} catch (Exception e) {
+				Log.warning(Log.FAC_REPO, "Repository compaction failed: {0}", e.getMessage());
+				Log.logStackTrace(Level.WARNING, e);
+			}
+		}
+	}
+
+	public void shutdown() {
+		synchronized (this) {
+			_shutdown = true;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Compact the repository now
+	 *
+	 * @return the number of repository files deleted
+	 * @throws IOException on failure writing the active repository file
+	 */
+	public int compact() throws IOException {
+		synchronized (_compactLock) {
+			long start = System.currentTimeMillis();
+			ContentTree tree = _store._index;
+			HashSet<Entry> dead;
+			HashSet<Integer> garbageFiles = new HashSet<Integer>();
+
+			// Locking the store while choosing files, and while deleting them, excludes bulk
+			// imports, whose files must not be mistaken for garbage before their content has
+			// been indexed. Files imported in between get new ids, so aren't chosen.
+			synchronized (_store) {
+				// Find all the content in the index and decide what is dead
+				ArrayList<Entry> entries = entries(tree);
+				dead = findDead(entries);
+
+				for (Entry entry : dead) {
+					tree.remove(entry.name, entry.ref);
+					if (null != _store._cache)
+						_store._cache.remove(entry.ref);
+					garbageFiles.add(entry.ref.id);
+				}
+
+				// Files no longer referenced by the index at all can just be deleted. This
+				// also cleans up after a compaction that was interrupted.
+				HashSet<Integer> liveFiles = new HashSet<Integer>();
+				for (Entry entry : entries) {
+					if (!dead.contains(entry))
+						liveFiles.add(entry.ref.id);
+				}
+				synchronized (_store._files) {
+					for (Integer id : _store._files.keySet()) {
+						if (!liveFiles.contains(id))
+							garbageFiles.add(id);
+					}
+				}
+
+				synchronized (_store._writeLock) {
+					if (null == _store._activeWriteFile.openFile)
+						return 0;	// shut down
+					int activeId = LogStructRepoStore.fileId(_store._activeWriteFile);
+					if (garbageFiles.contains(activeId)) {
+						if (_store._activeWriteFile.nextWritePos > 0)
+							_store.rollActiveFile();
+						else
+							garbageFiles.remove(activeId);	// empty, leave it be
+					}
+				}
+			}
+			if (garbageFiles.isEmpty()) {
+				if (Log.isLoggable(Log.FAC_REPO, Level.INFO))
+					Log.info(Log.FAC_REPO, "Repository compaction removed {0} objects, no files to compact", dead.size());
+				return 0;
+			}
+
+			// Nothing more can be written to the files to be deleted, but something may have
+			// been written to the previously active file since we looked
+			ArrayList<Entry> entries = entries(tree);
+			
+			// Move the live content out of the files to be deleted
+			long copied = 0;
+			ArrayList<Entry> batch = new ArrayList<Entry>();
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			ArrayList<Integer> ends = new ArrayList<Integer>();
+			for (Entry entry : entries) {
+				if (_shutdown)
+					return 0;
+				if (!garbageFiles.contains(entry.ref.id))
+					continue;
+				ContentObject content = _store.get(entry.ref);
+				if (null == content) {
+					Log.warning(Log.FAC_REPO, "Compaction unable to read {0}, dropping it", entry.name);
+					tree.remove(entry.name, entry.ref);
+					continue;
+				}
+				content.encode(buffer);
+				batch.add(entry);
+				ends.add(buffer.size());
+				if (buffer.size() >= BATCH_SIZE) {
+					copied += copy(batch, buffer, ends);
+					throttle(start, copied);
+				}
+			}
+			if (batch.size() > 0)
+				copied += copy(batch, buffer, ends);
+
+			// Nothing references the old files now, so we can get rid of them
+			synchronized (_store) {
+				synchronized (_store._writeLock) {
+					for (Integer id : garbageFiles)
+						_store.deleteFile(id);
+					synchronized (_store._files) {
+						_store._indexFile.rewrite(tree, new ArrayList<Integer>(_store._files.keySet()));
+					}
+				}
+			}
+			if (Log.isLoggable(Log.FAC_REPO, Level.INFO))
+				Log.info(Log.FAC_REPO, "Repository compaction removed {0} objects, copied {1} bytes and deleted {2} files in {3} ms",
+						dead.size(), copied, garbageFiles.size(), System.currentTimeMillis() - start);
+			return garbageFiles.size();
+		}
+	}
+
+	/**
+	 * Write a batch of encoded content to the active file and point the index at the new copies
+	 * @return the number of bytes written
+	 */
+	protected long copy(List<Entry> batch, ByteArrayOutputStream buffer, List<Integer> ends) throws IOException {
+		int length = buffer.size();
+		synchronized (_store._writeLock) {
+			if (null == _store._activeWriteFile.openFile)
+				throw new IOException("Repository has been shut down");
+			FileRef base = _store.append(buffer.toByteArray());
+			int start = 0;
+			for (int i = 0; i < batch.size(); i++) {
+				Entry entry = batch.get(i);
+				FileRef ref = new FileRef();
+				ref.id = base.id;
+				ref.offset = base.offset + start;
+				_store._index.replace(entry.name, entry.ref, ref);
+				if (null != _store._cache)
+					_store._cache.remove(entry.ref);
+				start = ends.get(i);
+			}
+			// Leave the copies out of the persistent index until rewrite() so that if we
+			// crash before then it still refers to the originals
+			_store._indexFile.covered(base.id, base.offset + length);
+		}
+		batch.clear();
+		ends.clear();
+		buffer.reset();
+		return length;
+	}
+
+	/**
+	 * @return all the content in tree
+	 */
+	protected ArrayList<Entry> entries(ContentTree tree) {
+		final ArrayList<Entry> entries = new ArrayList<Entry>();
+		tree.visit(new ContentTree.ContentVisitor() {
+			public void visit(ContentName name, ContentRef ref, long timestamp) {
+				entries.add(new Entry(name, (FileRef)ref));
+			}
+		});
+		return entries;
+	}
+
+	/**
+	 * Sleep as necessary to keep the copy rate below SystemConfiguration.REPO_COMPACT_RATE
+	 */
+	protected void throttle(long start, long copied) {
+		if (SystemConfiguration.REPO_COMPACT_RATE <= 0)
+			return;
+		long due = start + (copied * 1000) / SystemConfiguration.REPO_COMPACT_RATE;
+		long delay = due - System.currentTimeMillis();
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {}
+		}
+	}
+
+	/**
+	 * Decide which content is dead according to the namespace and retention policy
+	 */
+	protected HashSet<Entry> findDead(List<Entry> entries) {
+		HashSet<Entry> dead = new HashSet<Entry>();
+		ArrayList<ContentName> namespace;
+		synchronized (_store.getPolicy()) {
+			namespace = new ArrayList<ContentName>(_store.getNamespace());
+		}
+		int keep = SystemConfiguration.REPO_KEEP_VERSIONS;
+
+		// Versions of each versioned name, and the version of each entry
+		Map<ContentName, TreeSet<Long>> versions = new HashMap<ContentName, TreeSet<Long>>();
+		Map<Entry, ContentName> bases = new HashMap<Entry, ContentName>();
+		Map<Entry, Long> entryVersions = new HashMap<Entry, Long>();
+
+		for (Entry entry : entries) {
+			boolean inNamespace = false;
+			for (ContentName prefix : namespace) {
+				if (prefix.isPrefixOf(entry.name)) {
+					inNamespace = true;
+					break;
+				}
+			}
+			if (!inNamespace) {
+				dead.add(entry);
+				continue;
+			}
+			if (keep <= 0)
+				continue;
+			// The final component is the digest
+			ContentName name = entry.name.cut(entry.name.count() - 1);
+			int index = VersioningProfile.findLastVersionComponent(name);
+			if (index < 0)
+				continue;
+			ContentName base = name.cut(index);
+			long version = VersioningProfile.getVersionComponentAsLong(name.component(index));
+			TreeSet<Long> baseVersions = versions.get(base);
+			if (null == baseVersions) {
+				baseVersions = new TreeSet<Long>();
+				versions.put(base, baseVersions);
+			}
+			baseVersions.add(version);
+			bases.put(entry, base);
+			entryVersions.put(entry, version);
+		}
+
+		for (Entry entry : bases.keySet()) {
+			TreeSet<Long> baseVersions = versions.get(bases.get(entry));
+			if (baseVersions.size() <= keep)
+				continue;
+			// Find the oldest version we keep
+			Long oldest = baseVersions.last();
+			for (int i = 1; i < keep; i++)
+				oldest = baseVersions.lower(oldest);
+			if (entryVersions.get(entry) < oldest)
+				dead.add(entry);
+		}
+		return dead;
+	}
+}
@@ -0,0 +1,277 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.repo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.impl.encoding.BinaryXMLCodec;
+import org.ccnx.ccn.impl.encoding.BinaryXMLDecoder;
+import org.ccnx.ccn.impl.encoding.CCNProtocolDTags;
+import org.ccnx.ccn.impl.repo.LogStructRepoStore.FileRef;
+import org.ccnx.ccn.impl.repo.LogStructRepoStore.RepoFile;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.io.content.ContentDecodingException;
+import org.ccnx.ccn.protocol.ContentObject;
+
+/**
+ * Rebuilds the ContentTree of a LogStructRepoStore from its repository files using a pool of
+ * worker threads.
+ *
+ * Each file is scanned for object boundaries by a cheap pass that only reads the ccnb
+ * element headers, skipping over the content of BLOBs and UDATA without decoding it. The
+ * file is cut into ranges of about RANGE_SIZE bytes at those boundaries, and the ranges are
+ * handed to the workers as they are found. Each worker decodes the objects in its range
+ * with its own decoder, using positional reads on the file's channel so no locking is needed
+ * to read, and inserts them into the ContentTree, which only locks the nodes it changes.
+ *
+ * Since ranges may finish in any order, the persistent index is only told a file is covered
+ * once all of its ranges are done. Entries from a partly indexed file may end up in the
+ * index before its coverage does; that is harmless since they are found to be duplicates
+ * when the file is replayed.
+ */
+public class LogStructIndexBuilder {
+
+	public static final int RANGE_SIZE = 4 * 1024 * 1024;
+
+	protected LogStructRepoStore _store;
+	protected int _threads;
+	protected AtomicLong _objects = new AtomicLong(0);
+
+	/**
+	 * Tracks the ranges of one file still being indexed
+	 */
+	protected class FileProgress {
+		RepoFile rfile;
+		int id;
+		long end = -1;	// end of the valid data, once the scan has found it
+		volatile boolean failed = false;
+		AtomicInteger pending = new AtomicInteger(1);	// ranges, plus one for the scan itself
+
+		FileProgress(RepoFile rfile, int id) {
+			this.rfile = rfile;
+			this.id = id;
+		}
+
+		void done() {
+			// If a range failed, leave the file to be replayed from where it was on the next startup
+			if (0 == pending.decrementAndGet() && !failed)
+				_store._indexFile.covered(id, end);
+		}
+	}
+
+	/**
+	 * @param store the store whose index to build
+	 * @param threads number of worker threads, or 0 for one per processor
+	 */
+	public LogStructIndexBuilder(LogStructRepoStore store, int threads) {
+		_store = store;
+		_threads = (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Index the given repository files, which must already be in the store's file table.
+	 * Returns when all the content has been inserted into the store's ContentTree.
+	 *
+	 * @param files the files to index by id
+	 * @param startOffsets offset of the first object not yet indexed in each file, or null to
+	 * 		  index every file from the start
+	 * @return the number of objects read
+	 */
+	public long index(Map<Integer, RepoFile> files, Map<Integer, Long> startOffsets) {
+		long start = System.currentTimeMillis();
+		_objects.set(0);
+		ExecutorService pool = Executors.newFixedThreadPool(_threads, new ThreadFactory() {
+			AtomicInteger count = new AtomicInteger(0);
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "LogStructIndexBuilder-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		ArrayList<Future<?>> results = new ArrayList<Future<?>>();
+		try {
+			for (Integer id : files.keySet()) {
+				Long offset = (null == startOffsets) ? null : startOffsets.get(id);
+				scan(new FileProgress(files.get(id), id), (null == offset) ? 0 : offset.longValue(), pool, results);
+			}
+			// The scans are done, so all the ranges have been submitted
+			for (int i = 0; i < results.size(); i++) {
+				try {
+					results.get(i).get();
+				} catch (InterruptedException e) {
+					Log.warning(Log.FAC_REPO, "Interrupted creating repository index");
+					Thread.currentThread().interrupt();
+					break;
+				} catch (ExecutionException e) {
+					Log.warning(Log.FAC_REPO, "Error creating repository index: " + e.getCause());
+					Log.logStackTrace(Level.WARNING, e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+		if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+			Log.info(Log.FAC_REPO, "Indexed {0} objects in {1} repository files with {2} threads in {3} ms",
+					_objects.get(), files.size(), _threads, System.currentTimeMillis() - start);
+		}
+		return _objects.get();
+	}
+
+	/**
+	 * Find the object boundaries in a file and submit its ranges for indexing
+	 */
+	protected void scan(FileProgress progress, long offset, ExecutorService pool, ArrayList<Future<?>> results) {
+		long rangeStart = offset;
+		long position = offset;
+		try {
+			FileChannel channel = _store.getChannel(progress.rfile);
+			long length = channel.size();
+			FileChannelInputStream is = new FileChannelInputStream(channel, offset, 65536);
+			while (position < length) {
+				if (!skipObject(is))
+					break;
+				position = is.position();
+				if (position - rangeStart >= RANGE_SIZE) {
+					results.add(submit(progress, rangeStart, position, pool));
+					rangeStart = position;
+				}
+			}
+			if (position < length)
+				Log.warning(Log.FAC_REPO, "Repository file {0} has {1} unreadable bytes at offset {2}",
+						progress.rfile.file.getName(), length - position, position);
+		} catch (IOException e) {
+			Log.warning(Log.FAC_REPO, "IOException reading file to create index: {0}: {1}",
+					progress.rfile.file.getName(), e.getMessage());
+		}
+		if (position > rangeStart)
+			results.add(submit(progress, rangeStart, position, pool));
+		progress.end = position;
+		progress.done();
+	}
+
+	protected Future<?> submit(final FileProgress progress, final long start, final long end, ExecutorService pool) {
+		progress.pending.incrementAndGet();
+		return pool.submit(new Runnable() {
+			public void run() {
+				try {
+					indexRange(progress, start, end);
+				} finally {
+					progress.done();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Decode the objects between start and end, which must be object boundaries, and insert
+	 * them into the ContentTree
+	 */
+	protected void indexRange(FileProgress progress, long start, long end) {
+		long ts = progress.rfile.file.lastModified();
+		long count = 0;
+		try {
+			FileChannelInputStream is = new FileChannelInputStream(_store.getChannel(progress.rfile), start, 65536);
+			BinaryXMLDecoder decoder = new BinaryXMLDecoder();
+			decoder.beginDecoding(is);
+			long offset = start;
+			while (offset < end) {
+				ContentObject content = new ContentObject();
+				content.decode(decoder);
+				FileRef ref = new FileRef();
+				ref.id = progress.id;
+				ref.offset = offset;
+				if (_store._index.insert(content, ref, ts, _store, null))
+					_store._indexFile.add(ref, content.fullName(), ts);
+				offset = is.position();
+				count++;
+			}
+		} catch (ContentDecodingException e) {
+			progress.failed = true;
+			Log.warning(Log.FAC_REPO, "Unable to decode object in {0} between {1} and {2}: {3}",
+					progress.rfile.file.getName(), start, end, e.getMessage());
+		} catch (IOException e) {
+			Log.warning(Log.FAC_REPO, "IOException reading file to create index: {0}: {1}",
+					progress.rfile.file.getName(), e.getMessage());
+		}
+		_objects.addAndGet(count);
+	}
+
+	/**
+	 * Skip over one ContentObject without decoding it
+	 *
+	 * @return false if there isn't a complete ContentObject at the current position
+	 */
+	protected static boolean skipObject(InputStream is) throws IOException {
+		BinaryXMLCodec.TypeAndVal tv = BinaryXMLCodec.decodeTypeAndVal(is);
+		if (null == tv || tv.type() != BinaryXMLCodec.XML_DTAG || tv.val() != CCNProtocolDTags.ContentObject)
+			return false;
+		int depth = 1;
+		while (depth > 0) {
+			is.mark(BinaryXMLCodec.LONG_BYTES * 2);
+			int next = is.read();
+			if (next < 0)
+				return false;
+			if (BinaryXMLCodec.XML_CLOSE == next) {
+				depth--;
+				continue;
+			}
+			is.reset();
+			tv = BinaryXMLCodec.decodeTypeAndVal(is);
+			if (null == tv)
+				return false;
+			long skip;
+			if (tv.type() == BinaryXMLCodec.XML_DTAG) {
+				depth++;
+				skip = 0;
+			} else if (tv.type() == BinaryXMLCodec.XML_TAG) {
+				depth++;
+				skip = tv.val() + 1;	// tag name
+			} else if (tv.type() == BinaryXMLCodec.XML_ATTR) {
+				skip = tv.val() + 1;	// attribute name, value follows as UDATA
+			} else if (tv.type() == BinaryXMLCodec.XML_DATTR) {
+				skip = 0;
+			} else if (tv.type() == BinaryXMLCodec.XML_BLOB || tv.type() == BinaryXMLCodec.XML_UDATA) {
+				skip = tv.val();
+			} else {
+				return false;
+			}
+			if (skip > 0 && !skipFully(is, skip))
+				return false;
+		}
+		return true;
+	}
+
+	protected static boolean skipFully(InputStream is, long count) throws IOException {
+		// Skipping may go past the end of the file, so check we can read the last byte
+		if (count > 1 && is.skip(count - 1) < count - 1)
+			return false;
+		return is.read() >= 0;
+	}
+}
@@ -0,0 +1,368 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.impl.repo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.impl.repo.LogStructRepoStore.FileRef;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.protocol.ContentName;
+
+/**
+ * Persistent, append-only index for a LogStructRepoStore, kept alongside the repository files
+ * so that the ContentTree can be rebuilt at startup without decoding every object in the log.
+ *
+ * The file holds a record for every object inserted into the ContentTree (full name, file
+ * id, offset and timestamp) interleaved with checkpoint records giving, for each repository
+ * file, the length of that file covered by the records preceding the checkpoint. On load
+ * only records up to the last complete checkpoint are used; the caller must replay each
+ * repository file from its covered length to pick up anything written after the checkpoint.
+ */
+public class LogStructIndexFile {
+
+	public static final String INDEX_FILE = "index";
+
+	/**
+	 * Number of entries written between checkpoints
+	 */
+	public static final int CHECKPOINT_INTERVAL = 1000;
+
+	protected static final int MAGIC = 0x43434e49;	// "CCNI"
+	protected static final int VERSION = 1;
+	protected static final byte ENTRY = 1;
+	protected static final byte CHECKPOINT = 2;
+
+	protected File _file;
+	protected DataOutputStream _out = null;
+	protected Map<Integer, Long> _covered = new HashMap<Integer, Long>();
+	protected int _sinceCheckpoint = 0;
+
+	protected static class IndexEntry {
+		ContentName name;
+		int id;
+		long offset;
+		long timestamp;
+	}
+
+	public LogStructIndexFile(File metaDir) {
+		_file = new File(metaDir, INDEX_FILE);
+	}
+
+	/**
+	 * Load the index into tree. Entries following the last checkpoint are discarded and the
+	 * file is truncated after the checkpoint so that new entries may be appended.
+	 *
+	 * @param tree the tree to load into
+	 * @param files the repository files, used to check that the index is consistent with them
+	 * @return the length of each repository file covered by the index, or null if there
+	 * 		   was no usable index in which case nothing was inserted into tree
+	 */
+	public synchronized Map<Integer, Long> load(ContentTree tree, Map<Integer, File> files) {
+		if (!_file.exists())
+			return null;
+		Map<Integer, Long> covered = new HashMap<Integer, Long>();
+		ArrayList<IndexEntry> pending = new ArrayList<IndexEntry>();
+		ArrayList<IndexEntry> entries = new ArrayList<IndexEntry>();
+		long validLength = 0;
+		long position = 0;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(_file), 65536));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				Log.warning(Log.FAC_REPO, "Ignoring repository index {0}: bad header", _file);
+				return null;
+			}
+			position = 8;
+			while (true) {
+				byte type = in.readByte();
+				position++;
+				if (ENTRY == type) {
+					IndexEntry entry = new IndexEntry();
+					entry.id = in.readInt();
+					entry.offset = in.readLong();
+					entry.timestamp = in.readLong();
+					int count = in.readShort();
+					position += 22;
+					ArrayList<byte []> components = new ArrayList<byte []>(count);
+					for (int i = 0; i < count; i++) {
+						byte [] component = new byte[in.readInt()];
+						in.readFully(component);
+						components.add(component);
+						position += 4 + component.length;
+					}
+					entry.name = new ContentName(count, components);
+					pending.add(entry);
+				} else if (CHECKPOINT == type) {
+					int count = in.readInt();
+					position += 4;
+					for (int i = 0; i < count; i++) {
+						covered.put(in.readInt(), in.readLong());
+						position += 12;
+					}
+					entries.addAll(pending);
+					pending.clear();
+					validLength = position;
+				} else {
+					break;
+				}
+			}
+		} catch (EOFException e) {
+			// Normal end, or partially written record following the last checkpoint
+		} catch (IOException e) {
+			Log.warning(Log.FAC_REPO, "Error reading repository index {0}: {1}", _file, e.getMessage());
+		} finally {
+			if (null != in) {
+				try {
+					in.close();
+				} catch (IOException e) {}
+			}
+		}
+		if (0 == validLength)
+			return null;
+
+		// Make sure the repository files haven't changed underneath us
+		for (Integer id : covered.keySet()) {
+			File file = files.get(id);
+			if (null == file || file.length() < covered.get(id)) {
+				Log.warning(Log.FAC_REPO, "Repository index {0} does not match repository file {1}", _file, id);
+				return null;
+			}
+		}
+
+		try {
+			RandomAccessFile raf = new RandomAccessFile(_file, "rw");
+			try {
+				raf.setLength(validLength);
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			Log.warning(Log.FAC_REPO, "Unable to truncate repository index {0}: {1}", _file, e.getMessage());
+			return null;
+		}
+
+		for (IndexEntry entry : entries) {
+			FileRef ref = new FileRef();
+			ref.id = entry.id;
+			ref.offset = entry.offset;
+			tree.insert(entry.name, ref, entry.timestamp);
+		}
+		_covered.putAll(covered);
+		if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+			Log.info(Log.FAC_REPO, "Loaded {0} entries from repository index {1}", entries.size(), _file);
+		}
+		return covered;
+	}
+
+	/**
+	 * Open the index for appending, creating a new index if reset is set or there is
+	 * no existing one.
+	 *
+	 * @param reset discard any existing index
+	 * @throws IOException
+	 */
+	public synchronized void open(boolean reset) throws IOException {
+		if (reset || !_file.exists()) {
+			_covered.clear();
+			_out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(_file, false), 65536));
+			_out.writeInt(MAGIC);
+			_out.writeInt(VERSION);
+			checkpoint();
+		} else {
+			_out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(_file, true), 65536));
+		}
+	}
+
+	/**
+	 * Record an object newly inserted into the ContentTree.
+	 *
+	 * @param ref location of the object
+	 * @param end offset of the end of the object in its repository file
+	 * @param name full name of the object including digest
+	 * @param timestamp timestamp the object was inserted with
+	 */
+	public synchronized void add(FileRef ref, long end, ContentName name, long timestamp) {
+		if (null == _out)
+			return;
+		try {
+			writeEntry(_out, ref, name, timestamp);
+		} catch (IOException e) {
+			failed(e);
+			return;
+		}
+		covered(ref.id, end);
+	}
+	
+	/**
+	 * Record an object newly inserted into the ContentTree without changing how much of its
+	 * repository file is covered, for when objects are indexed out of order.
+	 * 
+	 * @param ref location of the object
+	 * @param name full name of the object including digest
+	 * @param timestamp timestamp the object was inserted with
+	 */
+	public synchronized void add(FileRef ref, ContentName name, long timestamp) {
+		if (null == _out)
+			return;
+		try {
+			writeEntry(_out, ref, name, timestamp);
+		} catch (IOException e) {
+			failed(e);
+			return;
+		}
+		if (++_sinceCheckpoint >= CHECKPOINT_INTERVAL)
+			checkpoint();
+	}
+	
+	protected static void writeEntry(DataOutputStream out, FileRef ref, ContentName name, long timestamp) throws IOException {
+		out.writeByte(ENTRY);
+		out.writeInt(ref.id);
+		out.writeLong(ref.offset);
+		out.writeLong(timestamp);
+		out.writeShort(name.count());
+		for (byte [] component : name.components()) {
+			out.writeInt(component.length);
+			out.write(component);
+		}
+	}
+	
+	/**
+	 * Replace the index with one holding just the current contents of tree, e.g. after 
+	 * content has been moved or removed. The new index is written alongside the old one 
+	 * and renamed over it, so a crash leaves one or the other in place. The caller must 
+	 * prevent changes to the tree while this is running.
+	 * 
+	 * @param tree the tree
+	 * @param files ids of the repository files still in use
+	 */
+	public synchronized void rewrite(ContentTree tree, Collection<Integer> files) {
+		if (null == _out)
+			return;
+		_covered.keySet().retainAll(files);
+		File newFile = new File(_file.getParentFile(), INDEX_FILE + ".new");
+		try {
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(newFile), 65536));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				final IOException [] error = new IOException[1];
+				tree.visit(new ContentTree.ContentVisitor() {
+					public void visit(ContentName name, ContentRef ref, long timestamp) {
+						if (null != error[0])
+							return;
+						try {
+							writeEntry(out, (FileRef)ref, name, timestamp);
+						} catch (IOException e) {
+							error[0] = e;
+						}
+					}
+				});
+				if (null != error[0])
+					throw error[0];
+				writeCheckpoint(out);
+			} finally {
+				out.close();
+			}
+			_out.close();
+			_out = null;
+			if (!newFile.renameTo(_file))
+				throw new IOException("Unable to rename " + newFile + " to " + _file);
+			_out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(_file, true), 65536));
+			_sinceCheckpoint = 0;
+		} catch (IOException e) {
+			newFile.delete();
+			failed(e);
+		}
+	}
+
+	/**
+	 * Record that a repository file has been indexed up to the given offset without
+	 * adding an entry, e.g. for duplicate content not inserted into the ContentTree.
+	 */
+	public synchronized void covered(int id, long end) {
+		_covered.put(id, end);
+		if (++_sinceCheckpoint >= CHECKPOINT_INTERVAL)
+			checkpoint();
+	}
+
+	/**
+	 * Write a checkpoint covering everything recorded so far and flush it to disk
+	 */
+	public synchronized void checkpoint() {
+		if (null == _out)
+			return;
+		try {
+			writeCheckpoint(_out);
+			_out.flush();
+			_sinceCheckpoint = 0;
+		} catch (IOException e) {
+			failed(e);
+		}
+	}
+	
+	protected void writeCheckpoint(DataOutputStream out) throws IOException {
+		out.writeByte(CHECKPOINT);
+		out.writeInt(_covered.size());
+		for (Map.Entry<Integer, Long> entry : _covered.entrySet()) {
+			out.writeInt(entry.getKey());
+			out.writeLong(entry.getValue());
+		}
+	}
+
+	/**
+	 * Checkpoint and close the index
+	 */
+	public synchronized void close() {
+		if (null == _out)
+			return;
+		checkpoint();
+		try {
+			if (null != _out)
+				_out.close();
+		} catch (IOException e) {}
+		_out = null;
+	}
+
+	/**
+	 * Give up on the index after a write error. It will be rebuilt on the next startup.
+	 */
+	protected void failed(IOException e) {
+		Log.warning(Log.FAC_REPO, "Error writing repository index {0}, disabling it: {1}", _file, e.getMessage());
+		if (null != _out) {
+			try {
+				_out.close();
+			} catch (IOException ex) {}
+		}
+		_out = null;
+		_file.delete();
+	}
+}
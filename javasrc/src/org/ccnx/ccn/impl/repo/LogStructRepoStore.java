@@ -18,18 +18,22 @@
 package org.ccnx.ccn.impl.repo;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.InvalidKeyException;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 
@@ -39,7 +43,9 @@ import org.ccnx.ccn.config.ConfigurationException;
 import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.config.UserConfiguration;
 import org.ccnx.ccn.config.SystemConfiguration.DEBUGGING_FLAGS;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
 import org.ccnx.ccn.impl.repo.PolicyXML.PolicyObject;
+import org.ccnx.ccn.impl.repo.RepositoryServer.StatsEnum;
 import org.ccnx.ccn.impl.security.keys.BasicKeyManager;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.io.content.ContentDecodingException;
@@ -85,6 +91,7 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 
 		private static String DIAG_NAMETREE = "nametree"; // Diagnostic/signal to dump name tree to debug file
 		private static String DIAG_NAMETREEWIDE = "nametreewide"; // Same as DIAG_NAMETREE but with wide names per node
+		private static String DIAG_COMPACT = "compact"; // Diagnostic/signal to compact the repository files now
 	}
 	
 	protected String _repositoryRoot = null;
@@ -95,6 +102,13 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 	RepoFile _activeWriteFile = null;
 	Integer _currentFileIndex = 0;
 	ContentTree _index;
+	LogStructIndexFile _indexFile;
+	ContentObjectCache _cache = null;
+	long _lastSync = 0;
+	LogStructCompactor _compactor = null;
+	
+	// Held while writing to _activeWriteFile, or changing which file that is
+	protected final Object _writeLock = new Object();
 	
 	protected HashMap<String, String> _bulkImportInProgress = new HashMap<String, String>();
 	
@@ -102,11 +116,30 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 		File file;
 		RandomAccessFile openFile;
 		long nextWritePos;
+		// Read only handle used by gets, so a reader being interrupted, which closes its
+		// channel, can't close the channel being written. Opened under _writeLock.
+		volatile RandomAccessFile readFile;
+		boolean deleted;
 	}
 	
 	protected static class FileRef extends ContentRef {
 		int id;
 		long offset;
+
+		@Override
+		public int hashCode() {
+			return 31 * id + (int)(offset ^ (offset >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof FileRef))
+				return false;
+			FileRef other = (FileRef)obj;
+			return id == other.id && offset == other.offset;
+		}
 	}
 
 	/**
@@ -161,7 +194,9 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 
 	/**
 	 * Read the current repository file(s) for this repository and create an index for them.
-	 * WARNING: multiple files are not well tested
+	 * If there is a saved index from a previous run it is loaded, and only the parts of the
+	 * repository files written after its last checkpoint are read, in parallel by a
+	 * LogStructIndexBuilder.
 	 * 
 	 * @return the number of files making up the repository
 	 */
@@ -171,6 +206,7 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 		assert(null != _repositoryFile);
 		assert(_repositoryFile.isDirectory());
 		String[] filenames = _repositoryFile.list();
+		Map<Integer, File> files = new HashMap<Integer, File>();
 		for (int i = 0; i < filenames.length; i++) {
 			if (filenames[i].startsWith(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX)) {
 				String indexPart = filenames[i].substring(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX.length());
@@ -179,12 +215,32 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 					if (index > max) {
 						max = index.intValue();
 					}
-					try {
-						createIndex(filenames[i], index, false);
-					} catch (RepositoryException e) {}	// This can't happen
+					files.put(index, new File(_repositoryFile, filenames[i]));
 				}
 			}
 		}
+		
+		_indexFile = new LogStructIndexFile(new File(_repositoryMeta));
+		Map<Integer, Long> covered = _indexFile.load(_index, files);
+		try {
+			_indexFile.open(null == covered);
+		} catch (IOException e) {
+			Log.warning(Log.FAC_REPO, "Unable to open repository index for writing: " + e.getMessage());
+		}
+		
+		// Files must be in the table before indexing, since once their content is in the
+		// index it can be read
+		HashMap<Integer, RepoFile> repoFiles = new HashMap<Integer, RepoFile>();
+		for (Integer index : files.keySet()) {
+			RepoFile rfile = new RepoFile();
+			rfile.file = files.get(index);
+			repoFiles.put(index, rfile);
+		}
+		synchronized (_files) {
+			_files.putAll(repoFiles);
+		}
+		new LogStructIndexBuilder(this, SystemConfiguration.REPO_INDEX_THREADS).index(repoFiles, covered);
+		_indexFile.checkpoint();
 		return new Integer(max);
 	}
 	
@@ -200,9 +256,10 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 	 * @param fileName
 	 * @param index
 	 * @param fromImport - this is an "import" file.
+	 * @param startOffset - offset in the file of the first object not yet indexed
 	 * @throws RepositoryException 
 	 */
-	private void createIndex(String fileName, Integer index, boolean fromImport) throws RepositoryException {
+	private void createIndex(String fileName, Integer index, boolean fromImport, long startOffset) throws RepositoryException {
 		try {
 			RepoFile rfile = new RepoFile();
 			rfile.file = new File(_repositoryFile,fileName);
@@ -210,7 +267,7 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 			InputStream is = new BufferedInputStream(new RandomAccessInputStream(rfile.openFile),8192);
 			
 			if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
-				Log.fine(Log.FAC_REPO, "Creating index for {0}", fileName);
+				Log.fine(Log.FAC_REPO, "Creating index for {0} from offset {1}", fileName, startOffset);
 			}
 			
 			// Must be done before inserting into the index because once objects are inserted into the
@@ -229,10 +286,11 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 			// keep track of where our pointer was also synchronized under the RepoFile so we can restore
 			// it to where it was in the case someone was reading one of our previously created nodes
 			// while the index creation is in progress.
-			long nextOffset = 0;
+			long nextOffset = startOffset;
 			while (true) {
 				FileRef ref = new FileRef();
 				ContentObject tmp = new ContentObject();
+				long end;
 				synchronized (rfile) {
 					ref.id = index.intValue();
 					ref.offset = nextOffset;
@@ -243,6 +301,7 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 						if (rfile.openFile.getFilePointer()<rfile.openFile.length() || is.available()!=0) {
 							tmp.decode(is);
 							nextOffset = rfile.openFile.getFilePointer();
+							end = nextOffset - is.available();
 						}
 						else{
 							if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
@@ -265,8 +324,13 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 						break;
 					}
 				}
-				_index.insert(tmp, ref, rfile.file.lastModified(), this, null);
+				long ts = rfile.file.lastModified();
+				if (_index.insert(tmp, ref, ts, this, null))
+					_indexFile.add(ref, end, tmp.fullName(), ts);
+				else
+					_indexFile.covered(ref.id, end);
 			}
+			_indexFile.checkpoint();
 		} catch (NumberFormatException e) {
 			// Not valid file
 			Log.warning(Log.FAC_REPO, "Invalid file name " +fileName);
@@ -373,6 +437,8 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 
 		// Internal initialization
 		_files = new HashMap<Integer, RepoFile>();
+		if (SystemConfiguration.REPO_CACHE_SIZE > 0)
+			_cache = new ContentObjectCache(SystemConfiguration.REPO_CACHE_SIZE, _stats);
 		_currentFileIndex = createIndex();
 		
 		try {
@@ -387,7 +453,14 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 			} else {
 				RepoFile rfile = _files.get(new Integer(_currentFileIndex));
 				long cursize = rfile.file.length();
-				rfile.openFile = new RandomAccessFile(rfile.file, "rw");
+				synchronized (rfile) {
+					if (null != rfile.openFile) {
+						try {
+							rfile.openFile.close();	// opened read only for indexing
+						} catch (IOException e) {}
+					}
+					rfile.openFile = new RandomAccessFile(rfile.file, "rw");
+				}
 				rfile.nextWritePos = cursize;
 				_activeWriteFile = rfile;
 			}
@@ -449,6 +522,9 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 		} catch (MalformedContentNameStringException e) {
 			throw new RepositoryException(e.getMessage());
 		}
+		
+		_compactor = new LogStructCompactor(this);
+		_compactor.start();
 	}
 
 	/**
@@ -459,38 +535,26 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 	 * @returns NameEnumerationResponse if this satisfies an outstanding NameEnumeration request
 	 */
 	public NameEnumerationResponse saveContent(ContentObject content) throws RepositoryException {
-		// Make sure content is within allowable nameSpace
-		boolean nameSpaceOK = false;
-		synchronized (_policy) {
-			for (ContentName name : _policy.getNamespace()) {
-				if (name.isPrefixOf(content.name())) {
-					nameSpaceOK = true;
-					break;
-				}
-			}
-		}
-		if (!nameSpaceOK) {
-			if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
-				Log.info(Log.FAC_REPO, "Repo rejecting content: {0}, not in registered namespace.", content.name());
-			}
+		if (!inNameSpace(content))
 			return null;
-		}
 		if (null == _activeWriteFile) {
 			Log.warning(Log.FAC_REPO, "Tried to save: {0}, presumably after repo shutdown", content.name());
 			return null;
 		}
+		// Written the same way as a batch, so it is synced the same way
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try {
+			content.encode(buffer);
+		} catch (ContentEncodingException e) {
+			throw new RepositoryException("Failed to encode content: " + e.getMessage());
+		}
 		try {	
 			NameEnumerationResponse ner = new NameEnumerationResponse();
-			synchronized(_activeWriteFile) {
+			synchronized(_writeLock) {
 				assert(null != _activeWriteFile.openFile);
-				FileRef ref = new FileRef();
-				ref.id = Integer.parseInt(_activeWriteFile.file.getName().substring(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX.length()));
-				ref.offset = _activeWriteFile.nextWritePos;
-				_activeWriteFile.openFile.seek(_activeWriteFile.nextWritePos);
-				OutputStream os = new RandomAccessOutputStream(_activeWriteFile.openFile);
-				content.encode(os);
-				_activeWriteFile.nextWritePos = _activeWriteFile.openFile.getFilePointer();
-				_index.insert(content, ref, System.currentTimeMillis(), this, ner);
+				FileRef ref = append(buffer.toByteArray());
+				addToIndex(content, ref, ref.offset + buffer.size(), System.currentTimeMillis(), ner);
+				checkFileSize();
 				if (ner==null || ner.getPrefix()==null) {
 					if (Log.isLoggable(Log.FAC_REPO, Level.FINE)) {
 						Log.fine(Log.FAC_REPO, "new content did not trigger an interest flag");
@@ -502,17 +566,234 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 				}
 				return ner;
 			}
-		} catch (ContentEncodingException e) {
-			throw new RepositoryException("Failed to encode content: " + e.getMessage());
 		} catch (IOException e) {
 			throw new RepositoryException("Failed to write content: " + e.getMessage());
 		}
 	}
 
+	/**
+	 * Save a batch of content in the repository store. The batch is encoded into a single
+	 * buffer and written to the active repository file with one write before any of it is
+	 * added to the index, which is much cheaper than writing each object separately.
+	 * Objects that can't be encoded are skipped, and logged.
+	 * 
+	 * @param content the content to save
+	 * @throws RepositoryException if the content can not be written
+	 * @return the NameEnumerationResponse for each object, null for content not saved
+	 */
+	@Override
+	public ArrayList<NameEnumerationResponse> saveContent(List<ContentObject> content) throws RepositoryException {
+		ArrayList<NameEnumerationResponse> ners = new ArrayList<NameEnumerationResponse>(content.size());
+		if (null == _activeWriteFile) {
+			Log.warning(Log.FAC_REPO, "Tried to save {0} objects, presumably after repo shutdown", content.size());
+			for (int i = 0; i < content.size(); i++)
+				ners.add(null);
+			return ners;
+		}
+		
+		// Encode outside the file lock; record where each object ends in the buffer
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		int [] ends = new int[content.size()];
+		for (int i = 0; i < content.size(); i++) {
+			if (inNameSpace(content.get(i))) {
+				try {
+					content.get(i).encode(buffer);
+				} catch (ContentEncodingException e) {
+					// Drop whatever part of it was encoded
+					byte [] encoded = buffer.toByteArray();
+					buffer.reset();
+					buffer.write(encoded, 0, (i > 0) ? ends[i - 1] : 0);
+					Log.warning(Log.FAC_REPO, "Failed to encode content {0}: {1}", content.get(i).name(), e.getMessage());
+				}
+			}
+			ends[i] = buffer.size();
+		}
+		
+		try {
+			synchronized(_writeLock) {
+				assert(null != _activeWriteFile.openFile);
+				FileRef baseRef = append(buffer.toByteArray());
+				int id = baseRef.id;
+				long base = baseRef.offset;
+				
+				long ts = System.currentTimeMillis();
+				int start = 0;
+				for (int i = 0; i < content.size(); i++) {
+					if (ends[i] == start) {
+						ners.add(null);	// not in namespace, or not encoded
+						continue;
+					}
+					FileRef ref = new FileRef();
+					ref.id = id;
+					ref.offset = base + start;
+					NameEnumerationResponse ner = new NameEnumerationResponse();
+					addToIndex(content.get(i), ref, base + ends[i], ts, ner);
+					ners.add(ner);
+					start = ends[i];
+				}
+				checkFileSize();
+				return ners;
+			}
+		} catch (IOException e) {
+			throw new RepositoryException("Failed to write content: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Add content just written to the active repository file to the index. Must be called 
+	 * holding _writeLock.
+	 * 
+	 * @param content the content
+	 * @param ref reference to the start of the content
+	 * @param end the offset in the file just after the content
+	 * @param ts the time the content was saved
+	 * @param ner the NameEnumerationResponse to fill in
+	 */
+	protected void addToIndex(ContentObject content, FileRef ref, long end, long ts, NameEnumerationResponse ner) {
+		if (_index.insert(content, ref, ts, this, ner))
+			_indexFile.add(ref, end, content.fullName(), ts);
+		else
+			_indexFile.covered(ref.id, end);
+	}
+	
+	/**
+	 * Append data to the active repository file. Must be called holding _writeLock.
+	 * 
+	 * @param data the encoded content
+	 * @return reference to the start of the data
+	 * @throws IOException
+	 */
+	protected FileRef append(byte [] data) throws IOException {
+		FileRef ref = new FileRef();
+		ref.id = fileId(_activeWriteFile);
+		ref.offset = _activeWriteFile.nextWritePos;
+		FileChannel channel = _activeWriteFile.openFile.getChannel();
+		ByteBuffer bb = ByteBuffer.wrap(data);
+		while (bb.hasRemaining())
+			channel.write(bb, ref.offset + bb.position());
+		_activeWriteFile.nextWritePos = ref.offset + data.length;
+		sync(channel);
+		return ref;
+	}
+	
+	/**
+	 * Start writing to a new repository file. The old file is no longer written to, 
+	 * so its read write handle is closed, and it can be compacted. Must be called holding
+	 * _writeLock.
+	 * 
+	 * @throws IOException
+	 */
+	protected void rollActiveFile() throws IOException {
+		int id;
+		synchronized (_files) {
+			id = ++_currentFileIndex;
+		}
+		RepoFile rfile = new RepoFile();
+		rfile.file = new File(_repositoryFile, LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + id);
+		rfile.openFile = new RandomAccessFile(rfile.file, "rw");
+		rfile.nextWritePos = 0;
+		synchronized (_files) {
+			_files.put(id, rfile);
+		}
+		// The old file is only read from now on, through its read only handle
+		RepoFile old = _activeWriteFile;
+		synchronized (old) {
+			sync(old.openFile.getChannel());
+			old.openFile.close();
+			old.openFile = null;
+		}
+		_activeWriteFile = rfile;
+		_indexFile.covered(id, 0);
+		if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+			Log.info(Log.FAC_REPO, "Started new repository file {0}", rfile.file.getName());
+		}
+	}
+	
+	/**
+	 * Start a new repository file if the active one has reached the configured size.
+	 * Must be called holding _writeLock.
+	 * @see SystemConfiguration#REPO_FILE_SIZE
+	 */
+	protected void checkFileSize() throws IOException {
+		if (SystemConfiguration.REPO_FILE_SIZE > 0 && _activeWriteFile.nextWritePos >= SystemConfiguration.REPO_FILE_SIZE)
+			rollActiveFile();
+	}
+	
+	/**
+	 * @return the id of a repository file, which is part of its name
+	 */
+	protected static int fileId(RepoFile rfile) {
+		return Integer.parseInt(rfile.file.getName().substring(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX.length()));
+	}
+	
+	/**
+	 * Remove a repository file that no longer holds any live content
+	 * 
+	 * @param id the id of the file
+	 */
+	protected void deleteFile(int id) {
+		RepoFile rfile;
+		synchronized (_files) {
+			rfile = _files.remove(id);
+		}
+		if (null == rfile)
+			return;
+		synchronized (rfile) {
+			if (null != rfile.openFile) {
+				try {
+					rfile.openFile.close();
+				} catch (IOException e) {}
+				rfile.openFile = null;
+			}
+		}
+		synchronized (_writeLock) {
+			rfile.deleted = true;
+			closeReadFile(rfile);
+		}
+		if (!rfile.file.delete())
+			Log.warning(Log.FAC_REPO, "Unable to delete repository file {0}", rfile.file);
+		else if (Log.isLoggable(Log.FAC_REPO, Level.INFO))
+			Log.info(Log.FAC_REPO, "Deleted repository file {0}", rfile.file.getName());
+	}
+	
+	/**
+	 * Force written data to disk if required by the configured fsync interval
+	 * @see SystemConfiguration#REPO_FSYNC_INTERVAL
+	 */
+	protected void sync(FileChannel channel) throws IOException {
+		if (SystemConfiguration.REPO_FSYNC_INTERVAL < 0)
+			return;
+		long now = System.currentTimeMillis();
+		if (now - _lastSync >= SystemConfiguration.REPO_FSYNC_INTERVAL) {
+			channel.force(false);
+			_lastSync = now;
+		}
+	}
+	
+	/**
+	 * Check that content is within the repository's namespace
+	 */
+	protected boolean inNameSpace(ContentObject content) {
+		synchronized (_policy) {
+			for (ContentName name : _policy.getNamespace()) {
+				if (name.isPrefixOf(content.name()))
+					return true;
+			}
+		}
+		if (Log.isLoggable(Log.FAC_REPO, Level.INFO)) {
+			Log.info(Log.FAC_REPO, "Repo rejecting content: {0}, not in registered namespace.", content.name());
+		}
+		return false;
+	}
+
 	/**
 	 * Get content for the given reference from the storage files. Used to retrieve content for 
 	 * comparison operations.
 	 * 
+	 * Reads are done with positional reads on a read only channel for the file, so they don't
+	 * hold the file lock or move the file pointer and any number may proceed in parallel. Recently
+	 * retrieved content is cached so popular content can be served without reading it again.
+	 * 
 	 * @param ref the reference
 	 * @return ContentObject at the referenced slot in the storage files
 	 */
@@ -520,6 +801,11 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 		// This is a call back based on what we put in ContentTree, so it must be
 		// using our subtype of ContentRef
 		FileRef fref = (FileRef)ref;
+		if (null != _cache) {
+			ContentObject content = _cache.get(fref);
+			if (null != content)
+				return content;
+		}
 		try {
 			RepoFile file = null;
 			synchronized (_files) {
@@ -527,22 +813,64 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 			}
 			if (null == file)
 				return null;
-			synchronized (file) {
-				if (null == file.openFile) {
-					file.openFile = new RandomAccessFile(file.file, "r");
-				}
-				file.openFile.seek(fref.offset);
-				ContentObject content = new ContentObject();
-				InputStream is = new BufferedInputStream(new RandomAccessInputStream(file.openFile), 8192);
+			FileChannel channel = getChannel(file);
+			ContentObject content = new ContentObject();
+			FileChannelInputStream is = new FileChannelInputStream(channel, fref.offset);
+			try {
+				content.decode(is);
+			} catch (ContentDecodingException e) {
+				if (channel.isOpen())
+					throw e;
+				// The channel was closed under us by another reader being interrupted.
+				// Reopen it and try again.
+				content = new ContentObject();
+				is = new FileChannelInputStream(getChannel(file), fref.offset);
 				content.decode(is);
-				return content;
 			}
+			if (null != _cache)
+				_cache.put(fref, content, (int)(is.position() - fref.offset));
+			return content;
 		} catch (Exception e) {
 			Log.warning(Log.FAC_REPO, "Can't get content: " + e);
 			return null;
 		}
 	}
 	
+	/**
+	 * Get an open channel for reading a repository file, opening the file read only if 
+	 * necessary. This is never the channel the file is written through.
+	 * 
+	 * @param file the file
+	 * @return the channel
+	 * @throws FileNotFoundException if the file can't be opened or has been deleted
+	 */
+	protected FileChannel getChannel(RepoFile file) throws FileNotFoundException {
+		RandomAccessFile readFile = file.readFile;
+		if (null != readFile && readFile.getChannel().isOpen())
+			return readFile.getChannel();
+		synchronized (_writeLock) {
+			if (file.deleted)
+				throw new FileNotFoundException("Repository file " + file.file.getName() + " was deleted");
+			if (null == file.readFile || !file.readFile.getChannel().isOpen())
+				file.readFile = new RandomAccessFile(file.file, "r");
+			return file.readFile.getChannel();
+		}
+	}
+	
+	/**
+	 * Close the handle used to read a repository file, if open. Must be called holding _writeLock.
+	 * 
+	 * @param file the file
+	 */
+	protected void closeReadFile(RepoFile file) {
+		if (null != file.readFile) {
+			try {
+				file.readFile.close();
+			} catch (IOException e) {}
+			file.readFile = null;
+		}
+	}
+	
 	/**
 	 * Check/write files that contain meta data for the repo
 	 * @throws RepositoryException
@@ -621,6 +949,13 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 		} else if (0 == name.compareToIgnoreCase(LogStructRepoStoreProfile.DIAG_NAMETREEWIDE)) {
 			dumpNames(-1);
 			return true;
+		} else if (0 == name.compareToIgnoreCase(LogStructRepoStoreProfile.DIAG_COMPACT)) {
+			try {
+				_compactor.compact();
+			} catch (IOException e) {
+				Log.warning(Log.FAC_REPO, "Repository compaction failed: {0}", e.getMessage());
+			}
+			return true;
 		}
 		return false;
 	}
@@ -638,20 +973,44 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 			KeyManager.closeDefaultKeyManager();
 		}
 		
+		if (null != _compactor) {
+			_compactor.shutdown();
+		}
+		
 		if (null != _activeWriteFile && null != _activeWriteFile.openFile) {
 			try {
-				synchronized (_activeWriteFile) {
-					_activeWriteFile.openFile.close();
-					_activeWriteFile.openFile = null;
+				synchronized (_writeLock) {
+					synchronized (_activeWriteFile) {
+						_activeWriteFile.openFile.close();
+						_activeWriteFile.openFile = null;
+					}
 				}
 			} catch (IOException e) {}
 		}
+		if (null != _files) {
+			synchronized (_writeLock) {
+				synchronized (_files) {
+					for (RepoFile rfile : _files.values())
+						closeReadFile(rfile);
+				}
+			}
+		}
+		if (null != _indexFile) {
+			_indexFile.close();
+		}
 		if (SystemConfiguration.checkDebugFlag(DEBUGGING_FLAGS.REPO_EXITDUMP)) {
 			Log.warning(Log.FAC_REPO, "Debug flag ({0}) is set: dumping nametree now (on shutdown)", DEBUGGING_FLAGS.REPO_EXITDUMP.toString());
 			dumpNames(-1);
 		}
 	}
 
+	@Override
+	public void setStats(CCNEnumStats<StatsEnum> stats) {
+		super.setStats(stats);
+		if (null != _cache)
+			_cache.setStats(stats);
+	}
+
 	public Object getStatus(String type) {
 		return type.equals(RepositoryStore.REPO_SIMPLE_STATUS_REQUEST) 
 				? ((null == _activeWriteFile.openFile) ? null : "running") : null;
@@ -669,12 +1028,15 @@ public class LogStructRepoStore extends RepositoryStoreBase implements Repositor
 		}
 		
 		_bulkImportInProgress.put(name, name);
-		_currentFileIndex++;
-		File repoFile = new File(_repositoryFile, LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + _currentFileIndex);
+		int id;
+		synchronized (_files) {
+			id = ++_currentFileIndex;
+		}
+		File repoFile = new File(_repositoryFile, LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + id);
 		if (!file.renameTo(repoFile))
 			throw new RepositoryException("Can not rename file: " + file);
 		try {
-			createIndex(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + _currentFileIndex, _currentFileIndex, true);
+			createIndex(LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + id, id, true, 0);
 		} catch (RepositoryException re) {
 			// The seemingly logical thing to do would be to verify the data for errors first and then submit it if it
 			// was OK. But that would require 2 passes through the data in the mainline case in which the data is good
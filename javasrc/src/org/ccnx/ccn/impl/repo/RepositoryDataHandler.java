@@ -18,6 +18,7 @@
 package org.ccnx.ccn.impl.repo;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
@@ -63,9 +64,13 @@ public class RepositoryDataHandler implements Runnable {
 	 * namespace and sends "early" nameEnumerationResponses when requested by the
 	 * store.
 	 * 
+	 * Content that has queued up while the previous content was being stored is
+	 * saved as a batch of up to SystemConfiguration.REPO_WRITE_BATCH objects.
+	 * 
 	 * @see RepositoryStore
 	 */
 	public void run() {
+		ArrayList<ContentObject> batch = new ArrayList<ContentObject>();
 		while (!_shutdown) {
 			ContentObject co = null;
 			synchronized (_queue) {
@@ -80,45 +85,70 @@ public class RepositoryDataHandler implements Runnable {
 				} while (null == co);
 			}
 			if (! _shutdown) {
+				batch.clear();
+				batch.add(co);
+				while (batch.size() < SystemConfiguration.REPO_WRITE_BATCH && null != (co = _queue.poll()))
+					batch.add(co);
+				if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
+					for (ContentObject saved : batch)
+						Log.finer(Log.FAC_REPO, "Saving content in: " + saved.toString());
+				}
+				
+				ArrayList<NameEnumerationResponse> ners;
 				try {
-					if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
-						Log.finer(Log.FAC_REPO, "Saving content in: " + co.toString());
-					}
-					
-					NameEnumerationResponse ner = _server.getRepository().saveContent(co);
-					if (ner!=null && ner.hasNames()) {
-						_server.sendEnumerationResponse(ner);
-					}
-					
-					// When a sync is incomplete, we may not know yet whether it has keys that
-					// need syncing. Now we can find this out. Also the key locator that we hadn't
-					// synced yet could have been a link. We didn't know that either. If it was we
-					// have to sync the data it points to.
-					//
-					// Also we have to check for more unsynced locators associated with our new object 
-					// and the objects pointed to by the links.
-					Entry<ContentName> entry = _pendingSyncs.removeMatch(co);
-					if (null != entry) {
-						ContentName nameToCheck = entry.value();
-						if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
-							Log.finer(Log.FAC_REPO, "Processing sync entry: {0}", nameToCheck);
-						}
-						ContentName linkCheck = _server.getLinkedKeyTarget(co);
-						if (null != linkCheck) {
-							if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
-								Log.finer(Log.FAC_REPO, "Processing sync entry for link: {0}", linkCheck);
-							}
-							Interest linkInterest = new Interest(linkCheck);
-							_server.doSync(linkInterest, linkInterest);
-							syncKeysForObject(co, linkCheck);
-						}
-						syncKeysForObject(co, nameToCheck);
-					}
+					ners = _server.getRepository().saveContent(batch);
 				} catch (Exception e) {
-					e.printStackTrace();
+					Log.warning(Log.FAC_REPO, "Failed to save a batch of {0} objects starting with {1}: {2}", batch.size(), batch.get(0).name(), e.getMessage());
 					Log.logStackTrace(Level.WARNING, e);
+					continue;
+				}
+				
+				// Each object is saved, so one failing here mustn't stop the rest being handled
+				for (int i = 0; i < batch.size(); i++) {
+					try {
+						handleSaved(batch.get(i), ners.get(i));
+					} catch (Exception e) {
+						Log.warning(Log.FAC_REPO, "Failed to finish handling saved content {0}: {1}", batch.get(i).name(), e.getMessage());
+						Log.logStackTrace(Level.WARNING, e);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Finish processing of content after it has been stored
+	 * @param co the content
+	 * @param ner the response from the store
+	 */
+	private void handleSaved(ContentObject co, NameEnumerationResponse ner) throws RepositoryException, IOException {
+		if (ner!=null && ner.hasNames()) {
+			_server.sendEnumerationResponse(ner);
+		}
+		
+		// When a sync is incomplete, we may not know yet whether it has keys that
+		// need syncing. Now we can find this out. Also the key locator that we hadn't
+		// synced yet could have been a link. We didn't know that either. If it was we
+		// have to sync the data it points to.
+		//
+		// Also we have to check for more unsynced locators associated with our new object 
+		// and the objects pointed to by the links.
+		Entry<ContentName> entry = _pendingSyncs.removeMatch(co);
+		if (null != entry) {
+			ContentName nameToCheck = entry.value();
+			if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
+				Log.finer(Log.FAC_REPO, "Processing sync entry: {0}", nameToCheck);
+			}
+			ContentName linkCheck = _server.getLinkedKeyTarget(co);
+			if (null != linkCheck) {
+				if (Log.isLoggable(Log.FAC_REPO, Level.FINER)) {
+					Log.finer(Log.FAC_REPO, "Processing sync entry for link: {0}", linkCheck);
 				}
+				Interest linkInterest = new Interest(linkCheck);
+				_server.doSync(linkInterest, linkInterest);
+				syncKeysForObject(co, linkCheck);
 			}
+			syncKeysForObject(co, nameToCheck);
 		}
 	}
 	
@@ -141,6 +141,7 @@ public class RepositoryServer implements CCNStatistics {
 			_handle = repo.getHandle();
 			_writer = new CCNWriter(_handle);
 			_iHandler = new RepositoryInterestHandler(this);
+			_repo.setStats(_stats);
 			
 			_responseName = KeyProfile.keyName(null, _handle.keyManager().getDefaultKeyID());
 
@@ -549,6 +550,10 @@ public class RepositoryServer implements CCNStatistics {
 		HandleContentExpressInterest ("interests", "Number of interests expressed in handleContent()"),
 		HandleContentCancelInterest ("interests", "Number of interests cancelled"),
 		HandleContentExpressInterestErrors ("errors", "Number of errors expressing interests in handleContent()"),
+
+		ContentCacheHits ("objects", "Number of objects retrieved from the repository store's content cache"),
+		ContentCacheMisses ("objects", "Number of objects the repository store had to read because they were not cached"),
+		ContentCacheEvictions ("objects", "Number of objects evicted from the repository store's content cache"),
 ;
 
 
@@ -19,10 +19,13 @@ package org.ccnx.ccn.impl.repo;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.KeyManager;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
 import org.ccnx.ccn.impl.repo.RepositoryInfo.RepositoryInfoObject;
+import org.ccnx.ccn.impl.repo.RepositoryServer.StatsEnum;
 import org.ccnx.ccn.profiles.nameenum.NameEnumerationResponse;
 import org.ccnx.ccn.protocol.ContentName;
 import org.ccnx.ccn.protocol.ContentObject;
@@ -93,6 +96,16 @@ public interface RepositoryStore {
 	 */
 	public NameEnumerationResponse saveContent(ContentObject content) throws RepositoryException;
 	
+	/**
+	 * Save a batch of content in the repository. Implementations may write the batch more
+	 * efficiently than saving each object individually, but the result must be the same.
+	 * An object that can't be encoded doesn't stop the rest of the batch being saved; its entry is null.
+	 * @param content the content to save
+	 * @return the NameEnumerationResponse for each object, in the same order as content.
+	 * 		   Entries may be null.
+	 */
+	public ArrayList<NameEnumerationResponse> saveContent(List<ContentObject> content) throws RepositoryException;
+	
 	/**
 	 * Return the matching content if it exists
 	 * @param interest Interest to match
@@ -189,4 +202,11 @@ public interface RepositoryStore {
      * Get implementation defined status
      */
     public Object getStatus(String type);
+    
+    /**
+     * Set the counters in which the store should record its statistics, so that they
+     * are reported along with those of the RepositoryServer using it
+     * @param stats the counters
+     */
+    public void setStats(CCNEnumStats<StatsEnum> stats);
 }
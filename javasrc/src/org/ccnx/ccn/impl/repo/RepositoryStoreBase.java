@@ -22,13 +22,16 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 
 import org.ccnx.ccn.CCNHandle;
 import org.ccnx.ccn.KeyManager;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
 import org.ccnx.ccn.impl.CCNFlowControl.SaveType;
 import org.ccnx.ccn.impl.repo.PolicyXML.PolicyObject;
 import org.ccnx.ccn.impl.repo.RepositoryInfo.RepositoryInfoObject;
+import org.ccnx.ccn.impl.repo.RepositoryServer.StatsEnum;
 import org.ccnx.ccn.impl.support.Log;
 import org.ccnx.ccn.io.content.ContentDecodingException;
 import org.ccnx.ccn.profiles.nameenum.NameEnumerationResponse;
@@ -47,6 +50,7 @@ public abstract class RepositoryStoreBase implements RepositoryStore {
 	protected RepositoryInfo _info = null;
 	protected CCNHandle _handle = null;
 	protected KeyManager _km = null;
+	protected CCNEnumStats<StatsEnum> _stats = new CCNEnumStats<StatsEnum>(StatsEnum.HandleInterest);
 	
 	/**
 	 * Handle diagnostic requests
@@ -67,6 +71,8 @@ public abstract class RepositoryStoreBase implements RepositoryStore {
 	public CCNHandle getHandle() { return _handle; }
 	
 	public KeyManager getKeyManager() { return _km; }
+	
+	public void setStats(CCNEnumStats<StatsEnum> stats) { _stats = stats; }
 
 	/**
 	 * Gets the currently valid namespace for this repository
@@ -206,6 +212,24 @@ public abstract class RepositoryStoreBase implements RepositoryStore {
 
 	public abstract NameEnumerationResponse saveContent(ContentObject content) throws RepositoryException;
 
+	/**
+	 * Save a batch of content. This default implementation saves each object in turn;
+	 * subclasses may override it to write a batch more efficiently. Objects that can't
+	 * be saved are skipped, and logged.
+	 */
+	public ArrayList<NameEnumerationResponse> saveContent(List<ContentObject> content) throws RepositoryException {
+		ArrayList<NameEnumerationResponse> ners = new ArrayList<NameEnumerationResponse>(content.size());
+		for (ContentObject co : content) {
+			try {
+				ners.add(saveContent(co));
+			} catch (RepositoryException e) {
+				Log.warning(Log.FAC_REPO, "Failed to save content {0}: {1}", co.name(), e.getMessage());
+				ners.add(null);
+			}
+		}
+		return ners;
+	}
+
 	public void setPolicy(Policy policy) {
 		_policy = policy;
 	}
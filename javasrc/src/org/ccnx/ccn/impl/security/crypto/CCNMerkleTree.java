@@ -21,6 +21,13 @@ import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import org.bouncycastle.asn1.DEROctetString;
@@ -73,6 +80,14 @@ public class CCNMerkleTree extends MerkleTree {
 	
 	public static final String DEFAULT_MHT_ALGORITHM = "SHA256MHT";
 	
+	/**
+	 * Trees with at least this many leaves have their leaf digests computed in parallel,
+	 * if there is more than one processor.
+	 */
+	public static final int PARALLEL_LEAVES = 16;
+	
+	protected static ExecutorService _digesters = null;
+	
 	byte [] _rootSignature = null;
 	ContentObject [] _segmentObjects = null;
 	
@@ -226,15 +241,79 @@ public class CCNMerkleTree extends MerkleTree {
 	 * @param contentObjects the content
 	 * @throws NoSuchAlgorithmException if the digestAlgorithm unknown
 	 */
-	protected void computeLeafValues(ContentObject [] contentObjects) throws NoSuchAlgorithmException {
+	protected void computeLeafValues(final ContentObject [] contentObjects) throws NoSuchAlgorithmException {
+		int processors = Runtime.getRuntime().availableProcessors();
+		if ((processors < 2) || (numLeaves() < PARALLEL_LEAVES)) {
+			computeLeafValues(contentObjects, 0, numLeaves());
+			return;
+		}
+		
+		// Hash a range of leaves per processor, the first on this thread
+		int rangeSize = (numLeaves() + processors - 1) / processors;
+		ArrayList<Future<?>> results = new ArrayList<Future<?>>();
+		for (int start = rangeSize; start < numLeaves(); start += rangeSize) {
+			final int first = start;
+			final int end = Math.min(start + rangeSize, numLeaves());
+			results.add(digesters().submit(new Runnable() {
+				public void run() {
+					computeLeafValues(contentObjects, first, end);
+				}
+			}));
+		}
+		computeLeafValues(contentObjects, 0, rangeSize);
+		
+		boolean interrupted = false;
+		try {
+			for (Future<?> result : results) {
+				// The tree is no use till every leaf is in it
+				while (true) {
+					try {
+						result.get();
+						break;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					} catch (ExecutionException e) {
+						if (e.getCause() instanceof RuntimeException)
+							throw (RuntimeException)e.getCause();
+						throw new RuntimeException(e.getCause());
+					}
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Compute the leaf values of a range of the ContentObjects in this tree
+	 * @param contentObjects the content
+	 * @param first the first leaf to compute
+	 * @param end the leaf after the last to compute
+	 */
+	protected void computeLeafValues(ContentObject [] contentObjects, int first, int end) {
 		// Hash the leaves
-		for (int i=0; i < numLeaves(); ++i) {
+		for (int i=first; i < end; ++i) {
 			// DKS -- need to make sure content() doesn't clone
 			_tree[leafNodeIndex(i)-1] = 
 				new DEROctetString(computeBlockDigest(i, contentObjects[i].content(), 
 													  0, contentObjects[i].contentLength()));
 		}
 	}
+	
+	protected static synchronized ExecutorService digesters() {
+		if (null == _digesters) {
+			_digesters = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				AtomicInteger count = new AtomicInteger(0);
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "CCNMerkleTree digester-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return _digesters;
+	}
 
 	/**
 	 * We need to incorporate the name of the content block
@@ -46,7 +46,6 @@ import org.ccnx.ccn.protocol.CCNTime;
 import org.ccnx.ccn.protocol.ContentName;
 import org.ccnx.ccn.protocol.ContentObject;
 import org.ccnx.ccn.protocol.Exclude;
-import org.ccnx.ccn.protocol.ExcludeComponent;
 import org.ccnx.ccn.protocol.Interest;
 import org.ccnx.ccn.protocol.KeyLocator;
 import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
@@ -144,29 +143,22 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNI
 	protected int _markOffset = 0;
 	protected long _markBlock = 0;
 
-	protected ArrayList<ContentObject> inOrderSegments = new ArrayList<ContentObject>();
-	protected ArrayList<ContentObject> outOfOrderSegments = new ArrayList<ContentObject>();
+	/**
+	 * The pipeline: the segments we've asked for or received ahead of the reader, and the
+	 * window that decides how many that can be. Guarded by _pipelineLock, which a reader
+	 * waiting for a segment waits on.
+	 */
+	protected final Object _pipelineLock = new Object();
+	protected PipelineWindow _window = new PipelineWindow();
+	protected PipelineBuffer _pipeline = new PipelineBuffer(_window.maxSize());
 
-	protected long _nextPipelineSegment = -1;  //this is the segment number of the next segment needed
 	protected long _lastRequestedPipelineSegment = -1;  //this is the segment number of the last interest we sent out
-	protected long _lastInOrderSegment = -1;
 	protected ContentName _basePipelineName = null;
 	protected long _lastSegmentNumber = -1;
-	protected ArrayList<Interest> _sentInterests = new ArrayList<Interest>();
-	private Thread waitingThread = null;
-	private long waitingSegment;
-	private long waitSleep = 0;
+	private long _waitingSegment = -1;
 	private long _holes = 0;
 	private long _totalReceived = 0;
 	private long _pipelineStartTime;
-	private Object readerReadyObj = new Object();
-	private long readerReadyVal = -1;
-
-	private double avgResponseTime = -1;
-
-	private Thread processor = null;
-	private long processingSegment = -1;
-	private ArrayList<IncomingSegment> incoming = new ArrayList<IncomingSegment>();
 
 	/**
 	 * Set up an input stream to read segmented CCN content under a given name. 
@@ -280,933 +272,239 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNI
 	}
 
 
+	/**
+	 * Start the pipeline from the segment after the current one, or the starting segment,
+	 * under the current base name, dropping anything we asked for before.
+	 */
 	private void startPipeline() {
-		synchronized (inOrderSegments) {
+		synchronized (_pipelineLock) {
 			Log.info(Log.FAC_PIPELINE, "PIPELINE: starting pipelining");
 
 			_pipelineStartTime = System.currentTimeMillis();
 			if (SystemConfiguration.PIPELINE_STATS)
-				System.out.println("plot "+(System.currentTimeMillis() - _pipelineStartTime)+" inOrder: "+inOrderSegments.size() +" outOfOrder: "+outOfOrderSegments.size() + " interests: "+_sentInterests.size() +" holes: "+_holes + " received: "+_totalReceived+" ["+_baseName+"].1"+ " toProcess "+incoming.size());		
-
-			long segmentToGet = -1;
-			Interest interest = null;
+				plot(1);
 
-			if(_basePipelineName == null) {
-				_basePipelineName = _baseName.clone();
-			}
+			_basePipelineName = _baseName.clone();
+			Log.info(Log.FAC_PIPELINE, "PIPELINE: BaseName for pipeline: {0}", _basePipelineName);
 
-			Log.info(Log.FAC_PIPELINE, "PIPELINE: BaseName for pipeline: {0} base name: {1}", _basePipelineName, _baseName);
+			long segmentToGet = nextSegmentNumber();
+			resetPipeline(segmentToGet);
+			_lastRequestedPipelineSegment = segmentToGet - 1;
 
-			if (_currentSegment!=null) {
+			if (_currentSegment != null) {
 				Log.info(Log.FAC_PIPELINE, "PIPELINE: we already have the first segment...  start from there: {0}", _currentSegment.name());
-				//we already have the starting segment...
-
 				//is the first segment the last one?
 				if (SegmentationProfile.isLastSegment(_currentSegment)) {
 					//this is the last segment...  don't pipeline
 					Log.info(Log.FAC_PIPELINE, "PIPELINE: we already have the last segment...  don't need to pipeline (returning)");
 					return;
-				} else {
-					//this isn't the last segment, start up pipelining...  only ask for next segment to start
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: this isn't the last segment...  need to start up pipelining");
 				}
 			} else {
 				Log.info(Log.FAC_PIPELINE, "PIPELINE: need to get the first segment: startingSegmentNumber={0}",_startingSegmentNumber);
 			}
 
-			segmentToGet = nextSegmentNumber();
-			_nextPipelineSegment = segmentToGet;
-
 			//check here if it is an instance of a versioned stream.  if so, and the basename doesn't have a version in it, do not send the interest
-
 			if (this instanceof CCNVersionedInputStream && !VersioningProfile.hasTerminalVersion(_basePipelineName)) {
 				Log.info(Log.FAC_PIPELINE, "this is a versioned stream without a terminal version, skip sending non-versioned interest");
 			} else {
-				Log.info(Log.FAC_PIPELINE, "this is not a versioned stream or it is a versioned stream without the version set in the base name, go ahead and get the first segment");
-
-				interest = SegmentationProfile.segmentInterest(_basePipelineName, segmentToGet, _publisher);
-				try {
-					interest.userTime = System.currentTimeMillis();
-					_handle.expressInterest(interest, this);
-					_sentInterests.add(interest);
-					_lastRequestedPipelineSegment = segmentToGet;
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: expressed interest for segment {0} in startPipeline(): {1}", segmentToGet, interest);
-				} catch(IOException e) {
-					//could not express interest for next segment...  logging the error
-					Log.warning(Log.FAC_PIPELINE, "Failed to express interest for pipelining segments in CCNAbstractInputStream:  Interest = {0}", interest.name());
-				}
+				expressPipelineInterest(segmentToGet);
+				_lastRequestedPipelineSegment = segmentToGet;
+				Log.info(Log.FAC_PIPELINE, "PIPELINE: expressed interest for segment {0} in startPipeline()", segmentToGet);
 			}
 		}
 	}
 
-	private void receivePipelineContent(ContentObject co) {
-		long returnedSegment = SegmentationProfile.getSegmentNumber(co.name());
-		ArrayList<Interest> toRemove = new ArrayList<Interest>();	
-
-		//is there a reader ready?
-		long rr;
-		synchronized(readerReadyObj) {
-			rr = readerReadyVal;
-		}
-		//while(rr > -1) {
-		if(rr > -1) {
-			//there is a reader waiting
-			if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-				Log.info(Log.FAC_PIPELINE, "PIPELINE: there is a reader waiting, we should wait unless we have their segment");
-			if(returnedSegment == rr) {
-				//this is the segment they want, we should just finish
-				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: we are working on their segment...  we should finish!");
-				//break;
-			} else {
-				if (haveSegmentBuffered(rr)) {
-					//we have their segment
-					//this isn't their segment, but the one they want is here. we should defer
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: we are deferring until they are done");
-					try {
-						inOrderSegments.wait();
-						//readerReady.wait();
-						synchronized(readerReadyObj) {
-							rr = readerReadyVal;
-						}
-					} catch (InterruptedException e) {
-						if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-							Log.info(Log.FAC_PIPELINE, "PIPELINE: we can go back to processing");
-						//break;
-					}
-				} else {
-					//we don't have their segment, we should keep going
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: we don't have their segment, keep processing this one.");
-				}
-			}
-		}
-
-
-		//are we at the last segment?
-		synchronized(inOrderSegments) {
-			if (SegmentationProfile.isLastSegment(co)) {
-				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: we just got the last segment...");
-				_lastSegmentNumber = returnedSegment;
-			}
-			//}
-			long segNum;
-			//synchronized (_sentInterests) {
-			for(Interest i: _sentInterests) {
-				segNum = SegmentationProfile.getSegmentNumber(i.name());
-				if(segNum == returnedSegment || (_lastSegmentNumber > -1 && segNum > _lastSegmentNumber)) {
-					if(Log.isLoggable(Log.FAC_PIPELINE, Level.INFO)) {
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: cancelling interest for segment "+SegmentationProfile.getSegmentNumber(i.name())+" Interest: "+i);
-					}
-					_handle.cancelInterest(i, this);
-					toRemove.add(i);
-				}
-			}
-			_sentInterests.removeAll(toRemove);
-			toRemove.clear();
-		}
-
-
-		synchronized(inOrderSegments) {
-			if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-				Log.info(Log.FAC_PIPELINE, "PIPELINE: received pipeline segment: {0}", co.name());
-
-			/*
-			synchronized(readySegment) {
-				//can we help the reader with a shortcut
-				if (readySegment == null) {
-					//need to set the ready segment
-					if(inOrderSegments.size() > 0)
-						readySegment = inOrderSegments.get(0);
-				}
-			}
-			 */
-
-			if (returnedSegment == _nextPipelineSegment) {
-				_totalReceived++;
-				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: we got the segment ({0}) we were expecting!", returnedSegment);
-				if(waitingSegment!=-1)
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: someone is waiting for segment: {0}", waitingSegment);
-				//this is the next segment in order
-				inOrderSegments.add(co);
-				_lastInOrderSegment = returnedSegment;
-				//do we have any out of order segments to move over?
-				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO)) {
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: before checking ooos:" );
-					printSegments();
-				}
-				if (outOfOrderSegments.size() > 0 ) {
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: we have out of order segments to check");
-
-					//this was a hole..  cancel its other interests
-
-					while (outOfOrderSegments.size() > 0 ) {
-						if(SegmentationProfile.getSegmentNumber(outOfOrderSegments.get(0).name()) == nextInOrderSegmentNeeded()) {
-							_lastInOrderSegment = SegmentationProfile.getSegmentNumber(outOfOrderSegments.get(0).name());
-							inOrderSegments.add(outOfOrderSegments.remove(0));
-						} else {
-							//the first one isn't what we wanted..
-							if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO)) {
-								Log.info(Log.FAC_PIPELINE, "PIPELINE: we have "+SegmentationProfile.getSegmentNumber(outOfOrderSegments.get(0).name())+" but need "+nextInOrderSegmentNeeded()+" breaking from loop, we don't have the one we need");
-							}
-							break;
-						}
-					}
-				}
-				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO)) {
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: after checking ooos: ");
-					printSegments();
-				}
-
-				//if we had out of order segments, we might still want to advance the pipeline...
-
-
-			} else {
-				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: we got segment {0} an Out of Order segment...  we were expecting segment {1}", returnedSegment, _nextPipelineSegment);
-				//this segment is out of order
-				//make sure it wasn't a previous segment that we don't need any more...
-				if (_nextPipelineSegment > returnedSegment) {
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: this is a previous segment...  drop");
-				} else {
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: this is a pipeline segment, add to outOfOrderSegment queue");
-					_totalReceived++;
-					_holes++;
-					int i = 0;
-					for (ContentObject c:outOfOrderSegments) {
-						if(returnedSegment < SegmentationProfile.getSegmentNumber(c.name()))
-							break;
-						i++;
-					}
-					outOfOrderSegments.add(i, co);
-
-					//now we have a hole to fill
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: we got a segment out of order, need to fill a hole at "+nextInOrderSegmentNeeded());
-					attemptHoleFilling(_nextPipelineSegment);
-				}
-			}
-
-
-			_nextPipelineSegment = nextInOrderSegmentNeeded();
-			if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-				Log.info(Log.FAC_PIPELINE, "PIPELINE: the next segment needed is {0}", _nextPipelineSegment);
-			synchronized(incoming) {
-				processingSegment = -1;
-			}
-
-			if(waitingThread!=null && returnedSegment == waitingSegment) {
-				inOrderSegments.notifyAll();
-				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: notifyAll: min sleep {0}", (System.currentTimeMillis()-waitSleep));
-				try {
-					inOrderSegments.wait();
-				} catch (InterruptedException e) {
-					//back to me...  keep going
-				}
-			}
-		}
-
-	}
-
-	private void advancePipeline(boolean attemptHoleFilling) {
-		synchronized(inOrderSegments) {
-			//first check if we have tokens to spend on interests...
-			boolean doneAdvancing = false;
-
-			//check outstanding interests
-			if(Log.isLoggable(Log.FAC_PIPELINE, Level.INFO)) {
-				String s = "have interests out for segments: [";
-				for(Interest i: _sentInterests)
-					s = s + " "+SegmentationProfile.getSegmentNumber(i.name());
-				s = s + " ]";
-				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: "+s);
-				for(Interest i: _sentInterests)
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: {0}", i.name());
-			}
-
-			Interest i = null;
-
-			while (_sentInterests.size() + inOrderSegments.size() + outOfOrderSegments.size()  < SystemConfiguration.PIPELINE_SIZE && !doneAdvancing) {
-				//we have tokens to use
-				i = null;
-
-				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: _lastSegmentNumber = {0}", _lastSegmentNumber);
-				
-				//if we haven't gotten a valid base segment, we do not want to advance the pipeline.
-				if (_lastRequestedPipelineSegment == SegmentationProfile.baseSegment()) {
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: the last segment number is the base segment, need to make sure we have received the base segment before we press on");
-					//the last thing we asked for was the base segment...  have we gotten it yet?
-					if (_lastInOrderSegment == -1) {
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: _lastInOrderSegment == -1, we have not received the base segment, do not advance the pipeline");
-						return;
-					} else {
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: _lastInOrderSegment == {0}, we have received the base segment, we can advance the pipeline!", _lastInOrderSegment);
-					}
-				}
-				
-				if (_lastSegmentNumber == -1) {
-					//we don't have the last segment already...
-					i = SegmentationProfile.segmentInterest(_basePipelineName, _lastRequestedPipelineSegment + 1, _publisher);
-					try {
-						i.userTime = System.currentTimeMillis();
-						_handle.expressInterest(i, this);
-						_sentInterests.add(i);
-						_lastRequestedPipelineSegment++;
-						if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-							Log.info(Log.FAC_PIPELINE, "PIPELINE: requested segment "+_lastRequestedPipelineSegment +" ("+(SystemConfiguration.PIPELINE_SIZE - _sentInterests.size())+" tokens)");
-					} catch (IOException e) {
-						if (Log.isLoggable(Log.FAC_PIPELINE, Level.WARNING))
-							Log.warning(Log.FAC_PIPELINE, "failed to express interest for CCNAbstractInputStream pipeline");
-					}
-				} else {
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: setting doneAdvancing to true");
-					doneAdvancing = true;
-				}
-			}
-		}
+	/**
+	 * Drop everything in the pipeline, cancelling its interests, and start it again at this segment.
+	 * Called with _pipelineLock held.
+	 */
+	private void resetPipeline(long segmentNumber) {
+		ArrayList<Interest> cancelled = new ArrayList<Interest>();
+		_pipeline.reset(segmentNumber, cancelled);
+		cancelInterests(cancelled);
+		_lastSegmentNumber = -1;
 	}
 
-	private void attemptHoleFilling() {
-		synchronized(inOrderSegments) {
-			if(outOfOrderSegments.size() > 0) {
-				long firstOOO = SegmentationProfile.getSegmentNumber(outOfOrderSegments.get(0).name());
-				long holeCheck = _nextPipelineSegment;
-				while (holeCheck < firstOOO) {
-					attemptHoleFilling(holeCheck);
-					holeCheck++;
-				}
-			}
+	/**
+	 * Called with _pipelineLock held.
+	 */
+	private void cancelInterests(ArrayList<Interest> interests) {
+		for (Interest interest : interests) {
+			if (Log.isLoggable(Log.FAC_PIPELINE, Level.FINE))
+				Log.fine(Log.FAC_PIPELINE, "PIPELINE: canceling interest: {0}", interest);
+			_handle.cancelInterest(interest, this);
 		}
-
 	}
 
-	private void attemptHoleFilling(long hole) {
-		//holes...  just ask for the next segment we are expecting if we haven't already
-
-		if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-			Log.info(Log.FAC_PIPELINE, "PIPELINE: checking for a hole at segment: {0}", hole);
-
-		//first check the incoming segments to see if it is here already
-		synchronized (incoming) {
-			for (IncomingSegment i: incoming)
-				if(i.segmentNumber == hole) {
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: segment {0} is already here, just needs to be processed", hole);
-					return;
-				}
-
-			if(processingSegment != -1 && hole == processingSegment) {
-				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: the segment is being processed... not a hole.");
-				return;
-			}
-
+	/**
+	 * Express an interest for a segment in the pipeline's range that we don't have, in
+	 * place of any we've expressed for it before. Called with _pipelineLock held.
+	 */
+	private void expressPipelineInterest(long segmentNumber) {
+		Interest interest = SegmentationProfile.segmentInterest(_basePipelineName, segmentNumber, _publisher);
+		int expressions = _pipeline.expressions(segmentNumber);
+		if (expressions > 0) {
+			// Make this one different from the ones before, so it isn't taken for one of them
+			Exclude ex = new Exclude();
+			ex.add(new byte[][]{SegmentationProfile.getSegmentNumberNameComponent(segmentNumber + expressions)});
+			interest.exclude(ex);
 		}
-
-		Interest i = SegmentationProfile.segmentInterest(_basePipelineName, hole, _publisher);
-
-
-		int index = -1;
-		int index2 = -1;
-
-		long elapsed1 = -1;
-		long elapsed2 = -1;
-
-		Interest expressed;
+		Interest old = _pipeline.interest(segmentNumber);
+		if (null != old)
+			_handle.cancelInterest(old, this);
+		interest.userTime = System.currentTimeMillis();
+		_pipeline.expressed(segmentNumber, interest);
 		try {
-			synchronized (inOrderSegments) {
-				// see if this interest is already there
-				index = _sentInterests.indexOf(i);
-				if (index > -1) {
-					expressed = _sentInterests.get(index);
-					elapsed1 = System.currentTimeMillis() - expressed.userTime;
-
-					if(elapsed1 == -1) {
-						if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-							Log.info(Log.FAC_PIPELINE, "PIPELINE: base segment is there, but the express time is -1, it must be getting processed");
-						return;
-					}
-
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: base interest is already there, try adding excludes elapsed time = {0} interest: {1}", elapsed1, expressed);					
-				} else {
-					// base interest isn't there, the the exclude could be.
-				}
-
-
-				//for (int attempt = 1; attempt < SystemConfiguration.PIPELINE_SEGMENTATTEMPTS; attempt++) {
-				int attempt = 1;
-				Exclude ex = new Exclude();
-				ex.add(new byte[][]{SegmentationProfile.getSegmentNumberNameComponent(hole+attempt)});
-
-				i.exclude(ex);
-
-				Interest toDelete = null;
-				index2 = 0;
-				long excludedSegment = -1;
-				ExcludeComponent ec = null;
-				long tempseg = -1;
-				for(Interest expInt: _sentInterests) {
-					tempseg = SegmentationProfile.getSegmentNumber(expInt.name());
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: checking if this interest {0} is for our hole at {1}", tempseg, hole);
-					if (tempseg == hole) {
-						if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-							Log.info(Log.FAC_PIPELINE, "PIPELINE: this is a match!  does it have excludes?");
-						//this is the interest we want to look at
-						if(expInt.exclude()!=null) {
-							if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-								Log.info(Log.FAC_PIPELINE, "PIPELINE: yep! it is a holefilling attempt");
-							ec = (ExcludeComponent)expInt.exclude().value(0);
-
-							excludedSegment = SegmentationProfile.getSegmentNumber(ec.getBytes());
-							attempt = (int) (excludedSegment - hole);
-							if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-								Log.info(Log.FAC_PIPELINE, "PIPELINE: this is attempt: {0}", attempt);
-
-							if (attempt < SystemConfiguration.PIPELINE_SEGMENTATTEMPTS) {
-								if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-									Log.info(Log.FAC_PIPELINE, "PIPELINE: we have more attempts that we can try... ");
-								toDelete = expInt;
-								ex = new Exclude();
-								ex.add(new byte[][]{SegmentationProfile.getSegmentNumberNameComponent(hole+attempt+1)});
-								i.exclude(ex);
-								if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-									Log.info(Log.FAC_PIPELINE, "PIPELINE: going to express the next attempt: {0}", i);
-							} else {
-								if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-									Log.info(Log.FAC_PIPELINE, "PIPELINE: we have tried as many times as we can...  break here");
-								return;
-							}
-						} else {
-							if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-								Log.info(Log.FAC_PIPELINE, "PIPELINE: this isn't a holefilling attempt, must be the base interest");
-						}
-						break;
-					} else {
-						//if this is for a segment after ours, break
-						if (tempseg > hole)
-							break;
-					}
-
-					index2++;
-				}
-
-				if(toDelete!=null) {
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: we can try again to fill the hole!");
-					expressed = toDelete;
-					if(expressed.userTime == -1) {
-						if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-							Log.info(Log.FAC_PIPELINE, "PIPELINE: hole filling segment is there, but the express time is -1, it must be getting processed");
-						return;
-					} else {
-						elapsed2 = System.currentTimeMillis() - expressed.userTime;
-						if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-							Log.info(Log.FAC_PIPELINE, "PIPELINE: elapsed2 time {0}", elapsed2);
-						if(elapsed2 > avgResponseTime * SystemConfiguration.PIPELINE_RTTFACTOR && avgResponseTime > -1) {
-							if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-								Log.info(Log.FAC_PIPELINE, "PIPELINE: expressing the next interest! {0}", i);
-							i.userTime = System.currentTimeMillis();
-							_handle.expressInterest(i, this);
-							_sentInterests.add(index2, i);
-
-							_handle.cancelInterest(toDelete, this);
-							_sentInterests.remove(toDelete);
-
-							adjustAvgResponseTimeForHole();
-
-							if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO)) {
-								Log.info(Log.FAC_PIPELINE, "PIPELINE: expressed: {0} deleted: {1}", i, toDelete);
-
-								Log.info(Log.FAC_PIPELINE, "PIPELINE: current expressed interests: ");
-								for(Interest p: _sentInterests)
-									Log.info(Log.FAC_PIPELINE, "PIPELINE: {0}", p);
-							}
-							return;
-						} else {
-							if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-								Log.info(Log.FAC_PIPELINE, "PIPELINE: need to give the earlier attempt a chance to work");
-							return;
-						}
-					}
-
-				} else {
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: we don't have any holefilling attempts... for {0}", hole);
-					if (index == -1) {
-						// the base interest wasn't even there (neither was the
-						// hole filling one)
-						i.exclude(null);
-					}
-				}
-
-				if((elapsed1 > avgResponseTime * 2 && avgResponseTime > -1) || (avgResponseTime == -1 && elapsed1 > SystemConfiguration.INTEREST_REEXPRESSION_DEFAULT)) {
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO)) {
-						if(i.exclude() == null)
-							Log.info(Log.FAC_PIPELINE, "PIPELINE: adding the base interest or the first holefilling attempt!!! {0}", i);
-						else
-							Log.info(Log.FAC_PIPELINE, "PIPELINE: adding the first holefilling attempt! {0}",  i);
-					}
-					i.userTime = System.currentTimeMillis();
-					_handle.expressInterest(i, this);
-					if (index != -1)
-						_sentInterests.add(index, i);
-					else
-						_sentInterests.add(i);
-					// remove the first instance after we express and insert the new
-					// interest
-					if (index != -1) {
-						_handle.cancelInterest(_sentInterests.remove(index+1), this);
-						adjustAvgResponseTimeForHole();
-					}
-
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: requested segment {0} to fill hole: {1} with Interest: {2}", hole, i.name(), i);
-					return;
-				} else {
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: we need to wait longer to see if the original interest will return the segment: avgResponseTime: {0}", avgResponseTime);
-				}
-			}
-			//}
+			_handle.expressInterest(interest, this);
 		} catch (IOException e) {
-			if (Log.isLoggable(Log.FAC_PIPELINE, Level.WARNING))
-				Log.warning(Log.FAC_PIPELINE, "failed to express interest for CCNAbstractInputStream pipeline");
+			//could not express interest for this segment, we'll try again when it's late
+			Log.warning(Log.FAC_PIPELINE, "Failed to express interest for pipelining segments in CCNAbstractInputStream:  Interest = {0}", interest.name());
 		}
 	}
 
-	private void adjustAvgResponseTimeForHole() {
-		synchronized(incoming) {
-			avgResponseTime = 0.9 * avgResponseTime + 0.1 * (SystemConfiguration.PIPELINE_RTTFACTOR * avgResponseTime);
-		}
-	}
-
-	private void printSegments() {
-		String s = "inOrder: [";
-		for(ContentObject c: inOrderSegments)
-			s += " "+SegmentationProfile.getSegmentNumber(c.name());
-		s += " ] outOrder: [";
-		for(ContentObject c: outOfOrderSegments)
-			s += " "+SegmentationProfile.getSegmentNumber(c.name());
-		s += "]";
-		Log.info(Log.FAC_PIPELINE, "PIPELINE: " + s);
-	}
-
-	private long nextInOrderSegmentNeeded() {
-		synchronized(inOrderSegments) {
-            if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO)) {
-                if (_currentSegment==null)
-                    Log.info(Log.FAC_PIPELINE, "PIPELINE: current segment: - lastInOrderSegment number {0} _startingSegmentNumber {1}", _lastInOrderSegment, _startingSegmentNumber);
-                else
-                    Log.info(Log.FAC_PIPELINE, "PIPELINE: current segment: "+SegmentationProfile.getSegmentNumber(_currentSegment.name()) + " lastInOrderSegment number "+_lastInOrderSegment	+ " _startingSegmentNumber "+_startingSegmentNumber);
-                
-				if (outOfOrderSegments.size() > 0) {
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO)) {
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: we have out of order segments...");
-                        printSegments();
-                    }
-				}
-			}
-            
-			if (_lastInOrderSegment != -1)
-				return _lastInOrderSegment +1;
-			else
-				return _startingSegmentNumber;
-		}
-	}
-    
-	private boolean haveSegmentBuffered(long segmentNumber) {
-		synchronized(inOrderSegments) {
-			ContentObject co = null;
-			for (int i = 0; i < inOrderSegments.size(); i++) {
-				co = inOrderSegments.get(i);
-				if (SegmentationProfile.getSegmentNumber(co.name()) == segmentNumber) {
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: have segment {0} in iOS, return true.", segmentNumber);
-					return true;
-				}
-			}
-
-			for (int i = 0; i < outOfOrderSegments.size(); i++) {
-				co = outOfOrderSegments.get(i);
-				if (SegmentationProfile.getSegmentNumber(co.name()) == segmentNumber) {
-					//this is the segment we wanted
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: segment {0} is in our oOOS queue, return true", segmentNumber);
-					return true;
-
-				} else {
-					if(SegmentationProfile.getSegmentNumber(co.name()) > segmentNumber) {
-						//we have a hole to fill...
-						if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-							Log.info(Log.FAC_PIPELINE, "PIPELINE: our out of order segments are past the requested segment...  we have a hole");
-						//attemptHoleFilling();
-						attemptHoleFilling(segmentNumber);
-						break;
-					}
-				}
-			}
-			return false;
-		}
-	}
-
-	private ContentObject getPipelineSegment(long segmentNumber) throws IOException{
-		synchronized(inOrderSegments) {
-			ContentObject co = null;
-			while (inOrderSegments.size() > 0) {
-				co = inOrderSegments.remove(0);
-				if (SegmentationProfile.getSegmentNumber(co.name()) == segmentNumber) {
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: had segment {0} in iOS, setting current.", segmentNumber);
-					_currentSegment = co;
-					if (inOrderSegments.size() > 0 || segmentNumber == 1)
-						advancePipeline(false);
-					else
-						advancePipeline(true); 
-					return co;
-				}
-			}
-
-			while (outOfOrderSegments.size() > 0) {
-				co = outOfOrderSegments.get(0);
-				if (SegmentationProfile.getSegmentNumber(co.name()) == segmentNumber) {
-					//this is the segment we wanted
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: segment {0} was in our oOOS queue", segmentNumber);
-					outOfOrderSegments.remove(0);
-					_currentSegment = co;
-					return co;
-				} else {
-					if(SegmentationProfile.getSegmentNumber(co.name()) > segmentNumber) {
-						//we have a hole to fill...
-						if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-							Log.info(Log.FAC_PIPELINE, "PIPELINE: our out of order segments are past the requested segment...  we have a hole");
-						break;
-					} else {
-						outOfOrderSegments.remove(0);
-					}
-				}
-			}
-
-			if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO)) {
-				Log.info(Log.FAC_PIPELINE, "PIPELINE: we do not have the segment yet...  was it requested?");
-				Log.info(Log.FAC_PIPELINE, "PIPELINE: need segment: {0} _lastRequestedPipelineSegment: {1}", segmentNumber, _lastRequestedPipelineSegment);
-
-				String s = "current interests out for segments: [";
-				for(Interest i: _sentInterests)
-					s += " "+SegmentationProfile.getSegmentNumber(i.name());
-				s += "]";
-				Log.info(Log.FAC_PIPELINE, "PIPELINE: "+s);
-			}
-
-			//need to actually get the requested segment if it hasn't been asked for
-			//this is needed for seek, skip, etc
-
-			//if we haven't requested the segment...  should we ditch everything we have?  probably
-			if (requestedSegment(segmentNumber)) {
-				//we already requested it.  just wait for it to come in
-				attemptHoleFilling(segmentNumber);
-			} else {
-				//we haven't requested it...  send request and ditch what we have
-				Interest interest = SegmentationProfile.segmentInterest(_basePipelineName, segmentNumber, _publisher);
-				try {
-					interest.userTime = System.currentTimeMillis();
-					_handle.expressInterest(interest, this);
-					cancelInterests();
-					_sentInterests.add(interest);
-					resetPipelineState();
-					_lastRequestedPipelineSegment = segmentNumber;
-					_nextPipelineSegment = segmentNumber;
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: we hadn't asked for segment {0} asking now... {1}", segmentNumber, interest);
-				} catch (IOException e) {
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.WARNING))
-						Log.warning(Log.FAC_PIPELINE, "failed to express interest for CCNAbstractInputStream pipeline");
-				}
-			}
+	/**
+	 * Ask for as many more segments as the window allows. Called with _pipelineLock held.
+	 */
+	private void advancePipeline() {
+		// Haven't started, or waiting for a version
+		if (_lastRequestedPipelineSegment < _pipeline.base())
+			return;
 
-			//check outstanding interests
-			if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO)) {
-				String s = "have interests out for segments: [";
-				for(Interest i: _sentInterests)
-					s += " "+SegmentationProfile.getSegmentNumber(i.name());
-				s += "]";
-				Log.info(Log.FAC_PIPELINE, "PIPELINE: "+s);
-			}
+		//if we haven't gotten a valid base segment, we do not want to advance the pipeline.
+		if (_lastRequestedPipelineSegment == SegmentationProfile.baseSegment() && _pipeline.firstMissing() <= _lastRequestedPipelineSegment) {
+			Log.info(Log.FAC_PIPELINE, "PIPELINE: we have not received the base segment, do not advance the pipeline");
+			return;
 		}
 
-		return null;
-	}
-
-	private void cancelInterests() {
-		synchronized(inOrderSegments) {
-			for (Interest i: _sentInterests) {
-				_handle.cancelInterest(i, this);
-				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: canceling interest: {0}", i);
-			}
-			_sentInterests.clear();
+		while ((_lastSegmentNumber == -1) && (_pipeline.interestCount() + _pipeline.segmentCount() < _window.size())
+				&& _pipeline.inRange(_lastRequestedPipelineSegment + 1)) {
+			_lastRequestedPipelineSegment++;
+			expressPipelineInterest(_lastRequestedPipelineSegment);
+			if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
+				Log.info(Log.FAC_PIPELINE, "PIPELINE: requested segment {0} {1}", _lastRequestedPipelineSegment, _pipeline);
 		}
 	}
 
-	private void resetPipelineState() {
-		synchronized(inOrderSegments) {
-			inOrderSegments.clear();
-			outOfOrderSegments.clear();
-			_nextPipelineSegment = -1;
-			_lastRequestedPipelineSegment = -1;
-			_lastInOrderSegment = -1;
-			_lastSegmentNumber = -1;
-			_currentSegment = null;
-		}
+	/**
+	 * @return how long to wait for a segment after asking for it before asking again
+	 */
+	private long holeTimeout() {
+		long timeout = _window.timeout();
+		return (timeout < 0) ? SystemConfiguration.INTEREST_REEXPRESSION_DEFAULT : timeout;
 	}
 
-
-	private boolean requestedSegment(long number) {
-		synchronized(incoming) {
-			for(IncomingSegment i: incoming)
-				if (i.segmentNumber == number) {
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: we already asked for it and it is just waiting to be processed");
-					return true;
-				}
-
-			if (processingSegment!=-1 && processingSegment == number) {
-				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: someone is processing it right now!");
-				return true;
-			}
+	/**
+	 * If the interest we expressed for a segment is late, express it again, up to
+	 * SystemConfiguration.PIPELINE_SEGMENTATTEMPTS times. Called with _pipelineLock held.
+	 */
+	private void attemptHoleFilling(long hole) {
+		Interest expressed = _pipeline.interest(hole);
+		if (null == expressed)
+			return; // we have it, or never asked for it
+		long elapsed = System.currentTimeMillis() - expressed.userTime;
+		if (elapsed <= holeTimeout()) {
+			if (Log.isLoggable(Log.FAC_PIPELINE, Level.FINE))
+				Log.fine(Log.FAC_PIPELINE, "PIPELINE: we need to wait longer to see if the interest will return segment {0}: {1}", hole, _window);
+			return;
 		}
-		synchronized(inOrderSegments) {
-			for (Interest i: _sentInterests)
-				if(SegmentationProfile.getSegmentNumber(i.name()) == number)
-					return true;
-			return false;
+		if (_pipeline.expressions(hole) >= SystemConfiguration.PIPELINE_SEGMENTATTEMPTS) {
+			if (Log.isLoggable(Log.FAC_PIPELINE, Level.FINE))
+				Log.fine(Log.FAC_PIPELINE, "PIPELINE: we have tried as many times as we can to fill the hole at {0}", hole);
+			return;
 		}
-	}
-
-	private void setPipelineName(ContentName n) {
-		//we need to set the base name for pipelining...  we might not have had the version (or the full name)
-		_basePipelineName = n.clone();
+		_window.segmentLost();
+		expressPipelineInterest(hole);
 		if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-			Log.info(Log.FAC_PIPELINE, "PIPELINE: setting _basePipelineName {0}", _basePipelineName);
-
-		synchronized(inOrderSegments) {
-			//need to remove interest for first segment of old name
-			ArrayList<Interest> remove = new ArrayList<Interest>();
-			for(Interest i: _sentInterests) {
-				if(SegmentationProfile.segmentRoot(i.name()).equals(_basePipelineName)) {
-					//the name matches, keep it
-				} else {
-					//name doesn't match...  remove it
-					remove.add(i);
-				}
-			}
-			for(Interest i: remove) {
-				_handle.cancelInterest(i,this);
-				_sentInterests.remove(i);
-			}
-		}
-
+			Log.info(Log.FAC_PIPELINE, "PIPELINE: requested segment {0} again to fill hole after {1} ms: {2}", hole, elapsed, _pipeline.interest(hole));
 	}
 
-
-	public boolean readerReadyCheck(long nextSegment) {
-		synchronized(inOrderSegments) {
-			//is there a reader ready?
-			long rr;
-			synchronized(readerReadyObj) {
-				rr = readerReadyVal;
-			}
-			if(rr > -1) {
-				//there is a reader waiting
-				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: there is a reader waiting, we should wait unless we have their segment");
-				if (nextSegment == rr) {
-					//this is the segment they want, we should just finish
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: we are working on their segment...  we should finish!");
-					return false;
-					//break;
-				} else {
-					if (haveSegmentBuffered(rr)) {
-						//we have their segment
-						//this isn't their segment, but the one they want is here. we should defer
-						if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-							Log.info(Log.FAC_PIPELINE, "PIPELINE: we are deferring until they are done");
-						return true;
-					} else {
-						//we don't have their segment, we should keep going
-						if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-							Log.info(Log.FAC_PIPELINE, "PIPELINE: we don't have their segment, keep processing this one.");
-						return false;
-					}
-				}
-			}
-			return false;
+	/**
+	 * Fill any holes before a segment that has arrived out of order. Called with _pipelineLock held.
+	 */
+	private void attemptHoleFilling() {
+		long end = Math.min(_lastRequestedPipelineSegment, _pipeline.base() + _pipeline.capacity() - 1);
+		for (long hole = _pipeline.firstMissing(); hole <= end; hole++) {
+			if (null != _pipeline.segment(hole + 1))
+				attemptHoleFilling(hole);
 		}
 	}
 
+	private void plot(int point) {
+		System.out.println("plot " + (System.currentTimeMillis() - _pipelineStartTime) + " inOrder: " + _pipeline.inOrderCount()
+				+ " outOfOrder: " + (_pipeline.segmentCount() - _pipeline.inOrderCount()) + " interests: " + _pipeline.interestCount()
+				+ " holes: " + _holes + " received: " + _totalReceived + " [" + _baseName + "]." + point + " window: " + _window.size());
+	}
 
 	public Interest handleContent(ContentObject result, Interest interest) {
 		if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-			Log.info(Log.FAC_PIPELINE, "PIPELINE: in handleContent for {0} at {1}", result.name(), System.currentTimeMillis());
-
-		long starttime = System.currentTimeMillis();
-		IncomingSegment is;
+			Log.info(Log.FAC_PIPELINE, "PIPELINE: in handleContent for {0}", result.name());
+		if (!SegmentationProfile.isSegment(result.name()))
+			return null;
+		long segmentNumber = SegmentationProfile.getSegmentNumber(result.name());
 
-		synchronized(incoming) {
-			if(avgResponseTime == -1) {
-				avgResponseTime = starttime - interest.userTime;
-			} else {
-				//do not include hole filling responses, they will be extra fast
-				//if (interest.exclude()==null)
-				avgResponseTime = 0.9 * avgResponseTime + 0.1 * (starttime - interest.userTime);
-			}
+		synchronized (_pipelineLock) {
+			if (!wanted(segmentNumber, result, interest))
+				return null;
+			//do not include hole filling responses, we don't know which expression they answer
+			if ((interest == _pipeline.interest(segmentNumber)) && (1 == _pipeline.expressions(segmentNumber)))
+				_window.roundTripTime(System.currentTimeMillis() - interest.userTime);
+		}
 
-			interest.userTime = -1;
+		// verify the content object, without holding up the reader
+		if (!_handle.defaultVerifier().verify(result)) {
+			// content didn't verify, don't hand it up... its interest stays outstanding, and
+			// will be expressed again with an exclude if nothing better turns up
+			if (Log.isLoggable(Log.FAC_PIPELINE, Level.WARNING))
+				Log.warning(Log.FAC_PIPELINE, "Dropping content object due to failed verification: {0}", result.name());
+			return null;
+		}
 
+		synchronized (_pipelineLock) {
+			if (!wanted(segmentNumber, result, interest))
+				return null;
+			boolean outOfOrder = segmentNumber > _pipeline.firstMissing();
+			_handle.cancelInterest(_pipeline.received(segmentNumber, result), this);
+			_totalReceived++;
+			_window.segmentReceived(result.contentLength());
+			if (outOfOrder)
+				_holes++;
 			if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-				Log.info(Log.FAC_PIPELINE, "PIPELINE: in handleContent after reading {0} avgResponseTime {1}", result.name(), avgResponseTime);
-			is = new IncomingSegment(result, interest);
-			int index = 0;
-			for (IncomingSegment i: incoming) {
-				if (i.segmentNumber > is.segmentNumber)
-					break;
-				index++;
-			}
-			incoming.add(index, is);
-
-			if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO)) {
-				String s = "segments to process: [";
-				for (IncomingSegment i: incoming)
-					s += " "+i.segmentNumber;
-				s += " ]";
-				Log.info(Log.FAC_PIPELINE, "PIPELINE: " + s);
-			}
+				Log.info(Log.FAC_PIPELINE, "PIPELINE: received pipeline segment {0}: {1}", segmentNumber, _pipeline);
 
-			if (processor == null) {
+			if (SegmentationProfile.isLastSegment(result)) {
 				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: processor was null, setting it to me.");
-				//no threads are actively processing content...  this one will
-				processor = Thread.currentThread();
-				//synchronized(inOrderSegments) {
-				is = incoming.remove(0);
-				//_sentInterests.add(is.interest);
-				processingSegment = SegmentationProfile.getSegmentNumber(is.content.name());
-				//}
-			} else {
-				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO)) {
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: processor not null, returning");
-					//another thread is already processing...  just dump my content object and return
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: {0} done with handleContent after reading {1}", (System.currentTimeMillis() - starttime), result.name());
-				}
-				return null;
+					Log.info(Log.FAC_PIPELINE, "PIPELINE: we just got the last segment...");
+				_lastSegmentNumber = segmentNumber;
+				ArrayList<Interest> cancelled = new ArrayList<Interest>();
+				_pipeline.cancelAfter(segmentNumber, cancelled);
+				cancelInterests(cancelled);
 			}
-		}
-		//this thread will continue processing the incoming content objects until they are empty
-		synchronized(inOrderSegments){
-			while (is != null) {
-
-				//was this a content object we were looking for?
-				//synchronized(inOrderSegments) {
-
-				if (SystemConfiguration.PIPELINE_STATS)
-					System.out.println("plot "+(System.currentTimeMillis() - _pipelineStartTime)+" inOrder: "+inOrderSegments.size() +" outOfOrder: "+outOfOrderSegments.size() + " interests: "+_sentInterests.size() +" holes: "+_holes + " received: "+_totalReceived+" ["+_baseName+"].2"+ " toProcess "+incoming.size());
-
-				if (_sentInterests.remove(is.interest)) {
-					//we had this interest outstanding...
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: we were expecting this data! we had outstanding interests: {0}", is.interest);
-				} else {
-					//we must have canceled the interest...  drop content object
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: we must have canceled the interest, dropping ContentObject(s).  old interest: {0}", is.interest);
-
-					//does this match one of our other interests?
-					Interest checkInterest;
-					is.interest = null;
-					for (int i = 0; i < _sentInterests.size(); i++) {
-						checkInterest = _sentInterests.get(i);
-						if (checkInterest.matches(is.content)) {
-							//we found a match!
-							if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-								Log.info(Log.FAC_PIPELINE, "PIPELINE: the incoming packet's interest is gone, but it matches another interest, using that");
-							is.interest = checkInterest;
-							break;
-						}
-					}
-					if (is.interest == null)
-						is = null;
-				}
-
-
-				//}
-
-				if (is != null) {
-					// verify the content object
-					if (_handle.defaultVerifier().verify(is.content)) {
-						// this content verified
-						receivePipelineContent(is.content);
-					} else {
-						// content didn't verify, don't hand it up...
-						// TODO content that fails verification needs to be handled better.  need to express a new interest
-						if (Log.isLoggable(Log.FAC_PIPELINE, Level.WARNING))
-							Log.warning(Log.FAC_PIPELINE, "Dropping content object due to failed verification: {0} Need to add interest re-expression with exclude", is.content.name());
-						_sentInterests.remove(is.interest);
-					}
-				}
-
-				synchronized(incoming) {
-					if (incoming.size() == 0) {
-						processor = null;
-						is = null;
-						if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-							Log.info(Log.FAC_PIPELINE, "PIPELINE: that was the last one, resetting processor to null");
-					} else {
-						is = incoming.remove(0);
-						//_sentInterests.add(is.interest);
-						processingSegment = SegmentationProfile.getSegmentNumber(is.content.name());
-						if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-							Log.info(Log.FAC_PIPELINE, "PIPELINE: processing first segment in incoming arraylist, segment {0}", is.segmentNumber);
-					}
-
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO)) {
-						String s = "segments to process: [";
-						for (IncomingSegment i: incoming)
-							s += " "+i.segmentNumber;
-						s += " ]";
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: " + s);
-					}
-
-				}
-
-				advancePipeline(false);
-			}//try holding lock more consistently to control how notify is done
-		} //while loop for processing incoming segments
-		attemptHoleFilling();
-
-		if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-			Log.info(Log.FAC_PIPELINE, "PIPELINE: {0} done with handleContent after reading {1}", (System.currentTimeMillis() - starttime),  result.name());
+			if (SystemConfiguration.PIPELINE_STATS)
+				plot(2);
 
+			advancePipeline();
+			if (outOfOrder)
+				attemptHoleFilling();
+			if (segmentNumber == _waitingSegment)
+				_pipelineLock.notifyAll();
+		}
 		return null;
 	}
 
-
-
+	/**
+	 * @return whether we still want this segment, which arrived in answer to this interest:
+	 * 	we don't have it yet, and have an interest outstanding that it matches. Called with _pipelineLock held.
+	 */
+	private boolean wanted(long segmentNumber, ContentObject result, Interest interest) {
+		Interest expressed = _pipeline.interest(segmentNumber);
+		if (null == expressed) {
+			if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
+				Log.info(Log.FAC_PIPELINE, "PIPELINE: we must have canceled the interest, or have the segment, dropping ContentObject: {0}", result.name());
+			return false;
+		}
+		// The answer to an earlier expression will do, so long as it's for the current name
+		return (expressed == interest) || expressed.matches(result);
+	}
 	/**
 	 * Set the timeout that will be used for all content retrievals on this stream.
 	 * Default is 5 seconds.
@@ -1532,24 +830,15 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNI
 	 *  	or if there is an error at lower layers.
 	 **/
 	protected ContentObject getSegment(long number) throws IOException {
-		long ttgl = System.currentTimeMillis();
+		ContentObject co = null;
 
-		synchronized(readerReadyObj){
-			readerReadyVal = number;
-		}
-
-		synchronized (inOrderSegments) {
-			if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-				Log.info(Log.FAC_PIPELINE, "PIPELINE: time to get lock in getSegment (number) "+(System.currentTimeMillis() - ttgl));
+		synchronized (_pipelineLock) {
 			// check if the base name was updated (in case we didn't have the version) for pipelining
-
 			if (_baseName.equals(_basePipelineName)) {
-				// we already have the base name...
 				if (SystemConfiguration.PIPELINE_STATS)
-					System.out.println("plot " + (System.currentTimeMillis() - _pipelineStartTime) + " inOrder: " + inOrderSegments.size() + " outOfOrder: " + outOfOrderSegments.size() + " interests: " + _sentInterests.size() + " holes: " + _holes + " received: " + _totalReceived + " [" + _baseName + "].3"+ " toProcess "+incoming.size());
+					plot(3);
 			} else {
 				// we don't have the base name... set for pipelining.
-				setPipelineName(_baseName);
 				startPipeline();
 			}
 
@@ -1561,92 +850,49 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNI
 				}
 			}
 
-			ContentObject co = getPipelineSegment(number);
-			if (co != null) {
+			if ((null == _pipeline.segment(number)) && (null == _pipeline.interest(number))) {
+				//we haven't requested it, as after a seek or skip...  ditch what we have and start from here
 				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: we had segment {0} already!!", number);
-				advancePipeline(false);
-				synchronized(readerReadyObj) {
-					//readerReady.notifyAll();
-					readerReadyVal = -1;
-					inOrderSegments.notifyAll();
-				}
-				return co;
-			} else {
-				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: we don't have segment {0} pipelined... blocking", number);
+					Log.info(Log.FAC_PIPELINE, "PIPELINE: we hadn't asked for segment {0} asking now... {1}", number, _pipeline);
+				resetPipeline(number);
+				expressPipelineInterest(number);
+				_lastRequestedPipelineSegment = number;
 			}
 
-			// the segment was not available... we need to wait until the
-			// pipeline gets it in
-			synchronized(inOrderSegments) {
-				long start = System.currentTimeMillis();
-				long sleep = 0;
-				long sleepCheck = 0;
-				Log.info(Log.FAC_PIPELINE, "PIPELINE: _timeout = {0}", _timeout);
-				waitingThread = Thread.currentThread();
-				waitingSegment = number;
-				while (sleep < _timeout) {
-					try{
-						start = System.currentTimeMillis();
-						waitSleep = start;
-						sleepCheck = _timeout - sleep;
-						if(avgResponseTime > 0 && avgResponseTime < (long)SystemConfiguration.SHORT_TIMEOUT) {
-							if(avgResponseTime > sleepCheck)
-								inOrderSegments.wait(sleepCheck);
-							else
-								inOrderSegments.wait((long)avgResponseTime);
-						}
-						else {
-							if((long)SystemConfiguration.SHORT_TIMEOUT > sleepCheck)
-								inOrderSegments.wait(sleepCheck);
-							else
-								inOrderSegments.wait((long)SystemConfiguration.SHORT_TIMEOUT);
-						}
-					} catch(InterruptedException e1) {
-						if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-							Log.info(Log.FAC_PIPELINE, "PIPELINE: awake: interrupted! {0}", sleep);
-						//break;
-					}
-					sleep += System.currentTimeMillis() - start;
-					if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-						Log.info(Log.FAC_PIPELINE, "PIPELINE: slept for {0} ms total", sleep);
-					if(haveSegmentBuffered(number))
-						break;
-					else {
-						attemptHoleFilling(number);
-					}
-				}
-
-				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: awake: done sleeping {0}", sleep);
-
-				waitingThread = null;
-				waitingSegment = -1;
-				co = getPipelineSegment(number);
-				//}
-
-				synchronized(readerReadyObj) {
-					//readerReady.notifyAll();
-					readerReadyVal = -1;
-					inOrderSegments.notifyAll();
-				}
+			// Wait till it arrives, or till it's time to ask for it again
+			long start = System.currentTimeMillis();
+			long elapsed = 0;
+			_waitingSegment = number;
+			while ((null == (co = _pipeline.segment(number))) && (elapsed < _timeout)) {
+				long wait = _timeout - elapsed;
+				Interest expressed = _pipeline.interest(number);
+				if ((null != expressed) && (_pipeline.expressions(number) < SystemConfiguration.PIPELINE_SEGMENTATTEMPTS))
+					wait = Math.min(wait, Math.max(1, expressed.userTime + holeTimeout() - System.currentTimeMillis()));
+				try {
+					_pipelineLock.wait(wait);
+				} catch (InterruptedException e) {}
+				elapsed = System.currentTimeMillis() - start;
+				if (null == _pipeline.segment(number))
+					attemptHoleFilling(number);
 			}
+			_waitingSegment = -1;
 
 			if (co != null) {
 				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: we had segment {0} already!!", number);
+					Log.info(Log.FAC_PIPELINE, "PIPELINE: got segment {0} after waiting {1} ms", number, elapsed);
+				ArrayList<Interest> cancelled = new ArrayList<Interest>();
+				_pipeline.advance(number + 1, cancelled);
+				cancelInterests(cancelled);
+				_currentSegment = co;
+				advancePipeline();
 				return co;
-			} else {
-				if (Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-					Log.info(Log.FAC_PIPELINE, "PIPELINE: we don't have segment {0} pipelined... what happened?", number);
 			}
+		}
 
-			if(Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
-				Log.info(Log.FAC_PIPELINE, "PIPELINE: Cannot get segment " + number + " of file {0} expected segment: {1}.", _baseName, SegmentationProfile.segmentName(_baseName, number));
+		if(Log.isLoggable(Log.FAC_PIPELINE, Level.INFO))
+			Log.info(Log.FAC_PIPELINE, "PIPELINE: Cannot get segment " + number + " of file {0} expected segment: {1}.", _baseName, SegmentationProfile.segmentName(_baseName, number));
 
-			throw new IOException("Cannot get segment " + number + " of file "+ _baseName + " expected segment: "+ SegmentationProfile.segmentName(_baseName, number));
-		}
+		throw new IOException("Cannot get segment " + number + " of file "+ _baseName + " expected segment: "+ SegmentationProfile.segmentName(_baseName, number));
 	}
 
 	/**
@@ -1941,12 +1187,13 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNI
 	@Override
 	public void close() throws IOException {
 		Log.info(Log.FAC_IO, "CCNAbstractInputStream: close {0}:  shutting down pipelining", _baseName);
-		
-		//now that we have pipelining, we need to cancel our interests and clean up
 
-		//cancel our outstanding interests
-		cancelInterests();
-		resetPipelineState();
+		//now that we have pipelining, we need to cancel our interests and clean up
+		synchronized (_pipelineLock) {
+			resetPipeline(_pipeline.base());
+			_lastRequestedPipelineSegment = -1;
+			_currentSegment = null;
+		}
 	}
 
 	@Override
@@ -2075,6 +1322,13 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNI
 		return _currentSegment.contentLength() - _segmentReadStream.available();
 	}
 
+	/**
+	 * @return the pipeline's window, with its round trip time, loss and throughput measurements
+	 */
+	public PipelineWindow pipelineWindow() {
+		return _window;
+	}
+
 	/**
 	 * @return Total length of the stream, if known, otherwise -1.
 	 * @throws IOException
@@ -2083,16 +1337,4 @@ public abstract class CCNAbstractInputStream extends InputStream implements CCNI
 		return -1;
 	}
 
-	static private class IncomingSegment {
-		public ContentObject content;
-		public Interest interest;
-		public long segmentNumber;
-
-		private IncomingSegment(ContentObject co, Interest i) {
-			content = co;
-			interest = i;
-			segmentNumber = SegmentationProfile.getSegmentNumber(co.name());
-		}
-	}
-
 }
@@ -18,6 +18,7 @@
 package org.ccnx.ccn.io;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.logging.Level;
@@ -103,6 +104,16 @@ public class CCNReader {
 		return data;
 	}
 
+	/**
+	 * Helper method to retrieve a large segmented object into a file, fetching several
+	 * ranges of segments at once and writing them as they arrive. See CCNSegmentFetcher.
+	 * If name has no version, retrieves the latest version.
+	 * @return the length of the content written
+	 */
+	public long fetchTo(ContentName name, PublisherPublicKeyDigest publisher, FileChannel channel, int timeout) throws IOException {
+		return new CCNSegmentFetcher(_handle).fetchTo(name, publisher, channel, timeout);
+	}
+
 	/**
 	 * Return data the specified number of levels below us in the
 	 * hierarchy, with order preference of leftmost.
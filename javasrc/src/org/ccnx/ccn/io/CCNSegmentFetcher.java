@@ -0,0 +1,466 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import javax.crypto.Cipher;
+
+import org.ccnx.ccn.CCNHandle;
+import org.ccnx.ccn.CCNInterestListener;
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.security.crypto.ContentKeys;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.io.content.ContentGoneException;
+import org.ccnx.ccn.io.content.Link.LinkObject;
+import org.ccnx.ccn.profiles.SegmentationProfile;
+import org.ccnx.ccn.profiles.VersioningProfile;
+import org.ccnx.ccn.profiles.security.access.AccessControlManager;
+import org.ccnx.ccn.profiles.security.access.AccessDeniedException;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.SignedInfo.ContentType;
+
+/**
+ * Retrieves a whole segmented object into a file, for bulk transfers where a
+ * CCNInputStream's single pipeline and single reading thread are the bottleneck.
+ *
+ * Once it has the first segment (of the latest version, if the name given has none) and knows
+ * the last segment number, from the first segment's final block ID or by asking for the last
+ * segment, it splits the segments between several fetchers. Each keeps its own PipelineWindow of
+ * interests outstanding, and hands segments as they arrive to a pool of workers that verify them,
+ * decrypt them if necessary, and write them at their offsets in the file, in whatever order
+ * they come.
+ *
+ * Offsets are computed from segment numbers, so this only reads content segmented with
+ * fixed increments into fixed size blocks, as CCNOutputStream and its subclasses write it;
+ * a segment of the wrong size ends the fetch with an IOException.
+ */
+public class CCNSegmentFetcher {
+
+	public static final int DEFAULT_FETCHERS = 4;
+
+	protected CCNHandle _handle;
+	protected int _fetcherCount;
+	protected int _workerCount;
+
+	public CCNSegmentFetcher(CCNHandle handle) {
+		this(handle, DEFAULT_FETCHERS, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param handle the handle to ask for segments with
+	 * @param fetchers how many ranges of segments to fetch concurrently
+	 * @param workers how many threads verify, decrypt and write segments
+	 */
+	public CCNSegmentFetcher(CCNHandle handle, int fetchers, int workers) {
+		_handle = handle;
+		_fetcherCount = Math.max(1, fetchers);
+		_workerCount = Math.max(1, workers);
+	}
+
+	/**
+	 * Retrieve a segmented object and write it into a file, looking up keys to decrypt
+	 * it if it's encrypted.
+	 * @see #fetchTo(ContentName, PublisherPublicKeyDigest, ContentKeys, FileChannel, int)
+	 */
+	public long fetchTo(ContentName name, PublisherPublicKeyDigest publisher, FileChannel channel, int timeout) throws IOException {
+		return fetchTo(name, publisher, null, channel, timeout);
+	}
+
+	/**
+	 * Retrieve a segmented object and write it into a file, which is truncated to the object's length.
+	 * @param name the name of the object; if it has no version, the latest version is retrieved
+	 * @param publisher the desired publisher, or null for any publisher
+	 * @param keys the keys to decrypt the content with, or null to look them up with the
+	 * 		AccessControlManager if the content is encrypted
+	 * @param channel the file to write the content to, starting at offset 0
+	 * @param timeout how long to wait, in ms, for the first or last segment, or for any
+	 * 		segment to arrive while we're fetching
+	 * @return the length of the content
+	 * @throws NoMatchingContentFoundException if there's no such object
+	 * @throws ContentGoneException if the object has been deleted
+	 * @throws IOException if we can't retrieve, decrypt, or write a segment
+	 */
+	public long fetchTo(ContentName name, PublisherPublicKeyDigest publisher, ContentKeys keys,
+			FileChannel channel, int timeout) throws IOException {
+		ContentObject first = getFirstSegment(name, publisher, timeout);
+		if (first.isGone())
+			throw new ContentGoneException("Content is gone: " + first.name());
+		publisher = first.signedInfo().getPublisherKeyID();
+
+		if (!SegmentationProfile.isSegment(first.name())) {
+			if (Log.isLoggable(Log.FAC_IO, Level.INFO))
+				Log.info(Log.FAC_IO, "Unsegmented content: {0}, writing it as is", first.name());
+			write(channel, first.content(), 0);
+			channel.truncate(first.content().length);
+			return first.content().length;
+		}
+
+		ContentName baseName = SegmentationProfile.segmentRoot(first.name());
+		if (null != keys) {
+			keys.requireDefaultAlgorithm();
+		} else if (first.isType(ContentType.ENCR)) {
+			keys = AccessControlManager.keysForInput(baseName, publisher, _handle);
+			if (null == keys)
+				throw new AccessDeniedException("Cannot find keys to decrypt content.");
+		}
+
+		long firstNumber = SegmentationProfile.getSegmentNumber(first.name());
+		long lastNumber;
+		if (!first.signedInfo().emptyFinalBlockID()) {
+			lastNumber = SegmentationProfile.getSegmentNumber(first.signedInfo().getFinalBlockID());
+		} else {
+			ContentObject last = SegmentationProfile.getLastSegment(first.name(), publisher, timeout, _handle.defaultVerifier(), _handle);
+			if ((null == last) || !SegmentationProfile.isLastSegment(last))
+				throw new IOException("Cannot find the last segment of " + baseName + ", is it still being written?");
+			lastNumber = SegmentationProfile.getSegmentNumber(last.name());
+		}
+		if (lastNumber < firstNumber)
+			throw new IOException("Last segment " + lastNumber + " of " + baseName + " comes before first segment " + firstNumber);
+
+		Fetch fetch = new Fetch(baseName, publisher, keys, channel, firstNumber, lastNumber, timeout);
+		return fetch.run(first);
+	}
+
+	/**
+	 * Get the first segment of the latest version of name, or of the version it names, and
+	 * dereference any links.
+	 */
+	protected ContentObject getFirstSegment(ContentName name, PublisherPublicKeyDigest publisher, int timeout) throws IOException {
+		ContentObject first;
+		if (VersioningProfile.hasTerminalVersion(name))
+			first = SegmentationProfile.getSegment(name, null, publisher, timeout, _handle.defaultVerifier(), _handle);
+		else
+			first = VersioningProfile.getFirstBlockOfLatestVersion(name, null, publisher, timeout, _handle.defaultVerifier(), _handle);
+		while ((null != first) && first.isType(ContentType.LINK)) {
+			LinkObject link = new LinkObject(first, _handle);
+			if (Log.isLoggable(Log.FAC_IO, Level.INFO))
+				Log.info(Log.FAC_IO, "CCNSegmentFetcher: dereferencing link {0} to {1}", link.getVersionedName(), link.link());
+			first = link.dereference(timeout);
+		}
+		if (null == first)
+			throw new NoMatchingContentFoundException("Cannot find first segment of " + name);
+		return first;
+	}
+
+	protected static void write(FileChannel channel, byte [] data, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+	/**
+	 * The state of one call to fetchTo
+	 */
+	protected class Fetch {
+		protected final ContentName _baseName;
+		protected final PublisherPublicKeyDigest _publisher;
+		protected final ContentKeys _keys;
+		protected final FileChannel _channel;
+		protected final long _firstNumber;
+		protected final long _lastNumber;
+		protected final int _timeout;
+		protected final ArrayList<Fetcher> _fetchers = new ArrayList<Fetcher>();
+		protected ExecutorService _workers;
+		protected int _blockSize;
+		protected volatile long _length = -1;
+		protected volatile IOException _error = null;
+
+		protected Fetch(ContentName baseName, PublisherPublicKeyDigest publisher, ContentKeys keys, FileChannel channel,
+				long firstNumber, long lastNumber, int timeout) {
+			_baseName = baseName;
+			_publisher = publisher;
+			_keys = keys;
+			_channel = channel;
+			_firstNumber = firstNumber;
+			_lastNumber = lastNumber;
+			_timeout = timeout;
+		}
+
+		protected long run(ContentObject first) throws IOException {
+			long startTime = System.currentTimeMillis();
+
+			// The first segment tells us the block size
+			byte [] data = decrypt(first);
+			_blockSize = data.length;
+			write(first, data);
+			if (_firstNumber == _lastNumber)
+				return finish(startTime);
+
+			long segments = _lastNumber - _firstNumber;
+			int count = (int)Math.min(_fetcherCount, segments);
+			long start = _firstNumber + 1;
+			for (int i = 0; i < count; i++) {
+				long end = start + (segments / count) + ((i < segments % count) ? 1 : 0) - 1;
+				_fetchers.add(new Fetcher(this, start, end));
+				start = end + 1;
+			}
+
+			_workers = Executors.newFixedThreadPool(_workerCount);
+			ArrayList<Thread> threads = new ArrayList<Thread>();
+			try {
+				for (Fetcher fetcher : _fetchers) {
+					Thread thread = new Thread(fetcher, "CCNSegmentFetcher " + fetcher._start + "-" + fetcher._end);
+					thread.setDaemon(true);
+					threads.add(thread);
+					thread.start();
+				}
+				for (Thread thread : threads) {
+					try {
+						thread.join();
+					} catch (InterruptedException e) {
+						fail(new IOException("Interrupted fetching " + _baseName));
+					}
+				}
+			} finally {
+				_workers.shutdown();
+				try {
+					_workers.awaitTermination(_timeout, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {}
+			}
+			if (null != _error)
+				throw _error;
+			return finish(startTime);
+		}
+
+		protected long finish(long startTime) throws IOException {
+			_channel.truncate(_length);
+			if (Log.isLoggable(Log.FAC_IO, Level.INFO)) {
+				long elapsed = System.currentTimeMillis() - startTime;
+				StringBuffer windows = new StringBuffer();
+				for (Fetcher fetcher : _fetchers)
+					windows.append(" [" + fetcher._window + "]");
+				Log.info(Log.FAC_IO, "CCNSegmentFetcher: fetched {0} bytes of {1} in {2} ms{3}", _length, _baseName, elapsed, windows);
+			}
+			return _length;
+		}
+
+		protected byte [] decrypt(ContentObject segment) throws IOException {
+			if (null == _keys)
+				return segment.content();
+			try {
+				Cipher cipher = _keys.getSegmentDecryptionCipher(_baseName, _publisher,
+						SegmentationProfile.getSegmentNumber(segment.name()));
+				return cipher.doFinal(segment.content());
+			} catch (Exception e) {
+				Log.warning(Log.FAC_IO, "Cannot decrypt segment {0}: {1}", segment.name(), e.getMessage());
+				throw new IOException("Cannot decrypt segment " + segment.name() + ": " + e.getMessage());
+			}
+		}
+
+		protected void write(ContentObject segment, byte [] data) throws IOException {
+			long number = SegmentationProfile.getSegmentNumber(segment.name());
+			if ((number != _lastNumber) && (data.length != _blockSize))
+				throw new IOException("Segment " + segment.name() + " holds " + data.length + " bytes, not the block size, "
+						+ _blockSize + ": content must be segmented into fixed size blocks to be fetched in parallel");
+			long position = (number - _firstNumber) * _blockSize;
+			CCNSegmentFetcher.write(_channel, data, position);
+			if (number == _lastNumber)
+				_length = position + data.length;
+		}
+
+		/**
+		 * Stop fetching, with this error
+		 */
+		protected void fail(IOException e) {
+			synchronized (this) {
+				if (null != _error)
+					return;
+				_error = e;
+			}
+			for (Fetcher fetcher : _fetchers) {
+				synchronized (fetcher) {
+					fetcher.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fetches one range of segments, keeping a window of interests outstanding and asking
+	 * again for those that don't arrive in time
+	 */
+	protected class Fetcher implements Runnable, CCNInterestListener {
+		protected final Fetch _fetch;
+		protected final long _start;
+		protected final long _end;
+		protected final PipelineWindow _window = new PipelineWindow();
+		protected final HashMap<Long, Interest> _interests = new HashMap<Long, Interest>();
+		protected final HashMap<Long, Long> _sentTimes = new HashMap<Long, Long>();
+		protected final HashSet<Long> _expressedAgain = new HashSet<Long>();
+		protected long _next;
+		protected long _written = 0;
+		protected long _lastProgress;
+
+		protected Fetcher(Fetch fetch, long start, long end) {
+			_fetch = fetch;
+			_start = start;
+			_end = end;
+			_next = start;
+		}
+
+		public void run() {
+			try {
+				synchronized (this) {
+					_lastProgress = System.currentTimeMillis();
+					while ((_written <= _end - _start) && (null == _fetch._error)) {
+						while ((_next <= _end) && (_interests.size() < _window.size()))
+							express(_next++, false);
+
+						long timeout = _window.timeout();
+						if (timeout < 0)
+							timeout = _fetch._timeout;
+						try {
+							wait(Math.min(timeout, SystemConfiguration.SHORT_TIMEOUT));
+						} catch (InterruptedException e) {}
+
+						long now = System.currentTimeMillis();
+						if (now - _lastProgress > _fetch._timeout)
+							throw new IOException("Timed out fetching segments " + _start + " to " + _end + " of " + _fetch._baseName
+									+ ", " + _interests.size() + " outstanding");
+						if (_window.timeout() < 0)
+							continue;
+						ArrayList<Long> late = new ArrayList<Long>();
+						for (Map.Entry<Long, Long> entry : _sentTimes.entrySet()) {
+							if (now - entry.getValue() > _window.timeout())
+								late.add(entry.getKey());
+						}
+						if (late.size() > 0)
+							_window.segmentLost();
+						for (Long number : late)
+							express(number, true);
+					}
+				}
+			} catch (IOException e) {
+				_fetch.fail(e);
+			} finally {
+				synchronized (this) {
+					for (Interest interest : _interests.values())
+						_handle.cancelInterest(interest, this);
+					_interests.clear();
+				}
+			}
+		}
+
+		/**
+		 * Called with our lock held
+		 */
+		protected void express(long number, boolean again) throws IOException {
+			Interest old = _interests.remove(number);
+			if (null != old)
+				_handle.cancelInterest(old, this);
+			Interest interest = SegmentationProfile.segmentInterest(_fetch._baseName, number, _fetch._publisher);
+			_interests.put(number, interest);
+			_sentTimes.put(number, System.currentTimeMillis());
+			if (again)
+				_expressedAgain.add(number);
+			if (Log.isLoggable(Log.FAC_PIPELINE, Level.FINER))
+				Log.finer(Log.FAC_PIPELINE, "CCNSegmentFetcher: {0} segment {1}", again ? "re-expressing" : "expressing", number);
+			_handle.expressInterest(interest, this);
+		}
+
+		public Interest handleContent(ContentObject data, Interest interest) {
+			if (!SegmentationProfile.isSegment(data.name()))
+				return null;
+			long number = SegmentationProfile.getSegmentNumber(data.name());
+			synchronized (this) {
+				if (null == _interests.remove(number))
+					return null; // a duplicate, or we've given up
+				long now = System.currentTimeMillis();
+				Long sent = _sentTimes.remove(number);
+				// We don't know which expression a segment we asked for twice answers
+				if (!_expressedAgain.remove(number) && (null != sent))
+					_window.roundTripTime(now - sent);
+				_window.segmentReceived(data.contentLength());
+				_lastProgress = now;
+				notifyAll();
+			}
+			try {
+				_fetch._workers.execute(new SegmentWriter(this, data));
+			} catch (RejectedExecutionException e) {
+				// we're shutting down
+			}
+			return null;
+		}
+
+		/**
+		 * A worker has written a segment
+		 */
+		protected synchronized void written() {
+			_written++;
+			notifyAll();
+		}
+
+		/**
+		 * A worker couldn't verify a segment, ask for it again
+		 */
+		protected synchronized void rejected(long number) {
+			try {
+				if (!_interests.containsKey(number))
+					express(number, true);
+			} catch (IOException e) {
+				_fetch.fail(e);
+			}
+		}
+	}
+
+	/**
+	 * Verifies, decrypts and writes one segment
+	 */
+	protected class SegmentWriter implements Runnable {
+		protected final Fetcher _fetcher;
+		protected final ContentObject _segment;
+
+		protected SegmentWriter(Fetcher fetcher, ContentObject segment) {
+			_fetcher = fetcher;
+			_segment = segment;
+		}
+
+		public void run() {
+			Fetch fetch = _fetcher._fetch;
+			if (null != fetch._error)
+				return;
+			try {
+				if (!_handle.defaultVerifier().verify(_segment)) {
+					if (Log.isLoggable(Log.FAC_IO, Level.WARNING))
+						Log.warning(Log.FAC_IO, "CCNSegmentFetcher: segment {0} did not verify, asking again", _segment.name());
+					_fetcher.rejected(SegmentationProfile.getSegmentNumber(_segment.name()));
+					return;
+				}
+				fetch.write(_segment, fetch.decrypt(_segment));
+				_fetcher.written();
+			} catch (IOException e) {
+				fetch.fail(e);
+			}
+		}
+	}
+}
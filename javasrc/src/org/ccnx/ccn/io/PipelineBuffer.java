@@ -0,0 +1,215 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.io;
+
+import java.util.ArrayList;
+
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+
+/**
+ * The segments a CCNAbstractInputStream's pipeline has asked for and received. Segments are
+ * kept in a ring indexed by segment number, starting at the base, the next segment the reader
+ * needs, so finding, adding and removing a segment takes constant time. Each slot holds the
+ * segment once it has arrived, or the interest outstanding for it and how many times it has
+ * been expressed.
+ *
+ * Not synchronized; the stream guards it with its pipeline lock.
+ */
+public class PipelineBuffer {
+
+	protected final ContentObject [] _segments;
+	protected final Interest [] _interests;
+	protected final int [] _expressions;
+	protected long _base = 0;
+	protected long _firstMissing = 0;
+	protected int _segmentCount = 0;
+	protected int _interestCount = 0;
+
+	/**
+	 * @param capacity how many segments, starting at the base, we can ask for at once
+	 */
+	public PipelineBuffer(int capacity) {
+		capacity = Math.max(1, capacity);
+		_segments = new ContentObject[capacity];
+		_interests = new Interest[capacity];
+		_expressions = new int[capacity];
+	}
+
+	public int capacity() {
+		return _segments.length;
+	}
+
+	/**
+	 * @return the lowest segment number we hold
+	 */
+	public long base() {
+		return _base;
+	}
+
+	/**
+	 * @return the lowest segment number at or after the base that we don't have
+	 */
+	public long firstMissing() {
+		return _firstMissing;
+	}
+
+	/**
+	 * @return the number of segments we have
+	 */
+	public int segmentCount() {
+		return _segmentCount;
+	}
+
+	/**
+	 * @return the number of segments we have from the base on with no gaps
+	 */
+	public int inOrderCount() {
+		return (int)(_firstMissing - _base);
+	}
+
+	/**
+	 * @return the number of interests outstanding
+	 */
+	public int interestCount() {
+		return _interestCount;
+	}
+
+	public boolean inRange(long number) {
+		return (number >= _base) && (number < _base + _segments.length);
+	}
+
+	protected int index(long number) {
+		return (int)(number % _segments.length);
+	}
+
+	/**
+	 * @return the segment, or null if we don't have it
+	 */
+	public ContentObject segment(long number) {
+		return inRange(number) ? _segments[index(number)] : null;
+	}
+
+	/**
+	 * @return the interest outstanding for this segment, or null
+	 */
+	public Interest interest(long number) {
+		return inRange(number) ? _interests[index(number)] : null;
+	}
+
+	/**
+	 * @return how many times we've expressed an interest for this segment
+	 */
+	public int expressions(long number) {
+		return inRange(number) ? _expressions[index(number)] : 0;
+	}
+
+	/**
+	 * Record an interest expressed for a segment in range that we don't have
+	 * @return the interest it replaces, to cancel, or null
+	 */
+	public Interest expressed(long number, Interest interest) {
+		int i = index(number);
+		Interest old = _interests[i];
+		if (null == old)
+			_interestCount++;
+		_interests[i] = interest;
+		_expressions[i]++;
+		return old;
+	}
+
+	/**
+	 * Hold a segment that has arrived, in place of its interest
+	 * @return the interest it answers, to cancel, or null
+	 */
+	public Interest received(long number, ContentObject segment) {
+		int i = index(number);
+		Interest old = _interests[i];
+		if (null != old) {
+			_interestCount--;
+			_interests[i] = null;
+		}
+		if (null == _segments[i])
+			_segmentCount++;
+		_segments[i] = segment;
+		while ((_firstMissing < _base + _segments.length) && (null != _segments[index(_firstMissing)]))
+			_firstMissing++;
+		return old;
+	}
+
+	/**
+	 * Drop everything before this segment, and make room after it
+	 * @param cancelled the interests dropped, to cancel
+	 */
+	public void advance(long number, ArrayList<Interest> cancelled) {
+		long end = Math.min(number, _base + _segments.length);
+		for (long n = _base; n < end; n++)
+			clear(index(n), cancelled);
+		_base = number;
+		if (_firstMissing < _base)
+			_firstMissing = _base;
+		while ((_firstMissing < _base + _segments.length) && (null != _segments[index(_firstMissing)]))
+			_firstMissing++;
+	}
+
+	/**
+	 * Drop the interests for segments after this one, when we know it's the last
+	 * @param cancelled the interests dropped, to cancel
+	 */
+	public void cancelAfter(long number, ArrayList<Interest> cancelled) {
+		for (long n = Math.max(number + 1, _base); n < _base + _segments.length; n++) {
+			int i = index(n);
+			if (null != _interests[i]) {
+				cancelled.add(_interests[i]);
+				_interests[i] = null;
+				_interestCount--;
+			}
+		}
+	}
+
+	/**
+	 * Drop everything and start again at this segment
+	 * @param cancelled the interests dropped, to cancel
+	 */
+	public void reset(long number, ArrayList<Interest> cancelled) {
+		for (int i = 0; i < _segments.length; i++)
+			clear(i, cancelled);
+		_base = number;
+		_firstMissing = number;
+	}
+
+	protected void clear(int i, ArrayList<Interest> cancelled) {
+		if (null != _segments[i]) {
+			_segments[i] = null;
+			_segmentCount--;
+		}
+		if (null != _interests[i]) {
+			if (null != cancelled)
+				cancelled.add(_interests[i]);
+			_interests[i] = null;
+			_interestCount--;
+		}
+		_expressions[i] = 0;
+	}
+
+	@Override
+	public String toString() {
+		return "base: " + _base + " in order: " + inOrderCount() + " out of order: " + (_segmentCount - inOrderCount())
+				+ " interests: " + _interestCount;
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Part of the CCNx Java Library.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version 2.1
+ * as published by the Free Software Foundation.
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details. You should have received
+ * a copy of the GNU Lesser General Public License along with this library;
+ * if not, write to the Free Software Foundation, Inc., 51 Franklin Street,
+ * Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package org.ccnx.ccn.io;
+
+import org.ccnx.ccn.config.SystemConfiguration;
+
+/**
+ * The congestion window of a CCNAbstractInputStream's pipeline: how many segments it may
+ * have asked for and not yet read, and how long to wait for a segment before asking again.
+ *
+ * The window grows additively and shrinks multiplicatively, as TCP's does. It starts at
+ * SystemConfiguration.PIPELINE_SIZE segments and grows by one for each segment received
+ * (doubling each round trip) until the first loss, and by one each round trip after that,
+ * up to SystemConfiguration.PIPELINE_MAX_SIZE, which bounds the memory a stream uses to buffer
+ * segments. A loss, which is when we have to ask for a segment again, halves it, no more than
+ * once a round trip. Setting PIPELINE_MAX_SIZE to PIPELINE_SIZE gives the old fixed pipeline.
+ *
+ * Round trip times are smoothed, with their variation, as TCP's are, and the time to wait
+ * before asking again is the larger of PIPELINE_RTTFACTOR round trips and the round trip time
+ * plus four times its variation, doubled for each loss until we get a new measurement.
+ *
+ * The window also keeps how much it has received, for the stream's throughput.
+ */
+public class PipelineWindow {
+
+	public static final int MAX_BACKOFF = 64;
+
+	protected final int _maxSize;
+	protected double _size;
+	protected double _threshold;
+	protected int _largestSize;
+
+	protected double _roundTripTime = -1;
+	protected double _roundTripVariation = 0;
+	protected int _backoff = 1;
+	protected long _lastDecrease = 0;
+
+	protected long _segments = 0;
+	protected long _bytes = 0;
+	protected long _losses = 0;
+	protected long _firstTime = -1;
+	protected long _lastTime = -1;
+
+	public PipelineWindow() {
+		this(SystemConfiguration.PIPELINE_SIZE, SystemConfiguration.PIPELINE_MAX_SIZE);
+	}
+
+	/**
+	 * @param initialSize the window to start with
+	 * @param maxSize the largest the window may grow to; if less than initialSize, initialSize is used
+	 */
+	public PipelineWindow(int initialSize, int maxSize) {
+		_size = Math.max(1, initialSize);
+		_maxSize = Math.max((int)_size, maxSize);
+		_threshold = _maxSize;
+		_largestSize = (int)_size;
+	}
+
+	/**
+	 * @return the number of segments we may have outstanding
+	 */
+	public synchronized int size() {
+		return (int)_size;
+	}
+
+	public synchronized int largestSize() {
+		return _largestSize;
+	}
+
+	public int maxSize() {
+		return _maxSize;
+	}
+
+	/**
+	 * Count a segment received, and open the window
+	 * @param bytes the segment's content length
+	 */
+	public synchronized void segmentReceived(int bytes) {
+		long now = System.currentTimeMillis();
+		if (_firstTime < 0)
+			_firstTime = now;
+		_lastTime = now;
+		_segments++;
+		_bytes += bytes;
+
+		if (_size < _threshold)
+			_size += 1;
+		else
+			_size += 1 / _size;
+		if (_size > _maxSize)
+			_size = _maxSize;
+		if ((int)_size > _largestSize)
+			_largestSize = (int)_size;
+	}
+
+	/**
+	 * Add a round trip time measurement. Responses to interests we've had to express again
+	 * shouldn't be measured, as we don't know which expression they answer.
+	 * @param rtt in ms
+	 */
+	public synchronized void roundTripTime(long rtt) {
+		if (_roundTripTime < 0) {
+			_roundTripTime = rtt;
+			_roundTripVariation = rtt / 2.0;
+		} else {
+			_roundTripVariation = 0.75 * _roundTripVariation + 0.25 * Math.abs(_roundTripTime - rtt);
+			_roundTripTime = 0.875 * _roundTripTime + 0.125 * rtt;
+		}
+		_backoff = 1;
+	}
+
+	/**
+	 * A segment didn't arrive in time, and we're asking for it again: close the window,
+	 * if we haven't in the last round trip, and wait longer next time.
+	 */
+	public synchronized void segmentLost() {
+		_losses++;
+		if (_backoff < MAX_BACKOFF)
+			_backoff *= 2;
+		long now = System.currentTimeMillis();
+		if (now - _lastDecrease < _roundTripTime)
+			return;
+		_lastDecrease = now;
+		_threshold = Math.max(1, _size / 2);
+		_size = _threshold;
+	}
+
+	/**
+	 * @return the smoothed round trip time in ms, or -1 if we haven't measured one
+	 */
+	public synchronized double roundTripTime() {
+		return _roundTripTime;
+	}
+
+	/**
+	 * @return how long to wait for a segment before asking for it again, in ms, or -1 if we
+	 * haven't measured a round trip time
+	 */
+	public synchronized long timeout() {
+		if (_roundTripTime < 0)
+			return -1;
+		double timeout = Math.max(SystemConfiguration.PIPELINE_RTTFACTOR * _roundTripTime, _roundTripTime + 4 * _roundTripVariation);
+		return (long)(timeout * _backoff);
+	}
+
+	public synchronized long segments() {
+		return _segments;
+	}
+
+	public synchronized long bytes() {
+		return _bytes;
+	}
+
+	public synchronized long losses() {
+		return _losses;
+	}
+
+	/**
+	 * @return bytes per second received between the first segment and the last
+	 */
+	public synchronized long throughput() {
+		if (_lastTime <= _firstTime)
+			return 0;
+		return (_bytes * 1000) / (_lastTime - _firstTime);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "window: " + (int)_size + " rtt: " + (long)_roundTripTime + " losses: " + _losses + " throughput: " + throughput();
+	}
+}
@@ -144,6 +144,8 @@ public class PrefixRegistrationManager extends CCNDaemonHandle {
 		public Integer getFaceID() { return _faceID; }
 		public void setFaceID(Integer faceID) { _faceID = faceID; }
 
+		public Integer getFlags() { return _flags; }
+
 		public String action() { return _action; }
 		
 		public PublisherPublicKeyDigest getccndId() { return _ccndId; }
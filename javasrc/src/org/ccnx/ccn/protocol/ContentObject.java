@@ -20,7 +20,8 @@ package org.ccnx.ccn.protocol;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.DigestOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -34,6 +35,7 @@ import java.util.logging.Level;
 import org.ccnx.ccn.ContentVerifier;
 import org.ccnx.ccn.KeyManager;
 import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.encoding.BinaryXMLBufferDecoder;
 import org.ccnx.ccn.impl.encoding.BinaryXMLCodec;
 import org.ccnx.ccn.impl.encoding.CCNProtocolDTags;
 import org.ccnx.ccn.impl.encoding.GenericXMLEncodable;
@@ -45,7 +47,6 @@ import org.ccnx.ccn.impl.security.crypto.CCNDigestHelper;
 import org.ccnx.ccn.impl.security.crypto.CCNSignatureHelper;
 import org.ccnx.ccn.impl.support.DataUtils;
 import org.ccnx.ccn.impl.support.Log;
-import org.ccnx.ccn.io.NullOutputStream;
 import org.ccnx.ccn.io.content.ContentDecodingException;
 import org.ccnx.ccn.io.content.ContentEncodingException;
 import org.ccnx.ccn.protocol.SignedInfo.ContentType;
@@ -60,14 +61,41 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 	public static boolean DEBUG_SIGNING = false;
 
 	protected ContentName _name;
-	protected SignedInfo _signedInfo;
-	protected byte [] _content;
+	protected volatile SignedInfo _signedInfo;
+	protected volatile byte [] _content;
 	/**
 	 * Cache of the complete ContentObject's digest. Set when first calculated.
 	 * Used as the implicit last name component.
 	 */
-	protected byte [] _digest = null;
-	protected Signature _signature; 
+	protected volatile byte [] _digest = null;
+	protected volatile Signature _signature; 
+	
+	/**
+	 * The binary encoding of the object. Objects decoded from a network buffer keep the encoding
+	 * they arrived in, and only their name is decoded up front, as many of the objects we receive
+	 * are thrown away after looking at their names; the signature, signedInfo and content are 
+	 * decoded from the encoding when they are first asked for, using the offsets found when the 
+	 * name was decoded. Other objects cache their encoding the first time they are encoded once
+	 * they are signed. Encoding the object with the binary codec, computing its digest, or 
+	 * preparing its content for verification then just uses the encoding; changing the 
+	 * signature discards it.
+	 */
+	protected volatile byte [] _encoding = null;
+	protected int _signatureOffset;
+	protected int _nameOffset;
+	protected int _signedInfoOffset;
+	protected int _contentOffset;
+	protected int _contentLength;
+	
+	/**
+	 * The elements a Signature and a SignedInfo may hold, in the order they are decoded;
+	 * used to check the structure of an encoding before those fields are decoded.
+	 */
+	protected static final long [] SIGNATURE_ELEMENTS = {CCNProtocolDTags.DigestAlgorithm, 
+		CCNProtocolDTags.Witness, CCNProtocolDTags.SignatureBits};
+	protected static final long [] SIGNED_INFO_ELEMENTS = {CCNProtocolDTags.PublisherPublicKeyDigest, 
+		CCNProtocolDTags.Timestamp, CCNProtocolDTags.Type, CCNProtocolDTags.FreshnessSeconds, 
+		CCNProtocolDTags.FinalBlockID, CCNProtocolDTags.KeyLocator};
 	
 	/**
 	 * We don't specify a required publisher, and right now we don't enforce
@@ -314,7 +342,7 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 
 	public ContentObject clone() {
 		// Constructor will clone the _content, signedInfo and signature are immutable types.
-		return new ContentObject(_name.clone(), _signedInfo, _content, _signature);
+		return new ContentObject(_name.clone(), signedInfo(), content(), signature());
 	}
 
 	/**
@@ -331,7 +359,12 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 		return new ContentName(_name, digest());
 	}
 
-	public final SignedInfo signedInfo() { return _signedInfo;}
+	public final SignedInfo signedInfo() {
+		// If it isn't decoded yet, setSignature() may be decoding it and dropping the encoding,
+		// so look at both under the lock
+		SignedInfo signedInfo = _signedInfo;
+		return (null != signedInfo) ? signedInfo : decodeSignedInfo();
+	}
 
 	/**
 	 * Final here doesn't really make it immutable. There have been
@@ -339,21 +372,42 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 	 * and it would be expensive.
 	 * @return
 	 */
-	public final byte [] content() { return _content; }
+	public final byte [] content() {
+		byte [] content = _content;
+		return (null != content) ? content : decodeContent();
+	}
 	
 	/**
 	 * Avoid problems where content().length might be expensive.
 	 * @return content length in bytes
 	 */
-	public final int contentLength() { return ((null == _content) ? 0 : _content.length); }
+	public final int contentLength() {
+		byte [] content = _content;
+		if (null != content)
+			return content.length;
+		synchronized (this) {
+			if ((null == _content) && (null != _encoding))
+				return _contentLength;
+			return ((null == _content) ? 0 : _content.length);
+		}
+	}
 
-	public final Signature signature() { return _signature; }
+	public final Signature signature() {
+		Signature signature = _signature;
+		return (null != signature) ? signature : decodeSignature();
+	}
 
 	/**
 	 * Used by NetworkObject to decode the object from a network stream.
 	 * @see org.ccnx.ccn.impl.encoding.XMLEncodable
 	 */
 	public void decode(XMLDecoder decoder) throws ContentDecodingException {
+		_digest = null;
+		if (decoder instanceof BinaryXMLBufferDecoder) {
+			decodeLazily(((BinaryXMLBufferDecoder)decoder).readElementEncoding());
+			return;
+		}
+		_encoding = null;
 		decoder.readStartElement(getElementLabel());
 
 		_signature = new Signature();
@@ -384,11 +438,161 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 		name().encode(encoder);
 		signedInfo().encode(encoder);
 
-		encoder.writeElement(CCNProtocolDTags.Content, _content);
+		encoder.writeElement(CCNProtocolDTags.Content, content());
 
 		encoder.writeEndElement();   		
 	}
 
+	/**
+	 * Decode the name from an encoding, remembering where the other fields are
+	 * so we can decode them when they are needed.
+	 */
+	protected void decodeLazily(byte [] encoding) throws ContentDecodingException {
+		_encoding = null;
+		_signature = null;
+		_signedInfo = null;
+		_content = null;
+		_name = new ContentName();
+		indexEncoding(encoding, _name);
+		_encoding = encoding;
+	}
+
+	/**
+	 * Find where the fields are in an encoding of this object.
+	 * @param name if not null, the name is decoded into this rather than skipped
+	 */
+	protected void indexEncoding(byte [] encoding, ContentName name) throws ContentDecodingException {
+		BinaryXMLBufferDecoder decoder = XMLCodecFactory.acquireBufferDecoder();
+		try {
+			decoder.beginDecoding(ByteBuffer.wrap(encoding));
+			decoder.readStartElement(getElementLabel());
+			_signatureOffset = decoder.position();
+			skipField(decoder, CCNProtocolDTags.Signature, SIGNATURE_ELEMENTS);
+			_nameOffset = decoder.position();
+			if (null != name)
+				name.decode(decoder);
+			else
+				decoder.skipElement();
+			_signedInfoOffset = decoder.position();
+			skipField(decoder, CCNProtocolDTags.SignedInfo, SIGNED_INFO_ELEMENTS);
+			ByteBuffer content = decoder.readBinaryElementBuffer(CCNProtocolDTags.Content);
+			_contentOffset = content.position();
+			_contentLength = content.remaining();
+			decoder.readEndElement();
+			decoder.endDecoding();
+		} finally {
+			XMLCodecFactory.releaseDecoder(decoder);
+		}
+	}
+
+	/**
+	 * Skip over a field that is decoded later, checking that it is the expected element and
+	 * that what it holds are elements it may contain, in the order they are decoded. This
+	 * way an object whose fields are out of place or malformed fails to decode when it 
+	 * arrives, not when one of its fields is first asked for.
+	 * @param decoder positioned at the field
+	 * @param tag the field's tag
+	 * @param elements the tags of the elements the field may hold, in order
+	 * @throws ContentDecodingException if the field doesn't have this structure
+	 */
+	protected static void skipField(BinaryXMLBufferDecoder decoder, long tag, long [] elements) throws ContentDecodingException {
+		decoder.readStartElement(tag);
+		int next = 0;
+		Long element;
+		while (null != (element = decoder.peekStartElementAsLong())) {
+			while ((next < elements.length) && (elements[next] != element.longValue()))
+				next++;
+			if (next == elements.length)
+				throw new ContentDecodingException("Unexpected element " + element + " in " + decoder.tagToString(tag));
+			next++;
+			decoder.skipElement();
+		}
+		decoder.readEndElement();
+	}
+
+	/**
+	 * Get the binary encoding of this object, encoding it and caching the result
+	 * if we don't have it already.
+	 * @throws ContentEncodingException if the object isn't complete, e.g. hasn't been signed
+	 */
+	protected byte [] encoding() throws ContentEncodingException {
+		byte [] encoding = _encoding;
+		if (null != encoding)
+			return encoding;
+		synchronized (this) {
+			if (null == _encoding) {
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				super.encode(baos, BinaryXMLCodec.codecName());
+				encoding = baos.toByteArray();
+				try {
+					indexEncoding(encoding, null);
+				} catch (ContentDecodingException e) {
+					throw new ContentEncodingException("Cannot index encoding of content object " + _name + ": " + e.getMessage(), e);
+				}
+				_encoding = encoding;
+			}
+			return _encoding;
+		}
+	}
+
+	protected synchronized Signature decodeSignature() {
+		if ((null == _signature) && (null != _encoding)) {
+			Signature signature = new Signature();
+			decodeField(signature, _signatureOffset);
+			_signature = signature;
+		}
+		return _signature;
+	}
+
+	protected synchronized SignedInfo decodeSignedInfo() {
+		if ((null == _signedInfo) && (null != _encoding)) {
+			SignedInfo signedInfo = new SignedInfo();
+			decodeField(signedInfo, _signedInfoOffset);
+			_signedInfo = signedInfo;
+		}
+		return _signedInfo;
+	}
+
+	protected synchronized byte [] decodeContent() {
+		if ((null == _content) && (null != _encoding)) {
+			_content = Arrays.copyOfRange(_encoding, _contentOffset, _contentOffset + _contentLength);
+		}
+		return _content;
+	}
+
+	protected void decodeField(GenericXMLEncodable field, int offset) {
+		try {
+			field.decode(ByteBuffer.wrap(_encoding, offset, _encoding.length - offset));
+		} catch (ContentDecodingException e) {
+			// We checked the structure of the encoding when we received it, so only a bad
+			// value, such as an unknown content type, gets here
+			Log.warning(Log.FAC_ENCODING, "Cannot decode {0} of content object {1}: {2}", field.getClass().getName(), _name, e.getMessage());
+			throw new RuntimeException("Cannot decode " + field.getClass().getName() + " of content object " + _name, e);
+		}
+	}
+
+	/**
+	 * Encoding with the binary codec writes the cached encoding of this object.
+	 */
+	@Override
+	public void encode(OutputStream ostream, String codec) throws ContentEncodingException {
+		if (BinaryXMLCodec.codecName().equals((null == codec) ? XMLCodecFactory.getDefaultCodecName() : codec)) {
+			byte [] encoding = encoding();
+			try {
+				ostream.write(encoding);
+			} catch (IOException e) {
+				throw new ContentEncodingException(e.getMessage(), e);
+			}
+			return;
+		}
+		super.encode(ostream, codec);
+	}
+
+	@Override
+	public int encodedLength() throws ContentEncodingException {
+		return encoding().length;
+	}
+
 	@Override
 	public long getElementLabel() { return CCNProtocolDTags.ContentObject; }
 
@@ -404,9 +608,9 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 		final int PRIME = 31;
 		int result = 1;
 		result = PRIME * result + ((_name == null) ? 0 : _name.hashCode());
-		result = PRIME * result + ((_signedInfo == null) ? 0 : _signedInfo.hashCode());
-		result = PRIME * result + ((_signature == null) ? 0 : _signature.hashCode());
-		result = PRIME * result + Arrays.hashCode(_content);
+		result = PRIME * result + ((signedInfo() == null) ? 0 : signedInfo().hashCode());
+		result = PRIME * result + ((signature() == null) ? 0 : signature().hashCode());
+		result = PRIME * result + Arrays.hashCode(content());
 		return result;
 	}
 
@@ -424,17 +628,17 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 				return false;
 		} else if (!_name.equals(other.name()))
 			return false;
-		if (_signedInfo == null) {
+		if (signedInfo() == null) {
 			if (other.signedInfo() != null)
 				return false;
-		} else if (!_signedInfo.equals(other.signedInfo()))
+		} else if (!signedInfo().equals(other.signedInfo()))
 			return false;
-		if (_signature == null) {
+		if (signature() == null) {
 			if (other.signature() != null)
 				return false;
-		} else if (!_signature.equals(other.signature()))
+		} else if (!signature().equals(other.signature()))
 			return false;
-		if (!Arrays.equals(_content, other._content))
+		if (!Arrays.equals(content(), other.content()))
 			return false;
 		return true;
 	}
@@ -444,8 +648,8 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 	 * (e.g. with a bulk signer).
 	 * @param signature
 	 */
-	public void setSignature(Signature signature) {
-		if (null != _signature) {
+	public synchronized void setSignature(Signature signature) {
+		if ((null != _signature) || (null != _encoding)) {
 			// Only do this if FAC_SIGNING is on, as we use it in tests.
 			if (Log.isLoggable(Log.FAC_SIGNING, Level.FINE))
 				Log.fine(Log.FAC_SIGNING, "Setting signature on content object: " + name() + " after signature already set!");
@@ -454,16 +658,22 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 			if (Log.isLoggable(Log.FAC_SIGNING, Level.FINE))
 				Log.fine(Log.FAC_SIGNING, "Setting signature to null on content object: " + name());
 		}
+		if (null != _encoding) {
+			// The encoding won't match any more, so get everything else out of it first
+			decodeSignedInfo();
+			decodeContent();
+			_encoding = null;
+		}
 		_signature = signature;
+		_digest = null;
 	}
 
 	public void sign(PrivateKey signingKey) throws InvalidKeyException, SignatureException {
-		// Use _content to avoid case where content() might want to clone.
-		setSignature(sign(this.name(), this.signedInfo(), this._content, 0, this._content.length, signingKey));
+		setSignature(sign(this.name(), this.signedInfo(), this.content(), 0, this.contentLength(), signingKey));
 	}
 	
 	public void sign(String digestAlgorithm, PrivateKey signingKey) throws InvalidKeyException, SignatureException, NoSuchAlgorithmException {
-		setSignature(sign(this.name(), this.signedInfo(), this._content, 0, this._content.length, 
+		setSignature(sign(this.name(), this.signedInfo(), this.content(), 0, this.contentLength(), 
 						digestAlgorithm, signingKey));
 	}
 
@@ -586,7 +796,7 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 		if (null != contentProxy) {
 			result = CCNSignatureHelper.verify(contentProxy, object.signature().signature(), object.signature().digestAlgorithm(), publicKey);
 		} else {
-			result = verify(object.name(), object.signedInfo(), object.content(), object.signature(), publicKey);
+			result = CCNSignatureHelper.verify(object.prepareContent(), object.signature().signature(), object.signature().digestAlgorithm(), publicKey);
 		}
 	
 		if ((!result) && Log.isLoggable(Log.FAC_VERIFY, Level.WARNING)) {
@@ -710,12 +920,18 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 		}
 		// Have to eventually handle various forms of witnesses...
 		// Need to take an algorithm to control the digest used.
-		byte[] blockDigest = CCNDigestHelper.digest(
-					prepareContent(name(), signedInfo(), content()));
+		byte[] blockDigest = CCNDigestHelper.digest(prepareContent());
 		return signature().computeProxy(blockDigest, true);
 	}
 	
+	/**
+	 * If we have the encoding of this object, what was signed is already there: 
+	 * the name, signedInfo and content elements, up to the closing tag of the object.
+	 */
 	public byte [] prepareContent() throws ContentEncodingException {
+		byte [] encoding = _encoding;
+		if (null != encoding)
+			return Arrays.copyOfRange(encoding, _nameOffset, encoding.length - 1);
 		return prepareContent(name(), signedInfo(), content());
 	}
 
@@ -768,8 +984,7 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 		MessageDigest md;
 		try {
 			md = MessageDigest.getInstance(CCNDigestHelper.DEFAULT_DIGEST_ALGORITHM);
-			DigestOutputStream dos = new DigestOutputStream(new NullOutputStream(), md);
-			encode(dos);
+			md.update(encoding());
 		} catch (NoSuchAlgorithmException e) {
 			// Should never happen since we are using a default algorithm.
 			throw new RuntimeException(e);
@@ -786,9 +1001,12 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 	 * Note: the value is cached, so subsequent calls are fast.
 	 */
 	public byte [] digest() {
-		if (_digest == null)
-			_digest = calcDigest();
-		return _digest;
+		byte [] digest = _digest;
+		if (null == digest) {
+			digest = calcDigest();
+			_digest = digest;
+		}
+		return digest;
 	}
 
 	public int compareTo(ContentObject o) {
@@ -828,11 +1046,11 @@ public class ContentObject extends GenericXMLEncodable implements XMLEncodable,
 	public String toString() {
 		StringBuffer s = new StringBuffer();
 		s.append(String.format("CObj: name=%s, digest=%s, SI:%s len=%d, data=", _name,
-				DataUtils.printHexBytes(digest()), _signedInfo, _content.length));
-		int len = _content.length;
+				DataUtils.printHexBytes(digest()), signedInfo(), contentLength()));
+		int len = contentLength();
 		if (len > 16)
 			len = 16;
-		s.append(ContentName.componentPrintURI(_content, 0, len));
+		s.append(ContentName.componentPrintURI(content(), 0, len));
 		return s.toString();
 	}
 }
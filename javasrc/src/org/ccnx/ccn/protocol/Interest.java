@@ -165,7 +165,9 @@ public class Interest extends GenericXMLEncodable implements XMLEncodable, Compa
 	 * @return true if the test data packet matches the Interest
 	 */
 	public boolean matches(ContentObject test) {
-		return matches(test, (null != test.signedInfo()) ? test.signedInfo().getPublisherKeyID() : null);
+		// Only look at the publisher if we care about it, as it may not have been decoded yet
+		return matches(test, ((null != publisherID()) && (null != test.signedInfo())) ? 
+									test.signedInfo().getPublisherKeyID() : null);
 	}
 
 	/**
@@ -17,6 +17,7 @@
 
 package org.ccnx.ccn.protocol;
 
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
@@ -64,6 +65,26 @@ public class WirePacket extends GenericXMLEncodable implements XMLEncodable {
 		_content.encode(encoder);
 	}
 
+	/**
+	 * We add nothing to the encoding, so let the packet encode itself; a ContentObject 
+	 * can then write the encoding it has cached.
+	 */
+	@Override
+	public void encode(OutputStream ostream, String codec) throws ContentEncodingException {
+		if (!validate()) {
+			throw new ContentEncodingException("Cannot encode " + this.getClass().getName() + ": bad or missing values.");
+		}
+		_content.encode(ostream, codec);
+	}
+
+	@Override
+	public int encodedLength() throws ContentEncodingException {
+		if (!validate()) {
+			throw new ContentEncodingException("Cannot encode " + this.getClass().getName() + ": bad or missing values.");
+		}
+		return _content.encodedLength();
+	}
+
 	@Override
 	public boolean validate() {
 		if (null == _content) {
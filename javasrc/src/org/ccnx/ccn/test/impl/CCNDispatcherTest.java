@@ -0,0 +1,125 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.impl;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ccnx.ccn.impl.CCNDispatcher;
+import org.ccnx.ccn.impl.CCNNetworkManager.StatsEnum;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test that the dispatcher runs each task serially, and holds up dispatch when its queue is full.
+ */
+public class CCNDispatcherTest {
+
+	/**
+	 * Counts its pending deliveries and how many threads are running it at once.
+	 */
+	static class CountingTask extends CCNDispatcher.Task {
+		AtomicInteger pending = new AtomicInteger(0);
+		AtomicInteger delivered = new AtomicInteger(0);
+		AtomicInteger running = new AtomicInteger(0);
+		int maxRunning = 0;
+		Semaphore gate = null;
+
+		public void run() {
+			int now = running.incrementAndGet();
+			if (now > maxRunning)
+				maxRunning = now;
+			if (null != gate)
+				gate.acquireUninterruptibly();
+			delivered.addAndGet(pending.getAndSet(0));
+			Thread.yield();
+			running.decrementAndGet();
+		}
+	}
+
+	@Test
+	public void testSerial() throws Exception {
+		CCNEnumStats<StatsEnum> stats = new CCNEnumStats<StatsEnum>(StatsEnum.Puts);
+		ExecutorService executor = CCNDispatcher.createExecutor(CCNDispatcher.EXECUTOR_POOL, "CCNDispatcherTest");
+		CCNDispatcher dispatcher = new CCNDispatcher(executor, 100, stats);
+		CountingTask [] tasks = new CountingTask[4];
+		for (int i = 0; i < tasks.length; i++)
+			tasks[i] = new CountingTask();
+
+		int count = 20000;
+		for (int i = 0; i < count; i++) {
+			CountingTask task = tasks[i % tasks.length];
+			task.pending.incrementAndGet();
+			dispatcher.dispatch(task);
+		}
+		while (dispatcher.queueDepth() > 0)
+			Thread.sleep(10);
+		dispatcher.shutdown();
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+		// Everything was delivered, never by more than one thread at once
+		for (CountingTask task : tasks) {
+			Assert.assertEquals(count / tasks.length, task.delivered.get());
+			Assert.assertEquals(1, task.maxRunning);
+		}
+		long runs = stats.getCounter("DispatchWaitUnder1ms") + stats.getCounter("DispatchWait1To10ms")
+				+ stats.getCounter("DispatchWait10To100ms") + stats.getCounter("DispatchWait100msPlus");
+		Assert.assertTrue(runs > 0);
+		Assert.assertTrue(runs <= count);
+	}
+
+	@Test
+	public void testBackpressure() throws Exception {
+		CCNEnumStats<StatsEnum> stats = new CCNEnumStats<StatsEnum>(StatsEnum.Puts);
+		final CCNDispatcher dispatcher = new CCNDispatcher(CCNDispatcher.createExecutor(CCNDispatcher.EXECUTOR_POOL, "CCNDispatcherTest"), 2, stats);
+		Semaphore gate = new Semaphore(0);
+		CountingTask [] tasks = new CountingTask[3];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new CountingTask();
+			tasks[i].gate = gate;
+			tasks[i].pending.set(1);
+		}
+		dispatcher.dispatch(tasks[0]);
+		dispatcher.dispatch(tasks[1]);
+		// Dispatching what's already queued or running doesn't need more space
+		dispatcher.dispatch(tasks[0]);
+		Assert.assertEquals(2, dispatcher.queueDepth());
+
+		final CountingTask third = tasks[2];
+		Thread dispatching = new Thread() {
+			public void run() {
+				dispatcher.dispatch(third);
+			}
+		};
+		dispatching.start();
+		while (0 == stats.getCounter("DispatchQueueFull"))
+			Thread.sleep(10);
+		Assert.assertTrue(dispatching.isAlive());
+
+		gate.release(4);
+		dispatching.join();
+		while (dispatcher.queueDepth() > 0)
+			Thread.sleep(10);
+		dispatcher.shutdown();
+		for (CountingTask task : tasks)
+			Assert.assertEquals(1, task.delivered.get());
+	}
+}
@@ -220,6 +220,53 @@ public class CCNFlowControlTest extends CCNTestBase {
 		co = testNext(co, objv1s4);
 	}
 
+	@Test
+	public void testBestMatch() throws Throwable {
+
+		System.out.println("Testing interests matched against many held objects");
+		normalReset(name1);
+		fc.put(objv1s2);
+		fc.put(obj1);
+		fc.put(objv1s4);
+		fc.put(objv1s1);
+		// A component longer than a version sorts after it
+		ContentObject objLast = new ContentObject(ContentName.fromNative(name1, "after all versions"), fakeSignedInfo, "last".getBytes(), fakeSignature);
+		fc.put(objLast);
+
+		// Nothing held under this name
+		interestList.add(new Interest(ContentName.fromNative(name1, "baz")));
+		fc.handleInterests(interestList);
+		Assert.assertTrue(queue.poll() == null);
+
+		// The rightmost child, not the first
+		interestList.clear();
+		Interest right = new Interest(v1);
+		right.childSelector(Interest.CHILD_SELECTOR_RIGHT);
+		interestList.add(right);
+		fc.handleInterests(interestList);
+		testExpected(queue.poll(), objv1s4);
+
+		// The rightmost of everything
+		interestList.clear();
+		right = new Interest(name1);
+		right.childSelector(Interest.CHILD_SELECTOR_RIGHT);
+		interestList.add(right);
+		fc.handleInterests(interestList);
+		testExpected(queue.poll(), objLast);
+
+		// A name ending with the content's digest
+		interestList.clear();
+		interestList.add(new Interest(new ContentName(v1s2, objv1s2.digest())));
+		fc.handleInterests(interestList);
+		testExpected(queue.poll(), objv1s2);
+
+		// The leftmost
+		interestList.clear();
+		interestList.add(new Interest(v1));
+		fc.handleInterests(interestList);
+		testExpected(queue.poll(), objv1s1);
+	}
+
 	@Test
 	public void testWaitForPutDrain() throws Throwable {	
 
@@ -0,0 +1,211 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.impl;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ccnx.ccn.CCNFilterListener;
+import org.ccnx.ccn.CCNInterestListener;
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNLocalForwarder;
+import org.ccnx.ccn.impl.CCNNetworkManager;
+import org.ccnx.ccn.impl.CCNNetworkManager.NetworkProtocol;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.KeyLocator;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test network managers exchanging packets through the local forwarder, so this doesn't need ccnd.
+ */
+public class CCNLocalForwarderTest {
+
+	static NetworkProtocol savedProtocol;
+	static CCNNetworkManager producer;
+	static CCNNetworkManager consumer;
+	static SignedInfo signedInfo;
+	static ContentName prefix;
+
+	/**
+	 * Answers each interest it sees with content of the same name, and counts them
+	 */
+	static class Responder implements CCNFilterListener {
+		AtomicInteger interests = new AtomicInteger(0);
+		CCNNetworkManager manager;
+
+		Responder(CCNNetworkManager manager) {
+			this.manager = manager;
+		}
+
+		public boolean handleInterest(Interest interest) {
+			interests.incrementAndGet();
+			try {
+				manager.put(content(interest.name()));
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			return true;
+		}
+	}
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		savedProtocol = SystemConfiguration.AGENT_PROTOCOL;
+		SystemConfiguration.AGENT_PROTOCOL = NetworkProtocol.LOCAL;
+		producer = new CCNNetworkManager(null);
+		consumer = new CCNNetworkManager(null);
+		signedInfo = new SignedInfo(new PublisherPublicKeyDigest(new byte[32]), CCNTime.now(),
+				SignedInfo.ContentType.DATA, new KeyLocator(ContentName.fromNative("/test/key")));
+		prefix = ContentName.fromNative("/test/CCNLocalForwarderTest");
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() {
+		producer.shutdown();
+		consumer.shutdown();
+		SystemConfiguration.AGENT_PROTOCOL = savedProtocol;
+		Assert.assertEquals(0, CCNLocalForwarder.getForwarder().faces());
+	}
+
+	static ContentObject content(ContentName name) {
+		return new ContentObject(name, signedInfo, name.toString().getBytes(), new Signature(new byte[64]));
+	}
+
+	@Test
+	public void testGet() throws Exception {
+		ContentName filter = new ContentName(prefix, "get".getBytes());
+		final ContentObject [] sent = new ContentObject[1];
+		CCNFilterListener listener = new CCNFilterListener() {
+			public boolean handleInterest(Interest interest) {
+				try {
+					sent[0] = content(interest.name());
+					producer.put(sent[0]);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+				return true;
+			}
+		};
+		producer.setInterestFilter(this, filter, listener);
+		ContentObject got = consumer.get(new Interest(new ContentName(filter, "1".getBytes())), 5000);
+		producer.cancelInterestFilter(this, filter, listener);
+
+		// Passed by reference, not encoded and decoded
+		Assert.assertNotNull(got);
+		Assert.assertSame(sent[0], got);
+		Assert.assertEquals(0, producer.getStats().getCounter("WriteBatches"));
+	}
+
+	@Test
+	public void testListeners() throws Exception {
+		ContentName filter = new ContentName(prefix, "listeners".getBytes());
+		Responder responder = new Responder(producer);
+		producer.setInterestFilter(this, filter, responder);
+
+		// Each listener asks for the next object till it has them all
+		final int count = 100;
+		final Semaphore done = new Semaphore(0);
+		final AtomicInteger received = new AtomicInteger(0);
+		CCNInterestListener listener = new CCNInterestListener() {
+			int next = 0;
+			public synchronized Interest handleContent(ContentObject data, Interest interest) {
+				received.incrementAndGet();
+				if (++next == count) {
+					done.release();
+					return null;
+				}
+				return new Interest(new ContentName(interest.name().parent(), Integer.toString(next).getBytes()));
+			}
+		};
+		consumer.expressInterest(this, new Interest(new ContentName(filter, "0".getBytes())), listener);
+		Assert.assertTrue(done.tryAcquire(10, TimeUnit.SECONDS));
+		producer.cancelInterestFilter(this, filter, responder);
+		Assert.assertEquals(count, received.get());
+		Assert.assertEquals(count, responder.interests.get());
+	}
+
+	@Test
+	public void testNotToSender() throws Exception {
+		ContentName filter = new ContentName(prefix, "sender".getBytes());
+		Responder responder = new Responder(producer);
+		producer.setInterestFilter(this, filter, responder);
+
+		// Like ccnd, the forwarder doesn't send packets back where they came from
+		Assert.assertNull(producer.get(new Interest(new ContentName(filter, "1".getBytes())), 200));
+		Assert.assertEquals(0, responder.interests.get());
+		producer.cancelInterestFilter(this, filter, responder);
+	}
+
+	@Test
+	public void testBusyFace() throws Exception {
+		// A manager whose dispatcher is full holds up delivery to it, but not the managers 
+		// writing to it
+		int savedQueueSize = SystemConfiguration.DISPATCH_QUEUE_SIZE;
+		SystemConfiguration.DISPATCH_QUEUE_SIZE = 1;
+		CCNNetworkManager busy = new CCNNetworkManager(null);
+		SystemConfiguration.DISPATCH_QUEUE_SIZE = savedQueueSize;
+		final Semaphore gate = new Semaphore(0);
+		CCNFilterListener blocked = new CCNFilterListener() {
+			public boolean handleInterest(Interest interest) {
+				gate.acquireUninterruptibly();
+				return true;
+			}
+		};
+		final CCNInterestListener ignored = new CCNInterestListener() {
+			public Interest handleContent(ContentObject data, Interest interest) {
+				return null;
+			}
+		};
+		
+		// Interests for different filters need a dispatch each
+		final Interest [] interests = new Interest[3];
+		for (int i = 0; i < interests.length; i++) {
+			ContentName filter = new ContentName(prefix, ("busy" + i).getBytes());
+			busy.setInterestFilter(this, filter, blocked);
+			interests[i] = new Interest(new ContentName(filter, "1".getBytes()));
+		}
+		Thread writer = new Thread() {
+			public void run() {
+				try {
+					for (Interest interest : interests)
+						consumer.expressInterest(this, interest, ignored);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		writer.start();
+		writer.join(5000);
+		Assert.assertFalse(writer.isAlive());
+		
+		gate.release(interests.length);
+		for (Interest interest : interests)
+			consumer.cancelInterest(writer, interest, ignored);
+		busy.shutdown();
+	}
+}
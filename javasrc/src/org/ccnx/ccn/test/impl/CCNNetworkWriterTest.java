@@ -0,0 +1,241 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.Semaphore;
+
+import org.ccnx.ccn.impl.CCNNetworkChannel;
+import org.ccnx.ccn.impl.CCNNetworkManager.NetworkProtocol;
+import org.ccnx.ccn.impl.CCNNetworkManager.StatsEnum;
+import org.ccnx.ccn.impl.CCNNetworkWriter;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.encoding.BinaryXMLBufferDecoder;
+import org.ccnx.ccn.io.content.ContentEncodingException;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.WirePacket;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the network writer's queue against a channel that just collects what's written to it,
+ * so this doesn't need ccnd.
+ */
+public class CCNNetworkWriterTest {
+
+	/**
+	 * Collects the bytes written. Writes can be held up by taking the gate.
+	 */
+	static class CollectingChannel extends CCNNetworkChannel {
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		Semaphore gate = new Semaphore(1);
+		int writes = 0;
+
+		CollectingChannel() throws IOException {
+			super("localhost", 0, NetworkProtocol.TCP, null);
+		}
+
+		@Override
+		public boolean isConnected() {
+			return true;
+		}
+
+		@Override
+		public long write(ByteBuffer [] srcs, int offset, int length) throws IOException {
+			gate.acquireUninterruptibly();
+			try {
+				long count = 0;
+				synchronized (this) {
+					for (int i = offset; i < offset + length; i++) {
+						count += srcs[i].remaining();
+						while (srcs[i].hasRemaining())
+							written.write(srcs[i].get());
+					}
+					writes++;
+				}
+				return count;
+			} finally {
+				gate.release();
+			}
+		}
+
+		synchronized ArrayList<Interest> packets() throws Exception {
+			ArrayList<Interest> packets = new ArrayList<Interest>();
+			ByteBuffer buffer = ByteBuffer.wrap(written.toByteArray());
+			BinaryXMLBufferDecoder decoder = new BinaryXMLBufferDecoder();
+			while (buffer.hasRemaining()) {
+				WirePacket packet = new WirePacket();
+				decoder.beginDecoding(buffer);
+				packet.decode(decoder);
+				decoder.endDecoding();
+				packets.add((Interest)packet.getPacket());
+			}
+			return packets;
+		}
+	}
+
+	@Test
+	public void testOrdering() throws Exception {
+		final int threads = 4;
+		final int count = 500;
+		CollectingChannel channel = new CollectingChannel();
+		CCNEnumStats<StatsEnum> stats = new CCNEnumStats<StatsEnum>(StatsEnum.Puts);
+		final CCNNetworkWriter writer = new CCNNetworkWriter(channel, 8, stats);
+		writer.start("CCNNetworkWriterTest");
+
+		Thread [] producers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			producers[t] = new Thread() {
+				public void run() {
+					try {
+						for (int i = 0; i < count; i++)
+							writer.write(new WirePacket(new Interest(ContentName.fromNative("/test/writer/" + id + "/" + i))));
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			producers[t].start();
+		}
+		for (Thread producer : producers)
+			producer.join();
+		while (writer.queueDepth() > 0)
+			Thread.sleep(10);
+		writer.shutdown();
+
+		// Each thread's packets arrive complete and in the order it wrote them
+		ArrayList<Interest> packets = channel.packets();
+		Assert.assertEquals(threads * count, packets.size());
+		int [] next = new int[threads];
+		for (Interest interest : packets) {
+			int id = Integer.parseInt(ContentName.componentPrintNative(interest.name().component(2)));
+			int i = Integer.parseInt(ContentName.componentPrintNative(interest.name().component(3)));
+			Assert.assertEquals(next[id]++, i);
+		}
+
+		long batches = stats.getCounter("WriteBatches");
+		Assert.assertEquals(channel.writes, batches);
+		Assert.assertEquals(batches, stats.getCounter("WriteBatchOf1") + stats.getCounter("WriteBatchOf2To3")
+				+ stats.getCounter("WriteBatchOf4To7") + stats.getCounter("WriteBatchOf8To15")
+				+ stats.getCounter("WriteBatchOf16Plus"));
+		Assert.assertEquals(threads * count, stats.getCounter("WriteQueueDepth0") + stats.getCounter("WriteQueueDepth1To3")
+				+ stats.getCounter("WriteQueueDepth4To15") + stats.getCounter("WriteQueueDepth16Plus"));
+		Assert.assertEquals(0, stats.getCounter("WriteErrors"));
+	}
+
+	@Test
+	public void testBackpressure() throws Exception {
+		final CollectingChannel channel = new CollectingChannel();
+		CCNEnumStats<StatsEnum> stats = new CCNEnumStats<StatsEnum>(StatsEnum.Puts);
+		final CCNNetworkWriter writer = new CCNNetworkWriter(channel, 2, stats);
+		writer.start("CCNNetworkWriterTest");
+
+		// Hold up the channel so the queue fills
+		channel.gate.acquire();
+		writer.write(new WirePacket(new Interest(ContentName.fromNative("/test/writer/0"))));
+		while (0 == stats.getCounter("WriteBatches"))
+			Thread.sleep(10);
+		writer.write(new WirePacket(new Interest(ContentName.fromNative("/test/writer/1"))));
+		Assert.assertEquals(2, writer.queueDepth());
+		Thread producer = new Thread() {
+			public void run() {
+				try {
+					writer.write(new WirePacket(new Interest(ContentName.fromNative("/test/writer/2"))));
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		producer.start();
+		while (0 == stats.getCounter("WriteQueueFull"))
+			Thread.sleep(10);
+		Assert.assertTrue(producer.isAlive());
+
+		channel.gate.release();
+		producer.join();
+		while (writer.queueDepth() > 0)
+			Thread.sleep(10);
+		writer.shutdown();
+		ArrayList<Interest> packets = channel.packets();
+		Assert.assertEquals(3, packets.size());
+		for (int i = 0; i < 3; i++)
+			Assert.assertEquals(ContentName.fromNative("/test/writer/" + i), packets.get(i).name());
+	}
+
+	@Test
+	public void testShutdown() throws Exception {
+		final CollectingChannel channel = new CollectingChannel();
+		CCNEnumStats<StatsEnum> stats = new CCNEnumStats<StatsEnum>(StatsEnum.Puts);
+		CCNNetworkWriter writer = new CCNNetworkWriter(channel, 8, stats);
+		writer.start("CCNNetworkWriterTest");
+
+		// Packets queued when we shut down are still written
+		channel.gate.acquire();
+		for (int i = 0; i < 3; i++)
+			writer.write(new WirePacket(new Interest(ContentName.fromNative("/test/writer/" + i))));
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {}
+				channel.gate.release();
+			}
+		}.start();
+		writer.shutdown();
+		Assert.assertEquals(3, channel.packets().size());
+
+		// Those written afterwards aren't
+		writer.write(new WirePacket(new Interest(ContentName.fromNative("/test/writer/3"))));
+		Assert.assertEquals(3, channel.packets().size());
+	}
+
+	@Test
+	public void testEncodingFailure() throws Exception {
+		CollectingChannel channel = new CollectingChannel();
+		CCNEnumStats<StatsEnum> stats = new CCNEnumStats<StatsEnum>(StatsEnum.Puts);
+		CCNNetworkWriter writer = new CCNNetworkWriter(channel, 2, stats);
+		writer.start("CCNNetworkWriterTest");
+
+		// Packets that fail to encode, however they fail, don't hold up those after them
+		for (int i = 0; i < 2; i++) {
+			try {
+				writer.write(new WirePacket(new Interest(ContentName.fromNative("/test/writer/bad"))) {
+					@Override
+					public void encode(ByteBuffer buffer) throws ContentEncodingException {
+						throw new IllegalStateException("Test encoding failure");
+					}
+				});
+				Assert.fail("Encoding failure not reported");
+			} catch (IllegalStateException e) {}
+		}
+		for (int i = 0; i < 3; i++)
+			writer.write(new WirePacket(new Interest(ContentName.fromNative("/test/writer/" + i))));
+		while (writer.queueDepth() > 0)
+			Thread.sleep(10);
+		writer.shutdown();
+		ArrayList<Interest> packets = channel.packets();
+		Assert.assertEquals(3, packets.size());
+		for (int i = 0; i < 3; i++)
+			Assert.assertEquals(ContentName.fromNative("/test/writer/" + i), packets.get(i).name());
+	}
+}
@@ -669,4 +669,69 @@ public class InterestTableTest extends CCNTestBase {
 		noMatch(table, a);
 	}
 
+	@Test
+	public void testMatchDigest() throws MalformedContentNameStringException, InvalidKeyException, SignatureException, ConfigurationException {
+		setID(0);
+		InterestTable<Integer> table = new InterestTable<Integer>();
+		ContentObject co = getContentObject(ContentName.fromNative(abc));
+		addEntry(table, a, new Integer(1));
+		addEntry(table, co.fullName(), new Integer(2));
+		addEntry(table, ContentName.fromNative(co.name(), "notadigest"), new Integer(3));
+		
+		assertEquals(2, table.getMatch(co).value().intValue());
+		List<InterestTable.Entry<Integer>> result = table.getMatches(co);
+		assertEquals(2, result.size());
+		assertEquals(2, result.get(0).value().intValue());
+		assertEquals(1, result.get(1).value().intValue());
+		assertEquals(2, table.removeMatch(co).value().intValue());
+		assertEquals(1, table.getMatch(co).value().intValue());
+		sizes(table, 2, 2);
+	}
+	
+	/**
+	 * Not a functional test: times matching against a large table using the
+	 * name index, against a scan of every entry in the table as was done before
+	 * the index existed.
+	 */
+	@Test
+	public void testMatchTiming() throws MalformedContentNameStringException, InvalidKeyException, SignatureException, ConfigurationException {
+		final int NAMES = 20000;
+		final int LOOKUPS = 1000;
+		setID(0);
+		InterestTable<Integer> table = new InterestTable<Integer>();
+		ContentName base = ContentName.fromNative("/test/timing");
+		for (int i = 0; i < NAMES; i++) {
+			addEntry(table, ContentName.fromNative(base, Integer.toString(i)), new Integer(i));
+		}
+		ContentObject [] targets = new ContentObject[LOOKUPS];
+		Random rnd = new Random();
+		for (int i = 0; i < LOOKUPS; i++) {
+			targets[i] = getContentObject(ContentName.fromNative(base, Integer.toString(rnd.nextInt(NAMES))));
+		}
+		
+		Integer [] scanned = new Integer[LOOKUPS];
+		long start = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; i++) {
+			InterestTable.Entry<Integer> best = null;
+			for (InterestTable.Entry<Integer> entry : table.values()) {
+				if (entry.interest().matches(targets[i]) && (null == best || entry.name().count() > best.name().count()))
+					best = entry;
+			}
+			scanned[i] = best.value();
+		}
+		long scan = System.nanoTime() - start;
+		
+		Integer [] indexedResults = new Integer[LOOKUPS];
+		start = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; i++) {
+			indexedResults[i] = table.getValue(targets[i]);
+		}
+		long indexed = System.nanoTime() - start;
+		for (int i = 0; i < LOOKUPS; i++) {
+			assertEquals(scanned[i], indexedResults[i]);
+		}
+		System.out.println("InterestTable match against " + NAMES + " names: scan " + (scan / LOOKUPS) + 
+				" ns/lookup, indexed " + (indexed / LOOKUPS) + " ns/lookup");
+	}
+
 }
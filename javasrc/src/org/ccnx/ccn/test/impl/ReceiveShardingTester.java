@@ -0,0 +1,225 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.CCNInterestListener;
+import org.ccnx.ccn.impl.CCNNetworkManager;
+import org.ccnx.ccn.impl.encoding.BinaryXMLBufferDecoder;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.KeyLocator;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+
+/**
+ * Measures how many content objects a second a CCNNetworkManager can receive and deliver
+ * to interest listeners with 1, 2 and 4 channels to ccnd (see SystemConfiguration.RECEIVE_CHANNELS).
+ *
+ * Rather than ccnd, the network manager talks to a stand-in running in this JVM that answers
+ * each interest straight away from content encoded in advance, with a thread per connection,
+ * so what's measured is the network manager's receive path. A number of listeners each keep
+ * one interest outstanding, expressing the next as soon as content arrives for the last.
+ *
+ * Usage: ReceiveShardingTester [outstanding interests] [content size] [seconds per run]
+ *
+ * Receive sharding only helps with as many cores as channels, so compare the results
+ * with the number of processors, which is printed first.
+ */
+public class ReceiveShardingTester {
+
+	public static final int DEFAULT_OUTSTANDING = 64;
+	public static final int DEFAULT_CONTENT_SIZE = 1024;
+	public static final int DEFAULT_SECONDS = 5;
+	public static final int WARMUP_SECONDS = 2;
+	public static final int NAMES_PER_LISTENER = 16;
+	public static final int [] CHANNELS = {1, 2, 4};
+
+	/**
+	 * Answers interests for the content it's given from each connection made to it
+	 */
+	protected static class Responder implements Runnable {
+		protected final ServerSocket _server;
+		protected final HashMap<ContentName, byte []> _content;
+
+		public Responder(HashMap<ContentName, byte []> content) throws IOException {
+			_server = new ServerSocket(0);
+			_content = content;
+		}
+
+		public int port() {
+			return _server.getLocalPort();
+		}
+
+		public void run() {
+			try {
+				while (true) {
+					final Socket socket = _server.accept();
+					Thread connection = new Thread(new Runnable() {
+						public void run() {
+							answer(socket);
+						}
+					}, "ReceiveShardingTester connection");
+					connection.setDaemon(true);
+					connection.start();
+				}
+			} catch (IOException e) {
+				// Closed
+			}
+		}
+
+		protected void answer(Socket socket) {
+			try {
+				socket.setTcpNoDelay(true);
+				InputStream in = socket.getInputStream();
+				OutputStream out = socket.getOutputStream();
+				ByteBuffer buffer = ByteBuffer.allocate(CCNNetworkManager.MAX_PAYLOAD * 4);
+				int read;
+				while ((read = in.read(buffer.array(), buffer.position(), buffer.remaining())) > 0) {
+					buffer.position(buffer.position() + read);
+					buffer.flip();
+					int end;
+					while ((end = BinaryXMLBufferDecoder.elementEnd(buffer, buffer.position(), buffer.limit())) > 0) {
+						ByteBuffer packet = buffer.duplicate();
+						packet.limit(end);
+						buffer.position(end);
+						Interest interest = new Interest();
+						try {
+							interest.decode(packet);
+						} catch (Exception e) {
+							continue;	// heartbeats and the like
+						}
+						byte [] encoded = _content.get(interest.name());
+						if (null != encoded)
+							out.write(encoded);
+					}
+					out.flush();
+					buffer.compact();
+				}
+			} catch (IOException e) {
+				// Network manager shut down
+			} finally {
+				try {
+					socket.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+
+	/**
+	 * Keeps an interest outstanding, going round its set of names
+	 */
+	protected static class Listener implements CCNInterestListener {
+		protected final int _id;
+		protected final AtomicLong _received;
+		protected volatile boolean _run = true;
+		protected int _next = 0;
+
+		public Listener(int id, AtomicLong received) {
+			_id = id;
+			_received = received;
+		}
+
+		public Interest next() {
+			_next = (_next + 1) % NAMES_PER_LISTENER;
+			return new Interest(name(_id, _next));
+		}
+
+		public Interest handleContent(ContentObject data, Interest interest) {
+			_received.incrementAndGet();
+			return _run ? next() : null;
+		}
+	}
+
+	public static ContentName name(int listener, int index) {
+		return new ContentName(new byte [][]{"test".getBytes(), "ReceiveShardingTester".getBytes(),
+				Integer.toString(listener).getBytes(), Integer.toString(index).getBytes()});
+	}
+
+	public static void main(String[] args) {
+		int outstanding = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_OUTSTANDING;
+		int contentSize = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_CONTENT_SIZE;
+		int seconds = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_SECONDS;
+		Log.setLevel(Log.FAC_ALL, Level.SEVERE);	// turn off logging
+		try {
+			Random rnd = new Random();
+			byte [] sigBytes = new byte[128];
+			byte [] publisher = new byte[32];
+			byte [] data = new byte[contentSize];
+			rnd.nextBytes(sigBytes);
+			rnd.nextBytes(publisher);
+			rnd.nextBytes(data);
+			SignedInfo signedInfo = new SignedInfo(new PublisherPublicKeyDigest(publisher), CCNTime.now(),
+					SignedInfo.ContentType.DATA, new KeyLocator(ContentName.fromNative("/test/key")));
+			HashMap<ContentName, byte []> content = new HashMap<ContentName, byte []>();
+			for (int i = 0; i < outstanding; i++) {
+				for (int j = 0; j < NAMES_PER_LISTENER; j++) {
+					ContentName name = name(i, j);
+					content.put(name, new ContentObject(name, signedInfo, data, new Signature(sigBytes)).encode());
+				}
+			}
+
+			Responder responder = new Responder(content);
+			Thread thread = new Thread(responder, "ReceiveShardingTester responder");
+			thread.setDaemon(true);
+			thread.start();
+			System.setProperty(CCNNetworkManager.PROP_AGENT_PORT, Integer.toString(responder.port()));
+
+			System.out.println(Runtime.getRuntime().availableProcessors() + " processors, " + outstanding
+					+ " interests outstanding, " + contentSize + " bytes of content");
+			for (int channels : CHANNELS)
+				run(channels, outstanding, seconds);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		System.exit(0);
+	}
+
+	protected static void run(int channels, int outstanding, int seconds) throws Exception {
+		CCNNetworkManager manager = new CCNNetworkManager(null, channels);
+		AtomicLong received = new AtomicLong(0);
+		Listener [] listeners = new Listener[outstanding];
+		for (int i = 0; i < outstanding; i++) {
+			listeners[i] = new Listener(i, received);
+			manager.expressInterest(listeners[i], listeners[i].next(), listeners[i]);
+		}
+
+		Thread.sleep(WARMUP_SECONDS * 1000);
+		long start = received.get();
+		Thread.sleep(seconds * 1000);
+		long count = received.get() - start;
+		for (Listener listener : listeners)
+			listener._run = false;
+		System.out.println(channels + " channels: " + (count / seconds) + " content objects/sec");
+		manager.shutdown();
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.impl.ccnd;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ccnx.ccn.CCNFilterListener;
+import org.ccnx.ccn.CCNHandle;
+import org.ccnx.ccn.CCNInterestListener;
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNNetworkManager;
+import org.ccnx.ccn.impl.CCNNetworkManager.NetworkProtocol;
+import org.ccnx.ccn.impl.ccnd.CCNForwarder;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.KeyLocator;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test handles exchanging packets over TCP through the Java forwarder, so this doesn't need ccnd.
+ */
+public class CCNForwarderTest {
+
+	static NetworkProtocol savedProtocol;
+	static CCNForwarder forwarder;
+	static CCNHandle producer;
+	static CCNHandle consumer;
+	static CCNHandle otherConsumer;
+	static SignedInfo signedInfo;
+	static ContentName prefix;
+
+	/**
+	 * Answers each interest it sees with content of the same name, after a delay, and counts them
+	 */
+	static class Responder implements CCNFilterListener {
+		AtomicInteger interests = new AtomicInteger(0);
+		long delay;
+
+		Responder(long delay) {
+			this.delay = delay;
+		}
+
+		public boolean handleInterest(Interest interest) {
+			interests.incrementAndGet();
+			try {
+				Thread.sleep(delay);
+				producer.put(content(interest.name()));
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			return true;
+		}
+	}
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		savedProtocol = SystemConfiguration.AGENT_PROTOCOL;
+		SystemConfiguration.AGENT_PROTOCOL = NetworkProtocol.TCP;
+		forwarder = new CCNForwarder(0, 1000);
+		forwarder.start();
+		System.setProperty(CCNNetworkManager.PROP_AGENT_PORT, Integer.toString(forwarder.getPort()));
+		producer = CCNHandle.open();
+		consumer = CCNHandle.open();
+		otherConsumer = CCNHandle.open();
+		signedInfo = new SignedInfo(new PublisherPublicKeyDigest(new byte[32]), CCNTime.now(),
+				SignedInfo.ContentType.DATA, new KeyLocator(ContentName.fromNative("/test/key")));
+		prefix = ContentName.fromNative("/test/CCNForwarderTest/" + System.currentTimeMillis());
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() {
+		producer.close();
+		consumer.close();
+		otherConsumer.close();
+		forwarder.shutdown();
+		System.clearProperty(CCNNetworkManager.PROP_AGENT_PORT);
+		SystemConfiguration.AGENT_PROTOCOL = savedProtocol;
+	}
+
+	static ContentObject content(ContentName name) {
+		return new ContentObject(name, signedInfo, name.toString().getBytes(), new Signature(new byte[64]));
+	}
+
+	@Test
+	public void testGet() throws Exception {
+		ContentName filter = new ContentName(prefix, "get".getBytes());
+		Responder responder = new Responder(0);
+		producer.registerFilter(filter, responder);
+		ContentName name = new ContentName(filter, "1".getBytes());
+		ContentObject got = consumer.get(name, 5000);
+		Assert.assertNotNull(got);
+		Assert.assertEquals(name, got.name());
+
+		// The second time it comes from the content store
+		long hits = forwarder.getStats().getCounter("ContentStoreHits");
+		got = otherConsumer.get(name, 5000);
+		Assert.assertNotNull(got);
+		Assert.assertEquals(1, responder.interests.get());
+		Assert.assertEquals(hits + 1, forwarder.getStats().getCounter("ContentStoreHits"));
+		producer.unregisterFilter(filter, responder);
+	}
+
+	@Test
+	public void testAggregation() throws Exception {
+		ContentName filter = new ContentName(prefix, "aggregation".getBytes());
+		Responder responder = new Responder(500);
+		producer.registerFilter(filter, responder);
+
+		// Both interests are waiting when the content arrives, and only one is sent to the producer
+		final Semaphore received = new Semaphore(0);
+		CCNInterestListener listener = new CCNInterestListener() {
+			public Interest handleContent(ContentObject data, Interest interest) {
+				received.release();
+				return null;
+			}
+		};
+		Interest interest = new Interest(new ContentName(filter, "1".getBytes()));
+		consumer.expressInterest(interest, listener);
+		otherConsumer.expressInterest(interest, listener);
+		Assert.assertTrue(received.tryAcquire(2, 5, TimeUnit.SECONDS));
+		consumer.cancelInterest(interest, listener);
+		otherConsumer.cancelInterest(interest, listener);
+		Assert.assertEquals(1, responder.interests.get());
+		producer.unregisterFilter(filter, responder);
+	}
+
+	@Test
+	public void testUnregistered() throws Exception {
+		ContentName filter = new ContentName(prefix, "unregistered".getBytes());
+		Responder responder = new Responder(0);
+		producer.registerFilter(filter, responder);
+		producer.unregisterFilter(filter, responder);
+
+		// Unregistering doesn't wait for the forwarder, so ask until it has caught up
+		long unroutable = forwarder.getStats().getCounter("InterestsUnroutable");
+		for (int i = 0; i < 10 && forwarder.getStats().getCounter("InterestsUnroutable") == unroutable; i++)
+			Assert.assertNull(consumer.get(new ContentName(filter, Integer.toString(i).getBytes()), 500));
+		Assert.assertEquals(0, responder.interests.get());
+		Assert.assertTrue(forwarder.getStats().getCounter("InterestsUnroutable") > unroutable);
+	}
+
+	@Test
+	public void testHeartbeat() throws Exception {
+		ContentName filter = new ContentName(prefix, "heartbeat".getBytes());
+		Responder responder = new Responder(0);
+		producer.registerFilter(filter, responder);
+
+		// A heartbeat, a datagram that isn't one or a packet, then an interest, from a UDP face
+		long errors = forwarder.getStats().getCounter("ReceiveErrors");
+		DatagramChannel channel = DatagramChannel.open();
+		channel.connect(new InetSocketAddress("localhost", forwarder.getPort()));
+		channel.write(ByteBuffer.allocate(1));
+		channel.write(ByteBuffer.allocate(2));
+		channel.write(ByteBuffer.wrap(new Interest(new ContentName(filter, "1".getBytes())).encode()));
+		for (int i = 0; i < 50 && 0 == responder.interests.get(); i++)
+			Thread.sleep(100);
+		channel.close();
+		Assert.assertEquals(1, responder.interests.get());
+		Assert.assertEquals(errors + 1, forwarder.getStats().getCounter("ReceiveErrors"));
+		producer.unregisterFilter(filter, responder);
+	}
+
+	@Test
+	public void testSlowFace() throws Exception {
+		ContentName filter = new ContentName(prefix, "slow".getBytes());
+		final byte [] payload = new byte[4096];
+		final AtomicInteger interests = new AtomicInteger(0);
+		CCNFilterListener responder = new CCNFilterListener() {
+			public boolean handleInterest(Interest interest) {
+				interests.incrementAndGet();
+				try {
+					producer.put(new ContentObject(interest.name(), signedInfo, payload, new Signature(new byte[64])));
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+				return true;
+			}
+		};
+		producer.registerFilter(filter, responder);
+
+		// A connection that asks for far more content than it reads
+		int count = 3000;
+		SocketChannel slow = SocketChannel.open();
+		slow.socket().setReceiveBufferSize(4096);
+		slow.connect(new InetSocketAddress("localhost", forwarder.getPort()));
+		for (int i = 0; i < count; i++) {
+			ByteBuffer buffer = ByteBuffer.wrap(new Interest(new ContentName(filter, Integer.toString(i).getBytes())).encode());
+			while (buffer.hasRemaining())
+				slow.write(buffer);
+		}
+		for (int i = 0; i < 200 && interests.get() < count; i++)
+			Thread.sleep(100);
+
+		// Doesn't hold up content for anyone else
+		Assert.assertNotNull(consumer.get(new ContentName(filter, "other".getBytes()), 5000));
+		slow.close();
+		producer.unregisterFilter(filter, responder);
+	}
+}
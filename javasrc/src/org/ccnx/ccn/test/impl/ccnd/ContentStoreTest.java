@@ -0,0 +1,103 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.impl.ccnd;
+
+import org.ccnx.ccn.impl.ccnd.ContentStore;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.KeyLocator;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test the forwarder's content store
+ */
+public class ContentStoreTest {
+
+	static ContentName prefix;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		prefix = ContentName.fromNative("/test/ContentStoreTest");
+	}
+
+	static ContentObject content(ContentName name, Integer freshnessSeconds) {
+		SignedInfo signedInfo = new SignedInfo(new PublisherPublicKeyDigest(new byte[32]), CCNTime.now(),
+				SignedInfo.ContentType.DATA, new KeyLocator(prefix), freshnessSeconds, null);
+		return new ContentObject(name, signedInfo, name.toString().getBytes(), new Signature(new byte[64]));
+	}
+
+	static ContentObject put(ContentStore store, String child, Integer freshnessSeconds) throws Exception {
+		ContentObject co = content(new ContentName(prefix, child.getBytes()), freshnessSeconds);
+		store.put(co, co.encode());
+		return co;
+	}
+
+	static ContentObject get(ContentStore store, Interest interest) throws Exception {
+		byte [] encoded = store.get(interest);
+		if (null == encoded)
+			return null;
+		ContentObject co = new ContentObject();
+		co.decode(encoded);
+		return co;
+	}
+
+	@Test
+	public void testMatch() throws Exception {
+		ContentStore store = new ContentStore(10);
+		ContentObject a = put(store, "a", null);
+		put(store, "b", null);
+		ContentObject c = put(store, "c", null);
+		store.put(c, c.encode());
+		Assert.assertEquals(3, store.size());
+
+		Interest interest = new Interest(prefix);
+		Assert.assertEquals(a, get(store, interest));
+		interest.childSelector(Interest.CHILD_SELECTOR_RIGHT);
+		Assert.assertEquals(c, get(store, interest));
+		Assert.assertNull(get(store, new Interest(new ContentName(prefix, "d".getBytes()))));
+	}
+
+	@Test
+	public void testCapacity() throws Exception {
+		ContentStore store = new ContentStore(2);
+		ContentObject a = put(store, "a", null);
+		put(store, "b", null);
+		// Using a makes b the one to drop
+		Assert.assertEquals(a, get(store, new Interest(a.name())));
+		put(store, "c", null);
+		Assert.assertEquals(2, store.size());
+		Assert.assertEquals(a, get(store, new Interest(a.name())));
+		Assert.assertNull(get(store, new Interest(new ContentName(prefix, "b".getBytes()))));
+	}
+
+	@Test
+	public void testStale() throws Exception {
+		ContentStore store = new ContentStore(10);
+		ContentObject stale = put(store, "stale", 0);
+		Thread.sleep(10);
+		Assert.assertNull(get(store, new Interest(stale.name())));
+		Assert.assertEquals(0, store.size());
+	}
+}
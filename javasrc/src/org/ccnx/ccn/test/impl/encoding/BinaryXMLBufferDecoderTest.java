@@ -0,0 +1,199 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.impl.encoding;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.ccnx.ccn.impl.encoding.BinaryXMLBufferDecoder;
+import org.ccnx.ccn.impl.encoding.CCNProtocolDTags;
+import org.ccnx.ccn.profiles.SegmentationProfile;
+import org.ccnx.ccn.profiles.VersioningProfile;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Exclude;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.KeyLocator;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.ccnx.ccn.protocol.WirePacket;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Check that BinaryXMLBufferDecoder decodes the same objects as the stream decoder,
+ * from the different kinds of buffer.
+ */
+public class BinaryXMLBufferDecoderTest {
+
+	static ContentObject content;
+	static Interest interest;
+	static byte [] encodedContent;
+	static byte [] encodedInterest;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		Random rnd = new Random();
+		byte [] sigBytes = new byte[128];
+		byte [] publisher = new byte[32];
+		byte [] data = new byte[1024];
+		rnd.nextBytes(sigBytes);
+		rnd.nextBytes(publisher);
+		rnd.nextBytes(data);
+		ContentName name = SegmentationProfile.segmentName(
+				VersioningProfile.addVersion(ContentName.fromNative("/test/BinaryXMLBufferDecoderTest/file")), 7);
+		SignedInfo signedInfo = new SignedInfo(new PublisherPublicKeyDigest(publisher), CCNTime.now(),
+				SignedInfo.ContentType.DATA, new KeyLocator(ContentName.fromNative("/test/key")));
+		content = new ContentObject(name, signedInfo, data, new Signature(sigBytes));
+		encodedContent = content.encode();
+
+		interest = new Interest(name);
+		interest.minSuffixComponents(1);
+		interest.maxSuffixComponents(3);
+		interest.exclude(new Exclude(new byte [][]{"a".getBytes(), "b".getBytes()}));
+		interest.childSelector(Interest.CHILD_SELECTOR_RIGHT);
+		interest.scope(2);
+		encodedInterest = interest.encode();
+	}
+
+	@Test
+	public void testDecodeHeapBuffer() throws Exception {
+		ContentObject decodedContent = new ContentObject();
+		ByteBuffer buffer = ByteBuffer.wrap(encodedContent);
+		decodedContent.decode(buffer);
+		Assert.assertEquals(content, decodedContent);
+		Assert.assertEquals(encodedContent.length, buffer.position());
+
+		Interest decodedInterest = new Interest();
+		buffer = ByteBuffer.wrap(encodedInterest);
+		decodedInterest.decode(buffer);
+		Assert.assertEquals(interest, decodedInterest);
+		Assert.assertEquals(encodedInterest.length, buffer.position());
+	}
+
+	@Test
+	public void testDecodeDirectBuffer() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(encodedContent.length + encodedInterest.length);
+		buffer.put(encodedContent);
+		buffer.put(encodedInterest);
+		buffer.flip();
+
+		ContentObject decodedContent = new ContentObject();
+		decodedContent.decode(buffer);
+		Assert.assertEquals(content, decodedContent);
+		Interest decodedInterest = new Interest();
+		decodedInterest.decode(buffer);
+		Assert.assertEquals(interest, decodedInterest);
+		Assert.assertFalse(buffer.hasRemaining());
+	}
+
+	@Test
+	public void testDecodeSlice() throws Exception {
+		// A slice has a backing array that doesn't start at its first byte
+		byte [] padded = new byte[encodedInterest.length + 10];
+		System.arraycopy(encodedInterest, 0, padded, 5, encodedInterest.length);
+		ByteBuffer buffer = ByteBuffer.wrap(padded, 5, encodedInterest.length).slice();
+
+		WirePacket packet = new WirePacket();
+		BinaryXMLBufferDecoder decoder = new BinaryXMLBufferDecoder();
+		decoder.beginDecoding(buffer);
+		packet.decode(decoder);
+		decoder.endDecoding();
+		Assert.assertEquals(interest, packet.getPacket());
+		Assert.assertEquals(encodedInterest.length, buffer.position());
+	}
+
+	@Test
+	public void testDecodeStream() throws Exception {
+		BinaryXMLBufferDecoder decoder = new BinaryXMLBufferDecoder();
+		decoder.beginDecoding(new ByteArrayInputStream(encodedContent));
+		ContentObject decodedContent = new ContentObject();
+		decodedContent.decode(decoder);
+		decoder.endDecoding();
+		Assert.assertEquals(content, decodedContent);
+		Assert.assertEquals(encodedContent.length, decoder.position());
+	}
+
+	@Test
+	public void testReadBlobBuffer() throws Exception {
+		ByteBuffer buffer = ByteBuffer.wrap(encodedContent);
+		BinaryXMLBufferDecoder decoder = new BinaryXMLBufferDecoder();
+		decoder.beginDecoding(buffer);
+		decoder.readStartElement(CCNProtocolDTags.ContentObject);
+		new Signature().decode(decoder);
+		new ContentName().decode(decoder);
+		new SignedInfo().decode(decoder);
+		ByteBuffer data = decoder.readBinaryElementBuffer(CCNProtocolDTags.Content);
+		decoder.readEndElement();
+		decoder.endDecoding();
+		Assert.assertEquals(ByteBuffer.wrap(content.content()), data);
+		Assert.assertEquals(encodedContent.length, buffer.position());
+	}
+
+	@Test
+	public void testLazyContentObject() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(encodedContent.length);
+		buffer.put(encodedContent);
+		buffer.flip();
+		ContentObject decoded = new ContentObject();
+		decoded.decode(buffer);
+		// The network buffer can be reused once the object is decoded
+		buffer.clear();
+		buffer.put(new byte[encodedContent.length]);
+
+		Assert.assertEquals(content.name(), decoded.name());
+		Assert.assertEquals(content.contentLength(), decoded.contentLength());
+		Assert.assertTrue(Arrays.equals(encodedContent, decoded.encode()));
+		Assert.assertEquals(encodedContent.length, decoded.encodedLength());
+		Assert.assertTrue(Arrays.equals(content.digest(), decoded.digest()));
+		Assert.assertEquals(content.signedInfo(), decoded.signedInfo());
+		Assert.assertTrue(Arrays.equals(content.content(), decoded.content()));
+		Assert.assertEquals(content, decoded);
+
+		// Changing the signature means the encoding has to be redone
+		Signature signature = new Signature(new byte[128]);
+		decoded.setSignature(signature);
+		Assert.assertEquals(signature, decoded.signature());
+		Assert.assertTrue(Arrays.equals(content.content(), decoded.content()));
+		Assert.assertEquals(content.signedInfo(), decoded.signedInfo());
+		ContentObject redecoded = new ContentObject();
+		redecoded.decode(decoded.encode());
+		Assert.assertEquals(decoded, redecoded);
+		Assert.assertFalse(Arrays.equals(content.digest(), decoded.digest()));
+	}
+
+	@Test
+	public void testElementEnd() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(encodedContent.length + encodedInterest.length);
+		buffer.put(encodedContent);
+		buffer.put(encodedInterest);
+		buffer.flip();
+		int limit = buffer.limit();
+		Assert.assertEquals(encodedContent.length, BinaryXMLBufferDecoder.elementEnd(buffer, 0, limit));
+		Assert.assertEquals(limit, BinaryXMLBufferDecoder.elementEnd(buffer, encodedContent.length, limit));
+		// Any truncated packet is incomplete
+		for (int i = 0; i < encodedContent.length; i++)
+			Assert.assertEquals(-1, BinaryXMLBufferDecoder.elementEnd(buffer, 0, i));
+		Assert.assertEquals(0, buffer.position());
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.impl.encoding;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.impl.encoding.BinaryXMLBufferDecoder;
+import org.ccnx.ccn.impl.encoding.BinaryXMLDecoder;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.profiles.SegmentationProfile;
+import org.ccnx.ccn.profiles.VersioningProfile;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Exclude;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.KeyLocator;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+import org.ccnx.ccn.protocol.WirePacket;
+
+/**
+ * Measures how fast received packets are decoded, comparing BinaryXMLDecoder reading
+ * through an InputStream, as CCNNetworkChannel used to, with BinaryXMLBufferDecoder reading
+ * straight from a direct ByteBuffer, as it does now. Reports decodes per second and, where
+ * the JVM can count them, bytes allocated per decode, for a segment ContentObject and for
+ * an Interest.
+ *
+ * Usage: BinaryXMLDecodeTester [content size] [seconds per run]
+ *
+ * This does not use the network, so doesn't need ccnd.
+ */
+public class BinaryXMLDecodeTester {
+
+	public static final int DEFAULT_CONTENT_SIZE = 4096;
+	public static final int DEFAULT_SECONDS = 5;
+	public static final int WARMUP_SECONDS = 2;
+
+	protected interface Decode {
+		void decode() throws Exception;
+	}
+
+	public static void main(String[] args) {
+		int contentSize = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_CONTENT_SIZE;
+		int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_SECONDS;
+		Log.setLevel(Level.SEVERE);	// turn off logging
+		try {
+			Random rnd = new Random();
+			byte [] sigBytes = new byte[128];
+			byte [] publisher = new byte[32];
+			byte [] data = new byte[contentSize];
+			rnd.nextBytes(sigBytes);
+			rnd.nextBytes(publisher);
+			rnd.nextBytes(data);
+			ContentName name = SegmentationProfile.segmentName(
+					VersioningProfile.addVersion(ContentName.fromNative("/test/BinaryXMLDecodeTester/file")), 42);
+			SignedInfo signedInfo = new SignedInfo(new PublisherPublicKeyDigest(publisher), CCNTime.now(),
+					SignedInfo.ContentType.DATA, new KeyLocator(ContentName.fromNative("/test/key")));
+			ContentObject content = new ContentObject(name, signedInfo, data, new Signature(sigBytes));
+			Interest interest = new Interest(name);
+			interest.maxSuffixComponents(1);
+			interest.exclude(new Exclude(new byte [][]{"a".getBytes(), "b".getBytes()}));
+			interest.scope(2);
+
+			run("ContentObject", content.encode(), seconds);
+			run("Interest", interest.encode(), seconds);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		System.exit(0);
+	}
+
+	protected static void run(String label, final byte [] encoded, int seconds) throws Exception {
+		System.out.println(label + ": " + encoded.length + " bytes encoded");
+		Decode stream = new Decode() {
+			public void decode() throws Exception {
+				BinaryXMLDecoder decoder = new BinaryXMLDecoder();
+				decoder.beginDecoding(new ByteArrayInputStream(encoded));
+				new WirePacket().decode(decoder);
+				decoder.endDecoding();
+			}
+		};
+		final ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length);
+		direct.put(encoded);
+		final BinaryXMLBufferDecoder bufferDecoder = new BinaryXMLBufferDecoder();
+		Decode buffer = new Decode() {
+			public void decode() throws Exception {
+				direct.position(0);
+				bufferDecoder.beginDecoding(direct);
+				new WirePacket().decode(bufferDecoder);
+				bufferDecoder.endDecoding();
+			}
+		};
+		time(stream, WARMUP_SECONDS);
+		time(buffer, WARMUP_SECONDS);
+		report("  InputStream decoder", stream, seconds);
+		report("  ByteBuffer decoder ", buffer, seconds);
+	}
+
+	protected static void report(String label, Decode decode, int seconds) throws Exception {
+		long before = allocatedBytes();
+		long count = time(decode, seconds);
+		long after = allocatedBytes();
+		String allocated = (before < 0) ? "" : (", " + ((after - before) / count) + " bytes allocated per decode");
+		System.out.println(label + ": " + (count / seconds) + " decodes/sec" + allocated);
+	}
+
+	protected static long time(Decode decode, int seconds) throws Exception {
+		long end = System.currentTimeMillis() + seconds * 1000;
+		long count = 0;
+		while (System.currentTimeMillis() < end) {
+			// Check the time every so often so that doesn't dominate
+			for (int i = 0; i < 1000; i++)
+				decode.decode();
+			count += 1000;
+		}
+		return count;
+	}
+
+	/**
+	 * @return bytes allocated so far by this thread, or -1 if the JVM can't tell us
+	 */
+	protected static long allocatedBytes() {
+		try {
+			Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+			Method method = beanClass.getMethod("getThreadAllocatedBytes", long.class);
+			return (Long)method.invoke(ManagementFactory.getThreadMXBean(), Thread.currentThread().getId());
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+}
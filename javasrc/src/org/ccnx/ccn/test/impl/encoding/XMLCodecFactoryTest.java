@@ -0,0 +1,93 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.impl.encoding;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.ccnx.ccn.impl.encoding.BinaryXMLCodec;
+import org.ccnx.ccn.impl.encoding.TextXMLCodec;
+import org.ccnx.ccn.impl.encoding.XMLCodecFactory;
+import org.ccnx.ccn.impl.encoding.XMLDecoder;
+import org.ccnx.ccn.impl.encoding.XMLEncoder;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.Interest;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test reuse of pooled encoders and decoders, and encoding into buffers.
+ */
+public class XMLCodecFactoryTest {
+
+	@Test
+	public void testPooling() throws Exception {
+		XMLEncoder encoder = XMLCodecFactory.acquireEncoder(BinaryXMLCodec.codecName());
+		// Nested use gets its own instance
+		XMLEncoder nested = XMLCodecFactory.acquireEncoder(BinaryXMLCodec.codecName());
+		Assert.assertNotSame(encoder, nested);
+		XMLCodecFactory.releaseEncoder(nested);
+		XMLCodecFactory.releaseEncoder(encoder);
+		Assert.assertSame(encoder, XMLCodecFactory.acquireEncoder(BinaryXMLCodec.codecName()));
+		XMLCodecFactory.releaseEncoder(encoder);
+
+		XMLDecoder decoder = XMLCodecFactory.acquireDecoder(TextXMLCodec.codecName());
+		XMLCodecFactory.releaseDecoder(decoder);
+		Assert.assertSame(decoder, XMLCodecFactory.acquireDecoder(TextXMLCodec.codecName()));
+		Assert.assertNotSame(decoder, XMLCodecFactory.acquireDecoder(TextXMLCodec.codecName()));
+	}
+
+	@Test
+	public void testReuse() throws Exception {
+		// Go round a few times so the encoders and decoders get reused
+		for (int i = 0; i < 3; i++) {
+			Interest interest = new Interest(ContentName.fromNative("/test/XMLCodecFactoryTest/" + i));
+			Interest decoded = new Interest();
+			decoded.decode(interest.encode(TextXMLCodec.codecName()), TextXMLCodec.codecName());
+			Assert.assertEquals(interest, decoded);
+			decoded = new Interest();
+			decoded.decode(interest.encode(BinaryXMLCodec.codecName()), BinaryXMLCodec.codecName());
+			Assert.assertEquals(interest, decoded);
+		}
+	}
+
+	@Test
+	public void testEncodeBuffer() throws Exception {
+		Interest interest = new Interest(ContentName.fromNative("/test/XMLCodecFactoryTest/buffer"));
+		byte [] encoded = interest.encode(BinaryXMLCodec.codecName());
+		Assert.assertEquals(encoded.length, interest.encodedLength());
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(encoded.length + 3);
+		buffer.position(3);
+		interest.encode(buffer);
+		Assert.assertEquals(encoded.length + 3, buffer.position());
+		byte [] written = new byte[encoded.length];
+		buffer.position(3);
+		buffer.get(written);
+		Assert.assertTrue(Arrays.equals(encoded, written));
+
+		buffer.position(4);
+		try {
+			interest.encode(buffer);
+			Assert.fail("Encoded into a buffer that was too small");
+		} catch (BufferOverflowException e) {
+			Assert.assertEquals(4, buffer.position());
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.io;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import org.ccnx.ccn.CCNHandle;
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNFlowServer;
+import org.ccnx.ccn.impl.CCNNetworkManager;
+import org.ccnx.ccn.impl.CCNNetworkManager.NetworkProtocol;
+import org.ccnx.ccn.impl.ccnd.CCNForwarder;
+import org.ccnx.ccn.impl.security.crypto.ContentKeys;
+import org.ccnx.ccn.impl.security.crypto.StaticContentKeys;
+import org.ccnx.ccn.io.CCNOutputStream;
+import org.ccnx.ccn.io.CCNReader;
+import org.ccnx.ccn.io.CCNSegmentFetcher;
+import org.ccnx.ccn.io.NoMatchingContentFoundException;
+import org.ccnx.ccn.profiles.VersioningProfile;
+import org.ccnx.ccn.protocol.ContentName;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test fetching segmented content into a file in parallel, through the Java forwarder so
+ * this doesn't need ccnd.
+ */
+public class CCNSegmentFetcherTest {
+
+	static final int BLOCK_SIZE = 4096;
+
+	static NetworkProtocol savedProtocol;
+	static CCNForwarder forwarder;
+	static CCNHandle writer;
+	static CCNHandle reader;
+	static ContentName prefix;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		savedProtocol = SystemConfiguration.AGENT_PROTOCOL;
+		SystemConfiguration.AGENT_PROTOCOL = NetworkProtocol.TCP;
+		forwarder = new CCNForwarder(0, 0);
+		forwarder.start();
+		System.setProperty(CCNNetworkManager.PROP_AGENT_PORT, Integer.toString(forwarder.getPort()));
+		writer = CCNHandle.open();
+		reader = CCNHandle.open();
+		prefix = ContentName.fromNative("/test/CCNSegmentFetcherTest/" + System.currentTimeMillis());
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() {
+		writer.close();
+		reader.close();
+		forwarder.shutdown();
+		System.clearProperty(CCNNetworkManager.PROP_AGENT_PORT);
+		SystemConfiguration.AGENT_PROTOCOL = savedProtocol;
+	}
+
+	/**
+	 * Write length bytes under a new version of name, served from a flow server
+	 */
+	static byte [] write(ContentName name, int length, ContentKeys keys) throws Exception {
+		ContentName versioned = VersioningProfile.addVersion(name);
+		CCNFlowServer server = new CCNFlowServer(name, (length / BLOCK_SIZE) + 2, true, writer);
+		CCNOutputStream out = new CCNOutputStream(versioned, null, null, null, keys, server);
+		out.setBlockSize(BLOCK_SIZE);
+		byte [] data = new byte[length];
+		new Random(length).nextBytes(data);
+		out.write(data);
+		out.close();
+		return data;
+	}
+
+	static byte [] read(FileChannel channel) throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate((int)channel.size());
+		channel.read(buffer, 0);
+		return buffer.array();
+	}
+
+	static FileChannel tempFile() throws Exception {
+		File file = File.createTempFile("CCNSegmentFetcherTest", null);
+		file.deleteOnExit();
+		return new RandomAccessFile(file, "rw").getChannel();
+	}
+
+	@Test
+	public void testFetch() throws Exception {
+		ContentName name = new ContentName(prefix, "fetch".getBytes());
+		byte [] data = write(name, 200 * BLOCK_SIZE + 301, null);
+		FileChannel channel = tempFile();
+		long length = new CCNSegmentFetcher(reader, 4, 2).fetchTo(name, null, channel, 5000);
+		Assert.assertEquals(data.length, length);
+		Assert.assertArrayEquals(data, read(channel));
+		channel.close();
+	}
+
+	@Test
+	public void testEncrypted() throws Exception {
+		ContentName name = new ContentName(prefix, "encrypted".getBytes());
+		ContentKeys keys = StaticContentKeys.generateRandomKeys();
+		byte [] data = write(name, 50 * BLOCK_SIZE, keys);
+		FileChannel channel = tempFile();
+		long length = new CCNSegmentFetcher(reader, 3, 2).fetchTo(name, null, keys, channel, 5000);
+		Assert.assertEquals(data.length, length);
+		Assert.assertArrayEquals(data, read(channel));
+		channel.close();
+	}
+
+	@Test
+	public void testOneSegment() throws Exception {
+		ContentName name = new ContentName(prefix, "one".getBytes());
+		byte [] data = write(name, 100, null);
+		// What was in the file before is truncated
+		FileChannel channel = tempFile();
+		channel.write(ByteBuffer.wrap(new byte[BLOCK_SIZE]));
+		long length = new CCNReader(reader).fetchTo(name, null, channel, 5000);
+		Assert.assertEquals(data.length, length);
+		Assert.assertArrayEquals(data, read(channel));
+		channel.close();
+	}
+
+	@Test
+	public void testMissing() throws Exception {
+		FileChannel channel = tempFile();
+		try {
+			new CCNSegmentFetcher(reader).fetchTo(new ContentName(prefix, "missing".getBytes()), null, channel, 500);
+			Assert.fail("Fetched content that doesn't exist");
+		} catch (NoMatchingContentFoundException e) {}
+		channel.close();
+	}
+}
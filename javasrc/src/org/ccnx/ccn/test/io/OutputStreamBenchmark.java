@@ -0,0 +1,107 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.io;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.CCNHandle;
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNFlowControl;
+import org.ccnx.ccn.impl.CCNNetworkManager.NetworkProtocol;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.io.CCNOutputStream;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+
+/**
+ * Measures how fast a CCNOutputStream can segment and sign content, at a range of block
+ * sizes. The segments go to a flow controller that encodes each one, as it would be to send
+ * it, then drops it, so no reader or network is involved.
+ *
+ * Usage: OutputStreamBenchmark [megabytes] [runs]
+ */
+public class OutputStreamBenchmark {
+
+	public static final int DEFAULT_MEGABYTES = 16;
+	public static final int DEFAULT_RUNS = 3;
+	public static final int [] BLOCK_SIZES = {1024, 2048, 4096, 8192};
+	public static final int WRITE_SIZE = 64 * 1024;
+
+	/**
+	 * Encodes everything put to it, and keeps none of it
+	 */
+	protected static class EncodingSink extends CCNFlowControl {
+
+		public EncodingSink(ContentName name, CCNHandle handle) throws IOException {
+			super(name, handle);
+		}
+
+		@Override
+		public ContentObject put(ContentObject co) throws IOException {
+			co.encode();
+			return co;
+		}
+	}
+
+	public static void main(String[] args) {
+		int megabytes = DEFAULT_MEGABYTES;
+		int runs = DEFAULT_RUNS;
+		try {
+			if (args.length > 0)
+				megabytes = Integer.parseInt(args[0]);
+			if (args.length > 1)
+				runs = Integer.parseInt(args[1]);
+		} catch (NumberFormatException e) {
+			System.err.println("Usage: OutputStreamBenchmark [megabytes] [runs]");
+			System.exit(1);
+		}
+		Log.setLevel(Log.FAC_ALL, Level.SEVERE);
+		SystemConfiguration.AGENT_PROTOCOL = NetworkProtocol.LOCAL;
+
+		try {
+			CCNHandle handle = CCNHandle.open();
+			byte [] data = new byte[WRITE_SIZE];
+			new Random(1).nextBytes(data);
+			long length = megabytes * 1024L * 1024L;
+
+			System.out.println("Writing " + megabytes + " MB, " + Runtime.getRuntime().availableProcessors() + " processors");
+			for (int blockSize : BLOCK_SIZES) {
+				for (int run = 0; run < runs; run++) {
+					ContentName name = ContentName.fromNative("/test/OutputStreamBenchmark/" + System.nanoTime());
+					long start = System.nanoTime();
+					CCNOutputStream out = new CCNOutputStream(name, null, null, null, null, new EncodingSink(name, handle));
+					out.setBlockSize(blockSize);
+					for (long written = 0; written < length; written += data.length)
+						out.write(data);
+					out.close();
+					long elapsed = System.nanoTime() - start;
+					System.out.println(String.format("block %d run %d: %d ms, %.1f MB/s", blockSize, run, elapsed / 1000000,
+							(megabytes * 1000000000.0) / elapsed));
+				}
+			}
+			handle.close();
+		} catch (Exception e) {
+			System.err.println("Exception: " + e.getMessage());
+			e.printStackTrace();
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+}
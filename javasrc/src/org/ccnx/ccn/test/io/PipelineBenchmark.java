@@ -0,0 +1,140 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.io;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.CCNHandle;
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNFlowControl;
+import org.ccnx.ccn.impl.CCNNetworkManager.NetworkProtocol;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.io.CCNInputStream;
+import org.ccnx.ccn.io.CCNOutputStream;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+
+/**
+ * Measures how many segments a second a CCNInputStream's pipeline can take in when the
+ * network isn't the bottleneck. The segments are written beforehand into a hash table,
+ * which answers the reader's interests for them by name, and the interests and segments
+ * pass between the handles through the in-JVM LOCAL protocol, so no packet is encoded.
+ *
+ * Usage: PipelineBenchmark [segments] [runs]
+ */
+public class PipelineBenchmark {
+
+	public static final int DEFAULT_SEGMENTS = 2000;
+	public static final int DEFAULT_RUNS = 5;
+	public static final int BLOCK_SIZE = 1024;
+
+	/**
+	 * Keeps everything put to it, and answers interests for them by name, rather than holding
+	 * content till it's asked for as CCNFlowControl does
+	 */
+	protected static class MemorySource extends CCNFlowControl {
+		protected final HashMap<ContentName, ContentObject> _segments = new HashMap<ContentName, ContentObject>();
+
+		public MemorySource(ContentName name, CCNHandle handle) throws IOException {
+			super(name, handle);
+		}
+
+		@Override
+		public ContentObject put(ContentObject co) throws IOException {
+			synchronized (_segments) {
+				_segments.put(co.name(), co);
+			}
+			return co;
+		}
+
+		@Override
+		public boolean handleInterest(Interest interest) {
+			ContentObject co;
+			synchronized (_segments) {
+				co = _segments.get(interest.name());
+			}
+			if ((null == co) || !interest.matches(co))
+				return false;
+			try {
+				_handle.put(co);
+			} catch (IOException e) {
+				Log.warning("Cannot put {0}: {1}", co.name(), e.getMessage());
+			}
+			return true;
+		}
+	}
+
+	public static void main(String[] args) {
+		int segments = DEFAULT_SEGMENTS;
+		int runs = DEFAULT_RUNS;
+		try {
+			if (args.length > 0)
+				segments = Integer.parseInt(args[0]);
+			if (args.length > 1)
+				runs = Integer.parseInt(args[1]);
+		} catch (NumberFormatException e) {
+			System.err.println("Usage: PipelineBenchmark [segments] [runs]");
+			System.exit(1);
+		}
+		Log.setLevel(Log.FAC_ALL, Level.SEVERE);
+		SystemConfiguration.AGENT_PROTOCOL = NetworkProtocol.LOCAL;
+
+		try {
+			CCNHandle writer = CCNHandle.open();
+			CCNHandle reader = CCNHandle.open();
+
+			ContentName name = ContentName.fromNative("/test/PipelineBenchmark/" + System.currentTimeMillis());
+			MemorySource source = new MemorySource(name, writer);
+			CCNOutputStream out = new CCNOutputStream(name, null, null, null, null, source);
+			out.setBlockSize(BLOCK_SIZE);
+			byte [] data = new byte[segments * BLOCK_SIZE];
+			new Random(1).nextBytes(data);
+			out.write(data);
+			out.close();
+
+			System.out.println("Reading " + segments + " segments of " + BLOCK_SIZE + " bytes, window "
+					+ SystemConfiguration.PIPELINE_SIZE + " to " + SystemConfiguration.PIPELINE_MAX_SIZE);
+			byte [] buffer = new byte[BLOCK_SIZE];
+			for (int run = 0; run < runs; run++) {
+				long start = System.nanoTime();
+				CCNInputStream in = new CCNInputStream(name, reader);
+				long total = 0;
+				int read;
+				while ((read = in.read(buffer)) > 0)
+					total += read;
+				in.close();
+				long elapsed = System.nanoTime() - start;
+				if (total != data.length)
+					throw new IOException("Read " + total + " bytes, expected " + data.length);
+				System.out.println(String.format("run %d: %d ms, %d segments/s", run, elapsed / 1000000,
+						(segments * 1000000000L) / elapsed));
+			}
+			writer.close();
+			reader.close();
+		} catch (Exception e) {
+			System.err.println("Exception: " + e.getMessage());
+			e.printStackTrace();
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+}
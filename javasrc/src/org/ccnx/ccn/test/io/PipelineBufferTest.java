@@ -0,0 +1,109 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.io;
+
+import java.util.ArrayList;
+
+import org.ccnx.ccn.io.PipelineBuffer;
+import org.ccnx.ccn.profiles.SegmentationProfile;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the ring of segments and interests behind the input stream pipeline
+ */
+public class PipelineBufferTest {
+
+	static ContentName name = ContentName.fromNative(new ContentName(), "test", "PipelineBufferTest");
+
+	static Interest interest(long number) {
+		return SegmentationProfile.segmentInterest(name, number, null);
+	}
+
+	static ContentObject segment(long number) {
+		return ContentObject.buildContentObject(SegmentationProfile.segmentName(name, number), new byte[]{(byte)number});
+	}
+
+	@Test
+	public void testInOrder() {
+		PipelineBuffer buffer = new PipelineBuffer(4);
+		buffer.reset(10, null);
+		for (long n = 10; n < 14; n++)
+			Assert.assertNull(buffer.expressed(n, interest(n)));
+		Assert.assertFalse(buffer.inRange(14));
+		Assert.assertEquals(4, buffer.interestCount());
+
+		Interest i10 = buffer.interest(10);
+		Assert.assertSame(i10, buffer.received(10, segment(10)));
+		Assert.assertEquals(11, buffer.firstMissing());
+		Assert.assertEquals(1, buffer.inOrderCount());
+		Assert.assertEquals(3, buffer.interestCount());
+
+		// The reader takes 10, making room for 14 in its slot
+		buffer.advance(11, new ArrayList<Interest>());
+		Assert.assertTrue(buffer.inRange(14));
+		Assert.assertNull(buffer.segment(14));
+		Assert.assertEquals(0, buffer.expressions(14));
+		Assert.assertEquals(0, buffer.segmentCount());
+	}
+
+	@Test
+	public void testOutOfOrder() {
+		PipelineBuffer buffer = new PipelineBuffer(8);
+		for (long n = 0; n < 4; n++)
+			buffer.expressed(n, interest(n));
+		buffer.received(2, segment(2));
+		buffer.received(3, segment(3));
+		Assert.assertEquals(0, buffer.firstMissing());
+		Assert.assertEquals(2, buffer.segmentCount());
+		Assert.assertEquals(0, buffer.inOrderCount());
+
+		// Filling the hole brings everything after it into order
+		buffer.expressed(1, interest(1));
+		Assert.assertEquals(2, buffer.expressions(1));
+		buffer.received(1, segment(1));
+		buffer.received(0, segment(0));
+		Assert.assertEquals(4, buffer.firstMissing());
+		Assert.assertEquals(4, buffer.inOrderCount());
+		Assert.assertEquals(0, buffer.interestCount());
+	}
+
+	@Test
+	public void testCancel() {
+		PipelineBuffer buffer = new PipelineBuffer(8);
+		for (long n = 0; n < 6; n++)
+			buffer.expressed(n, interest(n));
+		buffer.received(3, segment(3));
+		ArrayList<Interest> cancelled = new ArrayList<Interest>();
+		buffer.cancelAfter(3, cancelled);
+		Assert.assertEquals(2, cancelled.size());
+		Assert.assertEquals(3, buffer.interestCount());
+
+		// Seeking drops everything
+		cancelled.clear();
+		buffer.reset(100, cancelled);
+		Assert.assertEquals(3, cancelled.size());
+		Assert.assertEquals(0, buffer.interestCount());
+		Assert.assertEquals(0, buffer.segmentCount());
+		Assert.assertEquals(100, buffer.firstMissing());
+		Assert.assertNull(buffer.segment(3));
+	}
+}
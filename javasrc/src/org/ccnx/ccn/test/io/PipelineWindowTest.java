@@ -0,0 +1,98 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.io;
+
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.io.PipelineWindow;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the pipeline's congestion window
+ */
+public class PipelineWindowTest {
+
+	@Test
+	public void testGrowth() {
+		PipelineWindow window = new PipelineWindow(4, 16);
+		Assert.assertEquals(4, window.size());
+
+		// Slow start: one more for each segment, up to the maximum
+		for (int i = 0; i < 4; i++)
+			window.segmentReceived(100);
+		Assert.assertEquals(8, window.size());
+		for (int i = 0; i < 100; i++)
+			window.segmentReceived(100);
+		Assert.assertEquals(16, window.size());
+		Assert.assertEquals(16, window.largestSize());
+		Assert.assertEquals(10400, window.bytes());
+	}
+
+	@Test
+	public void testLoss() {
+		PipelineWindow window = new PipelineWindow(4, 64);
+		for (int i = 0; i < 12; i++)
+			window.segmentReceived(100);
+		Assert.assertEquals(16, window.size());
+		window.segmentLost();
+		Assert.assertEquals(8, window.size());
+
+		// Then one more a round trip
+		for (int i = 0; i < 8; i++)
+			window.segmentReceived(100);
+		Assert.assertEquals(8, window.size());
+		window.segmentReceived(100);
+		Assert.assertEquals(9, window.size());
+		Assert.assertEquals(1, window.losses());
+	}
+
+	@Test
+	public void testOneDecreasePerRoundTrip() {
+		PipelineWindow window = new PipelineWindow(16, 64);
+		window.roundTripTime(10000);
+		window.segmentLost();
+		window.segmentLost();
+		Assert.assertEquals(8, window.size());
+		Assert.assertEquals(2, window.losses());
+	}
+
+	@Test
+	public void testTimeout() {
+		PipelineWindow window = new PipelineWindow(4, 64);
+		Assert.assertEquals(-1, window.timeout());
+		for (int i = 0; i < 50; i++)
+			window.roundTripTime(100);
+		long timeout = window.timeout();
+		Assert.assertTrue(timeout >= SystemConfiguration.PIPELINE_RTTFACTOR * 100);
+
+		// Backs off for each loss, till there's a new measurement
+		window.segmentLost();
+		Assert.assertEquals(2 * timeout, window.timeout(), 1);
+		window.roundTripTime(100);
+		Assert.assertEquals(timeout, window.timeout(), 1);
+	}
+
+	@Test
+	public void testFixed() {
+		PipelineWindow window = new PipelineWindow(4, 2);
+		Assert.assertEquals(4, window.maxSize());
+		for (int i = 0; i < 10; i++)
+			window.segmentReceived(100);
+		Assert.assertEquals(4, window.size());
+	}
+}
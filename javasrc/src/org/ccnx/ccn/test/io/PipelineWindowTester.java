@@ -0,0 +1,168 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.io;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.CCNHandle;
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.CCNFlowServer;
+import org.ccnx.ccn.impl.CCNNetworkManager;
+import org.ccnx.ccn.impl.CCNNetworkManager.NetworkProtocol;
+import org.ccnx.ccn.impl.ccnd.CCNForwarder;
+import org.ccnx.ccn.impl.ccnd.ForwarderFace;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.io.CCNInputStream;
+import org.ccnx.ccn.io.CCNOutputStream;
+import org.ccnx.ccn.io.PipelineWindow;
+import org.ccnx.ccn.protocol.ContentName;
+
+/**
+ * Measures how fast a CCNInputStream reads as the round trip time grows, with the pipeline's
+ * window held at SystemConfiguration.PIPELINE_SIZE, as it used to be, and with it adapting
+ * up to PIPELINE_MAX_SIZE (see PipelineWindow).
+ *
+ * The stream is read through a CCNForwarder in this JVM that holds each packet it receives
+ * for half the round trip time before forwarding it, and has no content store, so every
+ * segment comes from the writer's flow server and takes a whole round trip.
+ *
+ * Usage: PipelineWindowTester [kilobytes] [round trip times in ms...]
+ */
+public class PipelineWindowTester {
+
+	public static final int DEFAULT_KILOBYTES = 1024;
+	public static final int [] DEFAULT_ROUND_TRIP_TIMES = {0, 10, 50, 100};
+	public static final int BLOCK_SIZE = 4096;
+
+	/**
+	 * A forwarder that delays every packet it receives
+	 */
+	protected static class DelayingForwarder extends CCNForwarder {
+		protected final ScheduledExecutorService _delayer = Executors.newSingleThreadScheduledExecutor();
+		protected volatile long _delay = 0;
+
+		public DelayingForwarder() throws IOException {
+			super(0, 0);
+		}
+
+		public void setRoundTripTime(long rtt) {
+			_delay = rtt / 2;
+		}
+
+		@Override
+		protected void receive(final ForwarderFace from, final byte [] encoded) {
+			if (0 == _delay) {
+				super.receive(from, encoded);
+				return;
+			}
+			_delayer.schedule(new Runnable() {
+				public void run() {
+					DelayingForwarder.super.receive(from, encoded);
+				}
+			}, _delay, TimeUnit.MILLISECONDS);
+		}
+
+		@Override
+		public void shutdown() {
+			_delayer.shutdownNow();
+			super.shutdown();
+		}
+	}
+
+	public static void main(String[] args) {
+		int kilobytes = DEFAULT_KILOBYTES;
+		int [] rtts = DEFAULT_ROUND_TRIP_TIMES;
+		try {
+			if (args.length > 0)
+				kilobytes = Integer.parseInt(args[0]);
+			if (args.length > 1) {
+				rtts = new int[args.length - 1];
+				for (int i = 1; i < args.length; i++)
+					rtts[i - 1] = Integer.parseInt(args[i]);
+			}
+		} catch (NumberFormatException e) {
+			System.err.println("Usage: PipelineWindowTester [kilobytes] [round trip times in ms...]");
+			System.exit(1);
+		}
+		Log.setLevel(Log.FAC_ALL, Level.SEVERE);
+
+		DelayingForwarder forwarder = null;
+		try {
+			forwarder = new DelayingForwarder();
+			forwarder.start();
+			System.setProperty(CCNNetworkManager.PROP_AGENT_PORT, Integer.toString(forwarder.getPort()));
+			SystemConfiguration.AGENT_PROTOCOL = NetworkProtocol.TCP;
+			CCNHandle writer = CCNHandle.open();
+			CCNHandle reader = CCNHandle.open();
+
+			ContentName name = ContentName.fromNative("/test/PipelineWindowTester/" + System.currentTimeMillis());
+			int segments = (kilobytes * 1024) / BLOCK_SIZE;
+			CCNFlowServer server = new CCNFlowServer(name, segments + 1, true, writer);
+			CCNOutputStream out = new CCNOutputStream(name, null, null, null, null, server);
+			out.setBlockSize(BLOCK_SIZE);
+			byte [] data = new byte[kilobytes * 1024];
+			new Random(1).nextBytes(data);
+			out.write(data);
+			out.close();
+
+			int fixed = SystemConfiguration.PIPELINE_SIZE;
+			int max = SystemConfiguration.PIPELINE_MAX_SIZE;
+			System.out.println("Reading " + kilobytes + " KB in " + BLOCK_SIZE + " byte segments, window "
+					+ fixed + " fixed or up to " + max + " adaptive");
+			System.out.println("rtt (ms)   fixed KB/s   adaptive KB/s   largest window   losses");
+			for (int rtt : rtts) {
+				forwarder.setRoundTripTime(rtt);
+				SystemConfiguration.PIPELINE_MAX_SIZE = fixed;
+				PipelineWindow fixedWindow = read(name, reader, data.length);
+				SystemConfiguration.PIPELINE_MAX_SIZE = max;
+				PipelineWindow adaptiveWindow = read(name, reader, data.length);
+				System.out.println(String.format("%8d   %10d   %13d   %14d   %6d", rtt,
+						fixedWindow.throughput() / 1024, adaptiveWindow.throughput() / 1024,
+						adaptiveWindow.largestSize(), adaptiveWindow.losses()));
+			}
+			writer.close();
+			reader.close();
+		} catch (Exception e) {
+			System.err.println("Exception: " + e.getMessage());
+			e.printStackTrace();
+			System.exit(1);
+		} finally {
+			if (null != forwarder)
+				forwarder.shutdown();
+		}
+		System.exit(0);
+	}
+
+	protected static PipelineWindow read(ContentName name, CCNHandle handle, int length) throws IOException {
+		CCNInputStream in = new CCNInputStream(name, handle);
+		byte [] buffer = new byte[BLOCK_SIZE];
+		int total = 0;
+		int read;
+		while ((read = in.read(buffer)) > 0)
+			total += read;
+		in.close();
+		if (total != length)
+			throw new IOException("Read " + total + " bytes, expected " + length);
+		return in.pipelineWindow();
+	}
+}
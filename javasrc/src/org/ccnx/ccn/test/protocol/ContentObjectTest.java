@@ -17,6 +17,8 @@
 
 package org.ccnx.ccn.test.protocol;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
@@ -26,7 +28,11 @@ import java.util.Arrays;
 import java.util.Date;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.ccnx.ccn.impl.encoding.BinaryXMLEncoder;
+import org.ccnx.ccn.impl.encoding.CCNProtocolDTags;
+import org.ccnx.ccn.impl.security.crypto.CCNDigestHelper;
 import org.ccnx.ccn.impl.support.DataUtils;
+import org.ccnx.ccn.io.content.ContentDecodingException;
 import org.ccnx.ccn.protocol.CCNTime;
 import org.ccnx.ccn.protocol.ContentName;
 import org.ccnx.ccn.protocol.ContentObject;
@@ -34,6 +40,7 @@ import org.ccnx.ccn.protocol.KeyLocator;
 import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
 import org.ccnx.ccn.protocol.Signature;
 import org.ccnx.ccn.protocol.SignedInfo;
+import org.ccnx.ccn.protocol.WirePacket;
 import org.ccnx.ccn.test.impl.encoding.XMLEncodableTester;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -181,4 +188,57 @@ public class ContentObjectTest {
 		}
 	}
 
+	@Test
+	public void testCachedEncoding() throws Exception {
+		ContentObject co = new ContentObject(name, auth, document2.getBytes(), pair.getPrivate());
+		byte [] encoded = co.encode();
+		Assert.assertEquals(encoded.length, co.encodedLength());
+		Assert.assertArrayEquals(encoded, co.encode());
+		Assert.assertArrayEquals(CCNDigestHelper.digest(encoded), co.digest());
+		Assert.assertArrayEquals(ContentObject.prepareContent(name, auth, document2.getBytes()), co.prepareContent());
+		Assert.assertTrue(co.verify(pair.getPublic()));
+
+		// Writing it to the network uses the same encoding
+		ByteBuffer buffer = ByteBuffer.allocate(encoded.length);
+		new WirePacket(co).encode(buffer);
+		Assert.assertArrayEquals(encoded, buffer.array());
+
+		// Objects decoded from a buffer verify using the encoding they arrived in
+		buffer.flip();
+		ContentObject decoded = new ContentObject();
+		decoded.decode(buffer);
+		Assert.assertArrayEquals(co.prepareContent(), decoded.prepareContent());
+		Assert.assertTrue(decoded.verify(pair.getPublic()));
+		Assert.assertArrayEquals(co.digest(), decoded.digest());
+
+		// A new signature replaces the cached encoding and digest
+		decoded.setSignature(signature);
+		Assert.assertFalse(Arrays.equals(encoded, decoded.encode()));
+		Assert.assertFalse(Arrays.equals(co.digest(), decoded.digest()));
+		Assert.assertArrayEquals(CCNDigestHelper.digest(decoded.encode()), decoded.digest());
+		Assert.assertFalse(decoded.verify(pair.getPublic()));
+		co.setSignature(signature);
+		Assert.assertArrayEquals(decoded.encode(), co.encode());
+		Assert.assertArrayEquals(decoded.digest(), co.digest());
+	}
+
+	@Test
+	public void testMalformedEncoding() throws Exception {
+		// The fields decoded only when asked for are still checked when the object arrives
+		ContentObject co = new ContentObject(name, auth, document2.getBytes(), signature);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryXMLEncoder encoder = new BinaryXMLEncoder();
+		encoder.beginEncoding(out);
+		encoder.writeStartElement(CCNProtocolDTags.ContentObject);
+		co.signature().encode(encoder);
+		co.name().encode(encoder);
+		co.signature().encode(encoder);	// in place of the signedInfo
+		encoder.writeElement(CCNProtocolDTags.Content, co.content());
+		encoder.writeEndElement();
+		encoder.endEncoding();
+		try {
+			new ContentObject().decode(ByteBuffer.wrap(out.toByteArray()));
+			Assert.fail("Decoded a content object with a signature for its signedInfo");
+		} catch (ContentDecodingException e) {}
+	}
 }
@@ -0,0 +1,113 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.repo;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.impl.repo.ContentRef;
+import org.ccnx.ccn.impl.repo.ContentTree;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.profiles.SegmentationProfile;
+import org.ccnx.ccn.profiles.VersioningProfile;
+import org.ccnx.ccn.protocol.ContentName;
+
+/**
+ * Part of repository test infrastructure. Measures the heap used by a ContentTree indexing
+ * a synthetic repository of versioned, segmented files, and reports the bytes used per
+ * indexed object.
+ *
+ * Names are built from newly allocated components, as they are when a repository loads its
+ * index at startup, and the references are the size of the ones LogStructRepoStore uses.
+ *
+ * Usage: ContentTreeHeapTester [object count]
+ *
+ * This does not use the network, so doesn't need ccnd. Run with a heap big enough to hold
+ * the tree, e.g. -Xmx2g for the default count.
+ */
+public class ContentTreeHeapTester {
+
+	public static final int DEFAULT_COUNT = 1000000;
+	public static final int SEGMENTS_PER_FILE = 1000;
+	public static final int FILES_PER_DIRECTORY = 100;
+
+	/**
+	 * Same size as LogStructRepoStore's references
+	 */
+	protected static class FileRef extends ContentRef {
+		int id;
+		long offset;
+	}
+
+	public static void main(String[] args) {
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_COUNT;
+		Log.setLevel(Level.SEVERE);	// turn off logging
+		try {
+			ContentName base = ContentName.fromNative("/test/ContentTreeHeapTester");
+			Random rnd = new Random();
+
+			long before = usedHeap();
+			long start = System.currentTimeMillis();
+			ContentTree tree = new ContentTree();
+			ContentName versionName = null;
+			for (int i = 0; i < count; i++) {
+				int file = i / SEGMENTS_PER_FILE;
+				if (0 == i % SEGMENTS_PER_FILE) {
+					versionName = VersioningProfile.addVersion(ContentName.fromNative(base,
+							"dir" + (file / FILES_PER_DIRECTORY), "file" + file));
+				}
+				ContentName segmentName = SegmentationProfile.segmentName(versionName, i % SEGMENTS_PER_FILE);
+				byte [] digest = new byte[32];
+				rnd.nextBytes(digest);
+				ArrayList<byte []> components = new ArrayList<byte []>(segmentName.count() + 1);
+				for (byte [] component : segmentName.components())
+					components.add(component.clone());
+				components.add(digest);
+				FileRef ref = new FileRef();
+				ref.id = 1;
+				ref.offset = i * 1000L;
+				tree.insert(new ContentName(components.size(), components), ref, start);
+			}
+			long time = System.currentTimeMillis() - start;
+			long after = usedHeap();
+			System.out.println("Indexed " + count + " objects in " + time + " ms");
+			System.out.println("Heap used: " + (after - before) + " bytes, " + ((after - before) / count) + " bytes per object");
+			// Keep the tree live until we've measured it
+			System.out.println(tree.matchContent(base) ? "" : "Done");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		System.exit(0);
+	}
+
+	protected static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		// Collect until things settle down
+		for (int i = 0; i < 10; i++) {
+			System.gc();
+			Thread.sleep(100);
+			long now = runtime.totalMemory() - runtime.freeMemory();
+			if (now >= used)
+				break;
+			used = now;
+		}
+		return used;
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.repo;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.impl.repo.ContentRef;
+import org.ccnx.ccn.impl.repo.ContentTree;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.profiles.SegmentationProfile;
+import org.ccnx.ccn.profiles.VersioningProfile;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.KeyLocator;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+
+/**
+ * Part of repository test infrastructure. Measures ContentTree throughput with increasing
+ * numbers of threads, each mixing lookups and inserts the way a busy repository does.
+ *
+ * The tree is loaded with versioned, segmented files spread over a small namespace. Each
+ * operation is either an insert of a segment of a new version of a random file, a lookup
+ * of the latest version of a random file, or a lookup of a random existing segment.
+ *
+ * Usage: ContentTreeTester [file count] [max threads] [seconds per run] [percent inserts]
+ *
+ * This does not use the network, so doesn't need ccnd.
+ */
+public class ContentTreeTester {
+
+	public static final int DEFAULT_FILES = 1000;
+	public static final int DEFAULT_MAX_THREADS = 16;
+	public static final int DEFAULT_SECONDS = 5;
+	public static final int DEFAULT_INSERT_PERCENT = 10;
+	public static final int SEGMENTS_PER_FILE = 100;
+	public static final int DIRECTORIES = 10;
+
+	/**
+	 * Holds content in memory, as MemoryRepoStore does
+	 */
+	protected static class ObjectRef extends ContentRef {
+		ContentObject content;
+
+		ObjectRef(ContentObject content) {
+			this.content = content;
+		}
+	}
+
+	protected static final ContentTree.ContentGetter GETTER = new ContentTree.ContentGetter() {
+		public ContentObject get(ContentRef ref) {
+			return ((ObjectRef)ref).content;
+		}
+	};
+
+	protected static ContentName _base;
+	protected static SignedInfo _signedInfo;
+	protected static Signature _signature;
+
+	public static void main(String[] args) {
+		int files = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_FILES;
+		int maxThreads = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_MAX_THREADS;
+		int seconds = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_SECONDS;
+		int insertPercent = (args.length > 3) ? Integer.parseInt(args[3]) : DEFAULT_INSERT_PERCENT;
+		Log.setLevel(Level.SEVERE);	// turn off logging
+		try {
+			Random rnd = new Random();
+			byte [] fakeSigBytes = new byte[128];
+			byte [] publisher = new byte[32];
+			rnd.nextBytes(fakeSigBytes);
+			rnd.nextBytes(publisher);
+			_signature = new Signature(fakeSigBytes);
+			_signedInfo = new SignedInfo(new PublisherPublicKeyDigest(publisher), CCNTime.now(),
+					SignedInfo.ContentType.DATA, new KeyLocator(ContentName.fromNative("/test/key")));
+			_base = ContentName.fromNative("/test/ContentTreeTester");
+
+			for (int threads = 1; threads <= maxThreads; threads *= 2) {
+				ContentTree tree = new ContentTree();
+				AtomicInteger [] versions = new AtomicInteger[files];
+				long start = System.currentTimeMillis();
+				for (int i = 0; i < files; i++) {
+					versions[i] = new AtomicInteger(1);
+					insertVersion(tree, i, 1);
+				}
+				if (1 == threads)
+					System.out.println("Inserted " + (files * SEGMENTS_PER_FILE) + " objects in "
+							+ (System.currentTimeMillis() - start) + " ms");
+				double rate = run(tree, versions, threads, seconds, insertPercent);
+				System.out.println(threads + " threads: " + (long)rate + " operations/sec");
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		System.exit(0);
+	}
+
+	protected static double run(final ContentTree tree, final AtomicInteger [] versions, int threads,
+				int seconds, final int insertPercent) throws InterruptedException {
+		final AtomicLong operations = new AtomicLong(0);
+		final long end = System.currentTimeMillis() + seconds * 1000;
+		Thread [] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread() {
+				public void run() {
+					Random rnd = new Random();
+					try {
+						long count = 0;
+						while (System.currentTimeMillis() < end) {
+							int file = rnd.nextInt(versions.length);
+							int op = rnd.nextInt(100);
+							if (op < insertPercent) {
+								// A new version is written one segment at a time
+								int version = versions[file].get() + 1;
+								int segment = rnd.nextInt(SEGMENTS_PER_FILE);
+								ContentObject content = segmentObject(file, version, segment);
+								tree.insert(content, new ObjectRef(content), System.currentTimeMillis(), GETTER, null);
+								if (SEGMENTS_PER_FILE - 1 == segment)
+									versions[file].compareAndSet(version - 1, version);
+							} else if (op < insertPercent + (100 - insertPercent) / 2) {
+								Interest interest = VersioningProfile.firstBlockLatestVersionInterest(fileName(file), null);
+								tree.get(interest, GETTER);
+							} else {
+								ContentName name = SegmentationProfile.segmentName(
+										VersioningProfile.addVersion(fileName(file), 1), rnd.nextInt(SEGMENTS_PER_FILE));
+								if (null == tree.get(new Interest(name), GETTER))
+									throw new RuntimeException("Missing content for " + name);
+							}
+							count++;
+						}
+						operations.addAndGet(count);
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			workers[i].start();
+		}
+		for (Thread worker : workers)
+			worker.join();
+		return operations.get() / (double)seconds;
+	}
+
+	protected static ContentName fileName(int file) {
+		return ContentName.fromNative(_base, "dir" + (file % DIRECTORIES), "file" + file);
+	}
+
+	protected static ContentObject segmentObject(int file, int version, int segment) {
+		ContentName name = SegmentationProfile.segmentName(VersioningProfile.addVersion(fileName(file), version), segment);
+		return new ContentObject(name, _signedInfo, ("Segment " + segment).getBytes(), _signature);
+	}
+
+	protected static void insertVersion(ContentTree tree, int file, int version) {
+		for (int segment = 0; segment < SEGMENTS_PER_FILE; segment++) {
+			ContentObject content = segmentObject(file, version, segment);
+			tree.insert(content, new ObjectRef(content), System.currentTimeMillis(), GETTER, null);
+		}
+	}
+}
@@ -20,10 +20,15 @@ package org.ccnx.ccn.test.repo;
 import java.io.File;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
+import java.util.ArrayList;
 
+import org.ccnx.ccn.config.SystemConfiguration;
 import org.ccnx.ccn.config.UserConfiguration;
+import org.ccnx.ccn.impl.CCNStats.CCNEnumStats;
+import org.ccnx.ccn.impl.repo.LogStructIndexFile;
 import org.ccnx.ccn.impl.repo.LogStructRepoStore;
 import org.ccnx.ccn.impl.repo.RepositoryException;
+import org.ccnx.ccn.impl.repo.RepositoryServer.StatsEnum;
 import org.ccnx.ccn.impl.repo.RepositoryStore;
 import org.ccnx.ccn.impl.repo.LogStructRepoStore.LogStructRepoStoreProfile;
 import org.ccnx.ccn.impl.support.DataUtils;
@@ -40,6 +45,7 @@ import org.ccnx.ccn.protocol.KeyLocator;
 import org.ccnx.ccn.protocol.MalformedContentNameStringException;
 import org.ccnx.ccn.protocol.PublisherID;
 import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
 import org.ccnx.ccn.protocol.SignedInfo;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -92,6 +98,15 @@ public class RFSTest extends RepoTestBase {
 		// test() method, now run testReinitialization to check consistency.
 		testReinitialization(repolog);
 		repolog.shutDown();
+		
+		// Now make sure we can still rebuild the index from the repository file alone
+		File indexFile = new File(_fileTestDir + UserConfiguration.FILE_SEP + LogStructRepoStoreProfile.META_DIR, 
+				LogStructIndexFile.INDEX_FILE);
+		Assert.assertTrue(indexFile.exists());
+		Assert.assertTrue(indexFile.delete());
+		initRepoLog();
+		testReinitialization(repolog);
+		repolog.shutDown();
 	}
 	
 	@Test
@@ -114,6 +129,121 @@ public class RFSTest extends RepoTestBase {
 		repolog.shutDown();
 	}
 	
+	@Test
+	public void testContentCache() throws Exception {
+		System.out.println("Testing repo content cache");
+		initRepoLog();
+		CCNEnumStats<StatsEnum> stats = new CCNEnumStats<StatsEnum>(StatsEnum.HandleInterest);
+		repolog.setStats(stats);
+		ContentName name = ContentName.fromNative("/repoTest/testContentCache");
+		ContentObject content = ContentObject.buildContentObject(name, "Testing content cache".getBytes());
+		repolog.saveContent(content);
+		checkData(repolog, name, "Testing content cache");
+		long misses = stats.getCounter(StatsEnum.ContentCacheMisses.toString());
+		Assert.assertTrue(misses > 0);
+		for (int i = 0; i < 10; i++)
+			checkData(repolog, name, "Testing content cache");
+		Assert.assertEquals(misses, stats.getCounter(StatsEnum.ContentCacheMisses.toString()));
+		Assert.assertTrue(stats.getCounter(StatsEnum.ContentCacheHits.toString()) >= 10);
+		repolog.shutDown();
+	}
+	
+	@Test
+	public void testBatchSave() throws Exception {
+		System.out.println("Testing batched save to repo");
+		initRepoLog();
+		ArrayList<ContentObject> batch = new ArrayList<ContentObject>();
+		for (int i = 0; i < 20; i++) {
+			ContentName name = ContentName.fromNative("/repoTest/testBatchSave/" + i);
+			batch.add(ContentObject.buildContentObject(name, ("Batch data " + i).getBytes()));
+		}
+		// An object that can't be encoded doesn't stop the rest being saved
+		ContentObject unsigned = new ContentObject(ContentName.fromNative("/repoTest/testBatchSave/unsigned"), 
+				batch.get(0).signedInfo(), "Unsigned".getBytes(), (Signature)null);
+		batch.add(10, unsigned);
+		ArrayList<NameEnumerationResponse> ners = repolog.saveContent(batch);
+		Assert.assertEquals(batch.size(), ners.size());
+		Assert.assertNull(ners.get(10));
+		Assert.assertNull(repolog.getContent(new Interest(unsigned.name())));
+		for (int i = 0; i < 20; i++)
+			checkData(repolog, ContentName.fromNative("/repoTest/testBatchSave/" + i), "Batch data " + i);
+		repolog.shutDown();
+		
+		// Make sure the batch was laid out correctly in the repository file
+		File indexFile = new File(_fileTestDir + UserConfiguration.FILE_SEP + LogStructRepoStoreProfile.META_DIR, 
+				LogStructIndexFile.INDEX_FILE);
+		Assert.assertTrue(indexFile.delete());
+		initRepoLog();
+		for (int i = 0; i < 20; i++)
+			checkData(repolog, ContentName.fromNative("/repoTest/testBatchSave/" + i), "Batch data " + i);
+		repolog.shutDown();
+	}
+	
+	@Test
+	public void testCompaction() throws Exception {
+		System.out.println("Testing repo compaction");
+		initRepoLog();
+		ContentName base = ContentName.fromNative("/repoTest/testCompaction");
+		ContentName [] versions = new ContentName[4];
+		for (int i = 0; i < versions.length; i++) {
+			versions[i] = VersioningProfile.addVersion(base, 1000 * (i + 1));
+			repolog.saveContent(ContentObject.buildContentObject(SegmentationProfile.segmentName(versions[i], 0), 
+					("Version " + i).getBytes()));
+		}
+		ContentName unversioned = ContentName.fromNative("/repoTest/testCompactionUnversioned");
+		repolog.saveContent(ContentObject.buildContentObject(unversioned, "Unversioned".getBytes()));
+		
+		int keep = SystemConfiguration.REPO_KEEP_VERSIONS;
+		SystemConfiguration.REPO_KEEP_VERSIONS = 2;
+		try {
+			Assert.assertTrue(repolog.diagnostic("compact"));
+		} finally {
+			SystemConfiguration.REPO_KEEP_VERSIONS = keep;
+		}
+		for (int i = 0; i < versions.length; i++) {
+			Interest interest = new Interest(SegmentationProfile.segmentName(versions[i], 0));
+			if (i < 2)
+				Assert.assertNull(repolog.getContent(interest));
+			else
+				checkData(repolog, interest.name(), "Version " + i);
+		}
+		checkData(repolog, unversioned, "Unversioned");
+		repolog.shutDown();
+		
+		// The compacted repository must come back the same
+		initRepoLog();
+		Assert.assertNull(repolog.getContent(new Interest(SegmentationProfile.segmentName(versions[0], 0))));
+		checkData(repolog, SegmentationProfile.segmentName(versions[3], 0), "Version 3");
+		checkData(repolog, unversioned, "Unversioned");
+		repolog.shutDown();
+	}
+
+	@Test
+	public void testFileRollover() throws Exception {
+		System.out.println("Testing repo file rollover");
+		initRepoLog();
+		ContentName base = ContentName.fromNative("/repoTest/testFileRollover");
+		long fileSize = SystemConfiguration.REPO_FILE_SIZE;
+		SystemConfiguration.REPO_FILE_SIZE = 4096;
+		try {
+			for (int i = 0; i < 100; i++)
+				repolog.saveContent(ContentObject.buildContentObject(SegmentationProfile.segmentName(base, i),
+						("Segment " + i).getBytes()));
+		} finally {
+			SystemConfiguration.REPO_FILE_SIZE = fileSize;
+		}
+		repolog.shutDown();
+
+		// Rebuild from the repository files, which are read in parallel
+		File indexFile = new File(_fileTestDir + UserConfiguration.FILE_SEP + LogStructRepoStoreProfile.META_DIR, 
+				LogStructIndexFile.INDEX_FILE);
+		Assert.assertTrue(indexFile.delete());
+		initRepoLog();
+		for (int i = 0; i < 100; i++)
+			checkData(repolog, SegmentationProfile.segmentName(base, i), "Segment " + i);
+		repolog.shutDown();
+	}
+
 	public void test(RepositoryStore repo) throws Exception{		
 		System.out.println("Repotest - Testing basic data");
 		ContentName name = ContentName.fromNative("/repoTest/data1");
@@ -355,8 +485,8 @@ public class RFSTest extends RepoTestBase {
 		System.out.println("Repotest - Testing reinitialization of repo");
 		// Since we have 2 pieces of data with the name "longName" we need to compute the
 		// digest to make sure we get the right data.
-		longName = new ContentName(longName, longNameDigest);
-		checkDataWithDigest(repo, longName, "Long name!");
+		ContentName longNameWithDigest = new ContentName(longName, longNameDigest);
+		checkDataWithDigest(repo, longNameWithDigest, "Long name!");
 		checkData(repo, badCharName, "Funny characters!");
 		checkData(repo, badCharLongName, "Long and funny");
 		Interest vnInterest = new Interest(versionedName);
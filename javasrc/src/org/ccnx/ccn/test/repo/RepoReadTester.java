@@ -0,0 +1,131 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.repo;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.impl.repo.LogStructRepoStore;
+import org.ccnx.ccn.impl.repo.RepositoryStore;
+import org.ccnx.ccn.impl.support.DataUtils;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.profiles.SegmentationProfile;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.Interest;
+import org.ccnx.ccn.protocol.KeyLocator;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+
+/**
+ * Part of repository test infrastructure. Measures repository read throughput
+ * with increasing numbers of concurrent clients, each repeatedly retrieving random
+ * segments directly from the RepositoryStore.
+ *
+ * Usage: RepoReadTester <repository directory> [object count] [max threads] [seconds per run]
+ *
+ * The directory is deleted and recreated. Because it opens a repository, this must be
+ * run with ccnd running.
+ */
+public class RepoReadTester {
+
+	public static final int DEFAULT_COUNT = 100000;
+	public static final int DEFAULT_MAX_THREADS = 16;
+	public static final int DEFAULT_SECONDS = 5;
+	public static final int CONTENT_SIZE = 4096;
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("usage: RepoReadTester <repository directory> [object count] [max threads] [seconds per run]");
+			System.exit(1);
+		}
+		int count = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_COUNT;
+		int maxThreads = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_MAX_THREADS;
+		int seconds = (args.length > 3) ? Integer.parseInt(args[3]) : DEFAULT_SECONDS;
+		Log.setLevel(Level.SEVERE);	// turn off logging
+		try {
+			File repoDir = new File(args[0]);
+			DataUtils.deleteDirectory(repoDir);
+			RepositoryStore repo = new LogStructRepoStore();
+			repo.initialize(args[0], null, null, null, "/", null);
+
+			ContentName base = SegmentationProfile.segmentRoot(ContentName.fromNative("/test/RepoReadTester"));
+			long start = System.currentTimeMillis();
+			writeObjects(repo, base, count);
+			System.out.println("Wrote " + count + " objects in " + (System.currentTimeMillis() - start) + " ms");
+
+			for (int threads = 1; threads <= maxThreads; threads *= 2) {
+				double rate = run(repo, base, count, threads, seconds);
+				System.out.println(threads + " threads: " + (long)rate + " gets/sec");
+			}
+			repo.shutDown();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		System.exit(0);
+	}
+
+	protected static double run(final RepositoryStore repo, final ContentName base, final int count,
+				int threads, int seconds) throws InterruptedException {
+		final AtomicLong gets = new AtomicLong(0);
+		final long end = System.currentTimeMillis() + seconds * 1000;
+		Thread [] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread() {
+				public void run() {
+					Random rnd = new Random();
+					try {
+						while (System.currentTimeMillis() < end) {
+							Interest interest = new Interest(SegmentationProfile.segmentName(base, rnd.nextInt(count)));
+							if (null == repo.getContent(interest))
+								throw new RuntimeException("Missing content for " + interest.name());
+							gets.incrementAndGet();
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			workers[i].start();
+		}
+		for (Thread worker : workers)
+			worker.join();
+		return gets.get() / (double)seconds;
+	}
+
+	protected static void writeObjects(RepositoryStore repo, ContentName base, int count) throws Exception {
+		Random rnd = new Random();
+		byte [] fakeSigBytes = new byte[128];
+		byte [] publisher = new byte[32];
+		byte [] content = new byte[CONTENT_SIZE];
+		rnd.nextBytes(fakeSigBytes);
+		rnd.nextBytes(publisher);
+		Signature signature = new Signature(fakeSigBytes);
+		PublisherPublicKeyDigest pub = new PublisherPublicKeyDigest(publisher);
+		KeyLocator locator = new KeyLocator(ContentName.fromNative("/test/key"));
+		for (int i = 0; i < count; i++) {
+			rnd.nextBytes(content);
+			SignedInfo si = new SignedInfo(pub, CCNTime.now(), SignedInfo.ContentType.DATA, locator);
+			repo.saveContent(new ContentObject(SegmentationProfile.segmentName(base, i), si, content, signature));
+		}
+	}
+}
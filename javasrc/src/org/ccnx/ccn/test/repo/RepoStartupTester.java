@@ -0,0 +1,133 @@
+/*
+ * A CCNx library test.
+ *
+ * Copyright (C) 2011 Palo Alto Research Center, Inc.
+ *
+ * This work is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License version 2 as published by the
+ * Free Software Foundation.
+ * This work is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details. You should have received a copy of the GNU General Public
+ * License along with this program; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor,
+ * Boston, MA 02110-1301, USA.
+ */
+
+package org.ccnx.ccn.test.repo;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.ccnx.ccn.config.SystemConfiguration;
+import org.ccnx.ccn.impl.repo.LogStructIndexFile;
+import org.ccnx.ccn.impl.repo.LogStructRepoStore;
+import org.ccnx.ccn.impl.repo.LogStructRepoStore.LogStructRepoStoreProfile;
+import org.ccnx.ccn.impl.support.DataUtils;
+import org.ccnx.ccn.impl.support.Log;
+import org.ccnx.ccn.profiles.SegmentationProfile;
+import org.ccnx.ccn.profiles.VersioningProfile;
+import org.ccnx.ccn.protocol.CCNTime;
+import org.ccnx.ccn.protocol.ContentName;
+import org.ccnx.ccn.protocol.ContentObject;
+import org.ccnx.ccn.protocol.KeyLocator;
+import org.ccnx.ccn.protocol.PublisherPublicKeyDigest;
+import org.ccnx.ccn.protocol.Signature;
+import org.ccnx.ccn.protocol.SignedInfo;
+
+/**
+ * Part of repository test infrastructure. Times repository startup on a synthetic
+ * repository, first rebuilding the index from the repository file and then loading it
+ * from the saved index, then rebuilding it with increasing numbers of index threads.
+ *
+ * Usage: RepoStartupTester <repository directory> [object count] [max index threads]
+ *
+ * The directory is deleted and recreated. Objects are fake-signed segments of a set of
+ * versioned files and are written directly into the repository file. Because it opens
+ * a repository, this must be run with ccnd running.
+ */
+public class RepoStartupTester {
+
+	public static final int DEFAULT_COUNT = 1000000;
+	public static final int DEFAULT_MAX_THREADS = 16;
+	public static final int SEGMENTS_PER_FILE = 1000;
+	public static final int CONTENT_SIZE = 1000;
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.out.println("usage: RepoStartupTester <repository directory> [object count] [max index threads]");
+			System.exit(1);
+		}
+		int count = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_COUNT;
+		int maxThreads = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_MAX_THREADS;
+		Log.setLevel(Level.SEVERE);	// turn off logging
+		try {
+			File repoDir = new File(args[0]);
+			DataUtils.deleteDirectory(repoDir);
+			repoDir.mkdirs();
+
+			long start = System.currentTimeMillis();
+			writeObjects(new File(repoDir, LogStructRepoStoreProfile.CONTENT_FILE_PREFIX + "1"), count);
+			System.out.println("Wrote " + count + " objects in " + (System.currentTimeMillis() - start) + " ms");
+
+			System.out.println("Startup rebuilding index from repository file: " + timeStartup(args[0]) + " ms");
+			System.out.println("Startup loading saved index: " + timeStartup(args[0]) + " ms");
+
+			File indexFile = new File(repoDir, LogStructRepoStoreProfile.META_DIR + File.separator + LogStructIndexFile.INDEX_FILE);
+			indexFile.delete();
+			System.out.println("Startup rebuilding index after deleting saved index: " + timeStartup(args[0]) + " ms");
+			
+			for (int threads = 1; threads <= maxThreads; threads *= 2) {
+				SystemConfiguration.REPO_INDEX_THREADS = threads;
+				indexFile.delete();
+				System.out.println("Startup rebuilding index with " + threads + " threads: " + timeStartup(args[0]) + " ms");
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		System.exit(0);
+	}
+
+	protected static long timeStartup(String repoDir) throws Exception {
+		long start = System.currentTimeMillis();
+		LogStructRepoStore repo = new LogStructRepoStore();
+		repo.initialize(repoDir, null, null, null, "/", null);
+		long time = System.currentTimeMillis() - start;
+		repo.shutDown();
+		return time;
+	}
+
+	protected static void writeObjects(File file, int count) throws Exception {
+		Random rnd = new Random();
+		byte [] fakeSigBytes = new byte[128];
+		byte [] publisher = new byte[32];
+		byte [] content = new byte[CONTENT_SIZE];
+		rnd.nextBytes(fakeSigBytes);
+		rnd.nextBytes(publisher);
+		Signature signature = new Signature(fakeSigBytes);
+		PublisherPublicKeyDigest pub = new PublisherPublicKeyDigest(publisher);
+		KeyLocator locator = new KeyLocator(ContentName.fromNative("/test/key"));
+		ContentName base = ContentName.fromNative("/test/RepoStartupTester");
+
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(file), 65536);
+		try {
+			ContentName fileName = null;
+			for (int i = 0; i < count; i++) {
+				if (0 == i % SEGMENTS_PER_FILE)
+					fileName = VersioningProfile.addVersion(ContentName.fromNative(base, "file" + (i / SEGMENTS_PER_FILE)));
+				rnd.nextBytes(content);
+				SignedInfo si = new SignedInfo(pub, CCNTime.now(), SignedInfo.ContentType.DATA, locator);
+				ContentObject co = new ContentObject(SegmentationProfile.segmentName(fileName, i % SEGMENTS_PER_FILE),
+						si, content, signature);
+				co.encode(os);
+			}
+		} finally {
+			os.close();
+		}
+	}
+}